@@ -0,0 +1,72 @@
+package com.craxiom.mqttlibrary;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+
+import timber.log.Timber;
+
+/**
+ * Reports when the device's default network changes to a network that is available, using the
+ * {@link ConnectivityManager}. This covers both regaining connectivity and moving between networks, such as a
+ * handover from Wi-Fi to cellular.
+ * <p>
+ * Requires the {@code ACCESS_NETWORK_STATE} permission, which the library declares.
+ *
+ * @since 1.3.0
+ */
+public class ConnectivityNetworkAvailabilitySource implements INetworkAvailabilitySource
+{
+    private final ConnectivityManager connectivityManager;
+    private ConnectivityManager.NetworkCallback networkCallback;
+
+    /**
+     * @param context The context used to get the {@link ConnectivityManager}.
+     */
+    public ConnectivityNetworkAvailabilitySource(Context context)
+    {
+        connectivityManager = (ConnectivityManager) context.getApplicationContext()
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    @Override
+    public synchronized void start(INetworkAvailabilityListener listener)
+    {
+        if (networkCallback != null) return;
+
+        networkCallback = new ConnectivityManager.NetworkCallback()
+        {
+            @Override
+            public void onAvailable(Network network)
+            {
+                Timber.d("The default network is available: %s", network);
+                listener.onNetworkAvailable();
+            }
+        };
+
+        try
+        {
+            connectivityManager.registerDefaultNetworkCallback(networkCallback);
+        } catch (RuntimeException e)
+        {
+            // Thrown if the app has registered too many callbacks, in which case the reconnect delays still apply
+            Timber.e(e, "Unable to register for network availability changes");
+            networkCallback = null;
+        }
+    }
+
+    @Override
+    public synchronized void stop()
+    {
+        if (networkCallback == null) return;
+
+        try
+        {
+            connectivityManager.unregisterNetworkCallback(networkCallback);
+        } catch (RuntimeException e)
+        {
+            Timber.w(e, "Unable to unregister the network availability callback");
+        }
+        networkCallback = null;
+    }
+}
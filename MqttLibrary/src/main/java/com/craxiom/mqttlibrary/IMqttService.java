@@ -52,4 +52,18 @@ public interface IMqttService
      * @return The current connection state to the MQTT Broker.
      */
     ConnectionState getMqttConnectionState();
+
+    /**
+     * Gets the publish metrics of the MQTT connection, which services can return from
+     * {@code DefaultMqttConnection#getPublishMetrics()}.
+     * <p>
+     * The default implementation returns {@link PublishMetrics#EMPTY}, so existing services keep working unchanged.
+     *
+     * @return A snapshot of the publish metrics.
+     * @since 1.3.0
+     */
+    default PublishMetrics getPublishMetrics()
+    {
+        return PublishMetrics.EMPTY;
+    }
 }
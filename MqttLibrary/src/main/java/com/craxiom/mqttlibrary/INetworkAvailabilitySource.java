@@ -0,0 +1,37 @@
+package com.craxiom.mqttlibrary;
+
+/**
+ * Tells the MQTT connection when a network becomes available, so that a reconnect attempt that is waiting out its
+ * backoff delay can be started right away, such as after a handover from Wi-Fi to cellular.
+ * <p>
+ * {@link ConnectivityNetworkAvailabilitySource} is the implementation for Android devices. A source is installed with
+ * {@code DefaultMqttConnection#setNetworkAvailabilitySource(INetworkAvailabilitySource)}, which starts it, and it is
+ * stopped when it is replaced.
+ *
+ * @since 1.3.0
+ */
+public interface INetworkAvailabilitySource
+{
+    /**
+     * Receives the network availability events.
+     */
+    interface INetworkAvailabilityListener
+    {
+        /**
+         * Called when a network that might reach the broker becomes available. It can be called from any thread.
+         */
+        void onNetworkAvailable();
+    }
+
+    /**
+     * Starts reporting network availability to the listener.
+     *
+     * @param listener The listener to notify each time a network becomes available.
+     */
+    void start(INetworkAvailabilityListener listener);
+
+    /**
+     * Stops reporting network availability.
+     */
+    void stop();
+}
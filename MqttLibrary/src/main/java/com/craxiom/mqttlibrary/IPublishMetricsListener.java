@@ -0,0 +1,21 @@
+package com.craxiom.mqttlibrary;
+
+/**
+ * Listener interface for receiving periodic {@link PublishMetrics} snapshots from an MQTT connection, for example to
+ * log them or forward them to a monitoring system.
+ * <p>
+ * The listener is set with {@code DefaultMqttConnection#setPublishMetricsListener(IPublishMetricsListener, long,
+ * TimeUnit)}.
+ *
+ * @since 1.3.0
+ */
+public interface IPublishMetricsListener
+{
+    /**
+     * Called once per period with the latest metrics. It is called on a shared timer thread, so it should return
+     * quickly.
+     *
+     * @param metrics The snapshot of the publish metrics.
+     */
+    void onPublishMetrics(PublishMetrics metrics);
+}
@@ -5,6 +5,10 @@ package com.craxiom.mqttlibrary;
  * <p>
  * When the message queue reaches its configured limit, scanning operations should be paused
  * to prevent out-of-memory crashes. When the queue drains sufficiently, scanning can resume.
+ * <p>
+ * What happens to the messages published while the queue is full depends on the {@link IQueueOverflowPolicy}, and
+ * implementations can query the counters for that policy with
+ * {@code DefaultMqttConnection#getQueueOverflowStats()}.
  *
  * @since 1.1.0
  */
@@ -25,4 +29,72 @@ public interface IQueueBackpressureListener
      * @param queueLimit The configured maximum queue size.
      */
     void onQueueDrained(int queueSize, int queueLimit);
+
+    /**
+     * Called when the message queue has reached the high watermark of either its message count limit or its byte limit
+     * and scanning should be paused. The high watermark is the limit itself unless it is changed with
+     * {@code DefaultMqttConnection#setStreamingQueueWatermarks(double, double)}.
+     * <p>
+     * The default implementation calls {@link #onQueueFull(int, int)}, so existing listeners keep working unchanged.
+     *
+     * @param queueSize      The current number of pending messages in the queue.
+     * @param queueLimit     The configured maximum queue size, or 0 if there is no message count limit.
+     * @param queueBytes     The current total payload size of the pending messages in bytes.
+     * @param queueByteLimit The configured maximum total payload size in bytes, or 0 if there is no byte limit.
+     * @since 1.3.0
+     */
+    default void onQueueFull(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+    {
+        onQueueFull(queueSize, queueLimit);
+    }
+
+    /**
+     * Called when the message queue has drained below the low watermark of both its message count limit and its byte
+     * limit and scanning can resume. The low watermark defaults to half of each limit (0.5) and is set with
+     * {@code DefaultMqttConnection#setStreamingQueueWatermarks(double, double)}.
+     * <p>
+     * The default implementation calls {@link #onQueueDrained(int, int)}, so existing listeners keep working unchanged.
+     *
+     * @param queueSize      The current number of pending messages in the queue.
+     * @param queueLimit     The configured maximum queue size, or 0 if there is no message count limit.
+     * @param queueBytes     The current total payload size of the pending messages in bytes.
+     * @param queueByteLimit The configured maximum total payload size in bytes, or 0 if there is no byte limit.
+     * @since 1.3.0
+     */
+    default void onQueueDrained(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+    {
+        onQueueDrained(queueSize, queueLimit);
+    }
+
+    /**
+     * Called when the queue is growing fast enough that it is predicted to reach its high watermark within the
+     * configured growth warning horizon. Producers can use this to slow down gradually instead of being paused when the
+     * queue fills up. This is only called if a horizon has been set with
+     * {@code DefaultMqttConnection#setQueueGrowthWarningHorizon(long)}.
+     *
+     * @param queueSize      The current number of pending messages in the queue.
+     * @param queueLimit     The configured maximum queue size, or 0 if there is no message count limit.
+     * @param queueBytes     The current total payload size of the pending messages in bytes.
+     * @param queueByteLimit The configured maximum total payload size in bytes, or 0 if there is no byte limit.
+     * @param msUntilFull    The predicted number of milliseconds until the queue reaches its high watermark.
+     * @since 1.3.0
+     */
+    default void onQueueGrowthWarning(int queueSize, int queueLimit, long queueBytes, long queueByteLimit,
+                                      long msUntilFull)
+    {
+    }
+
+    /**
+     * Called when the queue growth that triggered {@link #onQueueGrowthWarning(int, int, long, long, long)} has slowed
+     * enough that the queue is no longer predicted to fill up soon.
+     *
+     * @param queueSize      The current number of pending messages in the queue.
+     * @param queueLimit     The configured maximum queue size, or 0 if there is no message count limit.
+     * @param queueBytes     The current total payload size of the pending messages in bytes.
+     * @param queueByteLimit The configured maximum total payload size in bytes, or 0 if there is no byte limit.
+     * @since 1.3.0
+     */
+    default void onQueueGrowthWarningCleared(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+    {
+    }
 }
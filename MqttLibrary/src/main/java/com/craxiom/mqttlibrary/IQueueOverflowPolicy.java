@@ -0,0 +1,66 @@
+package com.craxiom.mqttlibrary;
+
+/**
+ * Decides what happens to a message that is published while the MQTT streaming queue is at its limit.
+ * <p>
+ * The built-in policies are available from {@link QueueOverflowPolicies}. A policy is installed with
+ * {@code DefaultMqttConnection#setQueueOverflowPolicy(IQueueOverflowPolicy)}, and the outcome of each overflowing
+ * message is counted in the {@link QueueOverflowStats} for the installed policy.
+ * <p>
+ * Implementations are called from the threads that publish messages and must be thread safe.
+ *
+ * @since 1.3.0
+ */
+public interface IQueueOverflowPolicy
+{
+    /**
+     * The ways the streaming queue can handle a message that overflows the queue limit.
+     */
+    enum Action
+    {
+        /**
+         * Drop the message that is being published.
+         */
+        DROP,
+
+        /**
+         * Hold the message in the backlog until there is room in the queue, evicting the oldest message in the
+         * backlog if it is full. Messages in the backlog have not been handed to the MQTT client yet, which is what
+         * allows them to be evicted. If the policy does not have a backlog the message is dropped.
+         */
+        BACKLOG,
+
+        /**
+         * Block the publishing thread until there is room in the queue, for at most {@link #getMaxWaitMs()}
+         * milliseconds. The message is dropped if there is still no room once the wait times out.
+         */
+        WAIT
+    }
+
+    /**
+     * Called for each message that is published while the queue is full.
+     *
+     * @param overflowCount The number of messages that have overflowed the queue since backpressure was signaled,
+     *                      including this one. It starts at 1 each time the queue fills up.
+     * @return What to do with the message.
+     */
+    Action onQueueFull(long overflowCount);
+
+    /**
+     * @return The maximum number of messages to hold in the backlog for the {@link Action#BACKLOG} action, or 0 if the
+     * policy does not use a backlog.
+     */
+    default int getBacklogCapacity()
+    {
+        return 0;
+    }
+
+    /**
+     * @return The maximum amount of time in milliseconds to block the publishing thread for the {@link Action#WAIT}
+     * action.
+     */
+    default long getMaxWaitMs()
+    {
+        return 0;
+    }
+}
@@ -0,0 +1,24 @@
+package com.craxiom.mqttlibrary;
+
+/**
+ * Decides how long to wait before each attempt to reconnect to the MQTT broker after the connection is lost or a
+ * connection attempt fails.
+ * <p>
+ * The built-in strategies are available from {@link ReconnectStrategies}. A strategy is installed with
+ * {@code DefaultMqttConnection#setReconnectStrategy(IReconnectStrategy)}. If an {@link INetworkAvailabilitySource} is
+ * installed as well, a waiting reconnect attempt is started right away when the network becomes available, without
+ * waiting for the rest of the delay.
+ * <p>
+ * Implementations are called from the MQTT client threads and must be thread safe.
+ *
+ * @since 1.3.0
+ */
+public interface IReconnectStrategy
+{
+    /**
+     * @param attempt The number of reconnect attempts that have already been made since the last successful
+     *                connection, starting at 0.
+     * @return The time to wait before the next reconnect attempt in milliseconds. 0 reconnects right away.
+     */
+    long getReconnectDelayMs(int attempt);
+}
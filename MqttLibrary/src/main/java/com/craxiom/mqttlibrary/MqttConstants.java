@@ -10,6 +10,7 @@ public class MqttConstants
     public static final int DEFAULT_MQTT_PORT = MQTT_SSL_PORT;
     public static final String DEFAULT_MQTT_TOPIC_PREFIX = "";
     public static final MqttQos DEFAULT_MQTT_QOS = MqttQos.AT_LEAST_ONCE;
+    public static final MqttPayloadFormat DEFAULT_MQTT_PAYLOAD_FORMAT = MqttPayloadFormat.JSON;
 
     // The following keys are used in the app_restrictions.xml file and also are settings stored in the app's shared preferences
     public static final String PROPERTY_MQTT_CONNECTION_HOST = "mqtt_connection_host";
@@ -0,0 +1,26 @@
+package com.craxiom.mqttlibrary;
+
+/**
+ * Represents the encoding used for the payload of the Protobuf messages published to the MQTT Broker.
+ * <p>
+ * This only applies to messages that are published as Protobuf objects. Messages that are published as plain JSON
+ * strings are always sent as UTF-8 JSON regardless of this setting.
+ *
+ * @since 1.3.0
+ */
+public enum MqttPayloadFormat
+{
+    /**
+     * The Protobuf message is formatted as JSON (preserving the proto field names) before being published. This is
+     * the most interoperable option, but it is several times larger on the wire and more expensive to produce.
+     */
+    JSON,
+
+    /**
+     * The Protobuf message is published using its binary wire format. A retained {@code FileDescriptorSet} describing
+     * the message is also published once per connection so that consumers can decode the payload without having to
+     * obtain the schema out of band. The descriptor is published to
+     * {@code <topic prefix>$meta/descriptor/<topic>/<message full name>}, apart from the message topics.
+     */
+    PROTOBUF
+}
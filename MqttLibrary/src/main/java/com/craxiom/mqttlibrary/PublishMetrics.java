@@ -0,0 +1,364 @@
+package com.craxiom.mqttlibrary;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the publish metrics of an MQTT connection, with the counters and histograms for each topic
+ * and the totals across all of them. The metrics count from when the connection was created.
+ * <p>
+ * A message is counted as published once HiveMQ completes the publish, which for QoS 1 is when the broker's PUBACK is
+ * received. It is counted as failed if the publish completes with an error, and as dropped if the library discards it
+ * before it reaches the client, for example because the streaming queue or the pre-connect buffer is full. Messages
+ * combined into a batch are counted as one message.
+ * <p>
+ * The snapshot can be queried with {@link IMqttService#getPublishMetrics()} or
+ * {@code DefaultMqttConnection#getPublishMetrics()}, or delivered periodically to an {@link IPublishMetricsListener}.
+ *
+ * @since 1.3.0
+ */
+public final class PublishMetrics
+{
+    /**
+     * The topic that the metrics of any topics beyond the first 256 are combined under, so that publishing to an
+     * unbounded number of topics does not grow the metrics without bound.
+     */
+    public static final String OTHER_TOPICS = "#other";
+
+    /**
+     * A snapshot without any recorded messages.
+     */
+    public static final PublishMetrics EMPTY = new PublishMetrics(0, Collections.emptyMap());
+
+    private final long timestampMs;
+    private final Map<String, TopicMetrics> topicMetrics;
+    private final TopicMetrics totals;
+
+    /**
+     * @param timestampMs  The wall clock time the snapshot was taken, in milliseconds since the epoch.
+     * @param topicMetrics The metrics for each topic (without the topic prefix).
+     */
+    public PublishMetrics(long timestampMs, Map<String, TopicMetrics> topicMetrics)
+    {
+        this.timestampMs = timestampMs;
+        this.topicMetrics = Collections.unmodifiableMap(topicMetrics);
+
+        TopicMetrics sum = TopicMetrics.EMPTY;
+        for (TopicMetrics metrics : topicMetrics.values())
+        {
+            sum = sum.plus(metrics);
+        }
+        totals = sum;
+    }
+
+    /**
+     * @return The wall clock time the snapshot was taken, in milliseconds since the epoch.
+     */
+    public long getTimestampMs()
+    {
+        return timestampMs;
+    }
+
+    /**
+     * @return The metrics for each topic that a message was published to, keyed by the topic without the topic prefix.
+     */
+    public Map<String, TopicMetrics> getTopicMetrics()
+    {
+        return topicMetrics;
+    }
+
+    /**
+     * @param mqttMessageTopic The topic without the topic prefix.
+     * @return The metrics for the topic, which are all zero if nothing was published to it.
+     */
+    public TopicMetrics getTopicMetrics(String mqttMessageTopic)
+    {
+        final TopicMetrics metrics = topicMetrics.get(mqttMessageTopic);
+        return metrics == null ? TopicMetrics.EMPTY : metrics;
+    }
+
+    /**
+     * @return The metrics of all the topics combined.
+     */
+    public TopicMetrics getTotals()
+    {
+        return totals;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PublishMetrics{" +
+                "timestampMs=" + timestampMs +
+                ", totals=" + totals +
+                ", topicCount=" + topicMetrics.size() +
+                '}';
+    }
+
+    /**
+     * The counters and histograms for the messages published to one topic.
+     */
+    public static final class TopicMetrics
+    {
+        static final TopicMetrics EMPTY = new TopicMetrics(0, 0, 0, 0, 0, 0, Histogram.EMPTY, Histogram.EMPTY);
+
+        private final long publishedCount;
+        private final long publishedBytes;
+        private final long droppedCount;
+        private final long droppedBytes;
+        private final long failedCount;
+        private final long failedBytes;
+        private final Histogram serializationTime;
+        private final Histogram publishLatency;
+
+        public TopicMetrics(long publishedCount, long publishedBytes, long droppedCount, long droppedBytes,
+                            long failedCount, long failedBytes, Histogram serializationTime, Histogram publishLatency)
+        {
+            this.publishedCount = publishedCount;
+            this.publishedBytes = publishedBytes;
+            this.droppedCount = droppedCount;
+            this.droppedBytes = droppedBytes;
+            this.failedCount = failedCount;
+            this.failedBytes = failedBytes;
+            this.serializationTime = serializationTime;
+            this.publishLatency = publishLatency;
+        }
+
+        /**
+         * @return The number of messages that HiveMQ completed the publish of.
+         */
+        public long getPublishedCount()
+        {
+            return publishedCount;
+        }
+
+        /**
+         * @return The payload bytes of the published messages, after compression.
+         */
+        public long getPublishedBytes()
+        {
+            return publishedBytes;
+        }
+
+        /**
+         * @return The number of messages that were discarded before they were handed to HiveMQ.
+         */
+        public long getDroppedCount()
+        {
+            return droppedCount;
+        }
+
+        /**
+         * @return The payload bytes of the dropped messages. Messages dropped before they were encoded, because the
+         * client could not accept messages, are counted without any bytes.
+         */
+        public long getDroppedBytes()
+        {
+            return droppedBytes;
+        }
+
+        /**
+         * @return The number of messages that could not be encoded or whose publish completed with an error.
+         */
+        public long getFailedCount()
+        {
+            return failedCount;
+        }
+
+        /**
+         * @return The payload bytes of the messages whose publish completed with an error.
+         */
+        public long getFailedBytes()
+        {
+            return failedBytes;
+        }
+
+        /**
+         * @return The time taken to encode each Protobuf or JSON message into its payload.
+         */
+        public Histogram getSerializationTime()
+        {
+            return serializationTime;
+        }
+
+        /**
+         * @return The time from handing each message to HiveMQ until the publish completed successfully, which for
+         * QoS 1 is the time until the PUBACK was received.
+         */
+        public Histogram getPublishLatency()
+        {
+            return publishLatency;
+        }
+
+        /**
+         * @return The sum of these metrics and the other metrics.
+         */
+        public TopicMetrics plus(TopicMetrics other)
+        {
+            return new TopicMetrics(publishedCount + other.publishedCount, publishedBytes + other.publishedBytes,
+                    droppedCount + other.droppedCount, droppedBytes + other.droppedBytes,
+                    failedCount + other.failedCount, failedBytes + other.failedBytes,
+                    serializationTime.plus(other.serializationTime), publishLatency.plus(other.publishLatency));
+        }
+
+        @Override
+        public String toString()
+        {
+            return "TopicMetrics{" +
+                    "publishedCount=" + publishedCount +
+                    ", publishedBytes=" + publishedBytes +
+                    ", droppedCount=" + droppedCount +
+                    ", droppedBytes=" + droppedBytes +
+                    ", failedCount=" + failedCount +
+                    ", failedBytes=" + failedBytes +
+                    ", serializationTime=" + serializationTime +
+                    ", publishLatency=" + publishLatency +
+                    '}';
+        }
+    }
+
+    /**
+     * A histogram of durations in nanoseconds with logarithmic buckets. Bucket {@code i} counts the durations from
+     * {@code 2^(i-1)} to {@code 2^i - 1} nanoseconds, and bucket 0 counts the durations of zero, so every percentile is
+     * accurate to within a factor of two.
+     */
+    public static final class Histogram
+    {
+        public static final int BUCKET_COUNT = Long.SIZE;
+
+        static final Histogram EMPTY = new Histogram(new long[BUCKET_COUNT], 0, 0);
+
+        private final long[] bucketCounts;
+        private final long count;
+        private final long sumNanos;
+        private final long maxNanos;
+
+        /**
+         * @param bucketCounts The number of durations in each of the {@link #BUCKET_COUNT} buckets. The array is copied.
+         * @param sumNanos     The sum of all the durations.
+         * @param maxNanos     The longest duration.
+         */
+        public Histogram(long[] bucketCounts, long sumNanos, long maxNanos)
+        {
+            if (bucketCounts.length != BUCKET_COUNT)
+            {
+                throw new IllegalArgumentException("A histogram needs " + BUCKET_COUNT + " buckets, not "
+                        + bucketCounts.length);
+            }
+
+            this.bucketCounts = bucketCounts.clone();
+            this.sumNanos = sumNanos;
+            this.maxNanos = maxNanos;
+
+            long total = 0;
+            for (long bucketCount : bucketCounts)
+            {
+                total += bucketCount;
+            }
+            count = total;
+        }
+
+        /**
+         * @param durationNanos A duration in nanoseconds.
+         * @return The index of the bucket that counts the duration.
+         */
+        public static int bucketIndex(long durationNanos)
+        {
+            return durationNanos <= 0 ? 0 : Long.SIZE - Long.numberOfLeadingZeros(durationNanos);
+        }
+
+        /**
+         * @param bucketIndex The index of a bucket.
+         * @return The longest duration counted by the bucket, in nanoseconds.
+         */
+        public static long getBucketUpperBoundNanos(int bucketIndex)
+        {
+            return bucketIndex >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << bucketIndex) - 1;
+        }
+
+        /**
+         * @param bucketIndex The index of a bucket.
+         * @return The number of durations counted by the bucket.
+         */
+        public long getBucketCount(int bucketIndex)
+        {
+            return bucketCounts[bucketIndex];
+        }
+
+        /**
+         * @return The number of recorded durations.
+         */
+        public long getCount()
+        {
+            return count;
+        }
+
+        public long getSumNanos()
+        {
+            return sumNanos;
+        }
+
+        public long getMaxNanos()
+        {
+            return maxNanos;
+        }
+
+        /**
+         * @return The mean duration in nanoseconds, or 0 if nothing was recorded.
+         */
+        public double getMeanNanos()
+        {
+            return count == 0 ? 0 : (double) sumNanos / count;
+        }
+
+        /**
+         * Estimates a percentile from the buckets. The estimate is the upper bound of the bucket the percentile falls
+         * in, limited to the longest recorded duration, so it is never below the actual value.
+         *
+         * @param percentile The percentile, from 0 to 100.
+         * @return The estimated duration in nanoseconds, or 0 if nothing was recorded.
+         */
+        public long getPercentileNanos(double percentile)
+        {
+            if (percentile < 0 || percentile > 100)
+            {
+                throw new IllegalArgumentException("The percentile must be between 0 and 100. percentile=" + percentile);
+            }
+            if (count == 0) return 0;
+
+            final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++)
+            {
+                seen += bucketCounts[i];
+                if (seen >= rank) return Math.min(getBucketUpperBoundNanos(i), maxNanos);
+            }
+            return maxNanos;
+        }
+
+        /**
+         * @return The histogram that holds the durations of both this histogram and the other histogram.
+         */
+        public Histogram plus(Histogram other)
+        {
+            final long[] sums = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++)
+            {
+                sums[i] = bucketCounts[i] + other.bucketCounts[i];
+            }
+            return new Histogram(sums, sumNanos + other.sumNanos, Math.max(maxNanos, other.maxNanos));
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Histogram{" +
+                    "count=" + count +
+                    ", meanNanos=" + (long) getMeanNanos() +
+                    ", p50Nanos=" + getPercentileNanos(50) +
+                    ", p99Nanos=" + getPercentileNanos(99) +
+                    ", maxNanos=" + maxNanos +
+                    '}';
+        }
+    }
+}
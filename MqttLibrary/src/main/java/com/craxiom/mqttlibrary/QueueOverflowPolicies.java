@@ -0,0 +1,129 @@
+package com.craxiom.mqttlibrary;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The built-in {@link IQueueOverflowPolicy} implementations.
+ *
+ * @since 1.3.0
+ */
+public final class QueueOverflowPolicies
+{
+    /**
+     * Drops each message that is published while the queue is full, keeping the messages that are already queued.
+     * This is the default policy.
+     */
+    public static final IQueueOverflowPolicy DROP_NEWEST = new IQueueOverflowPolicy()
+    {
+        @Override
+        public Action onQueueFull(long overflowCount)
+        {
+            return Action.DROP;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "DROP_NEWEST";
+        }
+    };
+
+    private QueueOverflowPolicies()
+    {
+    }
+
+    /**
+     * Keeps the newest messages by holding the messages that overflow the queue in a backlog, and evicting the oldest
+     * message in the backlog when it is full. The backlog is published as soon as there is room in the queue.
+     *
+     * @param backlogCapacity The maximum number of messages to hold in the backlog.
+     * @return The DROP_OLDEST policy.
+     * @throws IllegalArgumentException If the backlog capacity is not positive.
+     */
+    public static IQueueOverflowPolicy dropOldest(int backlogCapacity)
+    {
+        return sampleEveryN(1, backlogCapacity, "DROP_OLDEST");
+    }
+
+    /**
+     * Keeps every Nth message that overflows the queue in a backlog and drops the rest, so that the published data is
+     * thinned out evenly instead of being cut off. When the backlog is full the oldest sample in it is evicted. The
+     * backlog is published as soon as there is room in the queue.
+     *
+     * @param n               Keep one out of every n overflowing messages.
+     * @param backlogCapacity The maximum number of messages to hold in the backlog.
+     * @return The SAMPLE_EVERY_N policy.
+     * @throws IllegalArgumentException If n or the backlog capacity is not positive.
+     */
+    public static IQueueOverflowPolicy sampleEveryN(int n, int backlogCapacity)
+    {
+        return sampleEveryN(n, backlogCapacity, String.format(Locale.US, "SAMPLE_EVERY_%d", n));
+    }
+
+    /**
+     * Blocks the publishing thread until there is room in the queue, dropping the message if the timeout passes
+     * first. This must not be used when messages are published from the main thread.
+     *
+     * @param timeout The maximum amount of time to block for each message.
+     * @param unit    The unit of the timeout.
+     * @return The BLOCK_WITH_TIMEOUT policy.
+     * @throws IllegalArgumentException If the timeout is negative.
+     */
+    public static IQueueOverflowPolicy blockWithTimeout(long timeout, TimeUnit unit)
+    {
+        if (timeout < 0) throw new IllegalArgumentException("The timeout must not be negative. timeout=" + timeout);
+
+        final long maxWaitMs = unit.toMillis(timeout);
+        return new IQueueOverflowPolicy()
+        {
+            @Override
+            public Action onQueueFull(long overflowCount)
+            {
+                return Action.WAIT;
+            }
+
+            @Override
+            public long getMaxWaitMs()
+            {
+                return maxWaitMs;
+            }
+
+            @Override
+            public String toString()
+            {
+                return String.format(Locale.US, "BLOCK_WITH_TIMEOUT(%d ms)", maxWaitMs);
+            }
+        };
+    }
+
+    private static IQueueOverflowPolicy sampleEveryN(int n, int backlogCapacity, String name)
+    {
+        if (n <= 0 || backlogCapacity <= 0)
+        {
+            throw new IllegalArgumentException("The sample interval and backlog capacity must be positive. n=" + n
+                    + ", backlogCapacity=" + backlogCapacity);
+        }
+
+        return new IQueueOverflowPolicy()
+        {
+            @Override
+            public Action onQueueFull(long overflowCount)
+            {
+                return overflowCount % n == 0 ? Action.BACKLOG : Action.DROP;
+            }
+
+            @Override
+            public int getBacklogCapacity()
+            {
+                return backlogCapacity;
+            }
+
+            @Override
+            public String toString()
+            {
+                return name;
+            }
+        };
+    }
+}
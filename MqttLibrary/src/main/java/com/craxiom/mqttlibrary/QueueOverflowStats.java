@@ -0,0 +1,113 @@
+package com.craxiom.mqttlibrary;
+
+/**
+ * A snapshot of the counters kept for the {@link IQueueOverflowPolicy} that is installed on an MQTT connection. The
+ * counters start at zero each time a policy is installed.
+ * <p>
+ * {@link IQueueBackpressureListener} implementations can query the current snapshot from
+ * {@code DefaultMqttConnection#getQueueOverflowStats()}, for example to report how much data was lost while the queue
+ * was full.
+ *
+ * @since 1.3.0
+ */
+public final class QueueOverflowStats
+{
+    private final IQueueOverflowPolicy policy;
+    private final long droppedCount;
+    private final long backloggedCount;
+    private final long evictedCount;
+    private final long waitCount;
+    private final long waitTimeoutCount;
+    private final int backlogSize;
+
+    public QueueOverflowStats(IQueueOverflowPolicy policy, long droppedCount, long backloggedCount, long evictedCount,
+                              long waitCount, long waitTimeoutCount, int backlogSize)
+    {
+        this.policy = policy;
+        this.droppedCount = droppedCount;
+        this.backloggedCount = backloggedCount;
+        this.evictedCount = evictedCount;
+        this.waitCount = waitCount;
+        this.waitTimeoutCount = waitTimeoutCount;
+        this.backlogSize = backlogSize;
+    }
+
+    /**
+     * @return The policy these counters belong to.
+     */
+    public IQueueOverflowPolicy getPolicy()
+    {
+        return policy;
+    }
+
+    /**
+     * @return The number of messages that were dropped as they were published, including the messages that were
+     * dropped because a wait timed out.
+     */
+    public long getDroppedCount()
+    {
+        return droppedCount;
+    }
+
+    /**
+     * @return The number of messages that were put in the backlog.
+     */
+    public long getBackloggedCount()
+    {
+        return backloggedCount;
+    }
+
+    /**
+     * @return The number of messages that were evicted from the backlog to make room for newer messages.
+     */
+    public long getEvictedCount()
+    {
+        return evictedCount;
+    }
+
+    /**
+     * @return The number of times a publishing thread was blocked waiting for room in the queue.
+     */
+    public long getWaitCount()
+    {
+        return waitCount;
+    }
+
+    /**
+     * @return The number of waits that timed out, which caused the message to be dropped.
+     */
+    public long getWaitTimeoutCount()
+    {
+        return waitTimeoutCount;
+    }
+
+    /**
+     * @return The number of messages in the backlog when this snapshot was taken.
+     */
+    public int getBacklogSize()
+    {
+        return backlogSize;
+    }
+
+    /**
+     * @return The total number of messages that were lost, either dropped or evicted from the backlog.
+     */
+    public long getLostCount()
+    {
+        return droppedCount + evictedCount;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "QueueOverflowStats{" +
+                "policy=" + policy +
+                ", droppedCount=" + droppedCount +
+                ", backloggedCount=" + backloggedCount +
+                ", evictedCount=" + evictedCount +
+                ", waitCount=" + waitCount +
+                ", waitTimeoutCount=" + waitTimeoutCount +
+                ", backlogSize=" + backlogSize +
+                '}';
+    }
+}
@@ -0,0 +1,101 @@
+package com.craxiom.mqttlibrary;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The built-in {@link IReconnectStrategy} implementations.
+ *
+ * @since 1.3.0
+ */
+public final class ReconnectStrategies
+{
+    /**
+     * Full jitter exponential backoff starting at 1 second and capped at 20 seconds. This is the default strategy.
+     */
+    public static final IReconnectStrategy DEFAULT = fullJitterBackoff(1, 20, TimeUnit.SECONDS);
+
+    private ReconnectStrategies()
+    {
+    }
+
+    /**
+     * Waits a random time between 0 and an exponentially growing ceiling before each attempt. The ceiling starts at
+     * the base delay and doubles with each attempt until it reaches the max delay.
+     * <p>
+     * Picking the whole delay at random spreads out the reconnect attempts of many devices that lost their connection
+     * at the same time, such as when a broker restarts, instead of having them all retry in step.
+     *
+     * @param baseDelay The ceiling of the delay before the first attempt.
+     * @param maxDelay  The largest ceiling of the delay.
+     * @param unit      The unit of the delays.
+     * @return The FULL_JITTER_BACKOFF strategy.
+     * @throws IllegalArgumentException If the base delay is not positive, or the max delay is less than the base delay.
+     */
+    public static IReconnectStrategy fullJitterBackoff(long baseDelay, long maxDelay, TimeUnit unit)
+    {
+        final long baseDelayMs = unit.toMillis(baseDelay);
+        final long maxDelayMs = unit.toMillis(maxDelay);
+        if (baseDelayMs <= 0 || maxDelayMs < baseDelayMs)
+        {
+            throw new IllegalArgumentException("The base delay must be positive and no larger than the max delay. "
+                    + "baseDelayMs=" + baseDelayMs + ", maxDelayMs=" + maxDelayMs);
+        }
+
+        return new IReconnectStrategy()
+        {
+            @Override
+            public long getReconnectDelayMs(int attempt)
+            {
+                return ThreadLocalRandom.current().nextLong(backoffCeilingMs(baseDelayMs, maxDelayMs, attempt) + 1);
+            }
+
+            @Override
+            public String toString()
+            {
+                return String.format(Locale.US, "FULL_JITTER_BACKOFF(%d ms, max %d ms)", baseDelayMs, maxDelayMs);
+            }
+        };
+    }
+
+    /**
+     * Waits the same amount of time before every attempt.
+     *
+     * @param delay The time to wait before each attempt.
+     * @param unit  The unit of the delay.
+     * @return The FIXED_DELAY strategy.
+     * @throws IllegalArgumentException If the delay is negative.
+     */
+    public static IReconnectStrategy fixedDelay(long delay, TimeUnit unit)
+    {
+        if (delay < 0) throw new IllegalArgumentException("The delay must not be negative. delay=" + delay);
+
+        final long delayMs = unit.toMillis(delay);
+        return new IReconnectStrategy()
+        {
+            @Override
+            public long getReconnectDelayMs(int attempt)
+            {
+                return delayMs;
+            }
+
+            @Override
+            public String toString()
+            {
+                return String.format(Locale.US, "FIXED_DELAY(%d ms)", delayMs);
+            }
+        };
+    }
+
+    /**
+     * @return The base delay doubled once for each attempt, without going over the max delay.
+     */
+    static long backoffCeilingMs(long baseDelayMs, long maxDelayMs, int attempt)
+    {
+        if (attempt <= 0) return baseDelayMs;
+        if (attempt >= Long.SIZE - 1 || baseDelayMs > (maxDelayMs >> attempt)) return maxDelayMs;
+
+        return Math.min(maxDelayMs, baseDelayMs << attempt);
+    }
+}
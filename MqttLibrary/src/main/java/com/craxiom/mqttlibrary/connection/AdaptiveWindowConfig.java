@@ -0,0 +1,145 @@
+package com.craxiom.mqttlibrary.connection;
+
+/**
+ * Holds the settings for the adaptive in-flight window, which sizes the streaming queue from the measured publish
+ * latency instead of a fixed {@link DefaultMqttConnection#setStreamingQueueLimit(int)}.
+ * <p>
+ * The window is adjusted with additive increase and multiplicative decrease, the same way TCP sizes its congestion
+ * window. While the publishes complete close to the lowest latency seen recently, the window grows by
+ * {@link #getAdditiveIncrease()} messages for each window of completed publishes. When a publish fails, or its latency
+ * goes above {@link #getLatencyTolerance()} times the lowest latency, the broker or the network is assumed to be
+ * queueing the messages and the window is multiplied by {@link #getDecreaseFactor()}, at most once per round trip. The
+ * window always stays between {@link #getMinWindow()} and {@link #getMaxWindow()}.
+ * <p>
+ * The latency is the time until the PUBACK for QoS 1 and the PUBCOMP for QoS 2. With QoS 0 it is only the time until
+ * the message was written to the socket, which still grows when the network can't keep up, but more slowly.
+ *
+ * @since 1.3.0
+ */
+public class AdaptiveWindowConfig
+{
+    public static final int DEFAULT_ADDITIVE_INCREASE = 1;
+    public static final double DEFAULT_DECREASE_FACTOR = 0.7;
+    public static final double DEFAULT_LATENCY_TOLERANCE = 2.0;
+
+    private final int minWindow;
+    private final int maxWindow;
+    private final int initialWindow;
+    private final int additiveIncrease;
+    private final double decreaseFactor;
+    private final double latencyTolerance;
+
+    /**
+     * Constructs the adaptive window settings with the default increase, decrease, and latency tolerance, starting
+     * from the minimum window.
+     *
+     * @param minWindow The smallest number of messages allowed in flight, which must be at least 1.
+     * @param maxWindow The largest number of messages allowed in flight.
+     * @throws IllegalArgumentException If the minimum is below 1 or the maximum is below the minimum.
+     */
+    public AdaptiveWindowConfig(int minWindow, int maxWindow)
+    {
+        this(minWindow, maxWindow, minWindow, DEFAULT_ADDITIVE_INCREASE, DEFAULT_DECREASE_FACTOR,
+                DEFAULT_LATENCY_TOLERANCE);
+    }
+
+    /**
+     * Constructs the adaptive window settings.
+     *
+     * @param minWindow        The smallest number of messages allowed in flight, which must be at least 1.
+     * @param maxWindow        The largest number of messages allowed in flight.
+     * @param initialWindow    The number of messages allowed in flight before any publish has completed, between the
+     *                         minimum and the maximum.
+     * @param additiveIncrease The number of messages the window grows by for each window of publishes that complete
+     *                         without a sign of congestion.
+     * @param decreaseFactor   The factor the window is multiplied by on congestion, above 0 and below 1.
+     * @param latencyTolerance How many times the lowest recent latency a publish can take before it is treated as a
+     *                         sign of congestion, above 1.
+     * @throws IllegalArgumentException If any of the settings is out of its range.
+     */
+    public AdaptiveWindowConfig(int minWindow, int maxWindow, int initialWindow, int additiveIncrease,
+                                double decreaseFactor, double latencyTolerance)
+    {
+        if (minWindow < 1 || maxWindow < minWindow || initialWindow < minWindow || initialWindow > maxWindow
+                || additiveIncrease < 1 || !(decreaseFactor > 0 && decreaseFactor < 1) || !(latencyTolerance > 1))
+        {
+            throw new IllegalArgumentException("Invalid adaptive window settings. minWindow=" + minWindow
+                    + ", maxWindow=" + maxWindow + ", initialWindow=" + initialWindow + ", additiveIncrease="
+                    + additiveIncrease + ", decreaseFactor=" + decreaseFactor + ", latencyTolerance="
+                    + latencyTolerance);
+        }
+
+        this.minWindow = minWindow;
+        this.maxWindow = maxWindow;
+        this.initialWindow = initialWindow;
+        this.additiveIncrease = additiveIncrease;
+        this.decreaseFactor = decreaseFactor;
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    public int getMinWindow()
+    {
+        return minWindow;
+    }
+
+    public int getMaxWindow()
+    {
+        return maxWindow;
+    }
+
+    public int getInitialWindow()
+    {
+        return initialWindow;
+    }
+
+    public int getAdditiveIncrease()
+    {
+        return additiveIncrease;
+    }
+
+    public double getDecreaseFactor()
+    {
+        return decreaseFactor;
+    }
+
+    public double getLatencyTolerance()
+    {
+        return latencyTolerance;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        AdaptiveWindowConfig that = (AdaptiveWindowConfig) o;
+
+        if (minWindow != that.minWindow) return false;
+        if (maxWindow != that.maxWindow) return false;
+        if (initialWindow != that.initialWindow) return false;
+        if (additiveIncrease != that.additiveIncrease) return false;
+        if (Double.compare(that.decreaseFactor, decreaseFactor) != 0) return false;
+        return Double.compare(that.latencyTolerance, latencyTolerance) == 0;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = minWindow;
+        result = 31 * result + maxWindow;
+        result = 31 * result + initialWindow;
+        result = 31 * result + additiveIncrease;
+        result = 31 * result + Double.hashCode(decreaseFactor);
+        result = 31 * result + Double.hashCode(latencyTolerance);
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AdaptiveWindowConfig{minWindow=" + minWindow + ", maxWindow=" + maxWindow + ", initialWindow="
+                + initialWindow + ", additiveIncrease=" + additiveIncrease + ", decreaseFactor=" + decreaseFactor
+                + ", latencyTolerance=" + latencyTolerance + '}';
+    }
+}
@@ -0,0 +1,202 @@
+package com.craxiom.mqttlibrary.connection;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Sizes the in-flight window of the streaming queue from the latency and failures of the completed publishes, using
+ * additive increase and multiplicative decrease.
+ * <p>
+ * The lowest latency seen over the last one to two {@link #BASE_LATENCY_PERIOD_NANOS} is taken as the latency of the
+ * path to the broker when nothing is queued along it. A publish that completes within the congestion threshold, which
+ * is {@link AdaptiveWindowConfig#getLatencyTolerance()} times that base latency, counts towards growing the window,
+ * and the window grows by the additive increase once a full window of publishes has been counted. The window is only
+ * grown while at least half of it is in use, otherwise an idle producer would grow it to the maximum without ever
+ * testing it. A publish that fails or takes longer than the threshold multiplies the window by the decrease factor.
+ * The publishes that were already in flight complete late as well, so after a decrease the window is not decreased
+ * again for one round trip.
+ * <p>
+ * If the path itself gets slower, such as when moving from Wi-Fi to a cellular network, every publish looks congested
+ * until the old base latency expires. Once the window is at its minimum, the queueing can't be caused by the window, so
+ * the base latency is moved up to the latency that was just measured instead of waiting.
+ * <p>
+ * The methods can be called from any thread. The window listener is called while holding the controller's lock, so
+ * that the windows are applied in the order they were chosen.
+ *
+ * @since 1.3.0
+ */
+final class AdaptiveWindowController
+{
+    /**
+     * How long the lowest latency in a period is remembered for after the period ends.
+     */
+    static final long BASE_LATENCY_PERIOD_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    /**
+     * The least a publish can take over the base latency before it is treated as a sign of congestion, so that the
+     * scheduling jitter on a very fast path, such as a broker on the local network, does not keep halving the window.
+     */
+    static final long MIN_LATENCY_SLACK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    /**
+     * The weight of the newest sample in the exponentially weighted moving average of the latency, the same as for the
+     * smoothed round trip time in TCP.
+     */
+    private static final double LATENCY_SMOOTHING = 0.125;
+
+    private final AdaptiveWindowConfig config;
+    private final LongSupplier nanoClock;
+    private final IntConsumer windowListener;
+
+    private int window;
+
+    /**
+     * The number of publishes counted towards growing the window since it last changed.
+     */
+    private int growthCount = 0;
+
+    private long periodStartNanos;
+    private long periodMinLatencyNanos = Long.MAX_VALUE;
+    private long previousPeriodMinLatencyNanos = Long.MAX_VALUE;
+    private long smoothedLatencyNanos = 0;
+
+    /**
+     * The window is not decreased again until this time, which is one round trip after the last decrease.
+     */
+    private long recoveryEndNanos;
+    private long decreaseCount = 0;
+    private boolean stopped = false;
+
+    /**
+     * @param config         The adaptive window settings.
+     * @param nanoClock      The source of the time used to expire the base latency and end the recovery after a
+     *                       decrease, in nanoseconds.
+     * @param windowListener Called with the new window each time it changes.
+     */
+    AdaptiveWindowController(AdaptiveWindowConfig config, LongSupplier nanoClock, IntConsumer windowListener)
+    {
+        this.config = config;
+        this.nanoClock = nanoClock;
+        this.windowListener = windowListener;
+
+        window = config.getInitialWindow();
+        periodStartNanos = nanoClock.getAsLong();
+        recoveryEndNanos = periodStartNanos;
+    }
+
+    AdaptiveWindowConfig getConfig()
+    {
+        return config;
+    }
+
+    /**
+     * @return The number of messages allowed in flight.
+     */
+    synchronized int getWindow()
+    {
+        return window;
+    }
+
+    /**
+     * @return The lowest latency seen recently, or 0 if no publish has completed yet.
+     */
+    synchronized long getBaseLatencyNanos()
+    {
+        final long base = Math.min(periodMinLatencyNanos, previousPeriodMinLatencyNanos);
+        return base == Long.MAX_VALUE ? 0 : base;
+    }
+
+    /**
+     * @return The number of times the window was decreased.
+     */
+    synchronized long getDecreaseCount()
+    {
+        return decreaseCount;
+    }
+
+    /**
+     * Stops adjusting the window, so that the publishes still completing after the adaptive window is turned off or
+     * replaced don't call the window listener.
+     */
+    synchronized void stop()
+    {
+        stopped = true;
+    }
+
+    /**
+     * Adjusts the window for a completed publish.
+     *
+     * @param latencyNanos  The time from handing the message to the MQTT client until the publish completed.
+     * @param failed        True if the publish failed.
+     * @param inFlightCount The number of messages in flight when the publish completed, including this one.
+     */
+    synchronized void onPublishComplete(long latencyNanos, boolean failed, int inFlightCount)
+    {
+        if (stopped) return;
+
+        final int oldWindow = window;
+        final long now = nanoClock.getAsLong();
+        if (failed)
+        {
+            decrease(now, smoothedLatencyNanos);
+        } else
+        {
+            sampleLatency(now, latencyNanos);
+            if (latencyNanos > getCongestionThresholdNanos())
+            {
+                if (window == config.getMinWindow())
+                {
+                    // The path has gotten slower, so start over from the latency that was just measured
+                    periodStartNanos = now;
+                    periodMinLatencyNanos = latencyNanos;
+                    previousPeriodMinLatencyNanos = latencyNanos;
+                } else
+                {
+                    decrease(now, latencyNanos);
+                }
+            } else if (inFlightCount >= window / 2 && ++growthCount >= window)
+            {
+                window = Math.min(config.getMaxWindow(), window + config.getAdditiveIncrease());
+                growthCount = 0;
+            }
+        }
+
+        if (window != oldWindow) windowListener.accept(window);
+    }
+
+    private void sampleLatency(long now, long latencyNanos)
+    {
+        if (now - periodStartNanos >= BASE_LATENCY_PERIOD_NANOS)
+        {
+            previousPeriodMinLatencyNanos = periodMinLatencyNanos;
+            periodMinLatencyNanos = Long.MAX_VALUE;
+            periodStartNanos = now;
+        }
+        periodMinLatencyNanos = Math.min(periodMinLatencyNanos, latencyNanos);
+
+        smoothedLatencyNanos = smoothedLatencyNanos == 0 ? latencyNanos
+                : smoothedLatencyNanos + (long) ((latencyNanos - smoothedLatencyNanos) * LATENCY_SMOOTHING);
+    }
+
+    private long getCongestionThresholdNanos()
+    {
+        final long base = Math.min(periodMinLatencyNanos, previousPeriodMinLatencyNanos);
+        return Math.max((long) (base * config.getLatencyTolerance()), base + MIN_LATENCY_SLACK_NANOS);
+    }
+
+    /**
+     * Multiplies the window by the decrease factor, unless it was already decreased within the last round trip.
+     *
+     * @param roundTripNanos The latency of the publish that signaled the congestion.
+     */
+    private void decrease(long now, long roundTripNanos)
+    {
+        if (now - recoveryEndNanos < 0) return;
+
+        window = Math.max(config.getMinWindow(), (int) (window * config.getDecreaseFactor()));
+        growthCount = 0;
+        recoveryEndNanos = now + Math.max(roundTripNanos, smoothedLatencyNanos);
+        decreaseCount++;
+    }
+}
@@ -0,0 +1,247 @@
+package com.craxiom.mqttlibrary.connection;
+
+import com.craxiom.mqttlibrary.IQueueBackpressureListener;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import timber.log.Timber;
+
+/**
+ * Delivers the streaming queue backpressure events to the {@link IQueueBackpressureListener}s.
+ * <p>
+ * The queue reports these events on the thread that crossed a watermark, and the drained event in particular is
+ * reported on the MQTT client's network thread that completed a publish. To keep slow listeners from delaying the
+ * processing of other acknowledgements, the events can be delivered on an executor instead, with a single drain task
+ * running at a time.
+ * <p>
+ * Listeners only need the current state of the queue, so each kind of event has a single pending slot. If the queue
+ * goes from full to drained and back before the listeners are called, only the latest event is delivered, and an
+ * event that repeats the state the listeners were last told about is not delivered at all. The full and drained events
+ * are tracked separately from the growth warning events, and the pending events are delivered in the order they
+ * happened.
+ *
+ * @since 1.3.0
+ */
+final class BackpressureDispatcher
+{
+    private enum EventType
+    {
+        QUEUE_FULL,
+        QUEUE_DRAINED,
+        GROWTH_WARNING,
+        GROWTH_WARNING_CLEARED
+    }
+
+    private static final class Event
+    {
+        final EventType type;
+        final long sequence;
+        final int queueSize;
+        final int queueLimit;
+        final long queueBytes;
+        final long queueByteLimit;
+        final long msUntilFull;
+
+        Event(EventType type, long sequence, int queueSize, int queueLimit, long queueBytes, long queueByteLimit,
+              long msUntilFull)
+        {
+            this.type = type;
+            this.sequence = sequence;
+            this.queueSize = queueSize;
+            this.queueLimit = queueLimit;
+            this.queueBytes = queueBytes;
+            this.queueByteLimit = queueByteLimit;
+            this.msUntilFull = msUntilFull;
+        }
+    }
+
+    private final CopyOnWriteArrayList<IQueueBackpressureListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicReference<Event> pendingBackpressure = new AtomicReference<>();
+    private final AtomicReference<Event> pendingGrowthWarning = new AtomicReference<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private volatile Executor executor;
+
+    // Only accessed by the thread that holds the drain
+    private EventType lastBackpressure = EventType.QUEUE_DRAINED;
+    private EventType lastGrowthWarning = EventType.GROWTH_WARNING_CLEARED;
+
+    /**
+     * @param executor The executor to deliver the events on, or null to deliver them on the reporting thread.
+     */
+    BackpressureDispatcher(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    void addListener(IQueueBackpressureListener listener)
+    {
+        listeners.add(listener);
+    }
+
+    void removeListener(IQueueBackpressureListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @param executor The executor to deliver the events on, or null to deliver them on the reporting thread.
+     */
+    void setExecutor(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    Executor getExecutor()
+    {
+        return executor;
+    }
+
+    /**
+     * @return The number of events that were not delivered because a later event replaced them or because they
+     * repeated the state the listeners were last told about.
+     */
+    long getCoalescedCount()
+    {
+        return coalescedCount.get();
+    }
+
+    void queueFull(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+    {
+        post(pendingBackpressure, EventType.QUEUE_FULL, queueSize, queueLimit, queueBytes, queueByteLimit, 0);
+    }
+
+    void queueDrained(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+    {
+        post(pendingBackpressure, EventType.QUEUE_DRAINED, queueSize, queueLimit, queueBytes, queueByteLimit, 0);
+    }
+
+    void growthWarning(int queueSize, int queueLimit, long queueBytes, long queueByteLimit, long msUntilFull)
+    {
+        post(pendingGrowthWarning, EventType.GROWTH_WARNING, queueSize, queueLimit, queueBytes, queueByteLimit,
+                msUntilFull);
+    }
+
+    void growthWarningCleared(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+    {
+        post(pendingGrowthWarning, EventType.GROWTH_WARNING_CLEARED, queueSize, queueLimit, queueBytes,
+                queueByteLimit, 0);
+    }
+
+    private void post(AtomicReference<Event> slot, EventType type, int queueSize, int queueLimit, long queueBytes,
+                      long queueByteLimit, long msUntilFull)
+    {
+        final Event event = new Event(type, sequence.incrementAndGet(), queueSize, queueLimit, queueBytes,
+                queueByteLimit, msUntilFull);
+        if (slot.getAndSet(event) != null) coalescedCount.incrementAndGet();
+
+        if (!drainScheduled.compareAndSet(false, true)) return;
+
+        final Executor dispatchExecutor = executor;
+        if (dispatchExecutor == null)
+        {
+            drain();
+            return;
+        }
+
+        try
+        {
+            dispatchExecutor.execute(this::drain);
+        } catch (RejectedExecutionException e)
+        {
+            // The executor was shut down, so the events are delivered on this thread instead of being lost
+            Timber.w(e, "The backpressure executor rejected the dispatch, notifying the listeners directly");
+            drain();
+        }
+    }
+
+    private void drain()
+    {
+        do
+        {
+            while (true)
+            {
+                final Event backpressure = pendingBackpressure.getAndSet(null);
+                final Event growthWarning = pendingGrowthWarning.getAndSet(null);
+                if (backpressure == null && growthWarning == null) break;
+
+                if (backpressure != null && growthWarning != null && growthWarning.sequence < backpressure.sequence)
+                {
+                    deliverGrowthWarning(growthWarning);
+                    deliverBackpressure(backpressure);
+                } else
+                {
+                    if (backpressure != null) deliverBackpressure(backpressure);
+                    if (growthWarning != null) deliverGrowthWarning(growthWarning);
+                }
+            }
+
+            drainScheduled.set(false);
+
+            // An event posted after the last check but before the flag was cleared would otherwise wait for the next one
+        } while ((pendingBackpressure.get() != null || pendingGrowthWarning.get() != null)
+                && drainScheduled.compareAndSet(false, true));
+    }
+
+    private void deliverBackpressure(Event event)
+    {
+        if (event.type == lastBackpressure)
+        {
+            coalescedCount.incrementAndGet();
+            return;
+        }
+        lastBackpressure = event.type;
+
+        for (IQueueBackpressureListener listener : listeners)
+        {
+            try
+            {
+                if (event.type == EventType.QUEUE_FULL)
+                {
+                    listener.onQueueFull(event.queueSize, event.queueLimit, event.queueBytes, event.queueByteLimit);
+                } else
+                {
+                    listener.onQueueDrained(event.queueSize, event.queueLimit, event.queueBytes, event.queueByteLimit);
+                }
+            } catch (Exception e)
+            {
+                Timber.e(e, "Error notifying queue backpressure listener of %s", event.type);
+            }
+        }
+    }
+
+    private void deliverGrowthWarning(Event event)
+    {
+        if (event.type == lastGrowthWarning)
+        {
+            coalescedCount.incrementAndGet();
+            return;
+        }
+        lastGrowthWarning = event.type;
+
+        for (IQueueBackpressureListener listener : listeners)
+        {
+            try
+            {
+                if (event.type == EventType.GROWTH_WARNING)
+                {
+                    listener.onQueueGrowthWarning(event.queueSize, event.queueLimit, event.queueBytes,
+                            event.queueByteLimit, event.msUntilFull);
+                } else
+                {
+                    listener.onQueueGrowthWarningCleared(event.queueSize, event.queueLimit, event.queueBytes,
+                            event.queueByteLimit);
+                }
+            } catch (Exception e)
+            {
+                Timber.e(e, "Error notifying queue backpressure listener of %s", event.type);
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.craxiom.mqttlibrary.connection;
+
+/**
+ * Holds the limits that control how messages published to the same topic are combined into a single MQTT publish.
+ * <p>
+ * Messages are collected per topic until the batch holds {@link #getMaxMessages()} messages, grows to
+ * {@link #getMaxBytes()} bytes, or the oldest message in the batch has waited {@link #getMaxDelayMs()} milliseconds,
+ * whichever happens first. The batch is then published as one framed payload: a JSON array when the messages are
+ * JSON, or length-delimited records (the same framing as {@code MessageLite.writeDelimitedTo}) when the messages are
+ * binary Protobuf.
+ *
+ * @since 1.3.0
+ */
+public class BatchingConfig
+{
+    /**
+     * Publishes every message on its own, which is the default.
+     */
+    public static final BatchingConfig DISABLED = new BatchingConfig(1, 0, 0);
+
+    private final int maxMessages;
+    private final int maxBytes;
+    private final long maxDelayMs;
+
+    /**
+     * Constructs the batching limits. Batching is only enabled if more than one message can be batched and the max
+     * delay is greater than zero, since without a max delay the last messages published to a topic could be held
+     * forever.
+     *
+     * @param maxMessages The maximum number of messages to put in a single batch, or 0 for no limit.
+     * @param maxBytes    The maximum size of a batch payload in bytes, or 0 for no limit. A single message that is
+     *                    larger than this limit is published in a batch of its own.
+     * @param maxDelayMs  The maximum amount of time in milliseconds that a message can wait in a batch before the
+     *                    batch is published.
+     * @throws IllegalArgumentException If any of the limits are negative.
+     */
+    public BatchingConfig(int maxMessages, int maxBytes, long maxDelayMs)
+    {
+        if (maxMessages < 0 || maxBytes < 0 || maxDelayMs < 0)
+        {
+            throw new IllegalArgumentException("The batching limits must not be negative. maxMessages=" + maxMessages
+                    + ", maxBytes=" + maxBytes + ", maxDelayMs=" + maxDelayMs);
+        }
+
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    /**
+     * @return True if messages should be batched, false if every message is published on its own.
+     */
+    public boolean isEnabled()
+    {
+        return maxMessages != 1 && maxDelayMs > 0;
+    }
+
+    public int getMaxMessages()
+    {
+        return maxMessages;
+    }
+
+    public int getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    public long getMaxDelayMs()
+    {
+        return maxDelayMs;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        BatchingConfig that = (BatchingConfig) o;
+
+        if (maxMessages != that.maxMessages) return false;
+        if (maxBytes != that.maxBytes) return false;
+        return maxDelayMs == that.maxDelayMs;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = maxMessages;
+        result = 31 * result + maxBytes;
+        result = 31 * result + Long.hashCode(maxDelayMs);
+        return result;
+    }
+}
@@ -0,0 +1,141 @@
+package com.craxiom.mqttlibrary.connection;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed capacity, lock-free queue that supports any number of concurrent producers and consumers.
+ * <p>
+ * Each slot has a sequence number that tells producers and consumers whether the slot is ready for them, so claiming a
+ * slot is a single compare-and-set on the head or tail counter and no thread ever waits on a lock held by another.
+ * This is the bounded MPMC queue design described by Dmitry Vyukov.
+ *
+ * @param <E> The type of the elements held in the buffer.
+ * @since 1.3.0
+ */
+final class BoundedRingBuffer<E>
+{
+    private final int capacity;
+    private final AtomicReferenceArray<E> elements;
+
+    /**
+     * The sequence of each slot. A slot can be written when its sequence equals the tail position, and read when its
+     * sequence is one past the head position.
+     */
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    BoundedRingBuffer(int capacity)
+    {
+        if (capacity <= 0) throw new IllegalArgumentException("The capacity must be positive. capacity=" + capacity);
+
+        this.capacity = capacity;
+        elements = new AtomicReferenceArray<>(capacity);
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++)
+        {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds the element to the tail of the buffer.
+     *
+     * @return True if the element was added, false if the buffer is full.
+     */
+    boolean offer(E element)
+    {
+        long position = tail.get();
+        while (true)
+        {
+            final int index = (int) (position % capacity);
+            final long difference = sequences.get(index) - position;
+            if (difference == 0)
+            {
+                if (tail.compareAndSet(position, position + 1))
+                {
+                    elements.set(index, element);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0)
+            {
+                // The slot still holds the element from the previous lap
+                return false;
+            } else
+            {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Removes the element at the head of the buffer.
+     *
+     * @return The element, or null if the buffer is empty.
+     */
+    E poll()
+    {
+        long position = head.get();
+        while (true)
+        {
+            final int index = (int) (position % capacity);
+            final long difference = sequences.get(index) - (position + 1);
+            if (difference == 0)
+            {
+                if (head.compareAndSet(position, position + 1))
+                {
+                    final E element = elements.get(index);
+                    elements.set(index, null);
+                    sequences.set(index, position + capacity);
+                    return element;
+                }
+                position = head.get();
+            } else if (difference < 0)
+            {
+                // The slot has not been written yet
+                return null;
+            } else
+            {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * Returns the element at the head of the buffer without removing it. When there are several consumers the element
+     * may already have been removed by another consumer by the time it is returned.
+     *
+     * @return The element, or null if the buffer is empty.
+     */
+    E peek()
+    {
+        final long position = head.get();
+        final int index = (int) (position % capacity);
+        if (sequences.get(index) != position + 1) return null;
+
+        return elements.get(index);
+    }
+
+    /**
+     * @return The number of elements in the buffer. This is a snapshot that may already be stale when it is returned.
+     */
+    int size()
+    {
+        final long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(capacity, size));
+    }
+
+    boolean isEmpty()
+    {
+        return size() == 0;
+    }
+
+    int capacity()
+    {
+        return capacity;
+    }
+}
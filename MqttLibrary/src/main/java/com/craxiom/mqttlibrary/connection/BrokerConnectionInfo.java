@@ -1,7 +1,11 @@
 package com.craxiom.mqttlibrary.connection;
 
+import com.craxiom.mqttlibrary.MqttPayloadFormat;
 import com.craxiom.mqttlibrary.MqttQos;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -22,6 +26,10 @@ public class BrokerConnectionInfo
     private final String mqttPassword;
     private final String topicPrefix;
     private final MqttQos mqttQos;
+    private final MqttPayloadFormat payloadFormat;
+    private final BatchingConfig batchingConfig;
+    private final Map<String, CompressionConfig> compressionConfigs;
+    private final Mqtt5Config mqtt5Config;
 
     private final int hashCode;
 
@@ -40,6 +48,20 @@ public class BrokerConnectionInfo
     public BrokerConnectionInfo(String mqttBrokerHost, int portNumber, boolean tlsEnabled,
                                 String mqttClientId, String mqttUsername, String mqttPassword,
                                 String topicPrefix, MqttQos mqttQos)
+    {
+        this(mqttBrokerHost, portNumber, tlsEnabled, mqttClientId, mqttUsername, mqttPassword, topicPrefix, mqttQos,
+                null, null, null, null);
+    }
+
+    /**
+     * Constructs this info object with every setting. The settings added after the 8 argument constructor are set
+     * through the {@code with} copy methods, such as {@link #withPayloadFormat(MqttPayloadFormat)}.
+     */
+    private BrokerConnectionInfo(String mqttBrokerHost, int portNumber, boolean tlsEnabled,
+                                 String mqttClientId, String mqttUsername, String mqttPassword,
+                                 String topicPrefix, MqttQos mqttQos, MqttPayloadFormat payloadFormat,
+                                 BatchingConfig batchingConfig, Map<String, CompressionConfig> compressionConfigs,
+                                 Mqtt5Config mqtt5Config)
     {
         this.mqttBrokerHost = mqttBrokerHost;
         this.portNumber = portNumber;
@@ -53,6 +75,18 @@ public class BrokerConnectionInfo
         this.topicPrefix = topicPrefix;
 
         this.mqttQos = mqttQos != null ? mqttQos : MqttQos.AT_LEAST_ONCE;
+        this.payloadFormat = payloadFormat != null ? payloadFormat : MqttPayloadFormat.JSON;
+        this.batchingConfig = batchingConfig != null ? batchingConfig : BatchingConfig.DISABLED;
+
+        final Map<String, CompressionConfig> enabledCompressionConfigs = new HashMap<>();
+        if (compressionConfigs != null)
+        {
+            compressionConfigs.forEach((topic, config) -> {
+                if (config != null && config.isEnabled()) enabledCompressionConfigs.put(topic, config);
+            });
+        }
+        this.compressionConfigs = Collections.unmodifiableMap(enabledCompressionConfigs);
+        this.mqtt5Config = mqtt5Config;
 
         int result = mqttBrokerHost != null ? mqttBrokerHost.hashCode() : 0;
         result = 31 * result + portNumber;
@@ -62,6 +96,10 @@ public class BrokerConnectionInfo
         result = 31 * result + (mqttPassword != null ? mqttPassword.hashCode() : 0);
         result = 31 * result + topicPrefix.hashCode();
         result = 31 * result + this.mqttQos.hashCode();
+        result = 31 * result + this.payloadFormat.hashCode();
+        result = 31 * result + this.batchingConfig.hashCode();
+        result = 31 * result + this.compressionConfigs.hashCode();
+        result = 31 * result + (mqtt5Config != null ? mqtt5Config.hashCode() : 0);
         hashCode = result;
     }
 
@@ -80,7 +118,11 @@ public class BrokerConnectionInfo
         if (!Objects.equals(mqttUsername, that.mqttUsername)) return false;
         if (!Objects.equals(topicPrefix, that.topicPrefix)) return false;
         if (!Objects.equals(mqttPassword, that.mqttPassword)) return false;
-        return mqttQos == that.mqttQos;
+        if (mqttQos != that.mqttQos) return false;
+        if (payloadFormat != that.payloadFormat) return false;
+        if (!batchingConfig.equals(that.batchingConfig)) return false;
+        if (!compressionConfigs.equals(that.compressionConfigs)) return false;
+        return Objects.equals(mqtt5Config, that.mqtt5Config);
     }
 
     @Override
@@ -129,6 +171,122 @@ public class BrokerConnectionInfo
         return mqttQos;
     }
 
+    /**
+     * @return The encoding to use when publishing Protobuf messages.
+     * @since 1.3.0
+     */
+    public MqttPayloadFormat getPayloadFormat()
+    {
+        return payloadFormat;
+    }
+
+    /**
+     * @return The limits for combining messages into a single publish per topic.
+     * @since 1.3.0
+     */
+    public BatchingConfig getBatchingConfig()
+    {
+        return batchingConfig;
+    }
+
+    /**
+     * @return The payload compression to use for each message topic (without the topic prefix). Only the topics that
+     * are compressed are included.
+     * @since 1.3.0
+     */
+    public Map<String, CompressionConfig> getCompressionConfigs()
+    {
+        return compressionConfigs;
+    }
+
+    /**
+     * @param mqttMessageTopic The message topic (without the topic prefix).
+     * @return The payload compression to use for the topic, or {@link CompressionConfig#DISABLED} if it is not
+     * compressed.
+     * @since 1.3.0
+     */
+    public CompressionConfig getCompressionConfig(String mqttMessageTopic)
+    {
+        final CompressionConfig config = compressionConfigs.get(mqttMessageTopic);
+        return config != null ? config : CompressionConfig.DISABLED;
+    }
+
+    /**
+     * @return The settings for connecting with MQTT 5, or null if MQTT 3.1.1 is used.
+     * @since 1.3.0
+     */
+    public Mqtt5Config getMqtt5Config()
+    {
+        return mqtt5Config;
+    }
+
+    /**
+     * @return True if the connection uses MQTT 5, false if it uses MQTT 3.1.1.
+     * @since 1.3.0
+     */
+    public boolean isMqtt5()
+    {
+        return mqtt5Config != null;
+    }
+
+    /**
+     * @param mqttClientId The client ID to use instead of the one in this info object.
+     * @return A copy of this info object with the provided client ID.
+     * @since 1.3.0
+     */
+    public BrokerConnectionInfo withMqttClientId(String mqttClientId)
+    {
+        return new BrokerConnectionInfo(mqttBrokerHost, portNumber, tlsEnabled, mqttClientId, mqttUsername,
+                mqttPassword, topicPrefix, mqttQos, payloadFormat, batchingConfig, compressionConfigs, mqtt5Config);
+    }
+
+    /**
+     * @param payloadFormat The encoding to use when publishing Protobuf messages. If null, defaults to JSON.
+     * @return A copy of this info object with the provided payload format.
+     * @since 1.3.0
+     */
+    public BrokerConnectionInfo withPayloadFormat(MqttPayloadFormat payloadFormat)
+    {
+        return new BrokerConnectionInfo(mqttBrokerHost, portNumber, tlsEnabled, mqttClientId, mqttUsername,
+                mqttPassword, topicPrefix, mqttQos, payloadFormat, batchingConfig, compressionConfigs, mqtt5Config);
+    }
+
+    /**
+     * @param batchingConfig The limits for combining messages into a single publish per topic. If null, defaults to
+     *                       {@link BatchingConfig#DISABLED}.
+     * @return A copy of this info object with the provided batching limits.
+     * @since 1.3.0
+     */
+    public BrokerConnectionInfo withBatchingConfig(BatchingConfig batchingConfig)
+    {
+        return new BrokerConnectionInfo(mqttBrokerHost, portNumber, tlsEnabled, mqttClientId, mqttUsername,
+                mqttPassword, topicPrefix, mqttQos, payloadFormat, batchingConfig, compressionConfigs, mqtt5Config);
+    }
+
+    /**
+     * @param compressionConfigs The payload compression to use for each message topic (without the topic prefix).
+     *                           Topics that are not in the map are published uncompressed. If null, no topics are
+     *                           compressed.
+     * @return A copy of this info object with the provided payload compression.
+     * @since 1.3.0
+     */
+    public BrokerConnectionInfo withCompressionConfigs(Map<String, CompressionConfig> compressionConfigs)
+    {
+        return new BrokerConnectionInfo(mqttBrokerHost, portNumber, tlsEnabled, mqttClientId, mqttUsername,
+                mqttPassword, topicPrefix, mqttQos, payloadFormat, batchingConfig, compressionConfigs, mqtt5Config);
+    }
+
+    /**
+     * @param mqtt5Config The settings for connecting with MQTT 5. If null, MQTT 3.1.1 is used.
+     * @return A copy of this info object with the provided MQTT 5 settings.
+     * @since 1.3.0
+     */
+    public BrokerConnectionInfo withMqtt5Config(Mqtt5Config mqtt5Config)
+    {
+        return new BrokerConnectionInfo(mqttBrokerHost, portNumber, tlsEnabled, mqttClientId, mqttUsername,
+                mqttPassword, topicPrefix, mqttQos, payloadFormat, batchingConfig, compressionConfigs, mqtt5Config);
+    }
+
     /**
      * Given the host, port, and TLS setting, create and return the MQTT broker URI that can be used by the
      * {@link DefaultMqttConnection} client.
@@ -0,0 +1,103 @@
+package com.craxiom.mqttlibrary.connection;
+
+/**
+ * Holds the settings for choosing between several MQTT broker endpoints by their connection latency.
+ * <p>
+ * The latency of an endpoint is the time it takes to open a TCP connection to it, plus the TLS handshake if TLS is
+ * enabled for the endpoint. An endpoint that can't be connected to within the probe timeout is considered unhealthy.
+ *
+ * @since 1.3.0
+ */
+public class BrokerSelectionConfig
+{
+    /**
+     * Probes each endpoint for up to 3 seconds, re-evaluates every 5 minutes, and switches to an endpoint that is at
+     * least 50 ms faster for 3 evaluations in a row.
+     */
+    public static final BrokerSelectionConfig DEFAULT = new BrokerSelectionConfig(3_000, 5 * 60_000, 50, 3);
+
+    private final int probeTimeoutMs;
+    private final long reevaluationIntervalMs;
+    private final long switchMarginMs;
+    private final int switchAfterEvaluations;
+
+    /**
+     * Constructs the broker selection settings.
+     *
+     * @param probeTimeoutMs         The maximum time to wait for the connection to an endpoint when probing it.
+     * @param reevaluationIntervalMs How often the endpoints are probed again after the connection is made. 0 only
+     *                               probes them when connecting and reconnecting.
+     * @param switchMarginMs         How much faster another endpoint must be than the current one to switch to it.
+     * @param switchAfterEvaluations The number of evaluations in a row that the other endpoint must be faster by the
+     *                               margin before switching to it, so that a single slow probe does not cause a
+     *                               switch.
+     * @throws IllegalArgumentException If any of the settings are out of range.
+     */
+    public BrokerSelectionConfig(int probeTimeoutMs, long reevaluationIntervalMs, long switchMarginMs,
+                                 int switchAfterEvaluations)
+    {
+        if (probeTimeoutMs <= 0 || reevaluationIntervalMs < 0 || switchMarginMs < 0 || switchAfterEvaluations < 1)
+        {
+            throw new IllegalArgumentException("Invalid broker selection settings. probeTimeoutMs=" + probeTimeoutMs
+                    + ", reevaluationIntervalMs=" + reevaluationIntervalMs + ", switchMarginMs=" + switchMarginMs
+                    + ", switchAfterEvaluations=" + switchAfterEvaluations);
+        }
+
+        this.probeTimeoutMs = probeTimeoutMs;
+        this.reevaluationIntervalMs = reevaluationIntervalMs;
+        this.switchMarginMs = switchMarginMs;
+        this.switchAfterEvaluations = switchAfterEvaluations;
+    }
+
+    public int getProbeTimeoutMs()
+    {
+        return probeTimeoutMs;
+    }
+
+    public long getReevaluationIntervalMs()
+    {
+        return reevaluationIntervalMs;
+    }
+
+    public long getSwitchMarginMs()
+    {
+        return switchMarginMs;
+    }
+
+    public int getSwitchAfterEvaluations()
+    {
+        return switchAfterEvaluations;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        BrokerSelectionConfig that = (BrokerSelectionConfig) o;
+
+        if (probeTimeoutMs != that.probeTimeoutMs) return false;
+        if (reevaluationIntervalMs != that.reevaluationIntervalMs) return false;
+        if (switchMarginMs != that.switchMarginMs) return false;
+        return switchAfterEvaluations == that.switchAfterEvaluations;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = probeTimeoutMs;
+        result = 31 * result + Long.hashCode(reevaluationIntervalMs);
+        result = 31 * result + Long.hashCode(switchMarginMs);
+        result = 31 * result + switchAfterEvaluations;
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "BrokerSelectionConfig{probeTimeoutMs=" + probeTimeoutMs + ", reevaluationIntervalMs="
+                + reevaluationIntervalMs + ", switchMarginMs=" + switchMarginMs + ", switchAfterEvaluations="
+                + switchAfterEvaluations + '}';
+    }
+}
@@ -0,0 +1,353 @@
+package com.craxiom.mqttlibrary.connection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import timber.log.Timber;
+
+/**
+ * Chooses which of several MQTT broker endpoints to connect to by probing the connection latency of each one.
+ * <p>
+ * The endpoints are probed in parallel, and the fastest healthy endpoint is selected when connecting. After that, the
+ * endpoints are probed again periodically and whenever the client is reconnecting. The selection only moves to another
+ * endpoint once it has been faster than the selected endpoint by the switch margin for several evaluations in a row,
+ * or right away if the selected endpoint can't be reached while the client is reconnecting. When endpoints are equally
+ * fast, the one earlier in the list is preferred.
+ * <p>
+ * The evaluations are started by a timer and the probes run on a probe executor, both of which are passed in so that
+ * they can be shared by all the selectors. No thread waits for the probes to finish, so the timer is only busy for as
+ * long as it takes to start the probes. Only one evaluation runs at a time, and the {@link IEndpointSwitcher} is called
+ * on the thread that completes it, which is either a probe thread or the timer.
+ *
+ * @since 1.3.0
+ */
+final class BrokerSelector
+{
+    /**
+     * Measures the connection latency of an endpoint.
+     */
+    interface ILatencyProbe
+    {
+        /**
+         * Returned by {@link #probeNanos(BrokerConnectionInfo, int)} if the endpoint can't be connected to.
+         */
+        long UNHEALTHY = -1;
+
+        /**
+         * @param endpoint  The endpoint to probe.
+         * @param timeoutMs The maximum time to wait for the endpoint.
+         * @return The latency in nanoseconds, or {@link #UNHEALTHY} if the endpoint could not be connected to within
+         * the timeout.
+         */
+        long probeNanos(BrokerConnectionInfo endpoint, int timeoutMs);
+    }
+
+    /**
+     * Connects to the selected endpoint.
+     */
+    interface IEndpointSwitcher
+    {
+        /**
+         * Called with the endpoint selected when starting, and again each time a different endpoint is selected.
+         */
+        void switchTo(BrokerConnectionInfo endpoint);
+    }
+
+    private final List<BrokerConnectionInfo> endpoints;
+    private final BrokerSelectionConfig config;
+    private final ILatencyProbe probe;
+    private final ScheduledExecutorService timer;
+    private final Executor probeExecutor;
+    private final AtomicBoolean evaluationRunning = new AtomicBoolean(false);
+    private final AtomicBoolean reevaluationPending = new AtomicBoolean(false);
+    private volatile IEndpointSwitcher switcher;
+    private volatile boolean closed = false;
+
+    /**
+     * The periodic re-evaluation, or null if it has not been started. Guarded by this object's monitor.
+     */
+    private ScheduledFuture<?> periodicEvaluation;
+
+    private volatile int selectedIndex = -1;
+    private volatile long[] latencies;
+    private int candidateIndex = -1;
+    private int candidateEvaluations = 0;
+
+    /**
+     * @param endpoints     The endpoints to choose from, in order of preference.
+     * @param config        The broker selection settings.
+     * @param probe         Measures the latency of each endpoint.
+     * @param timer         Starts the evaluations and times out the probes. It is not shut down by this selector.
+     * @param probeExecutor Runs the probes, which block for up to the probe timeout. It is not shut down by this
+     *                      selector.
+     * @throws IllegalArgumentException If there are no endpoints.
+     */
+    BrokerSelector(List<BrokerConnectionInfo> endpoints, BrokerSelectionConfig config, ILatencyProbe probe,
+                   ScheduledExecutorService timer, Executor probeExecutor)
+    {
+        if (endpoints == null || endpoints.isEmpty() || endpoints.contains(null))
+        {
+            throw new IllegalArgumentException("At least one broker endpoint is required, endpoints=" + endpoints);
+        }
+
+        this.endpoints = new ArrayList<>(endpoints);
+        this.config = config;
+        this.probe = probe;
+        this.timer = timer;
+        this.probeExecutor = probeExecutor;
+
+        latencies = new long[endpoints.size()];
+        Arrays.fill(latencies, ILatencyProbe.UNHEALTHY);
+    }
+
+    /**
+     * Selects the initial endpoint in the background and passes it to the switcher, then starts the periodic
+     * re-evaluation.
+     */
+    void start(IEndpointSwitcher switcher)
+    {
+        this.switcher = switcher;
+        timer.execute(() -> evaluate(false));
+
+        final long intervalMs = config.getReevaluationIntervalMs();
+        if (intervalMs > 0)
+        {
+            synchronized (this)
+            {
+                if (!closed)
+                {
+                    periodicEvaluation = timer.scheduleWithFixedDelay(() -> evaluate(false), intervalMs, intervalMs,
+                            TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    /**
+     * Probes the endpoints again in the background because the client is reconnecting. Requests made while an
+     * evaluation is running are combined into a single evaluation that starts once it completes. Ignored if the
+     * selector has not been started.
+     */
+    void requestReevaluation()
+    {
+        if (closed || switcher == null) return;
+
+        reevaluationPending.set(true);
+        timer.execute(() -> evaluate(false));
+    }
+
+    /**
+     * Probes every endpoint and selects the fastest healthy one, or the first endpoint if none of them are healthy.
+     * Blocks until the probes have completed.
+     */
+    BrokerConnectionInfo selectInitial()
+    {
+        return selectInitial(probeAll().join());
+    }
+
+    /**
+     * Probes every endpoint and decides whether to switch to another one. Blocks until the probes have completed.
+     *
+     * @param reconnecting True if the client is reconnecting, in which case the selection moves right away if the
+     *                     selected endpoint can't be reached.
+     * @return The newly selected endpoint, or null if the selection did not change.
+     */
+    BrokerConnectionInfo reevaluate(boolean reconnecting)
+    {
+        return reevaluate(probeAll().join(), reconnecting);
+    }
+
+    /**
+     * @return The endpoint selected from the provided probe results.
+     */
+    private synchronized BrokerConnectionInfo selectInitial(long[] results)
+    {
+        final int fastest = findFastestHealthy(results);
+        select(fastest >= 0 ? fastest : 0, results);
+        return endpoints.get(selectedIndex);
+    }
+
+    /**
+     * @return The newly selected endpoint based on the provided probe results, or null if the selection did not
+     * change. Makes the initial selection if there isn't one yet.
+     */
+    private synchronized BrokerConnectionInfo reevaluate(long[] results, boolean reconnecting)
+    {
+        if (selectedIndex < 0) return selectInitial(results);
+
+        latencies = results;
+
+        final int fastest = findFastestHealthy(results);
+        if (fastest < 0 || fastest == selectedIndex)
+        {
+            resetCandidate();
+            return null;
+        }
+
+        final long selectedLatency = results[selectedIndex];
+        if (selectedLatency == ILatencyProbe.UNHEALTHY && reconnecting)
+        {
+            select(fastest, results);
+            return endpoints.get(fastest);
+        }
+
+        final long marginNanos = TimeUnit.MILLISECONDS.toNanos(config.getSwitchMarginMs());
+        if (selectedLatency != ILatencyProbe.UNHEALTHY && results[fastest] + marginNanos >= selectedLatency)
+        {
+            resetCandidate();
+            return null;
+        }
+
+        if (fastest != candidateIndex)
+        {
+            candidateIndex = fastest;
+            candidateEvaluations = 0;
+        }
+        if (++candidateEvaluations < config.getSwitchAfterEvaluations()) return null;
+
+        select(fastest, results);
+        return endpoints.get(fastest);
+    }
+
+    /**
+     * @return The selected endpoint, or null if the initial selection has not been made yet.
+     */
+    BrokerConnectionInfo getSelected()
+    {
+        final int index = selectedIndex;
+        return index >= 0 ? endpoints.get(index) : null;
+    }
+
+    /**
+     * @return The latency in nanoseconds of each endpoint from the latest probe, or {@link ILatencyProbe#UNHEALTHY}.
+     */
+    long[] getLatencyNanos()
+    {
+        return latencies.clone();
+    }
+
+    /**
+     * Stops the periodic re-evaluation. An evaluation that is already probing completes, but does not call the
+     * switcher.
+     */
+    void close()
+    {
+        synchronized (this)
+        {
+            closed = true;
+            if (periodicEvaluation != null)
+            {
+                periodicEvaluation.cancel(false);
+                periodicEvaluation = null;
+            }
+        }
+    }
+
+    /**
+     * Starts an evaluation unless one is already running, in which case the running evaluation starts the next one if
+     * a re-evaluation has been requested while it was probing.
+     *
+     * @param reconnecting True if the client is reconnecting. A pending re-evaluation request also counts as
+     *                     reconnecting.
+     */
+    private void evaluate(boolean reconnecting)
+    {
+        if (closed || !evaluationRunning.compareAndSet(false, true)) return;
+
+        final boolean reconnect = reevaluationPending.getAndSet(false) || reconnecting;
+        final boolean initial = getSelected() == null;
+        probeAll().thenApply(results -> reevaluate(results, reconnect)).whenComplete((endpoint, error) -> {
+            try
+            {
+                if (error != null)
+                {
+                    Timber.e(error, "Unable to evaluate the MQTT broker endpoints");
+                } else if (endpoint != null && !closed)
+                {
+                    if (!initial)
+                    {
+                        Timber.i("Switching to the MQTT broker at %s:%d", endpoint.getMqttBrokerHost(),
+                                endpoint.getPortNumber());
+                    }
+                    switcher.switchTo(endpoint);
+                }
+            } catch (Exception e)
+            {
+                Timber.e(e, "Unable to switch to the selected MQTT broker endpoint");
+            } finally
+            {
+                evaluationRunning.set(false);
+                // A request made while this evaluation was probing could not start its own evaluation
+                if (reevaluationPending.get()) evaluate(false);
+            }
+        });
+    }
+
+    /**
+     * Probes all the endpoints in parallel.
+     *
+     * @return The latency results, which complete once every probe has completed or timed out.
+     */
+    private CompletableFuture<long[]> probeAll()
+    {
+        final int timeoutMs = config.getProbeTimeoutMs();
+        final List<CompletableFuture<Long>> futures = new ArrayList<>(endpoints.size());
+        for (BrokerConnectionInfo endpoint : endpoints)
+        {
+            futures.add(CompletableFuture.supplyAsync(() -> probe.probeNanos(endpoint, timeoutMs), probeExecutor));
+        }
+
+        // Give the probes a little longer than their own timeout, since name resolution is not covered by it
+        final ScheduledFuture<?> deadline = timer.schedule(() -> {
+            for (CompletableFuture<Long> future : futures)
+            {
+                future.complete(ILatencyProbe.UNHEALTHY);
+            }
+        }, timeoutMs * 2L, TimeUnit.MILLISECONDS);
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).handle((ignored, error) -> {
+            deadline.cancel(false);
+
+            final long[] results = new long[futures.size()];
+            for (int i = 0; i < results.length; i++)
+            {
+                final CompletableFuture<Long> future = futures.get(i);
+                results[i] = future.isCompletedExceptionally() ? ILatencyProbe.UNHEALTHY : future.join();
+            }
+
+            Timber.d("MQTT broker endpoint latencies (ns): %s", Arrays.toString(results));
+            return results;
+        });
+    }
+
+    private void select(int index, long[] results)
+    {
+        selectedIndex = index;
+        latencies = results;
+        resetCandidate();
+    }
+
+    private void resetCandidate()
+    {
+        candidateIndex = -1;
+        candidateEvaluations = 0;
+    }
+
+    private static int findFastestHealthy(long[] results)
+    {
+        int fastest = -1;
+        for (int i = 0; i < results.length; i++)
+        {
+            if (results[i] == ILatencyProbe.UNHEALTHY) continue;
+            if (fastest < 0 || results[i] < results[fastest]) fastest = i;
+        }
+        return fastest;
+    }
+}
@@ -0,0 +1,260 @@
+package com.craxiom.mqttlibrary.connection;
+
+/**
+ * Holds the settings for compressing the payloads published to a topic.
+ * <p>
+ * With the deflate algorithms, every payload published to a compressed topic is a zlib stream (RFC 1950), so
+ * consumers can decompress it with {@link java.util.zip.Inflater} or any zlib implementation. With the zstd
+ * algorithms, every payload is a single zstd frame (RFC 8878) that includes the decompressed size. The zstd algorithms
+ * need the zstd-jni library, which is not a required dependency of this library, so an app that uses them must add
+ * {@code com.github.luben:zstd-jni} ({@code @aar} on Android) to its own dependencies. See {@link #isZstdAvailable()}.
+ * <p>
+ * When a dictionary algorithm is used, a dictionary is trained in the background from the first
+ * {@link #getDictionarySampleCount()} payloads published to the topic. The dictionary is published as a retained
+ * message to {@code <topic prefix>$meta/dictionary/<topic>/<dictionary ID>}, apart from the message topics, where the
+ * dictionary ID is written as eight lowercase hex digits, and each payload that needs the dictionary identifies it by
+ * the same ID. For {@link Algorithm#DEFLATE_DICTIONARY} the ID is the Adler-32 checksum of the dictionary, which is
+ * in the zlib header and which {@link java.util.zip.Inflater#getAdler()} returns once
+ * {@link java.util.zip.Inflater#needsDictionary()} is true. For {@link Algorithm#ZSTD_DICTIONARY} the ID is the one
+ * zstd stores in the dictionary and in the header of each frame, which {@code ZSTD_getDictID_fromFrame} returns.
+ * Payloads published before the dictionary is ready are compressed without it.
+ * <p>
+ * When batching is enabled, each batch payload is compressed as a whole.
+ *
+ * @since 1.3.0
+ */
+public class CompressionConfig
+{
+    /**
+     * How the payloads are compressed.
+     */
+    public enum Algorithm
+    {
+        /**
+         * The payloads are published as they are.
+         */
+        NONE,
+
+        /**
+         * Each payload is compressed on its own with deflate.
+         */
+        DEFLATE,
+
+        /**
+         * Each payload is compressed with deflate using a preset dictionary trained from earlier payloads. This works
+         * much better than plain deflate for small payloads that repeat the same field names and values, since plain
+         * deflate has no earlier content in the payload to refer back to.
+         */
+        DEFLATE_DICTIONARY,
+
+        /**
+         * Each payload is compressed on its own with zstd, which compresses faster than deflate at a similar or better
+         * ratio. Needs the zstd-jni library.
+         */
+        ZSTD,
+
+        /**
+         * Each payload is compressed with zstd using a dictionary trained by zstd from earlier payloads. Zstd can make
+         * use of much larger dictionaries than deflate. Needs the zstd-jni library.
+         */
+        ZSTD_DICTIONARY;
+
+        /**
+         * @return True if the payloads are compressed with a dictionary trained from earlier payloads.
+         */
+        public boolean usesDictionary()
+        {
+            return this == DEFLATE_DICTIONARY || this == ZSTD_DICTIONARY;
+        }
+
+        /**
+         * @return True if the payloads are compressed with zstd.
+         */
+        public boolean isZstd()
+        {
+            return this == ZSTD || this == ZSTD_DICTIONARY;
+        }
+
+        /**
+         * @return The highest compression level of the algorithm.
+         */
+        public int getMaxLevel()
+        {
+            return isZstd() ? MAX_ZSTD_LEVEL : MAX_DEFLATE_LEVEL;
+        }
+
+        /**
+         * @return The largest dictionary the algorithm can make use of, or 0 if it does not use a dictionary.
+         */
+        public int getMaxDictionarySize()
+        {
+            if (this == DEFLATE_DICTIONARY) return MAX_DICTIONARY_SIZE;
+            if (this == ZSTD_DICTIONARY) return MAX_ZSTD_DICTIONARY_SIZE;
+            return 0;
+        }
+    }
+
+    public static final int MAX_DEFLATE_LEVEL = 9;
+    public static final int MAX_ZSTD_LEVEL = 22;
+
+    /**
+     * The largest dictionary that deflate can make use of, which is the size of its sliding window.
+     */
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    /**
+     * The largest zstd dictionary that can be trained. Zstd itself recommends around 100 KB for most data.
+     */
+    public static final int MAX_ZSTD_DICTIONARY_SIZE = 1024 * 1024;
+
+    /**
+     * Publishes the payloads uncompressed, which is the default.
+     */
+    public static final CompressionConfig DISABLED = new CompressionConfig(Algorithm.NONE, 0);
+
+    private final Algorithm algorithm;
+    private final int level;
+    private final int dictionarySampleCount;
+    private final int dictionarySize;
+
+    /**
+     * Constructs the compression settings for an algorithm that does not use a dictionary.
+     *
+     * @param algorithm The compression algorithm.
+     * @param level     The compression level, from 1 (fastest) to 9 (smallest) for deflate and from 1 to 22 for zstd.
+     *                  Ignored if the algorithm is {@link Algorithm#NONE}.
+     * @throws IllegalArgumentException If the algorithm is null, or the level is out of range.
+     * @throws IllegalStateException    If the algorithm is zstd and the zstd-jni library is not available.
+     */
+    public CompressionConfig(Algorithm algorithm, int level)
+    {
+        this(algorithm, level, 0, 0);
+    }
+
+    /**
+     * Constructs the compression settings.
+     *
+     * @param algorithm             The compression algorithm.
+     * @param level                 The compression level, from 1 (fastest) to 9 (smallest) for deflate and from 1
+     *                              to 22 for zstd. Ignored if the algorithm is {@link Algorithm#NONE}.
+     * @param dictionarySampleCount The number of payloads to train the dictionary from. Ignored unless the algorithm
+     *                              {@link Algorithm#usesDictionary() uses a dictionary}.
+     * @param dictionarySize        The maximum size of the trained dictionary in bytes, up to
+     *                              {@link #MAX_DICTIONARY_SIZE} for deflate and {@link #MAX_ZSTD_DICTIONARY_SIZE}
+     *                              for zstd. Ignored unless the algorithm uses a dictionary.
+     * @throws IllegalArgumentException If the algorithm is null, or any of the other settings are out of range for the
+     *                                  algorithm.
+     * @throws IllegalStateException    If the algorithm is zstd and the zstd-jni library is not available.
+     */
+    public CompressionConfig(Algorithm algorithm, int level, int dictionarySampleCount, int dictionarySize)
+    {
+        if (algorithm == null
+                || (algorithm != Algorithm.NONE && (level < 1 || level > algorithm.getMaxLevel()))
+                || (algorithm.usesDictionary() && (dictionarySampleCount <= 0
+                || dictionarySize <= 0 || dictionarySize > algorithm.getMaxDictionarySize())))
+        {
+            throw new IllegalArgumentException("Invalid compression settings. algorithm=" + algorithm + ", level="
+                    + level + ", dictionarySampleCount=" + dictionarySampleCount + ", dictionarySize="
+                    + dictionarySize);
+        }
+
+        if (algorithm.isZstd() && !isZstdAvailable())
+        {
+            throw new IllegalStateException("The " + algorithm + " compression algorithm needs the zstd-jni library");
+        }
+
+        this.algorithm = algorithm;
+        this.level = algorithm == Algorithm.NONE ? 0 : level;
+        this.dictionarySampleCount = algorithm.usesDictionary() ? dictionarySampleCount : 0;
+        this.dictionarySize = algorithm.usesDictionary() ? dictionarySize : 0;
+    }
+
+    /**
+     * @return True if the zstd-jni library and its native code for this device are available, which the zstd
+     * algorithms need.
+     */
+    public static boolean isZstdAvailable()
+    {
+        return ZstdSupport.AVAILABLE;
+    }
+
+    /**
+     * @return True if the payloads should be compressed.
+     */
+    public boolean isEnabled()
+    {
+        return algorithm != Algorithm.NONE;
+    }
+
+    public Algorithm getAlgorithm()
+    {
+        return algorithm;
+    }
+
+    public int getLevel()
+    {
+        return level;
+    }
+
+    public int getDictionarySampleCount()
+    {
+        return dictionarySampleCount;
+    }
+
+    public int getDictionarySize()
+    {
+        return dictionarySize;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        CompressionConfig that = (CompressionConfig) o;
+
+        if (level != that.level) return false;
+        if (dictionarySampleCount != that.dictionarySampleCount) return false;
+        if (dictionarySize != that.dictionarySize) return false;
+        return algorithm == that.algorithm;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = algorithm.hashCode();
+        result = 31 * result + level;
+        result = 31 * result + dictionarySampleCount;
+        result = 31 * result + dictionarySize;
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CompressionConfig{algorithm=" + algorithm + ", level=" + level + ", dictionarySampleCount="
+                + dictionarySampleCount + ", dictionarySize=" + dictionarySize + '}';
+    }
+
+    /**
+     * Checks for zstd-jni the first time it is needed, so that the library is not loaded unless zstd is used.
+     */
+    private static final class ZstdSupport
+    {
+        private static final boolean AVAILABLE = checkAvailable();
+
+        private static boolean checkAvailable()
+        {
+            try
+            {
+                // Initializing the class loads the native library
+                Class.forName("com.github.luben.zstd.Zstd", true, CompressionConfig.class.getClassLoader());
+                return true;
+            } catch (ClassNotFoundException | LinkageError e)
+            {
+                return false;
+            }
+        }
+    }
+}
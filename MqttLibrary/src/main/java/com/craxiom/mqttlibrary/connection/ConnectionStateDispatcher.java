@@ -0,0 +1,160 @@
+package com.craxiom.mqttlibrary.connection;
+
+import com.craxiom.mqttlibrary.IConnectionStateListener;
+import com.craxiom.mqttlibrary.PublishMetrics;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * Delivers connection state changes to the {@link IConnectionStateListener}s, and records how long each listener takes
+ * to handle them.
+ * <p>
+ * By default each change is delivered on the thread that reported it, which is usually a HiveMQ thread. When an
+ * executor is set, the changes are queued and delivered in order by a single drain task at a time on that executor, so
+ * a slow listener does not hold up the network threads. Queued changes to the state that was last delivered are
+ * skipped, so a burst of CONNECTING changes while reconnecting reaches the listeners once.
+ *
+ * @since 1.3.0
+ */
+final class ConnectionStateDispatcher
+{
+    /**
+     * Listeners that take longer than this to handle a state change are logged.
+     */
+    private static final long SLOW_LISTENER_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final CopyOnWriteArrayList<IConnectionStateListener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<IConnectionStateListener, LogHistogram> listenerLatencies = new ConcurrentHashMap<>();
+    private final Queue<ConnectionState> pendingStates = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private volatile Executor executor;
+    private volatile ConnectionState lastDeliveredState;
+
+    void addListener(IConnectionStateListener listener)
+    {
+        listenerLatencies.putIfAbsent(listener, new LogHistogram());
+        listeners.add(listener);
+    }
+
+    void removeListener(IConnectionStateListener listener)
+    {
+        listeners.remove(listener);
+        if (!listeners.contains(listener)) listenerLatencies.remove(listener);
+    }
+
+    /**
+     * @param executor The executor to deliver the state changes on, or null to deliver them on the reporting thread.
+     */
+    void setExecutor(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    Executor getExecutor()
+    {
+        return executor;
+    }
+
+    /**
+     * Delivers the new state to the listeners, either right away or through the executor.
+     */
+    void dispatch(ConnectionState newConnectionState)
+    {
+        final Executor dispatchExecutor = executor;
+        if (dispatchExecutor == null)
+        {
+            deliver(newConnectionState);
+            return;
+        }
+
+        pendingStates.add(newConnectionState);
+        if (!drainScheduled.compareAndSet(false, true)) return;
+
+        try
+        {
+            dispatchExecutor.execute(this::drain);
+        } catch (RejectedExecutionException e)
+        {
+            // The executor was shut down, so the changes are delivered on this thread instead of being lost
+            Timber.w(e, "The connection state executor rejected the dispatch, notifying the listeners directly");
+            drain();
+        }
+    }
+
+    /**
+     * @return The number of queued state changes that were skipped because they repeated the state that had just been
+     * delivered.
+     */
+    long getCoalescedCount()
+    {
+        return coalescedCount.get();
+    }
+
+    /**
+     * @return The time the listener has taken to handle each state change, or null if it is not registered.
+     */
+    PublishMetrics.Histogram getListenerLatency(IConnectionStateListener listener)
+    {
+        final LogHistogram latency = listenerLatencies.get(listener);
+        return latency == null ? null : latency.snapshot();
+    }
+
+    private void drain()
+    {
+        do
+        {
+            ConnectionState state;
+            while ((state = pendingStates.poll()) != null)
+            {
+                if (state == lastDeliveredState)
+                {
+                    coalescedCount.incrementAndGet();
+                    continue;
+                }
+                deliver(state);
+            }
+
+            drainScheduled.set(false);
+
+            // A change queued after the last poll but before the flag was cleared would otherwise wait for the next one
+        } while (!pendingStates.isEmpty() && drainScheduled.compareAndSet(false, true));
+    }
+
+    private void deliver(ConnectionState newConnectionState)
+    {
+        lastDeliveredState = newConnectionState;
+
+        for (IConnectionStateListener listener : listeners)
+        {
+            final long start = System.nanoTime();
+            try
+            {
+                listener.onConnectionStateChange(newConnectionState);
+            } catch (Exception e)
+            {
+                Timber.e(e, "Unable to notify a MQTT Connection State Listener because of an exception");
+            }
+
+            final long durationNanos = System.nanoTime() - start;
+            final LogHistogram latency = listenerLatencies.get(listener);
+            if (latency != null) latency.record(durationNanos);
+            if (durationNanos > SLOW_LISTENER_NANOS)
+            {
+                Timber.w("The MQTT connection state listener %s took %d ms to handle %s", listener,
+                        TimeUnit.NANOSECONDS.toMillis(durationNanos), newConnectionState);
+            }
+        }
+    }
+}
@@ -5,30 +5,49 @@ import android.os.Handler;
 import android.os.Looper;
 import android.widget.Toast;
 
+import com.craxiom.mqttlibrary.ConnectivityNetworkAvailabilitySource;
 import com.craxiom.mqttlibrary.IConnectionStateListener;
 import com.craxiom.mqttlibrary.IMqttService;
+import com.craxiom.mqttlibrary.INetworkAvailabilitySource;
+import com.craxiom.mqttlibrary.IPublishMetricsListener;
 import com.craxiom.mqttlibrary.IQueueBackpressureListener;
+import com.craxiom.mqttlibrary.IQueueOverflowPolicy;
+import com.craxiom.mqttlibrary.IReconnectStrategy;
+import com.craxiom.mqttlibrary.MqttPayloadFormat;
+import com.craxiom.mqttlibrary.PublishMetrics;
+import com.craxiom.mqttlibrary.QueueOverflowPolicies;
+import com.craxiom.mqttlibrary.QueueOverflowStats;
 import com.craxiom.mqttlibrary.R;
-import com.google.protobuf.InvalidProtocolBufferException;
+import com.craxiom.mqttlibrary.ReconnectStrategies;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
 import com.google.protobuf.MessageOrBuilder;
 import com.google.protobuf.util.JsonFormat;
-import com.hivemq.client.internal.mqtt.lifecycle.mqtt3.Mqtt3ClientDisconnectedContextView;
+import com.hivemq.client.mqtt.MqttClient;
+import com.hivemq.client.mqtt.MqttClientBuilder;
+import com.hivemq.client.mqtt.datatypes.MqttTopic;
+import com.hivemq.client.mqtt.lifecycle.MqttClientReconnector;
 import com.hivemq.client.mqtt.lifecycle.MqttDisconnectSource;
-import com.hivemq.client.mqtt.mqtt3.Mqtt3AsyncClient;
-import com.hivemq.client.mqtt.mqtt3.Mqtt3Client;
-import com.hivemq.client.mqtt.mqtt3.Mqtt3ClientBuilder;
-import com.hivemq.client.mqtt.mqtt3.exceptions.Mqtt3ConnAckException;
-import com.hivemq.client.mqtt.mqtt3.message.auth.Mqtt3SimpleAuth;
-import com.hivemq.client.mqtt.mqtt3.message.auth.Mqtt3SimpleAuthBuilder;
-import com.hivemq.client.mqtt.mqtt3.message.connect.connack.Mqtt3ConnAck;
-import com.hivemq.client.mqtt.mqtt3.message.connect.connack.Mqtt3ConnAckReturnCode;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import timber.log.Timber;
@@ -49,27 +68,268 @@ public class DefaultMqttConnection
      */
     private static final long DISCONNECT_TIMEOUT = 250L;
 
+    /**
+     * The maximum time to wait for the old client to disconnect before the new client connects anyway.
+     */
+    private static final long OLD_CLIENT_DISCONNECT_TIMEOUT_MS = 3_000L;
+
+    /**
+     * Runs the teardown timeouts and reconnect delays of the clients, the timed flushes of the message batches, the
+     * flushes of the pre-connect buffer and the broker endpoint evaluations. It is shared by all the connections since
+     * it only runs short tasks.
+     */
+    private static final ScheduledExecutorService CONNECTION_TIMER = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                final Thread thread = new Thread(runnable, "MqttConnectionTimer");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * Calls the {@link IQueueBackpressureListener}s by default, so that listeners that start or stop scanning don't
+     * hold up the MQTT client's network threads. It is shared by all the connections.
+     */
+    private static final Executor BACKPRESSURE_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "MqttBackpressureListeners");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The most broker endpoint probes that run at the same time across all the connections.
+     */
+    private static final int MAX_BROKER_PROBE_THREADS = 8;
+
+    /**
+     * Probes the latency of the broker endpoints when connecting to one of several endpoints. It is shared by all the
+     * connections and bounded, so that endpoints that can't be reached don't pile up threads. The threads stop once
+     * they have been idle for a while.
+     */
+    private static final Executor BROKER_PROBE_EXECUTOR = newBrokerProbeExecutor();
+
+    /**
+     * Trains the compression dictionaries in the background, so that training does not hold up the thread that
+     * publishes the last sample. It is shared by all the connections.
+     */
+    private static final Executor DICTIONARY_TRAINING_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "MqttDictionaryTraining");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The topic level, after the topic prefix, that the retained metadata for the message topics is published under.
+     * Keeping the metadata out of the message topics means that consumers subscribed to a message topic with a wildcard
+     * only receive messages. Without a topic prefix the level starts with {@code $}, so a subscription to {@code #}
+     * does not match the metadata either.
+     */
+    static final String METADATA_TOPIC_LEVEL = "$meta/";
+
+    /**
+     * The topic level under the {@link #METADATA_TOPIC_LEVEL} that the retained Protobuf descriptors are published
+     * under. See {@link #getDescriptorTopic(String, String)}.
+     */
+    static final String DESCRIPTOR_TOPIC_LEVEL = "descriptor/";
+
+    /**
+     * The name of the directory within the app's files directory where the durable queue segment files are stored.
+     */
+    static final String DURABLE_QUEUE_DIRECTORY = "mqtt_durable_queue";
+
+    /**
+     * The topic level under the {@link #METADATA_TOPIC_LEVEL} that the retained compression dictionaries are published
+     * under. See {@link #getDictionaryTopic(String, int)}.
+     */
+    static final String DICTIONARY_TOPIC_LEVEL = "dictionary/";
+
     private final JsonFormat.Printer jsonFormatter;
-    private final List<IConnectionStateListener> mqttConnectionListeners = new CopyOnWriteArrayList<>();
-    private final List<IQueueBackpressureListener> queueBackpressureListeners = new CopyOnWriteArrayList<>();
+    private final ConnectionStateDispatcher connectionStateDispatcher = new ConnectionStateDispatcher();
+    private final BackpressureDispatcher backpressureDispatcher = new BackpressureDispatcher(BACKPRESSURE_EXECUTOR);
 
     private final Handler uiThreadHandler;
 
+    /**
+     * Pool of reusable buffers that message payloads are encoded into. Buffers are returned to the pool when the
+     * publish completes so that steady state publishing does not allocate a new payload for every message.
+     */
+    private final PayloadBufferPool payloadBufferPool = new PayloadBufferPool();
+
+    /**
+     * Cache of the validated, prefixed topics that messages are published to. Reset each time a new topic prefix is
+     * installed by {@link #connect(Context, BrokerConnectionInfo)}.
+     */
+    private final MqttTopicCache topicCache = new MqttTopicCache();
+
+    /**
+     * Combines the messages for each topic into a single publish when batching is enabled in the
+     * {@link BrokerConnectionInfo}, null otherwise.
+     */
+    private volatile MessageBatcher messageBatcher;
+
+    /**
+     * The persistent store-and-forward queue that all messages are published through when it is enabled, null
+     * otherwise.
+     */
+    private volatile DurableMessageQueue durableQueue;
+
+    /**
+     * Holds the messages published before the first connection when it is enabled with
+     * {@link #setPreConnectBufferConfig(PreConnectBufferConfig)}, null otherwise.
+     */
+    private volatile PreConnectBuffer preConnectBuffer;
+    private final PreConnectBuffer.IBufferedMessageConsumer preConnectConsumer = new PreConnectBuffer.IBufferedMessageConsumer()
+    {
+        @Override
+        public boolean isReadyToPublish()
+        {
+            return DefaultMqttConnection.this.isReadyToPublish();
+        }
+
+        @Override
+        public void publishBuffered(PreConnectBuffer.BufferedMessage message)
+        {
+            if (message.descriptor != null) publishDescriptorIfNeeded(message.mqttMessageTopic, message.descriptor);
+
+            batchOrPublishPayload(message.mqttMessageTopic, message.payloadBuffer, message.framing, message.lane);
+        }
+
+        @Override
+        public void discard(PreConnectBuffer.BufferedMessage message)
+        {
+            publishMetrics.recordDropped(message.mqttMessageTopic, message.payloadBuffer.length());
+            payloadBufferPool.release(message.payloadBuffer);
+        }
+    };
+
+    /**
+     * Holds the messages for each priority lane and feeds them to the client when lanes are configured with
+     * {@link #setPriorityLanes(List)}, null otherwise.
+     */
+    private volatile PriorityLaneScheduler laneScheduler;
+    private final PriorityLaneScheduler.ILanePublisher lanePublisher = this::publishCounted;
+
+    /**
+     * Sizes the streaming queue from the publish latency when it is enabled with
+     * {@link #setAdaptiveWindowConfig(AdaptiveWindowConfig)}, null otherwise.
+     */
+    private volatile AdaptiveWindowController adaptiveWindow;
+
+    /**
+     * The counters and latency histograms for the messages published through this connection.
+     */
+    private final PublishMetricsRegistry publishMetrics = new PublishMetricsRegistry();
+    private ScheduledFuture<?> publishMetricsReport;
+
     private volatile ConnectionState connectionState = ConnectionState.DISCONNECTED;
-    private Mqtt3AsyncClient mqtt3Client;
+
+    /**
+     * The HiveMQ client for the MQTT protocol version selected in the {@link BrokerConnectionInfo}.
+     */
+    private volatile IMqttClientEngine mqttEngine;
+
+    /**
+     * The client that messages are published to, which is the {@link #primaryTarget} unless publishing has failed over
+     * to the {@link #standbyTarget}.
+     */
+    private volatile PublishTarget publishTarget;
+    private volatile PublishTarget primaryTarget;
+
+    /**
+     * The hot standby broker set with {@link #setHotStandbyBroker(BrokerConnectionInfo)}, or null if there isn't one.
+     */
+    private volatile BrokerConnectionInfo standbyConnectionInfo;
+
+    /**
+     * The client connected to the hot standby broker while the connection is in use, null otherwise.
+     */
+    private volatile PublishTarget standbyTarget;
+
+    /**
+     * Generation counter for the hot standby client, which works like {@link #clientGeneration} does for the primary
+     * client.
+     */
+    private final AtomicLong standbyGeneration = new AtomicLong(0);
+
+    /**
+     * True while the primary client is reconnecting after it lost its connection or failed to connect.
+     */
+    private volatile boolean primaryReconnecting = false;
+    private final AtomicLong failoverCount = new AtomicLong(0);
+    private final AtomicLong failoverInFlightCount = new AtomicLong(0);
+
+    /**
+     * Times the reconnect attempts of the primary and hot standby clients.
+     */
+    private final ReconnectScheduler reconnectScheduler = new ReconnectScheduler(CONNECTION_TIMER);
+
+    /**
+     * Chooses between the broker endpoints when connecting with
+     * {@link #connect(Context, List, BrokerSelectionConfig)}, null otherwise.
+     */
+    private volatile BrokerSelector brokerSelector;
+    private volatile BrokerConnectionInfo brokerConnectionInfo;
 
     // Queue management for backpressure
-    private volatile int streamingQueueLimit = 0; // 0 = disabled (unbounded)
-    private final AtomicInteger pendingMessageCount = new AtomicInteger(0);
-    private final AtomicBoolean queueBackpressureActive = new AtomicBoolean(false);
+    private final StreamingQueueController streamingQueue = new StreamingQueueController(
+            new StreamingQueueController.IQueueCallbacks()
+            {
+                @Override
+                public void publishFromBacklog(String mqttMessageTopic, PayloadBuffer payloadBuffer)
+                {
+                    publishCounted(mqttMessageTopic, payloadBuffer);
+                }
+
+                @Override
+                public void release(String mqttMessageTopic, PayloadBuffer payloadBuffer)
+                {
+                    publishMetrics.recordDropped(mqttMessageTopic, payloadBuffer.length());
+                    payloadBufferPool.release(payloadBuffer);
+                }
+
+                @Override
+                public void onQueueFull(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+                {
+                    Timber.w("MQTT streaming queue full (%d messages, limit %d; %d bytes, limit %d), signaling to pause scanning",
+                            queueSize, queueLimit, queueBytes, queueByteLimit);
+                    notifyQueueFull(queueSize, queueLimit, queueBytes, queueByteLimit);
+
+                    // Don't leave batched messages waiting on the timer while the producers are paused
+                    final MessageBatcher batcher = messageBatcher;
+                    if (batcher != null) batcher.flushAll();
+                }
+
+                @Override
+                public void onQueueDrained(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+                {
+                    Timber.i("MQTT streaming queue drained (%d messages, limit %d; %d bytes, limit %d), resuming scanning",
+                            queueSize, queueLimit, queueBytes, queueByteLimit);
+                    notifyQueueDrained(queueSize, queueLimit, queueBytes, queueByteLimit);
+                }
+
+                @Override
+                public void onQueueGrowthWarning(int queueSize, int queueLimit, long queueBytes, long queueByteLimit,
+                                                 long msUntilFull)
+                {
+                    Timber.d("MQTT streaming queue predicted to fill in %d ms (%d messages; %d bytes)",
+                            msUntilFull, queueSize, queueBytes);
+                    backpressureDispatcher.growthWarning(queueSize, queueLimit, queueBytes, queueByteLimit, msUntilFull);
+                }
+
+                @Override
+                public void onQueueGrowthWarningCleared(int queueSize, int queueLimit, long queueBytes,
+                                                        long queueByteLimit)
+                {
+                    backpressureDispatcher.growthWarningCleared(queueSize, queueLimit, queueBytes, queueByteLimit);
+                }
+            });
 
     protected String mqttClientId;
-    private CompletableFuture<Mqtt3ConnAck> connectFuture;
+    private CompletableFuture<?> connectFuture;
     private volatile boolean userCanceled = false;
     private volatile boolean disconnecting = false;
 
     /**
-     * Tracks whether the MQTT client has successfully connected at least once. This prevents
+     * Tracks whether the primary MQTT client has successfully connected at least once. This prevents
      * attempting to publish messages to HiveMQ before the first successful connection, which
      * can cause blocking behavior due to HiveMQ Issue #612 where operations on a client that
      * has never connected can result in CompletableFutures that never complete.
@@ -84,6 +344,25 @@ public class DefaultMqttConnection
     private final AtomicLong clientGeneration = new AtomicLong(0);
     private String topicPrefix;
     private com.hivemq.client.mqtt.datatypes.MqttQos hiveMqttQos;
+    private volatile MqttPayloadFormat payloadFormat = MqttPayloadFormat.JSON;
+
+    /**
+     * The message types whose descriptors have already been published for the current connection, for each message
+     * topic. Each retained descriptor only needs to be published once per connection. The descriptor topic is only built
+     * when the descriptor is published, so that checking this does not allocate on every publish.
+     */
+    private final Map<String, Set<Descriptors.Descriptor>> publishedDescriptors = new ConcurrentHashMap<>();
+
+    /**
+     * The payload compressor for each compressed message topic, as configured in the {@link BrokerConnectionInfo}.
+     */
+    private volatile Map<String, PayloadCompressor> payloadCompressors = Collections.emptyMap();
+
+    /**
+     * The compression dictionaries that have already been published for the current connection. Each trained dictionary
+     * is a new array, so the arrays are compared by identity.
+     */
+    private final Set<byte[]> publishedDictionaries = ConcurrentHashMap.newKeySet();
 
     protected DefaultMqttConnection()
     {
@@ -95,65 +374,121 @@ public class DefaultMqttConnection
     /**
      * Connect to the MQTT Broker.
      * <p>
-     * Synchronize so that we don't mess with the connection client while creating a new connection.
+     * Synchronize so that we don't mess with the connection client while creating a new connection. This returns
+     * right away; any previous client is disconnected in the background and the new client connects once that has
+     * completed, or after 3 seconds if the old client does not disconnect cleanly.
      *
      * @param applicationContext The context to use for the MQTT Android Client.
      */
-    @SuppressWarnings("NonPrivateFieldAccessedInSynchronizedContext")
     public synchronized void connect(Context applicationContext, BrokerConnectionInfo connectionInfo)
     {
-        try
-        {
-            // Increment generation FIRST to invalidate any callbacks from old client
-            final long thisGeneration = clientGeneration.incrementAndGet();
-            hasConnectedOnce = false;
-            Timber.d("Creating new MQTT client with generation %d", thisGeneration);
+        closeBrokerSelector();
+        connectToBroker(applicationContext, connectionInfo);
+    }
 
-            if (mqtt3Client != null && mqtt3Client.getState().isConnectedOrReconnect())
-            {
-                Timber.d("Attempting to disconnect old client before creating new one");
-                try
-                {
-                    final CompletableFuture<Void> disconnectFuture = mqtt3Client.disconnect();
-                    disconnectFuture.get(3, TimeUnit.SECONDS);
-                    Timber.d("Old client disconnect completed");
-                } catch (Throwable t)
-                {
-                    // This is expected when the old client was in reconnecting state but not actually connected.
-                    // The generation counter will ensure the old client's callbacks are ignored anyway.
-                    Timber.d(t, "Old client disconnect did not complete cleanly (expected if client was reconnecting)");
-                }
-            }
+    /**
+     * Connect to the fastest of several MQTT Broker endpoints, such as brokers in different regions.
+     * <p>
+     * The TCP connection latency of each endpoint, including the TLS handshake if TLS is enabled for the endpoint, is
+     * probed in parallel on background threads, and the client connects to the fastest endpoint that could be
+     * reached. The endpoints are probed again periodically and each time the client is reconnecting, and the client
+     * switches to another endpoint once it has been consistently faster by the margin in the
+     * {@link BrokerSelectionConfig}. While reconnecting, it switches right away if the current endpoint can't be
+     * reached. Switching creates a new client for the other endpoint, like calling
+     * {@link #connect(Context, BrokerConnectionInfo)} does.
+     *
+     * @param applicationContext The context to use for the MQTT Android Client.
+     * @param endpoints          The endpoints to choose from, in order of preference for endpoints that are equally
+     *                           fast.
+     * @param selectionConfig    The settings for choosing between the endpoints. If null,
+     *                           {@link BrokerSelectionConfig#DEFAULT} is used.
+     * @throws IllegalArgumentException If the list of endpoints is empty.
+     * @since 1.3.0
+     */
+    public synchronized void connect(Context applicationContext, List<BrokerConnectionInfo> endpoints,
+                                     BrokerSelectionConfig selectionConfig)
+    {
+        final BrokerSelector selector = new BrokerSelector(endpoints,
+                selectionConfig != null ? selectionConfig : BrokerSelectionConfig.DEFAULT, new HandshakeLatencyProbe(),
+                CONNECTION_TIMER, BROKER_PROBE_EXECUTOR);
 
-            userCanceled = false;
-            mqttClientId = connectionInfo.getMqttClientId();
-            topicPrefix = connectionInfo.getTopicPrefix();
-            hiveMqttQos = com.hivemq.client.mqtt.datatypes.MqttQos.fromCode(
-                    connectionInfo.getMqttQos().getValue());
+        closeBrokerSelector();
+        userCanceled = false;
+        brokerSelector = selector;
+        selector.start(endpoint -> switchBrokerEndpoint(applicationContext, selector, endpoint));
+    }
 
-            final String username = connectionInfo.getMqttUsername();
-            final String password = connectionInfo.getMqttPassword();
+    /**
+     * @return The connection information of the broker that the client is connected or connecting to, which is the
+     * selected endpoint when connecting to one of several endpoints. Null if a broker has not been chosen yet.
+     * @since 1.3.0
+     */
+    public BrokerConnectionInfo getBrokerConnectionInfo()
+    {
+        return brokerConnectionInfo;
+    }
 
-            final Mqtt3ClientBuilder mqtt3ClientBuilder = Mqtt3Client.builder().identifier(mqttClientId);
+    /**
+     * Called by the {@link BrokerSelector} from a background thread to connect to the selected endpoint.
+     */
+    private synchronized void switchBrokerEndpoint(Context applicationContext, BrokerSelector selector,
+                                                   BrokerConnectionInfo endpoint)
+    {
+        // Ignore a selector that was replaced or stopped while it was probing
+        if (selector != brokerSelector || userCanceled) return;
 
-            if (username != null || password != null)
-            {
-                Mqtt3SimpleAuthBuilder authBuilder = Mqtt3SimpleAuth.builder();
-                if (username != null)
-                {
-                    final Mqtt3SimpleAuthBuilder.Complete authBuilderComplete = authBuilder.username(username);
-                    if (password != null) authBuilderComplete.password(password.getBytes());
+        connectToBroker(applicationContext, endpoint);
+    }
 
-                    mqtt3ClientBuilder.simpleAuth(authBuilderComplete.build());
-                }
+    private synchronized void closeBrokerSelector()
+    {
+        final BrokerSelector selector = brokerSelector;
+        if (selector == null) return;
+
+        brokerSelector = null;
+        selector.close();
+    }
+
+    private static Executor newBrokerProbeExecutor()
+    {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_BROKER_PROBE_THREADS, MAX_BROKER_PROBE_THREADS,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            final Thread thread = new Thread(runnable, "MqttBrokerProbe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @SuppressWarnings("NonPrivateFieldAccessedInSynchronizedContext")
+    private synchronized void connectToBroker(Context applicationContext, BrokerConnectionInfo connectionInfo)
+    {
+        try
+        {
+            // Send any partially filled batches to the old client before it is disconnected. This has to happen while
+            // the old client still counts as connected, otherwise the batches are dropped instead of published.
+            if (messageBatcher != null)
+            {
+                messageBatcher.close();
+                messageBatcher = null;
             }
 
-            if (connectionInfo.isTlsEnabled()) mqtt3ClientBuilder.sslWithDefaultConfig();
+            // Increment generation to invalidate any callbacks from old client
+            final long thisGeneration = clientGeneration.incrementAndGet();
+            hasConnectedOnce = false;
+            Timber.d("Creating new MQTT client with generation %d", thisGeneration);
+
+            // The old client is disconnected in the background, and the new client connects once that completes
+            final CompletableFuture<Void> oldClientTeardown = tearDownClient(mqttEngine);
+
+            userCanceled = false;
+            applyPublishSettings(connectionInfo);
 
-            mqtt3ClientBuilder.serverHost(connectionInfo.getMqttBrokerHost())
-                    .serverPort(connectionInfo.getPortNumber())
-                    .automaticReconnect().maxDelay(20, TimeUnit.SECONDS).applyAutomaticReconnect()
+            // The window from the previous connection no longer applies, and the new one is set once connected
+            streamingQueue.setInFlightWindow(0);
 
+            final MqttClientBuilder clientBuilder = newClientBuilder(connectionInfo)
                     .addConnectedListener(context -> {
                         // Check if this listener's generation is still current
                         if (thisGeneration != clientGeneration.get())
@@ -168,13 +503,17 @@ public class DefaultMqttConnection
                             Timber.i("The user canceled the MQTT connection prior to the connection attempt completing, closing the new connection");
                             synchronized (this)
                             {
-                                mqtt3Client.disconnect();
+                                mqttEngine.disconnect();
                             }
                         } else
                         {
                             Timber.i("MQTT Broker Connected!!!!");
+                            primaryReconnecting = false;
                             hasConnectedOnce = true;
+                            switchBackFromStandby();
+                            updateInFlightWindow();
                             notifyConnectionStateChange(ConnectionState.CONNECTED);
+                            resumePublishing();
                         }
                     })
 
@@ -192,18 +531,7 @@ public class DefaultMqttConnection
                         final MqttDisconnectSource source = context.getSource();
                         Timber.d(context.getCause(), "MQTT Broker disconnected. source=%s", source);
 
-                        Mqtt3ConnAckReturnCode returnCode = null;
-                        if (context instanceof Mqtt3ClientDisconnectedContextView)
-                        {
-                            final Throwable cause = context.getCause();
-                            if (cause instanceof Mqtt3ConnAckException)
-                            {
-                                returnCode = ((Mqtt3ConnAckException) cause).getMqttMessage().getReturnCode();
-                            }
-                        }
-
-                        if (returnCode == Mqtt3ConnAckReturnCode.BAD_USER_NAME_OR_PASSWORD
-                                || returnCode == Mqtt3ConnAckReturnCode.NOT_AUTHORIZED)
+                        if (mqttEngine.isAuthenticationFailure(context.getCause()))
                         {
                             notifyConnectionStateChange(ConnectionState.DISCONNECTED);
                             Timber.d("Force stopping the reconnect attempts because the username and password were not correct");
@@ -233,208 +561,1682 @@ public class DefaultMqttConnection
                             }
                         }*/ else
                         {
-                            notifyConnectionStateChange(ConnectionState.CONNECTING);
+                            // Keep publishing through the hot standby broker, if there is one, while reconnecting
+                            primaryReconnecting = true;
+                            if (!failOverToStandby()) notifyConnectionStateChange(ConnectionState.CONNECTING);
+                            scheduleReconnect(context.getReconnector());
+
+                            // Another endpoint might be reachable when this one is not
+                            final BrokerSelector selector = brokerSelector;
+                            if (selector != null) selector.requestReevaluation();
                         }
                     });
 
-            mqtt3Client = mqtt3ClientBuilder.buildAsync();
+            mqttEngine = buildEngine(clientBuilder, connectionInfo);
+            primaryTarget = new PublishTarget(mqttEngine);
+            primaryReconnecting = false;
 
-            // Clean session must be set to false if we want the HiveMQ client library to queue messages while this
-            // device is offline, and then to send those messages when the device comes back online.
-            connectFuture = mqtt3Client.connectWith().cleanSession(false).send();
+            // Publishing stays on the hot standby broker until the new primary client connects
+            if (!isPublishingToStandby()) publishTarget = primaryTarget;
+
+            final IMqttClientEngine engine = mqttEngine;
+            connectFuture = oldClientTeardown.thenCompose(ignored -> connectIfCurrent(engine, thisGeneration));
         } catch (Exception e)
         {
             Timber.e(e, "Unable to create the connection to the MQTT broker");
         }
+
+        startHotStandby();
     }
 
     /**
-     * Disconnect from the MQTT Broker.
-     * <p>
-     * This method is synchronized so that we don't try connecting while a disconnect is in progress.
+     * Applies the settings from the connection info that the publish path uses. The message batcher and the payload
+     * compressors are replaced, so any partially filled batches must already have been published.
      */
-    public synchronized void disconnect()
+    private void applyPublishSettings(BrokerConnectionInfo connectionInfo)
     {
-        userCanceled = true;
-
-        if (mqtt3Client != null)
+        brokerConnectionInfo = connectionInfo;
+        mqttClientId = connectionInfo.getMqttClientId();
+        topicPrefix = connectionInfo.getTopicPrefix();
+        topicCache.reset(topicPrefix);
+        hiveMqttQos = com.hivemq.client.mqtt.datatypes.MqttQos.fromCode(connectionInfo.getMqttQos().getValue());
+        payloadFormat = connectionInfo.getPayloadFormat();
+        final BatchingConfig batchingConfig = connectionInfo.getBatchingConfig();
+        if (batchingConfig.isEnabled())
         {
-            try
-            {
-                if (connectFuture != null && !connectFuture.isDone())
-                {
-                    Timber.i("Canceling the currently connecting connection using the future");
-                    connectFuture.cancel(true);
-                }
-
-                // Just in case the connection completed between calling isDone() and cancel(), we go through the disconnect to be sure
-                disconnecting = true;
-                final CompletableFuture<Void> disconnect = mqtt3Client.disconnect();
-                disconnect.whenComplete((aVoid, throwable) -> {
-                    Timber.d(throwable, "The MQTT disconnect request completed");
-                    notifyConnectionStateChange(ConnectionState.DISCONNECTED);
-                    disconnecting = false;
-                });
-            } catch (Exception e)
-            {
-                Timber.e(e, "An exception occurred when disconnecting from the MQTT broker");
-                disconnecting = false;
-            }
+            messageBatcher = new MessageBatcher(batchingConfig, payloadBufferPool, CONNECTION_TIMER,
+                    this::publishBatch);
         }
+        publishedDescriptors.clear();
+        installPayloadCompressors(connectionInfo.getCompressionConfigs());
     }
 
     /**
-     * @return The current {@link ConnectionState} of the connection to the MQTT Broker.
-     */
-    public ConnectionState getConnectionState()
-    {
-        return connectionState;
-    }
-
-    /**
-     * Send the provided Protobuf message to the MQTT Broker.
-     * <p>
-     * The Protobuf message is formatted as JSON and then published to the specified topic.
+     * Disconnects the client without waiting for the disconnect to complete.
      *
-     * @param mqttMessageTopic The MQTT Topic to publish the message to. The {@link #topicPrefix} will be prepended to this.
-     * @param message          The Protobuf message to format as JSON and send to the MQTT Broker.
+     * @param engine The old client, or null if there isn't one.
+     * @return The future that completes once the client has disconnected, or once
+     * {@link #OLD_CLIENT_DISCONNECT_TIMEOUT_MS} has passed if it does not disconnect cleanly. It never completes
+     * exceptionally.
      */
-    protected void publishMessage(String mqttMessageTopic, MessageOrBuilder message)
+    private static CompletableFuture<Void> tearDownClient(IMqttClientEngine engine)
     {
+        final CompletableFuture<Void> tornDown = new CompletableFuture<>();
+        if (engine == null || !engine.getState().isConnectedOrReconnect())
+        {
+            tornDown.complete(null);
+            return tornDown;
+        }
+
+        Timber.d("Disconnecting the old client in the background before connecting the new one");
         try
         {
-            final String jsonMessage = jsonFormatter.print(message);
-            publishMessage(mqttMessageTopic, jsonMessage);
-        } catch (InvalidProtocolBufferException e)
+            engine.disconnect().whenComplete((aVoid, throwable) -> {
+                // A failure is expected when the old client was reconnecting rather than connected. The generation
+                // counter ensures the old client's callbacks are ignored anyway.
+                Timber.d(throwable, "Old client disconnect completed");
+                tornDown.complete(null);
+            });
+        } catch (Exception e)
         {
-            Timber.e(e, "Caught an exception when trying to send an MQTT message");
+            Timber.d(e, "Old client disconnect did not complete cleanly");
+            tornDown.complete(null);
         }
+
+        CONNECTION_TIMER.schedule(() -> {
+            if (tornDown.complete(null)) Timber.d("Timed out waiting for the old client to disconnect");
+        }, OLD_CLIENT_DISCONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        return tornDown;
     }
 
     /**
-     * Publishes the JSON string to the specified topic.
-     * <p>
-     * If a streaming queue limit is configured and the queue is full, the message will be dropped
-     * and a backpressure notification will be sent to listeners.
+     * Sends the connect request for the new client once the old client has been torn down, unless another client has
+     * been created or the user disconnected in the meantime.
      *
-     * @param mqttMessageTopic The MQTT topic to publish the message to. The {@link #topicPrefix} will be prepended to this.
-     * @param jsonMessage      The JSON string to send to the MQTT broker.
-     * @since 0.6.0
+     * @return The future that completes when the broker has acknowledged the connection, or right away if the client
+     * is no longer current.
      */
-    protected void publishMessage(String mqttMessageTopic, String jsonMessage)
+    private CompletableFuture<?> connectIfCurrent(IMqttClientEngine engine, long generation)
     {
-        // Don't attempt to publish until we've connected at least once.
-        // This prevents the HiveMQ blocking bug (Issue #612) where publishing to a client
-        // that has never successfully connected can result in CompletableFutures that never
-        // complete, causing blocking behavior and UI freezes.
-        if (!hasConnectedOnce || !mqtt3Client.getState().isConnectedOrReconnect())
-        {
-            return;
-        }
-
-        // If queue limit is disabled (0), use the original fire-and-forget behavior
-        if (streamingQueueLimit <= 0)
+        if (generation != clientGeneration.get() || userCanceled)
         {
-            mqtt3Client.publishWith()
-                    .topic(topicPrefix + mqttMessageTopic)
-                    .qos(hiveMqttQos)
-                    .payload(jsonMessage.getBytes())
-                    .send();
-            return;
+            Timber.d("Skipping the connect of the MQTT client with generation %d because it was replaced", generation);
+            return CompletableFuture.completedFuture(null);
         }
 
-        // Queue limit is enabled - use increment-first pattern to avoid race conditions
-        // where multiple threads pass the check before any increment
-        final int newPending = pendingMessageCount.incrementAndGet();
-        if (newPending > streamingQueueLimit)
-        {
-            // Queue is over limit - decrement and apply backpressure
-            pendingMessageCount.decrementAndGet();
-            // Notify listeners if this is a new backpressure event
-            if (!queueBackpressureActive.getAndSet(true))
-            {
-                Timber.w("MQTT streaming queue full (%d > %d), signaling to pause scanning",
-                        newPending - 1, streamingQueueLimit);
-                notifyQueueFull(newPending - 1, streamingQueueLimit);
-            }
-            // Drop the message - scanning should be paused by now
-            return;
-        }
+        return engine.connect();
+    }
 
-        // Proceed with publishing - count already incremented
-        mqtt3Client.publishWith()
-                .topic(topicPrefix + mqttMessageTopic)
-                .qos(hiveMqttQos)
-                .payload(jsonMessage.getBytes())
-                .send()
-                .whenComplete((result, error) -> {
-                    final int remaining = pendingMessageCount.decrementAndGet();
+    /**
+     * @return A client builder with the address, TLS and reconnect settings for the broker.
+     */
+    private static MqttClientBuilder newClientBuilder(BrokerConnectionInfo connectionInfo)
+    {
+        final MqttClientBuilder clientBuilder = MqttClient.builder().identifier(connectionInfo.getMqttClientId());
 
-                    // Resume scanning when queue drains to half the limit
-                    if (queueBackpressureActive.get() && remaining < streamingQueueLimit / 2)
-                    {
-                        if (queueBackpressureActive.getAndSet(false))
-                        {
-                            Timber.i("MQTT streaming queue drained (%d < %d/2), resuming scanning",
-                                    remaining, streamingQueueLimit);
-                            notifyQueueDrained(remaining, streamingQueueLimit);
-                        }
-                    }
+        if (connectionInfo.isTlsEnabled()) clientBuilder.sslWithDefaultConfig();
 
-                    if (error != null)
-                    {
-                        Timber.w(error, "Error publishing MQTT message");
-                    }
-                });
+        // Reconnects are scheduled by the disconnected listeners with the reconnect strategy
+        return clientBuilder.serverHost(connectionInfo.getMqttBrokerHost())
+                .serverPort(connectionInfo.getPortNumber());
     }
 
     /**
-     * Adds an {@link IConnectionStateListener} so that it will be notified of all future MQTT connection state changes.
-     *
-     * @param connectionStateListener The listener to add.
+     * Tells the client to reconnect after the delay from the {@link IReconnectStrategy}, or sooner if a network
+     * becomes available. Must be called from a disconnected listener.
      */
-    public void registerMqttConnectionStateListener(IConnectionStateListener connectionStateListener)
+    private void scheduleReconnect(MqttClientReconnector reconnector)
     {
-        mqttConnectionListeners.add(connectionStateListener);
+        reconnector.reconnect(true)
+                .delay(0, TimeUnit.MILLISECONDS)
+                .reconnectWhen(reconnectScheduler.nextAttempt(reconnector.getAttempts()),
+                        (ignored, throwable) -> Timber.d("Reconnecting to the MQTT broker"));
     }
 
     /**
-     * Removes an {@link IConnectionStateListener} so that it will no longer be notified of MQTT connection state changes.
+     * Publishes to the provided client as if it had already connected, without creating a HiveMQ client. The tests and
+     * benchmarks use this to run the whole publish path against a fake client.
+     *
+     * @param engine         The client to publish to.
+     * @param connectionInfo The settings to publish with. The broker address in it is not used.
+     */
+    synchronized void attachEngine(IMqttClientEngine engine, BrokerConnectionInfo connectionInfo)
+    {
+        applyPublishSettings(connectionInfo);
+        mqttEngine = engine;
+        primaryTarget = new PublishTarget(engine);
+        publishTarget = primaryTarget;
+        hasConnectedOnce = true;
+    }
+
+    /**
+     * Builds the client for the MQTT protocol version selected in the connection info. Messages are published with the
+     * QoS of the primary broker.
+     */
+    private IMqttClientEngine buildEngine(MqttClientBuilder clientBuilder, BrokerConnectionInfo connectionInfo)
+    {
+        final String username = connectionInfo.getMqttUsername();
+        final String password = connectionInfo.getMqttPassword();
+
+        final Mqtt5Config mqtt5Config = connectionInfo.getMqtt5Config();
+        if (mqtt5Config != null)
+        {
+            return new Mqtt5ClientEngine(clientBuilder.useMqttVersion5(), username, password, hiveMqttQos,
+                    mqtt5Config);
+        }
+
+        return new Mqtt3ClientEngine(clientBuilder.useMqttVersion3(), username, password, hiveMqttQos);
+    }
+
+    /**
+     * Connects the client to the hot standby broker if one is set and the client is not already connected.
+     */
+    private synchronized void startHotStandby()
+    {
+        final BrokerConnectionInfo connectionInfo = standbyConnectionInfo;
+        if (connectionInfo == null || standbyTarget != null || userCanceled) return;
+
+        try
+        {
+            final long thisGeneration = standbyGeneration.incrementAndGet();
+            Timber.d("Creating new hot standby MQTT client with generation %d", thisGeneration);
+
+            final MqttClientBuilder clientBuilder = newClientBuilder(connectionInfo)
+                    .addConnectedListener(context -> {
+                        if (thisGeneration != standbyGeneration.get()) return;
+
+                        Timber.i("Hot standby MQTT Broker Connected");
+
+                        // The primary might have been lost before the standby connection was ready
+                        if (primaryReconnecting) failOverToStandby();
+                    })
+
+                    .addDisconnectedListener(context -> {
+                        if (thisGeneration != standbyGeneration.get() || userCanceled)
+                        {
+                            context.getReconnector().reconnect(false);
+                            return;
+                        }
+
+                        Timber.d(context.getCause(), "Hot standby MQTT Broker disconnected. source=%s",
+                                context.getSource());
+
+                        final PublishTarget standby = standbyTarget;
+                        if (standby == null) return;
+
+                        if (standby.engine.isAuthenticationFailure(context.getCause()))
+                        {
+                            Timber.w("Force stopping the hot standby reconnect attempts because the username and password were not correct");
+                            context.getReconnector().reconnect(false);
+                        } else
+                        {
+                            scheduleReconnect(context.getReconnector());
+                        }
+
+                        switchBackFromLostStandby(standby);
+                    });
+
+            final PublishTarget standby = new PublishTarget(buildEngine(clientBuilder, connectionInfo));
+            standbyTarget = standby;
+            standby.engine.connect();
+        } catch (Exception e)
+        {
+            Timber.e(e, "Unable to create the connection to the hot standby MQTT broker");
+        }
+    }
+
+    /**
+     * Disconnects the client from the hot standby broker, moving publishing back to the primary client if it had
+     * failed over.
+     */
+    private synchronized void stopHotStandby()
+    {
+        final PublishTarget standby = standbyTarget;
+        if (standby == null) return;
+
+        // Invalidate the callbacks of the standby client before it is disconnected
+        standbyGeneration.incrementAndGet();
+        if (publishTarget == standby)
+        {
+            switchPublishTarget(primaryTarget, true);
+            updateInFlightWindow();
+        }
+        standbyTarget = null;
+
+        try
+        {
+            standby.engine.disconnect().whenComplete((aVoid, throwable) ->
+                    Timber.d(throwable, "The hot standby MQTT disconnect request completed"));
+        } catch (Exception e)
+        {
+            Timber.e(e, "An exception occurred when disconnecting from the hot standby MQTT broker");
+        }
+    }
+
+    /**
+     * Moves publishing to the hot standby client because the primary client is reconnecting.
+     *
+     * @return True if messages are being published to the hot standby client, false if there isn't one or it is not
+     * connected.
+     */
+    private synchronized boolean failOverToStandby()
+    {
+        final PublishTarget standby = standbyTarget;
+        if (standby == null || userCanceled) return false;
+        if (publishTarget == standby) return true;
+        if (!standby.engine.getState().isConnected()) return false;
+
+        Timber.i("Failing over to the hot standby MQTT broker");
+        failoverCount.incrementAndGet();
+        switchPublishTarget(standby, true);
+        updateInFlightWindow();
+        if (connectionState != ConnectionState.CONNECTED) notifyConnectionStateChange(ConnectionState.CONNECTED);
+        resumePublishing();
+        return true;
+    }
+
+    /**
+     * Moves publishing back to the primary client now that it is connected again. The messages in flight on the hot
+     * standby client keep their slots in the streaming queue, since the standby is still connected to complete them.
+     */
+    private synchronized void switchBackFromStandby()
+    {
+        if (!isPublishingToStandby()) return;
+
+        Timber.i("Switching back from the hot standby MQTT broker to the primary broker");
+        switchPublishTarget(primaryTarget, false);
+    }
+
+    /**
+     * Moves publishing back to the primary client, which is still reconnecting, because the hot standby client lost
+     * its connection as well.
+     */
+    private synchronized void switchBackFromLostStandby(PublishTarget standby)
+    {
+        if (publishTarget != standby) return;
+
+        Timber.i("Lost the hot standby MQTT broker while publishing to it, waiting for either broker to reconnect");
+        switchPublishTarget(primaryTarget, true);
+        updateInFlightWindow();
+        notifyConnectionStateChange(ConnectionState.CONNECTING);
+    }
+
+    /**
+     * Changes the client that messages are published to.
+     * <p>
+     * If the old client lost its connection, the slots of the messages still in flight on it are released from the
+     * streaming queue so that they don't hold back the new client until the old one reconnects. HiveMQ still sends
+     * those messages once the old client reconnects, since the session is kept, so they are not lost. A new target is
+     * created for the old client so that its later publishes are counted again.
+     *
+     * @param newTarget The client to publish messages to from now on.
+     * @param detachOld True if the old client lost its connection.
+     */
+    private synchronized void switchPublishTarget(PublishTarget newTarget, boolean detachOld)
+    {
+        final PublishTarget oldTarget = publishTarget;
+        publishTarget = newTarget;
+
+        // The retained descriptors and dictionaries are published again to the broker that is now published to
+        publishedDescriptors.clear();
+        publishedDictionaries.clear();
+
+        if (!detachOld || oldTarget == null || oldTarget == newTarget || !oldTarget.detach()) return;
+
+        if (oldTarget == primaryTarget) primaryTarget = new PublishTarget(oldTarget.engine);
+        if (oldTarget == standbyTarget) standbyTarget = new PublishTarget(oldTarget.engine);
+
+        final int inFlightCount = oldTarget.getInFlightCount();
+        Timber.d("Releasing %d in-flight messages from the streaming queue after the switch", inFlightCount);
+        failoverInFlightCount.addAndGet(inFlightCount);
+        streamingQueue.releaseSlots(inFlightCount, oldTarget.getInFlightBytes());
+    }
+
+    /**
+     * Starts sending the messages held in the pre-connect buffer and durable queue now that a client is connected.
+     */
+    private void resumePublishing()
+    {
+        final PreConnectBuffer buffer = preConnectBuffer;
+        if (buffer != null) buffer.startFlush();
+
+        final DurableMessageQueue queue = durableQueue;
+        if (queue != null) queue.signal();
+    }
+
+    /**
+     * Disconnect from the MQTT Broker.
+     * <p>
+     * This method is synchronized so that we don't try connecting while a disconnect is in progress.
+     */
+    public synchronized void disconnect()
+    {
+        userCanceled = true;
+        closeBrokerSelector();
+        stopHotStandby();
+
+        if (mqttEngine != null)
+        {
+            try
+            {
+                if (connectFuture != null && !connectFuture.isDone())
+                {
+                    Timber.i("Canceling the currently connecting connection using the future");
+                    connectFuture.cancel(true);
+                }
+
+                // Publish any partially filled batches before the disconnect request is sent
+                if (messageBatcher != null) messageBatcher.flushAll();
+
+                // Just in case the connection completed between calling isDone() and cancel(), we go through the disconnect to be sure
+                disconnecting = true;
+                final long disconnectGeneration = clientGeneration.get();
+                final CompletableFuture<Void> disconnect = mqttEngine.disconnect();
+                disconnect.whenComplete((aVoid, throwable) -> {
+                    Timber.d(throwable, "The MQTT disconnect request completed");
+
+                    // A connect made while the disconnect was in progress has already replaced the client
+                    if (disconnectGeneration == clientGeneration.get())
+                    {
+                        notifyConnectionStateChange(ConnectionState.DISCONNECTED);
+                    }
+                    disconnecting = false;
+                });
+            } catch (Exception e)
+            {
+                Timber.e(e, "An exception occurred when disconnecting from the MQTT broker");
+                disconnecting = false;
+            }
+        }
+    }
+
+    /**
+     * @return The current {@link ConnectionState} of the connection to the MQTT Broker.
+     */
+    public ConnectionState getConnectionState()
+    {
+        return connectionState;
+    }
+
+    /**
+     * Sets the strategy that decides how long to wait before each attempt to reconnect to the broker after the
+     * connection is lost or a connection attempt fails. The new strategy applies from the next reconnect attempt.
+     * <p>
+     * The built-in strategies are available from {@link ReconnectStrategies}. The default is
+     * {@link ReconnectStrategies#DEFAULT}, a full jitter exponential backoff capped at 20 seconds.
+     *
+     * @param strategy The reconnect strategy to use.
+     * @since 1.3.0
+     */
+    public void setReconnectStrategy(IReconnectStrategy strategy)
+    {
+        reconnectScheduler.setStrategy(strategy);
+        Timber.d("MQTT reconnect strategy set to %s", strategy);
+    }
+
+    /**
+     * @return The strategy that decides how long to wait before each reconnect attempt.
+     * @since 1.3.0
+     */
+    public IReconnectStrategy getReconnectStrategy()
+    {
+        return reconnectScheduler.getStrategy();
+    }
+
+    /**
+     * Sets the source of network availability events that cut a reconnect delay short. When the source reports that a
+     * network is available, any reconnect attempt that is waiting out its delay is made right away, so the client does
+     * not sit idle after a handover from Wi-Fi to cellular. The source is started right away, and the previous source
+     * is stopped.
+     * <p>
+     * Use {@link ConnectivityNetworkAvailabilitySource} on Android devices.
+     *
+     * @param source The network availability source, or null to only use the reconnect delays.
+     * @since 1.3.0
+     */
+    public void setNetworkAvailabilitySource(INetworkAvailabilitySource source)
+    {
+        reconnectScheduler.setNetworkAvailabilitySource(source);
+    }
+
+    /**
+     * @return The source of network availability events, or null if there isn't one.
+     * @since 1.3.0
+     */
+    public INetworkAvailabilitySource getNetworkAvailabilitySource()
+    {
+        return reconnectScheduler.getNetworkAvailabilitySource();
+    }
+
+    /**
+     * Sets the hot standby broker that messages are published to while the primary broker can't be reached.
+     * <p>
+     * While connected, a second client is kept connected to the standby broker but left idle. When the primary client
+     * loses its connection, publishing switches over to the standby client right away instead of waiting for the
+     * primary to reconnect, and the connection state stays {@link ConnectionState#CONNECTED}. Publishing switches back
+     * to the primary client once it has reconnected. The messages that were in flight on the primary client at the
+     * switch are released from the pending count (see {@link #getHotStandbyInFlightReleasedCount()}) and are sent by
+     * the primary client once it reconnects.
+     * <p>
+     * Only the address, TLS setting, credentials, client ID and MQTT version are used from the standby connection
+     * info. The topic prefix, QoS, payload format, batching and compression of the primary broker apply to both. The
+     * client ID should differ from the primary one in case both brokers share a session store. The retained Protobuf
+     * descriptors and compression dictionaries are published again after each switch.
+     *
+     * @param connectionInfo The connection information for the standby broker, or null to disable the hot standby.
+     * @since 1.3.0
+     */
+    public synchronized void setHotStandbyBroker(BrokerConnectionInfo connectionInfo)
+    {
+        stopHotStandby();
+        standbyConnectionInfo = connectionInfo;
+
+        if (connectionInfo == null)
+        {
+            Timber.d("MQTT hot standby disabled");
+            return;
+        }
+
+        Timber.d("MQTT hot standby set to %s:%d", connectionInfo.getMqttBrokerHost(), connectionInfo.getPortNumber());
+        if (mqttEngine != null) startHotStandby();
+    }
+
+    /**
+     * @return The connection information for the hot standby broker, or null if there isn't one.
+     * @since 1.3.0
+     */
+    public BrokerConnectionInfo getHotStandbyBroker()
+    {
+        return standbyConnectionInfo;
+    }
+
+    /**
+     * @return True if messages are currently being published to the hot standby broker because the primary broker
+     * can't be reached.
+     * @since 1.3.0
+     */
+    public boolean isPublishingToHotStandby()
+    {
+        return isPublishingToStandby();
+    }
+
+    /**
+     * @return The number of times publishing has failed over from the primary broker to the hot standby broker.
+     * @since 1.3.0
+     */
+    public long getHotStandbyFailoverCount()
+    {
+        return failoverCount.get();
+    }
+
+    /**
+     * Gets the number of messages that were in flight on a client that lost its connection when publishing switched
+     * away from it. These messages are no longer counted by {@link #getPendingMessageCount()}, and are sent once that
+     * client reconnects.
+     *
+     * @return The number of messages released from the pending count by the hot standby switches.
+     * @since 1.3.0
+     */
+    public long getHotStandbyInFlightReleasedCount()
+    {
+        return failoverInFlightCount.get();
+    }
+
+    /**
+     * Send the provided Protobuf message to the MQTT Broker.
+     * <p>
+     * The Protobuf message is encoded using the {@link MqttPayloadFormat} from the {@link BrokerConnectionInfo}, and
+     * then published to the specified topic. By default the message is formatted as JSON. When the binary
+     * {@link MqttPayloadFormat#PROTOBUF} format is used, a retained {@code FileDescriptorSet} for the message type is
+     * also published once per connection to {@code <topic prefix>$meta/descriptor/<topic>/<message full name>}, which is
+     * outside of the message topic so that wildcard subscriptions to the messages do not receive it.
+     * <p>
+     * If batching is enabled, the message is added to the batch for the topic instead of being published right away.
+     * JSON messages are batched into a JSON array, and binary Protobuf messages are batched as length-delimited records.
+     *
+     * @param mqttMessageTopic The MQTT Topic to publish the message to. The {@link #topicPrefix} will be prepended to this.
+     * @param message          The Protobuf message to send to the MQTT Broker.
+     */
+    protected void publishMessage(String mqttMessageTopic, MessageOrBuilder message)
+    {
+        publishMessage(mqttMessageTopic, message, null);
+    }
+
+    /**
+     * Publishes the message to the specified topic through a priority lane.
+     * <p>
+     * When priority lanes are configured with {@link #setPriorityLanes(List)} and a streaming queue limit is set, the
+     * message waits in the queue of its lane until the streaming queue has room for it, and the lanes share the room in
+     * proportion to their weights. Messages published to a named lane are never batched, so that they are not held
+     * back by the batch delay. Otherwise this behaves the same as {@link #publishMessage(String, MessageOrBuilder)}.
+     *
+     * @param mqttMessageTopic The MQTT Topic to publish the message to. The {@link #topicPrefix} will be prepended to this.
+     * @param message          The Protobuf message to send to the MQTT Broker.
+     * @param lane             The name of the priority lane, or null for the
+     *                         {@link PriorityLaneConfig#DEFAULT_LANE default lane}. Lane names that are not configured
+     *                         also use the default lane.
+     * @since 1.3.0
+     */
+    protected void publishMessage(String mqttMessageTopic, MessageOrBuilder message, String lane)
+    {
+        if (!canAcceptMessages())
+        {
+            publishMetrics.recordDropped(mqttMessageTopic, 0);
+            return;
+        }
+
+        final MqttPayloadFormat messagePayloadFormat = payloadFormat;
+        final PayloadBuffer payloadBuffer = encode(mqttMessageTopic, message, messagePayloadFormat);
+        if (payloadBuffer == null) return;
+
+        if (messagePayloadFormat == MqttPayloadFormat.PROTOBUF)
+        {
+            dispatchPayload(mqttMessageTopic, payloadBuffer, MessageBatcher.Framing.LENGTH_DELIMITED,
+                    message.getDescriptorForType(), lane);
+        } else
+        {
+            dispatchPayload(mqttMessageTopic, payloadBuffer, MessageBatcher.Framing.JSON_ARRAY, null, lane);
+        }
+    }
+
+    /**
+     * Encodes the Protobuf message with the provided format. For the binary Protobuf format, the descriptor of the
+     * message type is published first if it has not been published on this connection yet.
+     *
+     * @return The buffer holding the encoded message, or null if the message could not be encoded.
+     */
+    private PayloadBuffer encode(String mqttMessageTopic, MessageOrBuilder message,
+                                 MqttPayloadFormat messagePayloadFormat)
+    {
+        final PayloadBuffer payloadBuffer = payloadBufferPool.acquire();
+        final long serializationStart = System.nanoTime();
+        try
+        {
+            if (messagePayloadFormat == MqttPayloadFormat.PROTOBUF)
+            {
+                publishDescriptorIfNeeded(mqttMessageTopic, message.getDescriptorForType());
+                writeBinary(toMessage(message), payloadBuffer);
+            } else
+            {
+                jsonFormatter.appendTo(message, payloadBuffer);
+            }
+        } catch (IOException e)
+        {
+            payloadBufferPool.release(payloadBuffer);
+            publishMetrics.recordFailed(mqttMessageTopic, 0);
+            Timber.e(e, "Caught an exception when trying to send an MQTT message");
+            return null;
+        }
+        publishMetrics.recordSerialization(mqttMessageTopic, System.nanoTime() - serializationStart);
+        return payloadBuffer;
+    }
+
+    /**
+     * Publishes the JSON string to the specified topic.
+     * <p>
+     * If a streaming queue limit is configured and the queue is full, the message will be dropped
+     * and a backpressure notification will be sent to listeners.
+     * <p>
+     * If batching is enabled, the message is added to the JSON array batch for the topic instead of being published
+     * right away.
+     *
+     * @param mqttMessageTopic The MQTT topic to publish the message to. The {@link #topicPrefix} will be prepended to this.
+     * @param jsonMessage      The JSON string to send to the MQTT broker. It is encoded as UTF-8.
+     * @since 0.6.0
+     */
+    protected void publishMessage(String mqttMessageTopic, String jsonMessage)
+    {
+        publishMessage(mqttMessageTopic, jsonMessage, null);
+    }
+
+    /**
+     * Publishes the JSON string to the specified topic through a priority lane. See
+     * {@link #publishMessage(String, MessageOrBuilder, String)} for how the lanes are scheduled.
+     *
+     * @param mqttMessageTopic The MQTT topic to publish the message to. The {@link #topicPrefix} will be prepended to this.
+     * @param jsonMessage      The JSON string to send to the MQTT broker. It is encoded as UTF-8.
+     * @param lane             The name of the priority lane, or null for the default lane.
+     * @since 1.3.0
+     */
+    protected void publishMessage(String mqttMessageTopic, String jsonMessage, String lane)
+    {
+        if (!canAcceptMessages())
+        {
+            publishMetrics.recordDropped(mqttMessageTopic, 0);
+            return;
+        }
+
+        final long serializationStart = System.nanoTime();
+        final PayloadBuffer payloadBuffer = payloadBufferPool.acquire().append(jsonMessage);
+        publishMetrics.recordSerialization(mqttMessageTopic, System.nanoTime() - serializationStart);
+
+        dispatchPayload(mqttMessageTopic, payloadBuffer, MessageBatcher.Framing.JSON_ARRAY, null, lane);
+    }
+
+    /**
+     * Publishes the Protobuf message with one of the provided credits, which were acquired with
+     * {@link #tryAcquireCredits(int)} or {@link #awaitCredits(int, long, TimeUnit)}.
+     * <p>
+     * The message takes the room in the streaming queue that the credit holds, so it is not dropped by the queue limit
+     * or held back by the priority lanes, and the room is returned once the publish completes or fails. If the message
+     * can't be handed to the MQTT client right away, because batching or the durable queue is enabled or because the
+     * client has not connected yet, the room is returned and the message is handled the same as by
+     * {@link #publishMessage(String, MessageOrBuilder)}.
+     *
+     * @param credits          The credits to spend one of.
+     * @param mqttMessageTopic The MQTT Topic to publish the message to. The {@link #topicPrefix} will be prepended to this.
+     * @param message          The Protobuf message to send to the MQTT Broker.
+     * @throws IllegalArgumentException If the credits were acquired from another connection.
+     * @throws IllegalStateException    If all the credits have been spent or returned.
+     * @since 1.3.0
+     */
+    protected void publishMessage(PublishCredits credits, String mqttMessageTopic, MessageOrBuilder message)
+    {
+        if (!spendCredit(credits))
+        {
+            publishMessage(mqttMessageTopic, message);
+            return;
+        }
+
+        final PayloadBuffer payloadBuffer = encode(mqttMessageTopic, message, payloadFormat);
+        if (payloadBuffer == null)
+        {
+            streamingQueue.releaseSlots(1, 0);
+            return;
+        }
+
+        publishReserved(mqttMessageTopic, payloadBuffer);
+    }
+
+    /**
+     * Publishes the JSON string with one of the provided credits. See
+     * {@link #publishMessage(PublishCredits, String, MessageOrBuilder)} for how the credits are used.
+     *
+     * @param credits          The credits to spend one of.
+     * @param mqttMessageTopic The MQTT topic to publish the message to. The {@link #topicPrefix} will be prepended to this.
+     * @param jsonMessage      The JSON string to send to the MQTT broker. It is encoded as UTF-8.
+     * @throws IllegalArgumentException If the credits were acquired from another connection.
+     * @throws IllegalStateException    If all the credits have been spent or returned.
+     * @since 1.3.0
+     */
+    protected void publishMessage(PublishCredits credits, String mqttMessageTopic, String jsonMessage)
+    {
+        if (!spendCredit(credits))
+        {
+            publishMessage(mqttMessageTopic, jsonMessage);
+            return;
+        }
+
+        final long serializationStart = System.nanoTime();
+        final PayloadBuffer payloadBuffer = payloadBufferPool.acquire().append(jsonMessage);
+        publishMetrics.recordSerialization(mqttMessageTopic, System.nanoTime() - serializationStart);
+
+        publishReserved(mqttMessageTopic, payloadBuffer);
+    }
+
+    /**
+     * Spends one of the credits. If the credit holds a slot in the streaming queue and the message can be handed to
+     * the MQTT client right away, the slot is handed over to the message. Otherwise the slot is released.
+     *
+     * @return True if the message has been given a slot and must be published with
+     * {@link #publishReserved(String, PayloadBuffer)}, false if it should be published as usual.
+     */
+    private boolean spendCredit(PublishCredits credits)
+    {
+        if (!credits.belongsTo(streamingQueue))
+        {
+            throw new IllegalArgumentException("The publish credits were acquired from another connection");
+        }
+        if (!credits.spend()) throw new IllegalStateException("There are no publish credits left. " + credits);
+        if (!credits.isReserved()) return false;
+
+        final PreConnectBuffer buffer = preConnectBuffer;
+        if (durableQueue == null && messageBatcher == null && (buffer == null || buffer.isEmpty())
+                && isReadyToPublish())
+        {
+            return true;
+        }
+
+        streamingQueue.releaseSlots(1, 0);
+        return false;
+    }
+
+    /**
+     * Publishes a message that has been given the slot of a publish credit. The slot is released once HiveMQ has
+     * completed the publish, the same as for a message that claimed its own slot.
+     */
+    private void publishReserved(String mqttMessageTopic, PayloadBuffer encodedPayload)
+    {
+        final PayloadBuffer payloadBuffer = compressIfNeeded(mqttMessageTopic, encodedPayload);
+
+        final MqttTopic topic;
+        try
+        {
+            topic = topicCache.get(mqttMessageTopic);
+        } catch (RuntimeException e)
+        {
+            payloadBufferPool.release(payloadBuffer);
+            streamingQueue.releaseSlots(1, 0);
+            throw e;
+        }
+
+        streamingQueue.attachReserved(payloadBuffer.length());
+        publishCounted(mqttMessageTopic, topic, payloadBuffer);
+    }
+
+    /**
+     * Don't attempt to publish until we've connected at least once.
+     * <p>
+     * This prevents the HiveMQ blocking bug (Issue #612) where publishing to a client that has never successfully
+     * connected can result in CompletableFutures that never complete, causing blocking behavior and UI freezes.
+     *
+     * @return True if messages can be handed to the HiveMQ client, false if they should be dropped.
+     */
+    private boolean isReadyToPublish()
+    {
+        final PublishTarget target = publishTarget;
+        return hasTargetConnectedOnce() && target.engine.getState().isConnectedOrReconnect();
+    }
+
+    /**
+     * @return True if the client that messages are published to has connected at least once. The hot standby client
+     * is only published to once it has connected.
+     */
+    private boolean hasTargetConnectedOnce()
+    {
+        return hasConnectedOnce || isPublishingToStandby();
+    }
+
+    /**
+     * @return True if messages are published to the hot standby client.
+     */
+    private boolean isPublishingToStandby()
+    {
+        final PublishTarget standby = standbyTarget;
+        return standby != null && publishTarget == standby;
+    }
+
+    /**
+     * @return True if new messages can be accepted, either because they can be handed to the HiveMQ client or because
+     * the durable queue or pre-connect buffer can hold them until the client is connected.
+     */
+    private boolean canAcceptMessages()
+    {
+        return durableQueue != null || isReadyToPublish() || (!hasTargetConnectedOnce() && preConnectBuffer != null);
+    }
+
+    /**
+     * Holds the encoded message in the pre-connect buffer if the client has not connected yet, or if earlier buffered
+     * messages are still being flushed so that the message is not published ahead of them. Otherwise the message is
+     * batched or published right away.
+     * <p>
+     * The durable queue takes precedence over the pre-connect buffer since it already stores the messages until the
+     * client is connected.
+     *
+     * @param mqttMessageTopic The MQTT topic to publish the message to (without the topic prefix).
+     * @param payloadBuffer    The buffer holding the encoded message payload.
+     * @param framing          How the message should be framed if it is batched.
+     * @param descriptor       The descriptor of the binary Protobuf message type, or null for JSON messages.
+     * @param lane             The priority lane to publish the message through, or null for the default lane.
+     */
+    private void dispatchPayload(String mqttMessageTopic, PayloadBuffer payloadBuffer, MessageBatcher.Framing framing,
+                                 Descriptors.Descriptor descriptor, String lane)
+    {
+        final PreConnectBuffer buffer = preConnectBuffer;
+        if (buffer != null && durableQueue == null && (!hasTargetConnectedOnce() || !buffer.isEmpty()))
+        {
+            if (!buffer.offer(new PreConnectBuffer.BufferedMessage(mqttMessageTopic, payloadBuffer, framing, descriptor,
+                    lane)))
+            {
+                publishMetrics.recordDropped(mqttMessageTopic, payloadBuffer.length());
+                payloadBufferPool.release(payloadBuffer);
+            }
+
+            // Checked after the offer in case the connection completed while the message was being buffered
+            if (hasTargetConnectedOnce()) buffer.startFlush();
+            return;
+        }
+
+        batchOrPublishPayload(mqttMessageTopic, payloadBuffer, framing, lane);
+    }
+
+    /**
+     * Hands the encoded message off to the batcher if batching is enabled, otherwise publishes it right away.
+     * <p>
+     * When batching, the streaming queue limit counts batches rather than individual messages, so messages are
+     * dropped while backpressure is active instead of when a publish is rejected. Messages published to a named
+     * priority lane are not batched.
+     *
+     * @param mqttMessageTopic The MQTT topic to publish the message to (without the topic prefix).
+     * @param payloadBuffer    The buffer holding the encoded message payload.
+     * @param framing          How the message should be framed if it is batched.
+     * @param lane             The priority lane to publish the message through, or null for the default lane.
+     */
+    private void batchOrPublishPayload(String mqttMessageTopic, PayloadBuffer payloadBuffer,
+                                       MessageBatcher.Framing framing, String lane)
+    {
+        final MessageBatcher batcher = messageBatcher;
+        if (batcher == null || isNamedLane(lane))
+        {
+            publishPayload(mqttMessageTopic, payloadBuffer, false, lane);
+            return;
+        }
+
+        if (streamingQueue.isEnabled() && streamingQueue.isBackpressureActive())
+        {
+            publishMetrics.recordDropped(mqttMessageTopic, payloadBuffer.length());
+            payloadBufferPool.release(payloadBuffer);
+            return;
+        }
+
+        batcher.add(mqttMessageTopic, payloadBuffer, framing);
+    }
+
+    /**
+     * Called by the {@link MessageBatcher} when a batch is ready to be published.
+     * <p>
+     * Every message in the batch was accepted while the queue had room, so the batch is published even if it pushes
+     * the queue over the limit. The overshoot is bounded by the number of topics with an open batch.
+     */
+    private void publishBatch(String mqttMessageTopic, PayloadBuffer payloadBuffer)
+    {
+        if (!canAcceptMessages())
+        {
+            publishMetrics.recordDropped(mqttMessageTopic, payloadBuffer.length());
+            payloadBufferPool.release(payloadBuffer);
+            return;
+        }
+
+        publishPayload(mqttMessageTopic, payloadBuffer, true, null);
+    }
+
+    /**
+     * @return True if priority lanes are configured and the provided lane is one of them, other than the default lane.
+     */
+    private boolean isNamedLane(String lane)
+    {
+        final PriorityLaneScheduler scheduler = laneScheduler;
+        return scheduler != null && !PriorityLaneConfig.DEFAULT_LANE.equals(lane) && scheduler.hasLane(lane);
+    }
+
+    /**
+     * Publishes the already encoded payload to the specified topic, applying the streaming queue limit if one is
+     * configured.
+     * <p>
+     * Ownership of the payload buffer is transferred to this method. It is returned to the {@link #payloadBufferPool}
+     * once HiveMQ has completed the publish, or immediately if the message is dropped.
+     *
+     * <p>
+     * The payload is compressed first if compression is configured for the topic, so the streaming queue byte limit
+     * and the durable queue both see the compressed size.
+     *
+     * @param mqttMessageTopic The MQTT topic to publish the message to. The {@link #topicPrefix} will be prepended to this.
+     * @param encodedPayload   The buffer holding the encoded message payload.
+     * @param admitOverLimit   True if the payload should be published even if the queue is full. Backpressure is
+     *                         still signaled when the queue limit is exceeded. Such payloads skip the priority lanes.
+     * @param lane             The priority lane to publish the message through, or null for the default lane.
+     */
+    private void publishPayload(String mqttMessageTopic, PayloadBuffer encodedPayload, boolean admitOverLimit,
+                                String lane)
+    {
+        final PayloadBuffer payloadBuffer = compressIfNeeded(mqttMessageTopic, encodedPayload);
+
+        final DurableMessageQueue queue = durableQueue;
+        if (queue != null)
+        {
+            if (!queue.append(mqttMessageTopic, payloadBuffer.toPayload()))
+            {
+                publishMetrics.recordDropped(mqttMessageTopic, payloadBuffer.length());
+                Timber.w("The MQTT durable queue is full, dropping the message");
+            }
+            payloadBufferPool.release(payloadBuffer);
+            return;
+        }
+
+        // Resolve the topic first so that an invalid topic is rejected before it is counted against the queue limit
+        final MqttTopic topic = topicCache.get(mqttMessageTopic);
+
+        // If queue limit is disabled (0), use the original fire-and-forget behavior
+        if (!streamingQueue.isEnabled())
+        {
+            final int payloadLength = payloadBuffer.length();
+            final long publishStart = System.nanoTime();
+            publishTarget.engine.publish(topic, payloadBuffer.toPayload(), false)
+                    .whenComplete((result, error) -> {
+                        payloadBufferPool.release(payloadBuffer);
+                        recordPublishResult(mqttMessageTopic, payloadLength, publishStart, error);
+                    });
+            return;
+        }
+
+        final PriorityLaneScheduler scheduler = laneScheduler;
+        if (scheduler != null && !admitOverLimit)
+        {
+            if (!scheduler.enqueue(lane, mqttMessageTopic, payloadBuffer))
+            {
+                // The lane is full
+                publishMetrics.recordDropped(mqttMessageTopic, payloadBuffer.length());
+                payloadBufferPool.release(payloadBuffer);
+            }
+            return;
+        }
+
+        if (admitOverLimit)
+        {
+            streamingQueue.admitOverLimit(payloadBuffer.length());
+        } else if (!streamingQueue.admit(mqttMessageTopic, payloadBuffer))
+        {
+            // The overflow policy dropped the message or moved it to the backlog
+            return;
+        }
+
+        publishCounted(mqttMessageTopic, topic, payloadBuffer);
+    }
+
+    /**
+     * Publishes a message that has claimed a slot in the {@link #streamingQueue}, releasing the slot once HiveMQ has
+     * completed the publish, unless it was already released when publishing switched away from the client.
+     */
+    private void publishCounted(String mqttMessageTopic, PayloadBuffer payloadBuffer)
+    {
+        publishCounted(mqttMessageTopic, topicCache.get(mqttMessageTopic), payloadBuffer);
+    }
+
+    private void publishCounted(String mqttMessageTopic, MqttTopic topic, PayloadBuffer payloadBuffer)
+    {
+        final int payloadLength = payloadBuffer.length();
+
+        // A switch replaces the target before detaching the old one, so a publish that loses the race moves to the new
+        PublishTarget currentTarget = publishTarget;
+        while (!currentTarget.track(payloadLength)) currentTarget = publishTarget;
+
+        final PublishTarget target = currentTarget;
+        final long publishStart = System.nanoTime();
+        target.engine.publish(topic, payloadBuffer.toPayload(), false)
+                .whenComplete((result, error) -> {
+                    payloadBufferPool.release(payloadBuffer);
+                    adaptWindow(publishStart, error);
+                    if (target.complete(payloadLength)) streamingQueue.onPublishComplete(payloadLength);
+                    scheduleLanes();
+                    recordPublishResult(mqttMessageTopic, payloadLength, publishStart, error);
+
+                    if (error != null)
+                    {
+                        Timber.w(error, "Error publishing MQTT message");
+                    }
+                });
+    }
+
+    /**
+     * Hands the latency of a completed publish to the {@link #adaptiveWindow} if it is enabled. This is called before
+     * the publish releases its slot so that the in-flight count includes it.
+     */
+    private void adaptWindow(long publishStart, Throwable error)
+    {
+        final AdaptiveWindowController controller = adaptiveWindow;
+        if (controller == null) return;
+
+        controller.onPublishComplete(System.nanoTime() - publishStart, error != null,
+                streamingQueue.getPendingMessageCountUpperBound());
+    }
+
+    /**
+     * Records a completed publish in the {@link #publishMetrics}.
+     *
+     * @param publishStart The {@link System#nanoTime()} when the message was handed to HiveMQ.
+     */
+    private void recordPublishResult(String mqttMessageTopic, int payloadLength, long publishStart, Throwable error)
+    {
+        if (error == null)
+        {
+            publishMetrics.recordPublished(mqttMessageTopic, payloadLength, System.nanoTime() - publishStart);
+        } else
+        {
+            publishMetrics.recordFailed(mqttMessageTopic, payloadLength);
+        }
+    }
+
+    /**
+     * Compresses the payload if compression is configured for the topic.
+     *
+     * @param mqttMessageTopic The MQTT topic that the message is being published to (without the topic prefix).
+     * @param payloadBuffer    The encoded message payload. It is released if a compressed copy is returned.
+     * @return The compressed payload, or the provided payload if the topic is not compressed.
+     */
+    private PayloadBuffer compressIfNeeded(String mqttMessageTopic, PayloadBuffer payloadBuffer)
+    {
+        final PayloadCompressor compressor = payloadCompressors.get(mqttMessageTopic);
+        if (compressor == null) return payloadBuffer;
+
+        final boolean useDictionary = publishDictionaryIfNeeded(mqttMessageTopic, compressor);
+        final PayloadBuffer compressed = compressor.compress(payloadBuffer, useDictionary);
+        payloadBufferPool.release(payloadBuffer);
+        return compressed;
+    }
+
+    /**
+     * Publishes the retained compression dictionary for the topic if it has been trained and has not already been
+     * published for this connection.
+     * <p>
+     * A payload is only compressed with the dictionary once the dictionary has been handed to the client, so that the
+     * dictionary is always published ahead of the first payload that needs it. Like the Protobuf descriptors, the
+     * dictionary is published outside of the streaming queue limit.
+     *
+     * @param mqttMessageTopic The MQTT topic that the message is being published to (without the topic prefix).
+     * @param compressor       The compressor for the topic.
+     * @return True if the payload can be compressed with the dictionary.
+     */
+    private boolean publishDictionaryIfNeeded(String mqttMessageTopic, PayloadCompressor compressor)
+    {
+        final byte[] dictionary = compressor.getDictionary();
+        if (dictionary == null) return false;
+
+        if (publishedDictionaries.contains(dictionary)) return true;
+
+        // Wait for a later message if the durable queue is accepting messages before the client has connected
+        if (!isReadyToPublish()) return false;
+
+        synchronized (compressor)
+        {
+            if (publishedDictionaries.contains(dictionary)) return true;
+
+            final String dictionaryTopic = getDictionaryTopic(mqttMessageTopic, compressor.getDictionaryId());
+            Timber.d("Publishing the retained compression dictionary to %s", dictionaryTopic);
+            final CompletableFuture<?> publishFuture = publishTarget.engine.publish(
+                    MqttTopic.of(topicPrefix + dictionaryTopic), ByteBuffer.wrap(dictionary), true);
+
+            // Only marked as published once it has been handed to the client, so no other thread uses the dictionary
+            // ahead of it
+            publishedDictionaries.add(dictionary);
+            publishFuture.whenComplete((result, error) -> {
+                if (error != null)
+                {
+                    Timber.w(error, "Error publishing the compression dictionary to %s", dictionaryTopic);
+                    publishedDictionaries.remove(dictionary);
+                }
+            });
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the payload compressors with new ones for the provided topics.
+     */
+    private void installPayloadCompressors(Map<String, CompressionConfig> compressionConfigs)
+    {
+        final Map<String, PayloadCompressor> oldCompressors = payloadCompressors;
+
+        final Map<String, PayloadCompressor> newCompressors = new HashMap<>();
+        compressionConfigs.forEach((topic, config) ->
+                newCompressors.put(topic, new PayloadCompressor(config, payloadBufferPool, DICTIONARY_TRAINING_EXECUTOR)));
+        payloadCompressors = newCompressors.isEmpty() ? Collections.emptyMap() : newCompressors;
+        publishedDictionaries.clear();
+
+        for (PayloadCompressor compressor : oldCompressors.values())
+        {
+            compressor.close();
+        }
+    }
+
+    /**
+     * Publishes the retained {@code FileDescriptorSet} for the provided message type if it has not already been
+     * published to the descriptor topic for this connection.
+     * <p>
+     * The descriptor is published outside of the streaming queue limit because it is only sent once per connection and
+     * consumers need it to decode every other message on the topic.
+     *
+     * @param mqttMessageTopic The MQTT topic that the message is being published to (without the topic prefix).
+     * @param descriptor       The descriptor for the message type being published.
+     */
+    private void publishDescriptorIfNeeded(String mqttMessageTopic, Descriptors.Descriptor descriptor)
+    {
+        // Wait for a later message if the durable queue is accepting messages before the client has connected
+        if (!isReadyToPublish()) return;
+
+        final Set<Descriptors.Descriptor> topicDescriptors =
+                publishedDescriptors.computeIfAbsent(mqttMessageTopic, topic -> ConcurrentHashMap.newKeySet());
+        if (!topicDescriptors.add(descriptor)) return;
+
+        final String descriptorTopic = getDescriptorTopic(mqttMessageTopic, descriptor.getFullName());
+        Timber.d("Publishing the retained Protobuf descriptor to %s", descriptorTopic);
+        publishTarget.engine.publish(MqttTopic.of(topicPrefix + descriptorTopic),
+                        ByteBuffer.wrap(ProtobufDescriptorSets.forMessageType(descriptor).toByteArray()), true)
+                .whenComplete((result, error) -> {
+                    if (error != null)
+                    {
+                        Timber.w(error, "Error publishing the Protobuf descriptor to %s", descriptorTopic);
+                        topicDescriptors.remove(descriptor);
+                    }
+                });
+    }
+
+    /**
+     * @param mqttMessageTopic The MQTT topic that the messages are published to (without the topic prefix).
+     * @param messageTypeName  The full name of the Protobuf message type.
+     * @return The topic (without the topic prefix) that the retained descriptor for the message type is published to,
+     * which is {@code $meta/descriptor/<topic>/<message full name>}.
+     */
+    static String getDescriptorTopic(String mqttMessageTopic, String messageTypeName)
+    {
+        return METADATA_TOPIC_LEVEL + DESCRIPTOR_TOPIC_LEVEL + mqttMessageTopic + "/" + messageTypeName;
+    }
+
+    /**
+     * @param mqttMessageTopic The MQTT topic that the messages are published to (without the topic prefix).
+     * @param dictionaryId     The ID of the compression dictionary.
+     * @return The topic (without the topic prefix) that the retained compression dictionary is published to, which is
+     * {@code $meta/dictionary/<topic>/<dictionary ID>} with the ID written as eight lowercase hex digits.
+     */
+    static String getDictionaryTopic(String mqttMessageTopic, int dictionaryId)
+    {
+        return METADATA_TOPIC_LEVEL + DICTIONARY_TOPIC_LEVEL + mqttMessageTopic + "/"
+                + String.format(Locale.US, "%08x", dictionaryId);
+    }
+
+    /**
+     * @return The provided Protobuf message, or the message built from the provided message builder.
+     */
+    private static Message toMessage(MessageOrBuilder message)
+    {
+        if (message instanceof Message) return (Message) message;
+
+        return ((Message.Builder) message).buildPartial();
+    }
+
+    /**
+     * Writes the binary wire format of the Protobuf message directly into the payload buffer.
+     */
+    static void writeBinary(Message message, PayloadBuffer payloadBuffer) throws IOException
+    {
+        final ByteBuffer target = payloadBuffer.prepareWrite(message.getSerializedSize());
+        final CodedOutputStream outputStream = CodedOutputStream.newInstance(target);
+        message.writeTo(outputStream);
+        outputStream.flush();
+    }
+
+    /**
+     * Enables the durable, on-disk queue that all published messages are stored in until the broker acknowledges them.
+     * <p>
+     * When enabled, messages are appended to memory-mapped segment files in the app's files directory instead of being
+     * handed directly to HiveMQ. This means messages published before the first connection are no longer dropped, and
+     * any messages that have not been acknowledged survive the app being killed and are sent the next time the
+     * durable queue is enabled. The queue is drained in order whenever the client is connected. Messages published
+     * while the queue holds more than 64 MB of unacknowledged data are dropped. The streaming queue limit does not
+     * apply to messages sent through the durable queue since they are already buffered on disk.
+     * <p>
+     * Messages are delivered at least once; if a publish fails or the app is killed before an acknowledgement is
+     * persisted, the affected messages are sent again.
+     *
+     * @param applicationContext The context used to locate the app's files directory.
+     * @throws IOException If the queue directory or segment files could not be created or opened, or if another durable
+     *                     queue still has the directory open.
+     * @since 1.3.0
+     */
+    public synchronized void enableDurableQueue(Context applicationContext) throws IOException
+    {
+        if (durableQueue != null) return;
+
+        final DurableMessageQueue queue = new DurableMessageQueue(
+                new File(applicationContext.getFilesDir(), DURABLE_QUEUE_DIRECTORY));
+        queue.start(new DurableMessageQueue.IRecordPublisher()
+        {
+            @Override
+            public boolean isReadyToPublish()
+            {
+                return hasTargetConnectedOnce() && publishTarget.engine.getState().isConnected();
+            }
+
+            @Override
+            public CompletableFuture<?> publish(String mqttMessageTopic, ByteBuffer payload)
+            {
+                final int payloadLength = payload.remaining();
+                final long publishStart = System.nanoTime();
+                return publishTarget.engine.publish(topicCache.get(mqttMessageTopic), payload, false)
+                        .whenComplete((result, error) ->
+                                recordPublishResult(mqttMessageTopic, payloadLength, publishStart, error));
+            }
+        });
+        durableQueue = queue;
+        Timber.i("Enabled the MQTT durable queue");
+    }
+
+    /**
+     * Stops publishing messages through the durable queue. Any messages still in the queue remain on disk and are sent
+     * the next time the durable queue is enabled. This waits up to a second for the publishes in flight to complete;
+     * any that complete later are not recorded as acknowledged and are sent again.
+     *
+     * @since 1.3.0
+     */
+    public synchronized void disableDurableQueue()
+    {
+        final DurableMessageQueue queue = durableQueue;
+        if (queue == null) return;
+
+        durableQueue = null;
+        queue.close();
+        Timber.i("Disabled the MQTT durable queue");
+    }
+
+    /**
+     * @return True if messages are published through the durable, on-disk queue.
+     * @since 1.3.0
+     */
+    public boolean isDurableQueueEnabled()
+    {
+        return durableQueue != null;
+    }
+
+    /**
+     * Configures the buffer that holds the messages published before the first connection to the MQTT broker.
+     * <p>
+     * Messages published before the client has connected for the first time can't be handed to HiveMQ (HiveMQ Issue
+     * #612), so by default they are dropped. When the buffer is enabled they are held in a bounded, lock-free ring
+     * buffer until the client connects, and are then published in order at the configured flush rate. Messages
+     * published while the buffer is being flushed are added to the end of the buffer so they are not sent ahead of
+     * the older messages, but they are not held to the flush rate. Once the buffer is empty, messages are published
+     * without going through it. The capacity needs to hold the backlog plus the messages published while the backlog
+     * is flushed. The buffer is not used while the durable queue is enabled.
+     * <p>
+     * Any messages already in the buffer are moved to the new buffer, subject to its capacity and overflow policy.
+     *
+     * @param config The pre-connect buffer settings, or {@link PreConnectBufferConfig#DISABLED} to drop the messages.
+     * @since 1.3.0
+     */
+    public synchronized void setPreConnectBufferConfig(PreConnectBufferConfig config)
+    {
+        final PreConnectBuffer oldBuffer = preConnectBuffer;
+        if (oldBuffer == null ? !config.isEnabled() : oldBuffer.getConfig().equals(config)) return;
+
+        final PreConnectBuffer newBuffer = config.isEnabled() ? new PreConnectBuffer(config, preConnectConsumer, CONNECTION_TIMER) : null;
+        preConnectBuffer = newBuffer;
+
+        if (oldBuffer != null)
+        {
+            if (newBuffer != null)
+            {
+                PreConnectBuffer.BufferedMessage message;
+                while ((message = oldBuffer.poll()) != null)
+                {
+                    if (!newBuffer.offer(message)) payloadBufferPool.release(message.payloadBuffer);
+                }
+            }
+            oldBuffer.close();
+        }
+
+        if (newBuffer != null && hasTargetConnectedOnce()) newBuffer.startFlush();
+        Timber.d("MQTT pre-connect buffer capacity set to %d", config.getCapacity());
+    }
+
+    /**
+     * @return The current pre-connect buffer settings.
+     * @since 1.3.0
+     */
+    public PreConnectBufferConfig getPreConnectBufferConfig()
+    {
+        final PreConnectBuffer buffer = preConnectBuffer;
+        return buffer == null ? PreConnectBufferConfig.DISABLED : buffer.getConfig();
+    }
+
+    /**
+     * @return The number of messages in the pre-connect buffer that are waiting for the connection.
+     * @since 1.3.0
+     */
+    public int getPreConnectBufferedCount()
+    {
+        final PreConnectBuffer buffer = preConnectBuffer;
+        return buffer == null ? 0 : buffer.size();
+    }
+
+    /**
+     * Gets the number of messages the pre-connect buffer has dropped since it was configured, either because a message
+     * was published while the buffer was full or because an older message was evicted to make room for it, depending
+     * on the {@link PreConnectBufferConfig.OverflowPolicy}.
+     *
+     * @return The number of dropped messages.
+     * @since 1.3.0
+     */
+    public long getPreConnectDroppedCount()
+    {
+        final PreConnectBuffer buffer = preConnectBuffer;
+        return buffer == null ? 0 : buffer.getDroppedNewestCount() + buffer.getDroppedOldestCount();
+    }
+
+    /**
+     * Configures the priority lanes that messages can be published through with
+     * {@link #publishMessage(String, MessageOrBuilder, String)}.
+     * <p>
+     * Each lane has its own bounded queue, so a burst of bulk messages can fill its own lane without taking room from
+     * urgent messages in another lane. Messages wait in their lane until the streaming queue has room for them, and a
+     * weighted fair scheduler picks which lane to send from next in proportion to the lane weights. Every lane with
+     * waiting messages gets its share, so a high priority lane is never starved by a busy low priority one. A message
+     * published while its lane is full is dropped; the {@link #setQueueOverflowPolicy(IQueueOverflowPolicy) overflow
+     * policy} does not apply to the lanes.
+     * <p>
+     * The lanes only have an effect while a streaming queue limit is set, since otherwise every message is handed to
+     * the client right away. Messages without a lane, or with a lane name that is not configured, use the
+     * {@link PriorityLaneConfig#DEFAULT_LANE default lane}, which is added with {@link PriorityLaneConfig#DEFAULT} if it
+     * is not included. Batches are published outside of the lanes.
+     * <p>
+     * Any messages still waiting in the previous lanes are dropped.
+     *
+     * @param laneConfigs The lanes to use, or an empty list to disable the priority lanes.
+     * @since 1.3.0
+     */
+    public synchronized void setPriorityLanes(List<PriorityLaneConfig> laneConfigs)
+    {
+        final PriorityLaneScheduler oldScheduler = laneScheduler;
+        laneScheduler = laneConfigs.isEmpty() ? null
+                : new PriorityLaneScheduler(laneConfigs, streamingQueue, lanePublisher);
+
+        if (oldScheduler != null)
+        {
+            for (PayloadBuffer payloadBuffer : oldScheduler.clear())
+            {
+                payloadBufferPool.release(payloadBuffer);
+            }
+        }
+
+        Timber.d("MQTT priority lanes set to %s", laneConfigs);
+    }
+
+    /**
+     * @return The configured priority lanes, including the default lane, or an empty list if the lanes are disabled.
+     * @since 1.3.0
+     */
+    public List<PriorityLaneConfig> getPriorityLanes()
+    {
+        final PriorityLaneScheduler scheduler = laneScheduler;
+        return scheduler == null ? Collections.emptyList() : scheduler.getLaneConfigs();
+    }
+
+    /**
+     * @param lane The name of the priority lane, or null for the default lane.
+     * @return The number of messages waiting in the lane for room in the streaming queue.
+     * @since 1.3.0
+     */
+    public int getPriorityLaneQueuedCount(String lane)
+    {
+        final PriorityLaneScheduler scheduler = laneScheduler;
+        return scheduler == null ? 0 : scheduler.getQueuedCount(lane);
+    }
+
+    /**
+     * @param lane The name of the priority lane, or null for the default lane.
+     * @return The number of messages dropped because they were published while the lane was full.
+     * @since 1.3.0
+     */
+    public long getPriorityLaneDroppedCount(String lane)
+    {
+        final PriorityLaneScheduler scheduler = laneScheduler;
+        return scheduler == null ? 0 : scheduler.getDroppedCount(lane);
+    }
+
+    /**
+     * Applies the in-flight window of the connection that was just established to the streaming queue. The broker's
+     * Receive Maximum only limits QoS 1 and 2 messages.
+     */
+    private void updateInFlightWindow()
+    {
+        final int window = hiveMqttQos == com.hivemq.client.mqtt.datatypes.MqttQos.AT_MOST_ONCE
+                ? 0 : publishTarget.engine.getInFlightWindow();
+        streamingQueue.setInFlightWindow(window);
+        Timber.d("MQTT in-flight window set to %d", window);
+
+        scheduleLanes();
+    }
+
+    /**
+     * Sends any messages waiting in the priority lanes that now fit in the streaming queue.
+     */
+    private void scheduleLanes()
+    {
+        final PriorityLaneScheduler scheduler = laneScheduler;
+        if (scheduler != null) scheduler.schedule();
+    }
+
+    /**
+     * Adds an {@link IConnectionStateListener} so that it will be notified of all future MQTT connection state changes.
+     *
+     * @param connectionStateListener The listener to add.
+     */
+    public void registerMqttConnectionStateListener(IConnectionStateListener connectionStateListener)
+    {
+        connectionStateDispatcher.addListener(connectionStateListener);
+    }
+
+    /**
+     * Removes an {@link IConnectionStateListener} so that it will no longer be notified of MQTT connection state changes.
      *
      * @param connectionStateListener The listener to remove.
      */
     public void unregisterMqttConnectionStateListener(IConnectionStateListener connectionStateListener)
     {
-        mqttConnectionListeners.remove(connectionStateListener);
+        connectionStateDispatcher.removeListener(connectionStateListener);
+    }
+
+    /**
+     * Sets the executor that connection state changes are delivered to the {@link IConnectionStateListener}s on.
+     * <p>
+     * By default the listeners are called on the thread that changed the state, which is often one of the MQTT
+     * client's network threads, so a slow listener delays the connection. With an executor the changes are delivered
+     * in the order they happened, one at a time, even if the executor has more than one thread. A queued change to the
+     * state that the listeners were last told about is skipped, so a burst of {@link ConnectionState#CONNECTING}
+     * changes while reconnecting is delivered once. {@link #getConnectionState()} always returns the latest state right
+     * away.
+     *
+     * @param executor The executor to call the listeners on, or null to call them on the thread that changed the state.
+     * @since 1.3.0
+     */
+    public void setConnectionStateListenerExecutor(Executor executor)
+    {
+        connectionStateDispatcher.setExecutor(executor);
+    }
+
+    /**
+     * @return The executor that connection state changes are delivered on, or null if the listeners are called on the
+     * thread that changed the state.
+     * @since 1.3.0
+     */
+    public Executor getConnectionStateListenerExecutor()
+    {
+        return connectionStateDispatcher.getExecutor();
+    }
+
+    /**
+     * Gets how long a connection state listener has taken to handle each state change delivered to it.
+     *
+     * @param connectionStateListener The registered listener.
+     * @return A histogram of the listener's handling times, or null if the listener is not registered.
+     * @since 1.3.0
+     */
+    public PublishMetrics.Histogram getConnectionStateListenerLatency(IConnectionStateListener connectionStateListener)
+    {
+        return connectionStateDispatcher.getListenerLatency(connectionStateListener);
+    }
+
+    /**
+     * @return The number of connection state changes that were not delivered to the listeners because they repeated
+     * the state the listeners were last told about. Changes are only skipped when an executor is set with
+     * {@link #setConnectionStateListenerExecutor(Executor)}.
+     * @since 1.3.0
+     */
+    public long getCoalescedConnectionStateCount()
+    {
+        return connectionStateDispatcher.getCoalescedCount();
     }
 
     /**
      * Sets the maximum number of pending messages allowed in the queue before backpressure is applied.
      * <p>
-     * When the queue reaches this limit, new messages will be dropped and listeners will be notified
-     * to pause scanning. When the queue drains to half the limit, listeners will be notified to resume.
+     * When the queue reaches this limit, new messages are handled by the overflow policy (see
+     * {@link #setQueueOverflowPolicy(IQueueOverflowPolicy)}), which drops them by default, and listeners will be
+     * notified to pause scanning. When the queue drains below the low watermark, which is half the limit by default,
+     * listeners will be notified to resume. The points at which backpressure is signaled and released can be changed
+     * with {@link #setStreamingQueueWatermarks(double, double)}. With MQTT 5, the broker's in-flight window is applied as
+     * well if it is smaller (see {@link #getInFlightWindow()}). While the adaptive window is enabled with
+     * {@link #setAdaptiveWindowConfig(AdaptiveWindowConfig)}, the adaptive window is applied instead of this limit.
      *
      * @param limit The maximum queue size. Set to 0 to disable queue limiting (unbounded queue).
      * @since 1.1.0
      */
     public void setStreamingQueueLimit(int limit)
     {
-        streamingQueueLimit = Math.max(0, limit);
-        Timber.d("MQTT streaming queue limit set to %d", streamingQueueLimit);
+        streamingQueue.setLimit(limit);
+        Timber.d("MQTT streaming queue limit set to %d", streamingQueue.getLimit());
+
+        scheduleLanes();
+    }
+
+    /**
+     * Sets the streaming queue limit automatically from the measured publish latency and failures, instead of the fixed
+     * limit from {@link #setStreamingQueueLimit(int)}.
+     * <p>
+     * The number of messages allowed in flight starts at the initial window and is then adjusted with additive
+     * increase and multiplicative decrease, the way TCP sizes its congestion window: it grows while the publishes
+     * complete close to the lowest latency seen recently, and is cut when a publish fails or the latency shows the
+     * messages queueing up on the way to the broker. It always stays within the minimum and maximum of the config, see
+     * {@link AdaptiveWindowConfig} for the details. The window is applied as the streaming queue limit, so the
+     * {@link IQueueBackpressureListener}s, the overflow policy, and the watermarks work the same way as with a fixed
+     * limit, and the listeners are given the current window as the limit. With MQTT 5, the broker's in-flight window
+     * is still applied if it is smaller.
+     * <p>
+     * The limit set with {@link #setStreamingQueueLimit(int)} is kept while the adaptive window is enabled, and is
+     * applied again once it is disabled.
+     *
+     * @param config The adaptive window settings, or null to go back to the fixed streaming queue limit.
+     * @since 1.3.0
+     */
+    public synchronized void setAdaptiveWindowConfig(AdaptiveWindowConfig config)
+    {
+        final AdaptiveWindowController oldController = adaptiveWindow;
+        if (oldController != null) oldController.stop();
+
+        if (config == null)
+        {
+            adaptiveWindow = null;
+            streamingQueue.setAdaptiveWindow(0);
+            Timber.d("MQTT adaptive window disabled, the streaming queue limit is %d", streamingQueue.getLimit());
+        } else
+        {
+            final AdaptiveWindowController controller = new AdaptiveWindowController(config, System::nanoTime,
+                    streamingQueue::setAdaptiveWindow);
+            // Apply the initial window before any publish can adjust it
+            streamingQueue.setAdaptiveWindow(controller.getWindow());
+            adaptiveWindow = controller;
+            Timber.d("MQTT adaptive window enabled with %s", config);
+        }
+
+        scheduleLanes();
+    }
+
+    /**
+     * @return The adaptive window settings, or null if the fixed streaming queue limit is used.
+     * @since 1.3.0
+     */
+    public AdaptiveWindowConfig getAdaptiveWindowConfig()
+    {
+        final AdaptiveWindowController controller = adaptiveWindow;
+        return controller == null ? null : controller.getConfig();
+    }
+
+    /**
+     * @return The number of messages the adaptive window currently allows in flight, or 0 if the adaptive window is not
+     * enabled.
+     * @since 1.3.0
+     */
+    public int getAdaptiveWindow()
+    {
+        return streamingQueue.getAdaptiveWindow();
+    }
+
+    /**
+     * Sets the policy that decides what happens to a message that is published while the streaming queue is full. The
+     * policy can be changed at any time, and the {@link QueueOverflowStats} counters start over for the new policy.
+     * <p>
+     * The built-in policies are available from {@link QueueOverflowPolicies}. The default is
+     * {@link QueueOverflowPolicies#DROP_NEWEST}, which drops the message being published. When batching is enabled the
+     * policy is not applied, and messages published while backpressure is active are dropped before they are added to
+     * a batch.
+     *
+     * @param policy The overflow policy to use.
+     * @since 1.3.0
+     */
+    public void setQueueOverflowPolicy(IQueueOverflowPolicy policy)
+    {
+        streamingQueue.setOverflowPolicy(policy);
+        Timber.d("MQTT streaming queue overflow policy set to %s", policy);
+    }
+
+    /**
+     * @return The policy that decides what happens to a message that is published while the streaming queue is full.
+     * @since 1.3.0
+     */
+    public IQueueOverflowPolicy getQueueOverflowPolicy()
+    {
+        return streamingQueue.getOverflowPolicy();
+    }
+
+    /**
+     * Gets the counters for the installed overflow policy. This can be queried by {@link IQueueBackpressureListener}
+     * implementations to find out how many messages were dropped, held in the backlog, or blocked while the queue was
+     * full.
+     *
+     * @return A snapshot of the overflow counters.
+     * @since 1.3.0
+     */
+    public QueueOverflowStats getQueueOverflowStats()
+    {
+        return streamingQueue.getOverflowStats();
+    }
+
+    /**
+     * Gets the publish metrics of this connection: the messages and bytes published, dropped, and failed for each
+     * topic, along with histograms of the serialization time and of the publish latency, which is the time until the
+     * PUBACK for QoS 1. The metrics count from when the connection was created.
+     *
+     * @return A snapshot of the publish metrics.
+     * @since 1.3.0
+     */
+    public PublishMetrics getPublishMetrics()
+    {
+        return publishMetrics.snapshot(System.currentTimeMillis());
+    }
+
+    /**
+     * Sets the listener that a {@link PublishMetrics} snapshot is sent to once per period, replacing any previous
+     * listener. The listener is called on a shared timer thread.
+     *
+     * @param listener The listener to send the metrics to, or null to stop sending them.
+     * @param period   The time between snapshots.
+     * @param unit     The unit of the period.
+     * @throws IllegalArgumentException If a listener is provided and the period is not positive.
+     * @since 1.3.0
+     */
+    public synchronized void setPublishMetricsListener(IPublishMetricsListener listener, long period, TimeUnit unit)
+    {
+        if (listener != null && period <= 0)
+        {
+            throw new IllegalArgumentException("The publish metrics period must be positive. period=" + period);
+        }
 
-        // If we're reducing the limit and currently in backpressure, check if we should still be
-        if (limit > 0 && queueBackpressureActive.get())
+        if (publishMetricsReport != null)
         {
-            final int currentPending = pendingMessageCount.get();
-            if (currentPending < limit / 2)
+            publishMetricsReport.cancel(false);
+            publishMetricsReport = null;
+        }
+        if (listener == null) return;
+
+        publishMetricsReport = CONNECTION_TIMER.scheduleAtFixedRate(() -> {
+            try
             {
-                // Queue has already drained below the new threshold
-                if (queueBackpressureActive.getAndSet(false))
-                {
-                    notifyQueueDrained(currentPending, limit);
-                }
+                listener.onPublishMetrics(getPublishMetrics());
+            } catch (Exception e)
+            {
+                // An exception would stop the schedule, and the other connections share the timer thread
+                Timber.e(e, "The publish metrics listener threw an exception");
             }
-        }
+        }, period, period, unit);
     }
 
     /**
@@ -445,7 +2247,131 @@ public class DefaultMqttConnection
      */
     public int getStreamingQueueLimit()
     {
-        return streamingQueueLimit;
+        return streamingQueue.getLimit();
+    }
+
+    /**
+     * Sets the maximum total payload size of the pending messages allowed in the queue before backpressure is applied.
+     * <p>
+     * This budget is applied alongside the message count limit from {@link #setStreamingQueueLimit(int)}, and
+     * backpressure is applied as soon as either limit is reached. Each message counts its payload length against the
+     * budget until HiveMQ completes the publish. The queue is considered drained once it is below the low watermark of
+     * every enabled limit, which defaults to half of each limit (0.5) and is set with
+     * {@link #setStreamingQueueWatermarks(double, double)}. A single message that is larger than the whole budget is
+     * still published when the queue is otherwise empty.
+     *
+     * @param byteLimit The maximum number of payload bytes. Set to 0 to disable the byte limit.
+     * @since 1.3.0
+     */
+    public void setStreamingQueueByteLimit(long byteLimit)
+    {
+        streamingQueue.setByteLimit(byteLimit);
+        Timber.d("MQTT streaming queue byte limit set to %d", streamingQueue.getByteLimit());
+
+        scheduleLanes();
+    }
+
+    /**
+     * Gets the current streaming queue byte limit.
+     *
+     * @return The byte limit, or 0 if unlimited.
+     * @since 1.3.0
+     */
+    public long getStreamingQueueByteLimit()
+    {
+        return streamingQueue.getByteLimit();
+    }
+
+    /**
+     * Gets the maximum number of QoS 1 and 2 messages that the broker accepts in flight at once, which is the Receive
+     * Maximum the broker sent when an MQTT 5 connection was established.
+     * <p>
+     * While a streaming queue limit or byte limit is set, the in-flight window is also applied as a message count
+     * limit, so once the broker's window is full new messages are handled by the overflow policy and the priority
+     * lanes instead of waiting inside the HiveMQ client. Backpressure listeners are given the applied limit.
+     *
+     * @return The in-flight window, or 0 if the connection does not have one, such as with MQTT 3.1.1 or QoS 0.
+     * @since 1.3.0
+     */
+    public int getInFlightWindow()
+    {
+        return streamingQueue.getInFlightWindow();
+    }
+
+    /**
+     * @return The message count limit that is applied to the streaming queue, which is the smaller of the streaming
+     * queue limit, or the adaptive window if it is enabled, and the in-flight window, or 0 if no message count limit is
+     * applied.
+     * @since 1.3.0
+     */
+    public int getEffectiveStreamingQueueLimit()
+    {
+        return streamingQueue.getEffectiveLimit();
+    }
+
+    /**
+     * Sets the high and low watermarks of the streaming queue as fractions of the queue limits.
+     * <p>
+     * Backpressure is signaled when the pending messages or bytes go above the high watermark of their limit, and is
+     * released once they are below the low watermark of every enabled limit. By default the high watermark is the
+     * limit itself (1.0) and the low watermark is half the limit (0.5). Setting the high watermark below 1.0 pauses
+     * the producers while the queue still has room for the messages already in flight, and moving the low watermark
+     * further from the high watermark reduces how often producers are paused and resumed under steady load.
+     *
+     * @param highWatermark The fraction of each limit above which backpressure is signaled, in the range (0, 1].
+     * @param lowWatermark  The fraction of each limit below which backpressure is released, in the range
+     *                      [0, highWatermark).
+     * @throws IllegalArgumentException If the watermarks are out of range.
+     * @since 1.3.0
+     */
+    public void setStreamingQueueWatermarks(double highWatermark, double lowWatermark)
+    {
+        streamingQueue.setWatermarks(highWatermark, lowWatermark);
+        Timber.d("MQTT streaming queue watermarks set to high=%.2f, low=%.2f", highWatermark, lowWatermark);
+    }
+
+    /**
+     * @return The fraction of the queue limits above which backpressure is signaled.
+     * @since 1.3.0
+     */
+    public double getStreamingQueueHighWatermark()
+    {
+        return streamingQueue.getHighWatermark();
+    }
+
+    /**
+     * @return The fraction of the queue limits below which backpressure is released.
+     * @since 1.3.0
+     */
+    public double getStreamingQueueLowWatermark()
+    {
+        return streamingQueue.getLowWatermark();
+    }
+
+    /**
+     * Enables the early warning that is sent to the {@link IQueueBackpressureListener}s when the queue is growing fast
+     * enough to reach its high watermark within the provided horizon.
+     * <p>
+     * The growth rate is sampled as messages are published and smoothed over the recent samples. The warning is sent
+     * once when the projected time to fill the queue drops within the horizon, and is cleared once the projection is
+     * more than twice the horizon away. Producers can use it to slow down gradually before backpressure pauses them.
+     *
+     * @param horizonMs How far ahead to project the queue growth in milliseconds, or 0 to disable the warning.
+     * @since 1.3.0
+     */
+    public void setQueueGrowthWarningHorizon(long horizonMs)
+    {
+        streamingQueue.setGrowthWarningHorizon(horizonMs);
+        Timber.d("MQTT streaming queue growth warning horizon set to %d ms", streamingQueue.getGrowthWarningHorizonMs());
+    }
+
+    /**
+     * @return The queue growth warning horizon in milliseconds, or 0 if the warning is disabled.
+     * @since 1.3.0
+     */
+    public long getQueueGrowthWarningHorizon()
+    {
+        return streamingQueue.getGrowthWarningHorizonMs();
     }
 
     /**
@@ -456,7 +2382,19 @@ public class DefaultMqttConnection
      */
     public int getPendingMessageCount()
     {
-        return pendingMessageCount.get();
+        return streamingQueue.getPendingMessageCount();
+    }
+
+    /**
+     * Gets the total payload size of the pending messages in the queue. This is the counterpart of
+     * {@link #getPendingMessageCount()} that the streaming queue byte limit is applied to.
+     *
+     * @return The number of payload bytes waiting to be sent.
+     * @since 1.3.0
+     */
+    public long getPendingBytes()
+    {
+        return streamingQueue.getPendingBytes();
     }
 
     /**
@@ -467,7 +2405,58 @@ public class DefaultMqttConnection
      */
     public boolean isQueueBackpressureActive()
     {
-        return queueBackpressureActive.get();
+        return streamingQueue.isBackpressureActive();
+    }
+
+    /**
+     * Claims room in the streaming queue for messages that have not been built yet, so that a producer can find out
+     * whether its messages will fit before spending the time to build them, instead of having them dropped after they
+     * were built. The messages are then published with {@link #publishMessage(PublishCredits, String, String)} or
+     * {@link #publishMessage(PublishCredits, String, MessageOrBuilder)}, and each publish returns its room to the queue
+     * when it completes or fails. The credits that are not used must be returned with {@link PublishCredits#close()}.
+     * <p>
+     * Room is claimed for all the messages or for none of them. The credits count against the streaming queue limit and
+     * the in-flight window, but not the byte limit since the size of the messages is not known yet. When no streaming
+     * queue limit is set, the credits are always granted and don't hold any room.
+     *
+     * @param count The number of messages to claim room for.
+     * @return The credits to publish the messages with, or null if the queue does not have room for all of them.
+     * @throws IllegalArgumentException If the count is not positive.
+     * @since 1.3.0
+     */
+    public PublishCredits tryAcquireCredits(int count)
+    {
+        checkCreditCount(count);
+        if (!streamingQueue.isEnabled()) return new PublishCredits(streamingQueue, count, false);
+
+        return streamingQueue.tryReserve(count) ? new PublishCredits(streamingQueue, count, true) : null;
+    }
+
+    /**
+     * Claims room in the streaming queue for messages that have not been built yet, waiting for the queue to drain if
+     * it does not have room for all of them. Otherwise the same as {@link #tryAcquireCredits(int)}. A count that is
+     * larger than the queue limit can never be granted.
+     *
+     * @param count   The number of messages to claim room for.
+     * @param timeout The longest time to wait for room.
+     * @param unit    The unit of the timeout.
+     * @return The credits to publish the messages with, or null if the timeout passed first.
+     * @throws IllegalArgumentException If the count is not positive.
+     * @throws InterruptedException     If the thread is interrupted while waiting.
+     * @since 1.3.0
+     */
+    public PublishCredits awaitCredits(int count, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        checkCreditCount(count);
+        if (!streamingQueue.isEnabled()) return new PublishCredits(streamingQueue, count, false);
+
+        return streamingQueue.awaitReserve(count, unit.toNanos(timeout))
+                ? new PublishCredits(streamingQueue, count, true) : null;
+    }
+
+    private static void checkCreditCount(int count)
+    {
+        if (count <= 0) throw new IllegalArgumentException("The credit count must be positive. count=" + count);
     }
 
     /**
@@ -478,7 +2467,7 @@ public class DefaultMqttConnection
      */
     public void registerQueueBackpressureListener(IQueueBackpressureListener listener)
     {
-        queueBackpressureListeners.add(listener);
+        backpressureDispatcher.addListener(listener);
     }
 
     /**
@@ -489,41 +2478,63 @@ public class DefaultMqttConnection
      */
     public void unregisterQueueBackpressureListener(IQueueBackpressureListener listener)
     {
-        queueBackpressureListeners.remove(listener);
+        backpressureDispatcher.removeListener(listener);
+    }
+
+    /**
+     * Sets the executor that the {@link IQueueBackpressureListener}s are called on.
+     * <p>
+     * By default the listeners are called on a background thread shared by all the connections, because the queue
+     * usually drains on the MQTT client's network thread that processed an acknowledgement, and a listener that does
+     * real work there delays the acknowledgements of every other message in flight. The listeners are called one event
+     * at a time and in order. If the queue fills and drains again before the listeners are called, only the latest
+     * state is delivered, and a listener is never told about the same state twice in a row.
+     * {@link #isQueueBackpressureActive()} always returns the current state right away.
+     *
+     * @param executor The executor to call the listeners on, or null to call them on the thread that changed the
+     *                 queue state.
+     * @since 1.3.0
+     */
+    public void setQueueBackpressureListenerExecutor(Executor executor)
+    {
+        backpressureDispatcher.setExecutor(executor);
+    }
+
+    /**
+     * @return The executor that the {@link IQueueBackpressureListener}s are called on, or null if they are called on
+     * the thread that changed the queue state.
+     * @since 1.3.0
+     */
+    public Executor getQueueBackpressureListenerExecutor()
+    {
+        return backpressureDispatcher.getExecutor();
+    }
+
+    /**
+     * @return The number of backpressure events that were not delivered to the listeners because a later event
+     * replaced them before the listeners were called, or because they repeated the state the listeners were last told
+     * about.
+     * @since 1.3.0
+     */
+    public long getCoalescedBackpressureEventCount()
+    {
+        return backpressureDispatcher.getCoalescedCount();
     }
 
     /**
      * Notifies all registered listeners that the queue is full and scanning should pause.
      */
-    private void notifyQueueFull(int queueSize, int queueLimit)
+    void notifyQueueFull(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
     {
-        for (IQueueBackpressureListener listener : queueBackpressureListeners)
-        {
-            try
-            {
-                listener.onQueueFull(queueSize, queueLimit);
-            } catch (Exception e)
-            {
-                Timber.e(e, "Error notifying queue backpressure listener of queue full");
-            }
-        }
+        backpressureDispatcher.queueFull(queueSize, queueLimit, queueBytes, queueByteLimit);
     }
 
     /**
      * Notifies all registered listeners that the queue has drained and scanning can resume.
      */
-    private void notifyQueueDrained(int queueSize, int queueLimit)
+    void notifyQueueDrained(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
     {
-        for (IQueueBackpressureListener listener : queueBackpressureListeners)
-        {
-            try
-            {
-                listener.onQueueDrained(queueSize, queueLimit);
-            } catch (Exception e)
-            {
-                Timber.e(e, "Error notifying queue backpressure listener of queue drained");
-            }
-        }
+        backpressureDispatcher.queueDrained(queueSize, queueLimit, queueBytes, queueByteLimit);
     }
 
     /**
@@ -531,21 +2542,12 @@ public class DefaultMqttConnection
      *
      * @param newConnectionState The new MQTT connection state.
      */
-    private synchronized void notifyConnectionStateChange(ConnectionState newConnectionState)
+    synchronized void notifyConnectionStateChange(ConnectionState newConnectionState)
     {
         Timber.i("MQTT Connection State Changed.  oldConnectionState=%s, newConnectionState=%s", connectionState, newConnectionState);
 
         connectionState = newConnectionState;
 
-        for (IConnectionStateListener listener : mqttConnectionListeners)
-        {
-            try
-            {
-                listener.onConnectionStateChange(newConnectionState);
-            } catch (Exception e)
-            {
-                Timber.e(e, "Unable to notify a MQTT Connection State Listener because of an exception");
-            }
-        }
+        connectionStateDispatcher.dispatch(newConnectionState);
     }
 }
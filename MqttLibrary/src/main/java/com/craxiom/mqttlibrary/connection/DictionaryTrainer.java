@@ -0,0 +1,152 @@
+package com.craxiom.mqttlibrary.connection;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds a preset deflate dictionary from a sample of payloads.
+ * <p>
+ * The dictionary is made of the segments of the samples that contain the most common content. Every short run of
+ * bytes (a d-mer) in the samples is counted, the samples are split into one epoch per segment that fits in the
+ * dictionary, and the segment with the highest total d-mer count is chosen from each epoch. The d-mers of a chosen
+ * segment are not counted again, so that later segments cover different content. This is a simplified form of the
+ * cover algorithm used to train zstd dictionaries.
+ * <p>
+ * Deflate can refer back to content that is closer to the end of the dictionary with shorter distance codes, so the
+ * segments are ordered with the highest scoring segments last.
+ *
+ * @since 1.3.0
+ */
+final class DictionaryTrainer
+{
+    /**
+     * The length of the byte runs that are counted. Matches of less than this length are of little use to deflate.
+     */
+    private static final int DMER_LENGTH = 6;
+
+    /**
+     * The length of each segment that is copied from the samples to the dictionary.
+     */
+    private static final int SEGMENT_LENGTH = 48;
+
+    private static final int HASH_BITS = 18;
+    private static final int HASH_MASK = (1 << HASH_BITS) - 1;
+
+    private DictionaryTrainer()
+    {
+    }
+
+    /**
+     * Trains a dictionary from the provided samples.
+     *
+     * @param samples        The sample payloads.
+     * @param dictionarySize The maximum size of the dictionary in bytes.
+     * @return The dictionary, which is empty if there is no sample data.
+     */
+    static byte[] train(List<byte[]> samples, int dictionarySize)
+    {
+        final ByteArrayOutputStream concatenated = new ByteArrayOutputStream();
+        for (byte[] sample : samples)
+        {
+            concatenated.write(sample, 0, sample.length);
+        }
+        final byte[] data = concatenated.toByteArray();
+
+        // When all the samples fit, the samples themselves are the best dictionary
+        if (data.length <= dictionarySize) return data;
+
+        final int[] frequencies = new int[1 << HASH_BITS];
+        for (int i = 0; i + DMER_LENGTH <= data.length; i++)
+        {
+            frequencies[hashDmer(data, i)]++;
+        }
+
+        final int segmentCount = Math.max(1, dictionarySize / SEGMENT_LENGTH);
+        final int epochLength = data.length / segmentCount;
+        final List<Segment> segments = new ArrayList<>(segmentCount);
+        for (int epoch = 0; epoch < segmentCount; epoch++)
+        {
+            final int epochStart = epoch * epochLength;
+            final int epochEnd = epoch == segmentCount - 1 ? data.length : epochStart + epochLength;
+            final Segment best = selectSegment(data, epochStart, epochEnd, frequencies);
+            if (best == null) continue;
+
+            segments.add(best);
+            for (int i = best.start; i + DMER_LENGTH <= best.end; i++)
+            {
+                frequencies[hashDmer(data, i)] = 0;
+            }
+        }
+
+        segments.sort((a, b) -> Long.compare(a.score, b.score));
+
+        final ByteArrayOutputStream dictionary = new ByteArrayOutputStream(dictionarySize);
+        for (Segment segment : segments)
+        {
+            final int length = Math.min(segment.end - segment.start, dictionarySize - dictionary.size());
+            if (length <= 0) break;
+
+            dictionary.write(data, segment.start, length);
+        }
+        return dictionary.toByteArray();
+    }
+
+    /**
+     * @return The segment in the epoch with the highest total d-mer frequency, or null if no segment in the epoch has
+     * any d-mers that have not already been covered.
+     */
+    private static Segment selectSegment(byte[] data, int epochStart, int epochEnd, int[] frequencies)
+    {
+        final int segmentLength = Math.min(SEGMENT_LENGTH, epochEnd - epochStart);
+        final int dmersPerSegment = segmentLength - DMER_LENGTH + 1;
+        if (dmersPerSegment <= 0) return null;
+
+        // Slide the segment across the epoch, adding the d-mer that enters the window and removing the one that leaves
+        long score = 0;
+        for (int i = epochStart; i < epochStart + dmersPerSegment; i++)
+        {
+            score += frequencies[hashDmer(data, i)];
+        }
+
+        long bestScore = score;
+        int bestStart = epochStart;
+        for (int start = epochStart + 1; start + segmentLength <= epochEnd; start++)
+        {
+            score -= frequencies[hashDmer(data, start - 1)];
+            score += frequencies[hashDmer(data, start + dmersPerSegment - 1)];
+            if (score > bestScore)
+            {
+                bestScore = score;
+                bestStart = start;
+            }
+        }
+
+        if (bestScore == 0) return null;
+        return new Segment(bestStart, bestStart + segmentLength, bestScore);
+    }
+
+    private static int hashDmer(byte[] data, int offset)
+    {
+        long value = 0;
+        for (int i = 0; i < DMER_LENGTH; i++)
+        {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+        return (int) ((value * 0x9E3779B97F4A7C15L) >>> (64 - HASH_BITS)) & HASH_MASK;
+    }
+
+    private static final class Segment
+    {
+        private final int start;
+        private final int end;
+        private final long score;
+
+        private Segment(int start, int end, long score)
+        {
+            this.start = start;
+            this.end = end;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,550 @@
+package com.craxiom.mqttlibrary.connection;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import timber.log.Timber;
+
+/**
+ * A persistent store-and-forward queue for MQTT messages, backed by append-only, memory-mapped
+ * {@link QueueSegment segment files}.
+ * <p>
+ * Every message is appended to the current segment, so it survives the process being killed before it is delivered.
+ * A single drain thread reads the records in order and hands them to the {@link IRecordPublisher} whenever the client
+ * is connected, keeping at most {@link #DEFAULT_MAX_IN_FLIGHT} publishes outstanding. The acknowledged position is
+ * persisted as the broker acknowledges each record, and a segment is deleted once all of its records have been
+ * acknowledged. If a publish fails, the drain is rewound to the first unacknowledged record once the outstanding
+ * publishes complete, so delivery is at least once.
+ * <p>
+ * The records are written to the page cache through the memory mapping, which the OS persists even if the process
+ * is killed. Records that were not yet flushed to storage when the device itself lost power are detected by their CRC
+ * and discarded on the next start.
+ * <p>
+ * Only one queue at a time can own a directory, which is enforced with a lock on a file in the directory. Once the
+ * queue is closed it no longer touches the segment files, even if publishes that were in flight complete afterwards,
+ * so that a queue opened on the same directory later is the only one that acknowledges and deletes the segments.
+ *
+ * @since 1.3.0
+ */
+final class DurableMessageQueue
+{
+    static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+    static final long DEFAULT_MAX_QUEUE_BYTES = 64L * 1024 * 1024;
+    static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
+    /**
+     * How long the drain thread waits before checking the connection again if it is not signaled.
+     */
+    private static final long DRAIN_POLL_INTERVAL_MS = 1_000L;
+
+    /**
+     * How long closing the queue waits for the drain thread to stop and for the publishes in flight to complete.
+     */
+    private static final long CLOSE_TIMEOUT_MS = 1_000L;
+
+    private static final String LOCK_FILE_NAME = "queue.lock";
+
+    /**
+     * Hands the queued records to the MQTT client.
+     */
+    interface IRecordPublisher
+    {
+        /**
+         * @return True if the client is connected and records can be published.
+         */
+        boolean isReadyToPublish();
+
+        /**
+         * Publishes a record. The payload is a read only view of the segment file that remains valid until the
+         * returned future completes.
+         *
+         * @param mqttMessageTopic The topic the message was published to, without the topic prefix.
+         * @param payload          The message payload.
+         * @return A future that completes when the broker has acknowledged the message, or completes exceptionally if
+         * the publish failed.
+         */
+        CompletableFuture<?> publish(String mqttMessageTopic, ByteBuffer payload);
+    }
+
+    private final File directory;
+    private final int segmentSize;
+    private final long maxQueueBytes;
+    private final int maxInFlight;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition drainCondition = lock.newCondition();
+    private final Condition publishCompleteCondition = lock.newCondition();
+
+    // All the following fields are guarded by the lock
+    private final List<QueueSegment> segments = new ArrayList<>();
+    private final ArrayDeque<InFlightRecord> inFlightRecords = new ArrayDeque<>();
+    private int pendingPublishCount;
+    private boolean rewindPending;
+    private QueueSegment readSegment;
+    private int readOffset;
+    private long queuedBytes;
+    private long droppedCount;
+    private boolean running;
+    private boolean closed;
+
+    private final FileChannel lockChannel;
+    private final FileLock directoryLock;
+    private Thread drainThread;
+
+    DurableMessageQueue(File directory) throws IOException
+    {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_QUEUE_BYTES, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Opens the queue, recovering any records left in the directory from a previous run.
+     *
+     * @param directory     The directory to store the segment files in. It is created if it does not exist.
+     * @param segmentSize   The size of each segment file in bytes.
+     * @param maxQueueBytes The maximum number of unacknowledged bytes to store before new messages are dropped.
+     * @param maxInFlight   The maximum number of records that can be published but not yet acknowledged.
+     * @throws IOException If the directory could not be created, another queue has it open, or the segment files could
+     *                     not be opened.
+     */
+    DurableMessageQueue(File directory, int segmentSize, long maxQueueBytes, int maxInFlight) throws IOException
+    {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxQueueBytes = maxQueueBytes;
+        this.maxInFlight = maxInFlight;
+
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Unable to create the durable queue directory " + directory);
+        }
+
+        lockChannel = new RandomAccessFile(new File(directory, LOCK_FILE_NAME), "rw").getChannel();
+        FileLock acquiredLock;
+        try
+        {
+            acquiredLock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e)
+        {
+            // Another queue in this process holds the lock
+            acquiredLock = null;
+        }
+        if (acquiredLock == null)
+        {
+            lockChannel.close();
+            throw new IOException("The durable queue directory " + directory + " is already in use");
+        }
+        directoryLock = acquiredLock;
+
+        try
+        {
+            recoverSegments();
+        } catch (IOException | RuntimeException e)
+        {
+            releaseDirectoryLock();
+            throw e;
+        }
+    }
+
+    private void recoverSegments() throws IOException
+    {
+        final File[] files = directory.listFiles((dir, name) -> name.endsWith(QueueSegment.FILE_EXTENSION));
+        if (files != null)
+        {
+            // The file names are zero padded sequence numbers, so the names sort in sequence order
+            Arrays.sort(files);
+            for (File file : files)
+            {
+                final QueueSegment segment = QueueSegment.open(file);
+                if (segment == null)
+                {
+                    Timber.w("Deleting the invalid durable queue segment %s", file);
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                    continue;
+                }
+
+                // Only the newest segment is appended to, all the others were already full
+                if (!segments.isEmpty()) segments.get(segments.size() - 1).seal();
+                segments.add(segment);
+            }
+        }
+
+        for (QueueSegment segment : new ArrayList<>(segments))
+        {
+            queuedBytes += segment.getWriteOffset() - segment.getAcknowledgedOffset();
+            if (segment.isFullyAcknowledged()) deleteSegment(segment);
+        }
+
+        if (segments.isEmpty()) segments.add(QueueSegment.create(directory, 0, segmentSize));
+
+        readSegment = segments.get(0);
+        readOffset = readSegment.getAcknowledgedOffset();
+
+        if (queuedBytes > 0) Timber.i("Recovered %d bytes of unsent MQTT messages from the durable queue", queuedBytes);
+    }
+
+    /**
+     * Starts the thread that drains the queue to the publisher.
+     */
+    void start(IRecordPublisher recordPublisher)
+    {
+        lock.lock();
+        try
+        {
+            if (running || closed) return;
+            running = true;
+        } finally
+        {
+            lock.unlock();
+        }
+
+        drainThread = new Thread(() -> drain(recordPublisher), "MQTT Durable Queue Drain");
+        drainThread.setDaemon(true);
+        drainThread.start();
+    }
+
+    /**
+     * Stops the drain thread, waits briefly for the publishes in flight to complete, and flushes the segment files to
+     * storage. Records that have not been acknowledged are kept and will be sent the next time the queue is opened.
+     * Publishes that complete after the queue is closed are ignored, so their records are sent again.
+     */
+    void close()
+    {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT_MS);
+
+        lock.lock();
+        try
+        {
+            if (closed) return;
+            running = false;
+            drainCondition.signalAll();
+        } finally
+        {
+            lock.unlock();
+        }
+
+        if (drainThread != null)
+        {
+            try
+            {
+                drainThread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        lock.lock();
+        try
+        {
+            long remainingNanos;
+            while (pendingPublishCount > 0 && (remainingNanos = deadline - System.nanoTime()) > 0)
+            {
+                publishCompleteCondition.awaitNanos(remainingNanos);
+            }
+            if (pendingPublishCount > 0)
+            {
+                Timber.d("Closing the durable queue with %d publishes in flight", pendingPublishCount);
+            }
+
+            closed = true;
+            for (QueueSegment segment : segments)
+            {
+                segment.force();
+            }
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            closed = true;
+        } finally
+        {
+            lock.unlock();
+        }
+
+        releaseDirectoryLock();
+    }
+
+    private void releaseDirectoryLock()
+    {
+        try
+        {
+            // Closing the channel also releases the lock
+            lockChannel.close();
+        } catch (IOException e)
+        {
+            Timber.w(e, "Unable to release the lock on the durable queue directory %s", directory);
+        }
+    }
+
+    /**
+     * Appends a message to the end of the queue.
+     *
+     * @param mqttMessageTopic The topic to publish the message to, without the topic prefix.
+     * @param payload          The message payload. Its position is not modified.
+     * @return True if the message was stored, false if it was dropped because the queue is full or closed.
+     */
+    boolean append(String mqttMessageTopic, ByteBuffer payload)
+    {
+        final byte[] topicBytes = mqttMessageTopic.getBytes(StandardCharsets.UTF_8);
+
+        lock.lock();
+        try
+        {
+            if (closed || queuedBytes + QueueSegment.requiredCapacity(topicBytes.length, payload.remaining()) > maxQueueBytes)
+            {
+                droppedCount++;
+                return false;
+            }
+
+            QueueSegment writeSegment = segments.get(segments.size() - 1);
+            int written = writeSegment.append(topicBytes, payload);
+            if (written == 0)
+            {
+                writeSegment.seal();
+                final int capacity = Math.max(segmentSize,
+                        QueueSegment.requiredCapacity(topicBytes.length, payload.remaining()));
+                writeSegment = QueueSegment.create(directory, writeSegment.getSequence() + 1, capacity);
+                segments.add(writeSegment);
+                written = writeSegment.append(topicBytes, payload);
+            }
+
+            queuedBytes += written;
+            drainCondition.signal();
+            return true;
+        } catch (IOException e)
+        {
+            Timber.e(e, "Unable to create a new durable queue segment, dropping the message");
+            droppedCount++;
+            return false;
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wakes the drain thread, for example because the client just connected.
+     */
+    void signal()
+    {
+        lock.lock();
+        try
+        {
+            drainCondition.signalAll();
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of bytes of messages that have not yet been acknowledged by the broker.
+     */
+    long getQueuedBytes()
+    {
+        lock.lock();
+        try
+        {
+            return queuedBytes;
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of messages dropped because the queue was full.
+     */
+    long getDroppedCount()
+    {
+        lock.lock();
+        try
+        {
+            return droppedCount;
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of segment files currently in use.
+     */
+    int getSegmentCount()
+    {
+        lock.lock();
+        try
+        {
+            return segments.size();
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private void drain(IRecordPublisher recordPublisher)
+    {
+        while (true)
+        {
+            final InFlightRecord inFlightRecord;
+            final QueueSegment.Record record;
+
+            lock.lock();
+            try
+            {
+                while (running && !canPublishNextRecord(recordPublisher))
+                {
+                    drainCondition.await(DRAIN_POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                }
+                if (!running) return;
+
+                record = readSegment.read(readOffset);
+                inFlightRecord = new InFlightRecord(readSegment, record.endOffset);
+                inFlightRecords.addLast(inFlightRecord);
+                pendingPublishCount++;
+                readOffset = record.endOffset;
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            } finally
+            {
+                lock.unlock();
+            }
+
+            try
+            {
+                recordPublisher.publish(record.mqttMessageTopic, record.payload)
+                        .whenComplete((result, error) -> onPublishComplete(inFlightRecord, error));
+            } catch (Exception e)
+            {
+                onPublishComplete(inFlightRecord, e);
+            }
+        }
+    }
+
+    /**
+     * Must be called with the lock held. Also performs any pending rewind, and moves the read position on to the next
+     * segment once the current one has been read.
+     */
+    private boolean canPublishNextRecord(IRecordPublisher recordPublisher)
+    {
+        if (rewindPending)
+        {
+            if (pendingPublishCount > 0) return false;
+            rewind();
+        }
+
+        if (readOffset >= readSegment.getWriteOffset())
+        {
+            final int nextIndex = segments.indexOf(readSegment) + 1;
+            if (!readSegment.isSealed() || nextIndex == 0 || nextIndex >= segments.size()) return false;
+
+            final QueueSegment previousSegment = readSegment;
+            readSegment = segments.get(nextIndex);
+            readOffset = readSegment.getAcknowledgedOffset();
+            if (previousSegment.isFullyAcknowledged()) deleteSegment(previousSegment);
+
+            if (readOffset >= readSegment.getWriteOffset()) return false;
+        }
+
+        return pendingPublishCount < maxInFlight && recordPublisher.isReadyToPublish();
+    }
+
+    /**
+     * Must be called with the lock held and no publishes outstanding. Moves the read position back to the first
+     * record that has not been acknowledged so that it and all the records after it are sent again.
+     */
+    private void rewind()
+    {
+        rewindPending = false;
+        inFlightRecords.clear();
+
+        readSegment = segments.get(0);
+        readOffset = readSegment.getAcknowledgedOffset();
+        Timber.d("Rewound the durable queue to offset %d of segment %d", readOffset, readSegment.getSequence());
+    }
+
+    private void onPublishComplete(InFlightRecord inFlightRecord, Throwable error)
+    {
+        lock.lock();
+        try
+        {
+            pendingPublishCount--;
+            publishCompleteCondition.signalAll();
+
+            // Once closed, the segment files belong to whichever queue opens the directory next
+            if (closed) return;
+
+            if (error != null)
+            {
+                Timber.d(error, "A durable queue publish failed, the queue will be rewound");
+                rewindPending = true;
+            } else
+            {
+                inFlightRecord.acknowledged = true;
+            }
+
+            acknowledgeCompletedRecords();
+
+            drainCondition.signal();
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Must be called with the lock held. Persists the acknowledged position for the records at the head of the
+     * in-flight queue that have been acknowledged, deleting any segments that are now fully acknowledged. Records that
+     * are acknowledged out of order stay in the queue until the records before them are acknowledged. The segment that
+     * is currently being read is deleted once the read position moves past it.
+     */
+    private void acknowledgeCompletedRecords()
+    {
+        InFlightRecord head;
+        while ((head = inFlightRecords.peekFirst()) != null && head.acknowledged)
+        {
+            inFlightRecords.removeFirst();
+
+            final QueueSegment segment = head.segment;
+            queuedBytes -= head.endOffset - segment.getAcknowledgedOffset();
+            segment.acknowledge(head.endOffset);
+
+            if (segment.isFullyAcknowledged() && segment != readSegment) deleteSegment(segment);
+        }
+    }
+
+    private void deleteSegment(QueueSegment segment)
+    {
+        segments.remove(segment);
+        if (!segment.delete()) Timber.w("Unable to delete the durable queue segment %d", segment.getSequence());
+    }
+
+    private static final class InFlightRecord
+    {
+        private final QueueSegment segment;
+        private final int endOffset;
+        private boolean acknowledged;
+
+        private InFlightRecord(QueueSegment segment, int endOffset)
+        {
+            this.segment = segment;
+            this.endOffset = endOffset;
+        }
+    }
+}
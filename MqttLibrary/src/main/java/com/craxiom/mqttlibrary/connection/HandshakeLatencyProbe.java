@@ -0,0 +1,66 @@
+package com.craxiom.mqttlibrary.connection;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Measures the latency of a broker endpoint as the time it takes to open a TCP connection to it, plus the TLS
+ * handshake if TLS is enabled for the endpoint. The connection is closed right away without sending any MQTT packets.
+ *
+ * @since 1.3.0
+ */
+final class HandshakeLatencyProbe implements BrokerSelector.ILatencyProbe
+{
+    private final SSLSocketFactory sslSocketFactory;
+
+    HandshakeLatencyProbe()
+    {
+        this((SSLSocketFactory) SSLSocketFactory.getDefault());
+    }
+
+    /**
+     * @param sslSocketFactory The factory for the TLS handshake, which must trust the same certificates as the MQTT
+     *                         client so that an endpoint the client can't verify is not considered healthy.
+     */
+    HandshakeLatencyProbe(SSLSocketFactory sslSocketFactory)
+    {
+        this.sslSocketFactory = sslSocketFactory;
+    }
+
+    @Override
+    public long probeNanos(BrokerConnectionInfo endpoint, int timeoutMs)
+    {
+        final long start = System.nanoTime();
+        try (Socket socket = new Socket())
+        {
+            socket.connect(new InetSocketAddress(endpoint.getMqttBrokerHost(), endpoint.getPortNumber()), timeoutMs);
+
+            if (endpoint.isTlsEnabled())
+            {
+                final long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+                socket.setSoTimeout((int) Math.max(1, timeoutMs - elapsedMs));
+
+                try (SSLSocket sslSocket = (SSLSocket) sslSocketFactory.createSocket(socket,
+                        endpoint.getMqttBrokerHost(), endpoint.getPortNumber(), true))
+                {
+                    // Verify the host name like the MQTT client does
+                    final SSLParameters sslParameters = sslSocket.getSSLParameters();
+                    sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+                    sslSocket.setSSLParameters(sslParameters);
+                    sslSocket.startHandshake();
+                }
+            }
+
+            final long latency = System.nanoTime() - start;
+            return latency <= timeoutMs * 1_000_000L ? latency : UNHEALTHY;
+        } catch (IOException | RuntimeException e)
+        {
+            return UNHEALTHY;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.craxiom.mqttlibrary.connection;
+
+import com.hivemq.client.mqtt.MqttClientState;
+import com.hivemq.client.mqtt.datatypes.MqttTopic;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Wraps the HiveMQ client for one version of the MQTT protocol, so that the {@link DefaultMqttConnection} can publish
+ * the same way regardless of which version is used to connect to the broker.
+ *
+ * @since 1.3.0
+ */
+interface IMqttClientEngine
+{
+    /**
+     * Sends the connect request, keeping the session on the broker so that QoS 1 and 2 messages are not lost while the
+     * device is offline.
+     *
+     * @return The future that completes when the broker has acknowledged the connection.
+     */
+    CompletableFuture<?> connect();
+
+    /**
+     * @return The future that completes when the client has disconnected.
+     */
+    CompletableFuture<Void> disconnect();
+
+    MqttClientState getState();
+
+    /**
+     * Publishes the payload with the QoS that the engine was created with.
+     *
+     * @param topic   The full topic to publish to, including the topic prefix.
+     * @param payload The payload to publish. It must not be modified until the returned future completes.
+     * @param retain  True if the broker should retain the message.
+     * @return The future that completes when the publish has completed for the QoS.
+     */
+    CompletableFuture<?> publish(MqttTopic topic, ByteBuffer payload, boolean retain);
+
+    /**
+     * @param cause The cause of a disconnect.
+     * @return True if the broker rejected the connection because the credentials were not valid, in which case the
+     * reconnect attempts should be stopped.
+     */
+    boolean isAuthenticationFailure(Throwable cause);
+
+    /**
+     * @return The maximum number of QoS 1 and 2 messages that the broker accepts in flight at once for the current
+     * connection, or 0 if the protocol version does not have a limit.
+     */
+    int getInFlightWindow();
+}
@@ -0,0 +1,49 @@
+package com.craxiom.mqttlibrary.connection;
+
+import com.craxiom.mqttlibrary.PublishMetrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations with power of two buckets, laid out like {@link PublishMetrics.Histogram}.
+ * <p>
+ * Recording a duration only updates atomic counters, so it does not allocate or block and can be done on the publish
+ * path from any thread. A snapshot taken while durations are being recorded may be missing the most recent ones, but
+ * each bucket is always consistent with itself.
+ *
+ * @since 1.3.0
+ */
+final class LogHistogram
+{
+    private final AtomicLongArray bucketCounts = new AtomicLongArray(PublishMetrics.Histogram.BUCKET_COUNT);
+    private final AtomicLong sumNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * @param durationNanos The duration to record. Negative durations, which can only come from a clock that went
+     *                      backwards, are recorded as zero.
+     */
+    void record(long durationNanos)
+    {
+        final long duration = Math.max(0, durationNanos);
+        bucketCounts.incrementAndGet(PublishMetrics.Histogram.bucketIndex(duration));
+        sumNanos.addAndGet(duration);
+
+        long max = maxNanos.get();
+        while (duration > max && !maxNanos.compareAndSet(max, duration))
+        {
+            max = maxNanos.get();
+        }
+    }
+
+    PublishMetrics.Histogram snapshot()
+    {
+        final long[] counts = new long[PublishMetrics.Histogram.BUCKET_COUNT];
+        for (int i = 0; i < counts.length; i++)
+        {
+            counts[i] = bucketCounts.get(i);
+        }
+        return new PublishMetrics.Histogram(counts, sumNanos.get(), maxNanos.get());
+    }
+}
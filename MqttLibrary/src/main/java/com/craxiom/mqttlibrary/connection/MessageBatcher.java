@@ -0,0 +1,274 @@
+package com.craxiom.mqttlibrary.connection;
+
+import com.google.protobuf.CodedOutputStream;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * Collects the messages published to each topic and hands them off as a single framed payload once one of the
+ * {@link BatchingConfig} limits is reached.
+ * <p>
+ * Each topic has its own batch, so the order of the messages published to a topic is preserved. The encoded message
+ * payloads are copied into a pooled batch buffer as they are added, and the message buffers are released back to the
+ * pool right away. Batches that do not fill up are published by a timer once the oldest message has waited the max
+ * delay.
+ *
+ * @since 1.3.0
+ */
+final class MessageBatcher
+{
+    /**
+     * How the individual messages are framed within a batch payload.
+     */
+    enum Framing
+    {
+        /**
+         * The messages are JSON documents, and the batch is published as a JSON array of those documents.
+         */
+        JSON_ARRAY,
+
+        /**
+         * The messages are binary Protobuf, and each one is prefixed with its length as a varint.
+         */
+        LENGTH_DELIMITED
+    }
+
+    /**
+     * Receives the batches that are ready to be published.
+     */
+    interface IBatchPublisher
+    {
+        /**
+         * Publishes a batch. Ownership of the payload buffer is transferred to the publisher.
+         *
+         * @param mqttMessageTopic The topic that all the messages in the batch were published to.
+         * @param payloadBuffer    The framed batch payload.
+         */
+        void publishBatch(String mqttMessageTopic, PayloadBuffer payloadBuffer);
+    }
+
+    private final BatchingConfig batchingConfig;
+    private final PayloadBufferPool payloadBufferPool;
+    private final IBatchPublisher batchPublisher;
+    private final ScheduledExecutorService flushScheduler;
+    private final ConcurrentHashMap<String, Batch> batches = new ConcurrentHashMap<>();
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param batchingConfig    The limits that a batch is published at.
+     * @param payloadBufferPool The pool that the batch buffers are taken from and the message buffers are released to.
+     * @param flushScheduler    Runs the timed flushes of the batches that do not fill up. It is not shut down by this
+     *                          batcher, so it can be shared.
+     * @param batchPublisher    Publishes the batches.
+     */
+    MessageBatcher(BatchingConfig batchingConfig, PayloadBufferPool payloadBufferPool,
+                   ScheduledExecutorService flushScheduler, IBatchPublisher batchPublisher)
+    {
+        this.batchingConfig = batchingConfig;
+        this.payloadBufferPool = payloadBufferPool;
+        this.flushScheduler = flushScheduler;
+        this.batchPublisher = batchPublisher;
+    }
+
+    /**
+     * Adds a message to the batch for its topic, publishing the batch if this message fills it.
+     * <p>
+     * Ownership of the message buffer is transferred to this method, and the buffer is released back to the pool once
+     * the message has been copied into the batch.
+     *
+     * @param mqttMessageTopic The topic the message is being published to.
+     * @param messageBuffer    The encoded message.
+     * @param framing          How the message should be framed within the batch.
+     */
+    void add(String mqttMessageTopic, PayloadBuffer messageBuffer, Framing framing)
+    {
+        final ByteBuffer message = messageBuffer.toPayload();
+        final Batch batch = batches.computeIfAbsent(mqttMessageTopic, Batch::new);
+
+        PayloadBuffer previousBatch = null;
+        PayloadBuffer fullBatch = null;
+        synchronized (batch)
+        {
+            if (batch.payloadBuffer != null
+                    && (batch.framing != framing || wouldExceedMaxBytes(batch, message.remaining())))
+            {
+                previousBatch = batch.finish();
+            }
+
+            if (batch.payloadBuffer == null) start(batch, framing);
+
+            batch.append(message);
+
+            if (closed || isFull(batch)) fullBatch = batch.finish();
+        }
+
+        payloadBufferPool.release(messageBuffer);
+
+        if (previousBatch != null) batchPublisher.publishBatch(mqttMessageTopic, previousBatch);
+        if (fullBatch != null) batchPublisher.publishBatch(mqttMessageTopic, fullBatch);
+    }
+
+    /**
+     * Publishes all the batches that have at least one message in them, regardless of whether any limits have been
+     * reached.
+     */
+    void flushAll()
+    {
+        for (Batch batch : batches.values())
+        {
+            final PayloadBuffer payloadBuffer;
+            synchronized (batch)
+            {
+                payloadBuffer = batch.finish();
+            }
+
+            if (payloadBuffer != null) batchPublisher.publishBatch(batch.mqttMessageTopic, payloadBuffer);
+        }
+    }
+
+    /**
+     * Publishes any pending batches. Messages added after this batcher is closed are published right away as a batch of
+     * one, and the flushes that are still scheduled find their batches already published.
+     */
+    void close()
+    {
+        closed = true;
+        flushAll();
+    }
+
+    private void start(Batch batch, Framing framing)
+    {
+        batch.start(payloadBufferPool.acquire(), framing);
+
+        if (closed) return;
+
+        final long batchSequence = batch.sequence;
+        try
+        {
+            flushScheduler.schedule(() -> flushIfStillOpen(batch, batchSequence),
+                    batchingConfig.getMaxDelayMs(), TimeUnit.MILLISECONDS);
+        } catch (Exception e)
+        {
+            // Only happens if the scheduler was shut down, in which case the batch is published once it fills up or the
+            // batcher is closed
+            Timber.d(e, "Could not schedule the MQTT batch flush");
+        }
+    }
+
+    /**
+     * Called by the flush timer once the max delay has passed since the batch was started.
+     */
+    private void flushIfStillOpen(Batch batch, long batchSequence)
+    {
+        final PayloadBuffer payloadBuffer;
+        synchronized (batch)
+        {
+            // The batch was already published because it filled up, and a newer batch may have been started since
+            if (batch.sequence != batchSequence) return;
+
+            payloadBuffer = batch.finish();
+        }
+
+        if (payloadBuffer != null) batchPublisher.publishBatch(batch.mqttMessageTopic, payloadBuffer);
+    }
+
+    private boolean isFull(Batch batch)
+    {
+        final int maxMessages = batchingConfig.getMaxMessages();
+        final int maxBytes = batchingConfig.getMaxBytes();
+
+        return (maxMessages > 0 && batch.messageCount >= maxMessages)
+                || (maxBytes > 0 && batch.framedLength() >= maxBytes);
+    }
+
+    private boolean wouldExceedMaxBytes(Batch batch, int messageLength)
+    {
+        final int maxBytes = batchingConfig.getMaxBytes();
+        return maxBytes > 0 && batch.framedLength() + batch.frameOverhead(messageLength) + messageLength > maxBytes;
+    }
+
+    /**
+     * The batch of messages for a single topic. Guarded by its own monitor.
+     */
+    private static final class Batch
+    {
+        private final String mqttMessageTopic;
+
+        private PayloadBuffer payloadBuffer;
+        private Framing framing;
+        private int messageCount;
+
+        /**
+         * Incremented each time a new batch is started so that a stale flush timer does not publish a newer batch
+         * early.
+         */
+        private long sequence;
+
+        private Batch(String mqttMessageTopic)
+        {
+            this.mqttMessageTopic = mqttMessageTopic;
+        }
+
+        private void start(PayloadBuffer payloadBuffer, Framing framing)
+        {
+            this.payloadBuffer = payloadBuffer;
+            this.framing = framing;
+            messageCount = 0;
+            sequence++;
+        }
+
+        private void append(ByteBuffer message)
+        {
+            if (framing == Framing.JSON_ARRAY)
+            {
+                payloadBuffer.write(messageCount == 0 ? (byte) '[' : (byte) ',');
+            } else
+            {
+                payloadBuffer.writeVarint(message.remaining());
+            }
+
+            payloadBuffer.write(message);
+            messageCount++;
+        }
+
+        /**
+         * @return The length of the batch payload if it were finished now.
+         */
+        private int framedLength()
+        {
+            // The JSON array needs a closing bracket
+            return payloadBuffer.length() + (framing == Framing.JSON_ARRAY ? 1 : 0);
+        }
+
+        /**
+         * @return The number of framing bytes that would be added along with a message of the provided length.
+         */
+        private int frameOverhead(int messageLength)
+        {
+            return framing == Framing.JSON_ARRAY ? 1 : CodedOutputStream.computeUInt32SizeNoTag(messageLength);
+        }
+
+        /**
+         * Completes the framing of the current batch and detaches its payload so that a new batch can be started.
+         *
+         * @return The completed batch payload, or null if there are no messages in the batch.
+         */
+        private PayloadBuffer finish()
+        {
+            if (payloadBuffer == null) return null;
+
+            final PayloadBuffer finished = payloadBuffer;
+            if (framing == Framing.JSON_ARRAY) finished.write((byte) ']');
+
+            payloadBuffer = null;
+            sequence++;
+            return finished;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.craxiom.mqttlibrary.connection;
+
+import com.hivemq.client.mqtt.MqttClientState;
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.datatypes.MqttTopic;
+import com.hivemq.client.mqtt.mqtt3.Mqtt3AsyncClient;
+import com.hivemq.client.mqtt.mqtt3.Mqtt3ClientBuilder;
+import com.hivemq.client.mqtt.mqtt3.exceptions.Mqtt3ConnAckException;
+import com.hivemq.client.mqtt.mqtt3.message.auth.Mqtt3SimpleAuth;
+import com.hivemq.client.mqtt.mqtt3.message.auth.Mqtt3SimpleAuthBuilder;
+import com.hivemq.client.mqtt.mqtt3.message.connect.connack.Mqtt3ConnAckReturnCode;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Connects to the MQTT broker with MQTT 3.1.1.
+ *
+ * @since 1.3.0
+ */
+final class Mqtt3ClientEngine implements IMqttClientEngine
+{
+    private final Mqtt3AsyncClient client;
+    private final MqttQos qos;
+
+    /**
+     * @param clientBuilder The builder with the connection settings that are common to both protocol versions.
+     * @param username      The username used to authenticate to the MQTT Broker, or null if not authenticating.
+     * @param password      The password used to authenticate to the MQTT Broker, or null if there isn't one.
+     * @param qos           The QoS to publish messages with.
+     */
+    Mqtt3ClientEngine(Mqtt3ClientBuilder clientBuilder, String username, String password, MqttQos qos)
+    {
+        this.qos = qos;
+
+        if (username != null)
+        {
+            final Mqtt3SimpleAuthBuilder.Complete authBuilder = Mqtt3SimpleAuth.builder().username(username);
+            if (password != null) authBuilder.password(password.getBytes());
+
+            clientBuilder.simpleAuth(authBuilder.build());
+        }
+
+        client = clientBuilder.buildAsync();
+    }
+
+    @Override
+    public CompletableFuture<?> connect()
+    {
+        // Clean session must be set to false if we want the HiveMQ client library to queue messages while this
+        // device is offline, and then to send those messages when the device comes back online.
+        return client.connectWith().cleanSession(false).send();
+    }
+
+    @Override
+    public CompletableFuture<Void> disconnect()
+    {
+        return client.disconnect();
+    }
+
+    @Override
+    public MqttClientState getState()
+    {
+        return client.getState();
+    }
+
+    @Override
+    public CompletableFuture<?> publish(MqttTopic topic, ByteBuffer payload, boolean retain)
+    {
+        return client.publishWith()
+                .topic(topic)
+                .qos(qos)
+                .retain(retain)
+                .payload(payload)
+                .send();
+    }
+
+    @Override
+    public boolean isAuthenticationFailure(Throwable cause)
+    {
+        if (!(cause instanceof Mqtt3ConnAckException)) return false;
+
+        final Mqtt3ConnAckReturnCode returnCode = ((Mqtt3ConnAckException) cause).getMqttMessage().getReturnCode();
+        return returnCode == Mqtt3ConnAckReturnCode.BAD_USER_NAME_OR_PASSWORD
+                || returnCode == Mqtt3ConnAckReturnCode.NOT_AUTHORIZED;
+    }
+
+    @Override
+    public int getInFlightWindow()
+    {
+        return 0;
+    }
+}
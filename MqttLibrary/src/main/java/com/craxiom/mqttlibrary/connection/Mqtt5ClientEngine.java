@@ -0,0 +1,110 @@
+package com.craxiom.mqttlibrary.connection;
+
+import com.hivemq.client.mqtt.MqttClientState;
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.datatypes.MqttTopic;
+import com.hivemq.client.mqtt.mqtt5.Mqtt5AsyncClient;
+import com.hivemq.client.mqtt.mqtt5.Mqtt5ClientBuilder;
+import com.hivemq.client.mqtt.mqtt5.exceptions.Mqtt5ConnAckException;
+import com.hivemq.client.mqtt.mqtt5.message.auth.Mqtt5SimpleAuth;
+import com.hivemq.client.mqtt.mqtt5.message.auth.Mqtt5SimpleAuthBuilder;
+import com.hivemq.client.mqtt.mqtt5.message.connect.connack.Mqtt5ConnAckReasonCode;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Connects to the MQTT broker with MQTT 5.
+ * <p>
+ * Topic aliases are assigned by the HiveMQ client, which maps the topics that are published to most often onto the
+ * aliases the broker allows, up to the {@link Mqtt5Config#getTopicAliasMaximum() topic alias maximum}. The in-flight
+ * window is the broker's Receive Maximum, which the HiveMQ client also enforces by holding back any QoS 1 and 2
+ * publishes beyond it.
+ *
+ * @since 1.3.0
+ */
+final class Mqtt5ClientEngine implements IMqttClientEngine
+{
+    private final Mqtt5AsyncClient client;
+    private final MqttQos qos;
+    private final Mqtt5Config config;
+
+    /**
+     * @param clientBuilder The builder with the connection settings that are common to both protocol versions.
+     * @param username      The username used to authenticate to the MQTT Broker, or null if not authenticating.
+     * @param password      The password used to authenticate to the MQTT Broker, or null if there isn't one.
+     * @param qos           The QoS to publish messages with.
+     * @param config        The MQTT 5 settings.
+     */
+    Mqtt5ClientEngine(Mqtt5ClientBuilder clientBuilder, String username, String password, MqttQos qos,
+                      Mqtt5Config config)
+    {
+        this.qos = qos;
+        this.config = config;
+
+        if (username != null)
+        {
+            final Mqtt5SimpleAuthBuilder.Complete authBuilder = Mqtt5SimpleAuth.builder().username(username);
+            if (password != null) authBuilder.password(password.getBytes());
+
+            clientBuilder.simpleAuth(authBuilder.build());
+        }
+
+        client = clientBuilder.buildAsync();
+    }
+
+    @Override
+    public CompletableFuture<?> connect()
+    {
+        // The session expiry interval takes the place of the MQTT 3.1.1 clean session flag, so the broker keeps the
+        // session while this device is offline
+        return client.connectWith()
+                .cleanStart(false)
+                .sessionExpiryInterval(config.getSessionExpiryIntervalSeconds())
+                .restrictions()
+                .sendTopicAliasMaximum(config.getTopicAliasMaximum())
+                .applyRestrictions()
+                .send();
+    }
+
+    @Override
+    public CompletableFuture<Void> disconnect()
+    {
+        return client.disconnect();
+    }
+
+    @Override
+    public MqttClientState getState()
+    {
+        return client.getState();
+    }
+
+    @Override
+    public CompletableFuture<?> publish(MqttTopic topic, ByteBuffer payload, boolean retain)
+    {
+        return client.publishWith()
+                .topic(topic)
+                .qos(qos)
+                .retain(retain)
+                .payload(payload)
+                .send();
+    }
+
+    @Override
+    public boolean isAuthenticationFailure(Throwable cause)
+    {
+        if (!(cause instanceof Mqtt5ConnAckException)) return false;
+
+        final Mqtt5ConnAckReasonCode reasonCode = ((Mqtt5ConnAckException) cause).getMqttMessage().getReasonCode();
+        return reasonCode == Mqtt5ConnAckReasonCode.BAD_USER_NAME_OR_PASSWORD
+                || reasonCode == Mqtt5ConnAckReasonCode.NOT_AUTHORIZED;
+    }
+
+    @Override
+    public int getInFlightWindow()
+    {
+        return client.getConfig().getConnectionConfig()
+                .map(connectionConfig -> connectionConfig.getRestrictionsForClient().getSendMaximum())
+                .orElse(0);
+    }
+}
@@ -0,0 +1,93 @@
+package com.craxiom.mqttlibrary.connection;
+
+/**
+ * Holds the settings for connecting to the MQTT broker with MQTT 5 instead of MQTT 3.1.1.
+ * <p>
+ * With MQTT 5, the client automatically assigns topic aliases to the topics that are published to most often, so the
+ * full topic name is only sent with the first few messages on each topic. The broker's Receive Maximum is applied as
+ * an in-flight window, so no more QoS 1 or 2 messages are handed to the client than the broker is willing to accept at
+ * once. The session is kept on the broker for the session expiry interval after the connection is lost, which takes
+ * the place of the MQTT 3.1.1 clean session flag.
+ *
+ * @since 1.3.0
+ */
+public class Mqtt5Config
+{
+    /**
+     * The largest value that can be sent as a topic alias maximum.
+     */
+    public static final int MAX_TOPIC_ALIAS_MAXIMUM = 65_535;
+
+    /**
+     * The largest session expiry interval, which the broker treats as a session that never expires.
+     */
+    public static final long MAX_SESSION_EXPIRY_INTERVAL_SECONDS = 0xFFFF_FFFFL;
+
+    /**
+     * Keeps the session for a day and uses up to 16 topic aliases.
+     */
+    public static final Mqtt5Config DEFAULT = new Mqtt5Config(24 * 60 * 60, 16);
+
+    private final long sessionExpiryIntervalSeconds;
+    private final int topicAliasMaximum;
+
+    /**
+     * Constructs the MQTT 5 settings.
+     *
+     * @param sessionExpiryIntervalSeconds How long the broker keeps the session, including any QoS 1 and 2 messages
+     *                                     that have not been acknowledged, after the connection is lost. 0 ends the
+     *                                     session when the connection is lost.
+     * @param topicAliasMaximum            The maximum number of topic aliases to use. The broker may allow fewer. 0
+     *                                     disables topic aliases.
+     * @throws IllegalArgumentException If either setting is out of range.
+     */
+    public Mqtt5Config(long sessionExpiryIntervalSeconds, int topicAliasMaximum)
+    {
+        if (sessionExpiryIntervalSeconds < 0 || sessionExpiryIntervalSeconds > MAX_SESSION_EXPIRY_INTERVAL_SECONDS
+                || topicAliasMaximum < 0 || topicAliasMaximum > MAX_TOPIC_ALIAS_MAXIMUM)
+        {
+            throw new IllegalArgumentException("Invalid MQTT 5 settings. sessionExpiryIntervalSeconds="
+                    + sessionExpiryIntervalSeconds + ", topicAliasMaximum=" + topicAliasMaximum);
+        }
+
+        this.sessionExpiryIntervalSeconds = sessionExpiryIntervalSeconds;
+        this.topicAliasMaximum = topicAliasMaximum;
+    }
+
+    public long getSessionExpiryIntervalSeconds()
+    {
+        return sessionExpiryIntervalSeconds;
+    }
+
+    public int getTopicAliasMaximum()
+    {
+        return topicAliasMaximum;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Mqtt5Config that = (Mqtt5Config) o;
+
+        if (sessionExpiryIntervalSeconds != that.sessionExpiryIntervalSeconds) return false;
+        return topicAliasMaximum == that.topicAliasMaximum;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = Long.hashCode(sessionExpiryIntervalSeconds);
+        result = 31 * result + topicAliasMaximum;
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Mqtt5Config{sessionExpiryIntervalSeconds=" + sessionExpiryIntervalSeconds + ", topicAliasMaximum="
+                + topicAliasMaximum + '}';
+    }
+}
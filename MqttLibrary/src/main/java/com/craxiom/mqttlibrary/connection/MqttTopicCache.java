@@ -0,0 +1,94 @@
+package com.craxiom.mqttlibrary.connection;
+
+import com.hivemq.client.mqtt.datatypes.MqttTopic;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A bounded cache of the full, already validated {@link MqttTopic}s for the message topics that are published to.
+ * <p>
+ * Producers typically publish to a small set of topics many times, so concatenating the topic prefix and having
+ * HiveMQ parse and validate the resulting topic string for every publish is wasted work. The first publish to a topic
+ * builds the {@link MqttTopic}, and every later publish to that topic reuses it.
+ * <p>
+ * The cache is bounded so that an app publishing to an unbounded set of topics (e.g. topics that contain a record ID)
+ * does not leak memory. Once full, topics that are not already cached are built on every publish just as they were
+ * before the cache was added.
+ *
+ * @since 1.3.0
+ */
+final class MqttTopicCache
+{
+    static final int DEFAULT_MAX_SIZE = 128;
+
+    private final int maxSize;
+
+    /**
+     * The topic prefix and the topics built with it are swapped out together so that a publish racing with
+     * {@link #reset(String)} can never cache a topic built with the old prefix in the new cache.
+     */
+    private volatile PrefixedTopics prefixedTopics = new PrefixedTopics("");
+
+    MqttTopicCache()
+    {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize The maximum number of topics to cache.
+     */
+    MqttTopicCache(int maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Discards all the cached topics and starts building topics with the provided prefix.
+     *
+     * @param topicPrefix The prefix to prepend to every message topic.
+     */
+    void reset(String topicPrefix)
+    {
+        prefixedTopics = new PrefixedTopics(topicPrefix == null ? "" : topicPrefix);
+    }
+
+    /**
+     * Returns the full topic for the provided message topic, building and caching it if this is the first time it has
+     * been requested since the last reset.
+     *
+     * @param messageTopic The message topic, without the topic prefix.
+     * @return The validated topic with the current topic prefix prepended.
+     * @throws IllegalArgumentException If the resulting topic is not a valid MQTT topic.
+     */
+    MqttTopic get(String messageTopic)
+    {
+        final PrefixedTopics current = prefixedTopics;
+
+        final MqttTopic cachedTopic = current.topics.get(messageTopic);
+        if (cachedTopic != null) return cachedTopic;
+
+        final MqttTopic topic = MqttTopic.of(current.topicPrefix + messageTopic);
+        if (current.topics.size() < maxSize) current.topics.putIfAbsent(messageTopic, topic);
+
+        return topic;
+    }
+
+    /**
+     * @return The number of topics currently cached.
+     */
+    int size()
+    {
+        return prefixedTopics.topics.size();
+    }
+
+    private static final class PrefixedTopics
+    {
+        private final String topicPrefix;
+        private final ConcurrentHashMap<String, MqttTopic> topics = new ConcurrentHashMap<>();
+
+        private PrefixedTopics(String topicPrefix)
+        {
+            this.topicPrefix = topicPrefix;
+        }
+    }
+}
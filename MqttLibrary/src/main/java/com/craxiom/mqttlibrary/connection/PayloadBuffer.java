@@ -0,0 +1,226 @@
+package com.craxiom.mqttlibrary.connection;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable, growable byte buffer that holds the payload of a single MQTT message.
+ * <p>
+ * Text that is appended to this buffer is encoded as UTF-8 directly into the backing {@link ByteBuffer}, which avoids
+ * creating an intermediate {@link String} and {@code byte[]} for every published message. Instances are obtained from
+ * and returned to a {@link PayloadBufferPool}, and are not thread safe; a buffer must only be used by one thread at a
+ * time and must not be modified until the publish it was handed to has completed.
+ *
+ * @since 1.3.0
+ */
+final class PayloadBuffer implements Appendable
+{
+    /**
+     * The byte written in place of a malformed surrogate character. This matches the behavior of
+     * {@code String.getBytes(StandardCharsets.UTF_8)}.
+     */
+    private static final byte REPLACEMENT_BYTE = (byte) '?';
+
+    private ByteBuffer buffer;
+
+    /**
+     * A high surrogate that has been appended but not yet paired with the low surrogate that follows it, or 0 if
+     * there is none. Needed because an {@link Appendable} can receive the two halves of a pair in separate calls.
+     */
+    private char pendingHighSurrogate;
+
+    /**
+     * True once {@link #toPayload()} has been called and the backing buffer has been flipped for reading.
+     */
+    private boolean finished;
+
+    PayloadBuffer(int initialCapacity)
+    {
+        buffer = ByteBuffer.allocate(initialCapacity);
+    }
+
+    @Override
+    public PayloadBuffer append(CharSequence csq)
+    {
+        if (csq == null) csq = "null";
+        return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public PayloadBuffer append(CharSequence csq, int start, int end)
+    {
+        if (csq == null) csq = "null";
+
+        ensureRemaining(end - start);
+        for (int i = start; i < end; i++)
+        {
+            encode(csq.charAt(i));
+        }
+        return this;
+    }
+
+    @Override
+    public PayloadBuffer append(char c)
+    {
+        encode(c);
+        return this;
+    }
+
+    /**
+     * Appends a single raw byte.
+     *
+     * @param b The byte to append.
+     */
+    void write(byte b)
+    {
+        put(b);
+    }
+
+    /**
+     * Appends the remaining bytes of the provided buffer, advancing its position to its limit.
+     *
+     * @param src The bytes to append.
+     */
+    void write(ByteBuffer src)
+    {
+        ensureRemaining(src.remaining());
+        buffer.put(src);
+    }
+
+    /**
+     * Appends the value as a Protobuf base 128 varint, which is how the length of each record is written when
+     * Protobuf messages are length-delimited.
+     *
+     * @param value The non-negative value to append.
+     */
+    void writeVarint(int value)
+    {
+        ensureRemaining(5);
+        while ((value & ~0x7F) != 0)
+        {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Makes sure there is room for at least the specified number of bytes after the current position, and returns the
+     * backing buffer so that binary encoders can write directly into it. The caller is responsible for advancing the
+     * position of the returned buffer by the number of bytes written.
+     *
+     * @param length The number of bytes that will be written.
+     * @return The backing buffer, positioned at the end of the current content.
+     */
+    ByteBuffer prepareWrite(int length)
+    {
+        ensureRemaining(length);
+        return buffer;
+    }
+
+    /**
+     * Finishes the payload and returns the backing buffer ready to be read from the start of the content.
+     * <p>
+     * No more content can be added to this buffer until it is cleared.
+     *
+     * @return The backing buffer containing the encoded payload.
+     */
+    ByteBuffer toPayload()
+    {
+        if (pendingHighSurrogate != 0)
+        {
+            pendingHighSurrogate = 0;
+            put(REPLACEMENT_BYTE);
+        }
+        if (!finished)
+        {
+            finished = true;
+            buffer.flip();
+        }
+        return buffer;
+    }
+
+    /**
+     * @return The number of bytes of content in this buffer.
+     */
+    int length()
+    {
+        return finished ? buffer.limit() : buffer.position();
+    }
+
+    /**
+     * @return The capacity of the backing buffer.
+     */
+    int capacity()
+    {
+        return buffer.capacity();
+    }
+
+    /**
+     * Discards the content of this buffer so that it can be reused for another payload.
+     */
+    void clear()
+    {
+        buffer.clear();
+        pendingHighSurrogate = 0;
+        finished = false;
+    }
+
+    private void encode(char c)
+    {
+        if (pendingHighSurrogate != 0)
+        {
+            final char highSurrogate = pendingHighSurrogate;
+            pendingHighSurrogate = 0;
+            if (Character.isLowSurrogate(c))
+            {
+                final int codePoint = Character.toCodePoint(highSurrogate, c);
+                ensureRemaining(4);
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+                return;
+            }
+            put(REPLACEMENT_BYTE);
+        }
+
+        if (c < 0x80)
+        {
+            put((byte) c);
+        } else if (c < 0x800)
+        {
+            ensureRemaining(2);
+            buffer.put((byte) (0xC0 | (c >> 6)));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        } else if (Character.isHighSurrogate(c))
+        {
+            pendingHighSurrogate = c;
+        } else if (Character.isLowSurrogate(c))
+        {
+            put(REPLACEMENT_BYTE);
+        } else
+        {
+            ensureRemaining(3);
+            buffer.put((byte) (0xE0 | (c >> 12)));
+            buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        }
+    }
+
+    private void put(byte b)
+    {
+        if (!buffer.hasRemaining()) ensureRemaining(1);
+        buffer.put(b);
+    }
+
+    private void ensureRemaining(int length)
+    {
+        if (buffer.remaining() >= length) return;
+
+        final int required = buffer.position() + length;
+        final ByteBuffer grown = ByteBuffer.allocate(Math.max(required, buffer.capacity() * 2));
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+}
@@ -0,0 +1,74 @@
+package com.craxiom.mqttlibrary.connection;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A bounded pool of {@link PayloadBuffer}s so that the publish path can reuse the same buffers instead of allocating
+ * new ones for every message.
+ * <p>
+ * A buffer is acquired before a message is encoded and released once HiveMQ reports that the publish has completed
+ * (or the message has been dropped). If the pool is empty a new buffer is allocated, and buffers that are released
+ * when the pool is full, or that have grown beyond the retained capacity, are simply left for the garbage collector.
+ * This keeps the memory held by the pool bounded even after a burst of large messages.
+ *
+ * @since 1.3.0
+ */
+final class PayloadBufferPool
+{
+    static final int DEFAULT_MAX_POOLED_BUFFERS = 64;
+    static final int DEFAULT_INITIAL_CAPACITY = 1024;
+    static final int DEFAULT_MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private final ArrayBlockingQueue<PayloadBuffer> pool;
+    private final int initialCapacity;
+    private final int maxRetainedCapacity;
+
+    PayloadBufferPool()
+    {
+        this(DEFAULT_MAX_POOLED_BUFFERS, DEFAULT_INITIAL_CAPACITY, DEFAULT_MAX_RETAINED_CAPACITY);
+    }
+
+    /**
+     * @param maxPooledBuffers    The maximum number of idle buffers that are kept in the pool.
+     * @param initialCapacity     The capacity of newly allocated buffers, in bytes.
+     * @param maxRetainedCapacity The largest buffer capacity, in bytes, that will be returned to the pool.
+     */
+    PayloadBufferPool(int maxPooledBuffers, int initialCapacity, int maxRetainedCapacity)
+    {
+        pool = new ArrayBlockingQueue<>(maxPooledBuffers);
+        this.initialCapacity = initialCapacity;
+        this.maxRetainedCapacity = maxRetainedCapacity;
+    }
+
+    /**
+     * @return An empty buffer, either reused from the pool or newly allocated.
+     */
+    PayloadBuffer acquire()
+    {
+        final PayloadBuffer buffer = pool.poll();
+        if (buffer == null) return new PayloadBuffer(initialCapacity);
+
+        return buffer;
+    }
+
+    /**
+     * Returns the buffer to the pool. The buffer must not be used by the caller after it is released.
+     *
+     * @param buffer The buffer to release.
+     */
+    void release(PayloadBuffer buffer)
+    {
+        if (buffer.capacity() > maxRetainedCapacity) return;
+
+        buffer.clear();
+        pool.offer(buffer);
+    }
+
+    /**
+     * @return The number of idle buffers currently held by the pool.
+     */
+    int size()
+    {
+        return pool.size();
+    }
+}
@@ -0,0 +1,225 @@
+package com.craxiom.mqttlibrary.connection;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+import timber.log.Timber;
+
+/**
+ * Compresses the payloads published to a single topic as described by its {@link CompressionConfig}.
+ * <p>
+ * The {@link Deflater} instances are pooled so that steady state publishing does not allocate a new one, along with
+ * its native memory, for every message. The zstd algorithms are handed to a {@link ZstdCompressor}, which pools its
+ * contexts in the same way. Any number of threads can compress payloads at the same time.
+ * <p>
+ * When a dictionary algorithm is configured, a copy of each payload is kept until enough samples have been collected,
+ * and the dictionary is then trained on the training executor, so that training does not hold up the thread that
+ * published the last sample. Payloads compressed before the dictionary is ready, or while it can't be used, are
+ * compressed without a dictionary.
+ *
+ * @since 1.3.0
+ */
+final class PayloadCompressor
+{
+    private final CompressionConfig config;
+    private final PayloadBufferPool payloadBufferPool;
+    private final Executor trainingExecutor;
+    private final Queue<Deflater> deflaterPool = new ConcurrentLinkedQueue<>();
+    private final ZstdCompressor zstdCompressor;
+
+    private final Object sampleLock = new Object();
+    private volatile List<byte[]> samples;
+
+    private volatile byte[] dictionary;
+    private volatile int dictionaryId;
+    private volatile boolean closed = false;
+
+    /**
+     * @param config            The compression settings for the topic.
+     * @param payloadBufferPool The pool to take the buffers for the compressed payloads from.
+     * @param trainingExecutor  The executor that trains the dictionary once enough samples have been collected.
+     */
+    PayloadCompressor(CompressionConfig config, PayloadBufferPool payloadBufferPool, Executor trainingExecutor)
+    {
+        this.config = config;
+        this.payloadBufferPool = payloadBufferPool;
+        this.trainingExecutor = trainingExecutor;
+        zstdCompressor = config.getAlgorithm().isZstd() ? new ZstdCompressor(config.getLevel()) : null;
+
+        if (config.getAlgorithm().usesDictionary())
+        {
+            samples = new ArrayList<>(config.getDictionarySampleCount());
+        }
+    }
+
+    /**
+     * Compresses the payload into a new buffer from the pool. The source buffer is not released.
+     *
+     * @param source        The payload to compress.
+     * @param useDictionary True if the trained dictionary can be used, false if the payload must be compressed
+     *                      without it, for example because the dictionary has not been published yet.
+     * @return The buffer holding the zlib stream, or the zstd frame if zstd is configured.
+     */
+    PayloadBuffer compress(PayloadBuffer source, boolean useDictionary)
+    {
+        final ByteBuffer input = source.toPayload();
+        sample(input);
+
+        final byte[] presetDictionary = useDictionary ? dictionary : null;
+
+        if (zstdCompressor != null)
+        {
+            final PayloadBuffer target = payloadBufferPool.acquire();
+            zstdCompressor.compress(input, target, presetDictionary);
+            return target;
+        }
+
+        Deflater deflater = deflaterPool.poll();
+        if (deflater == null) deflater = new Deflater(config.getLevel());
+
+        final PayloadBuffer target = payloadBufferPool.acquire();
+        try
+        {
+            if (presetDictionary != null) deflater.setDictionary(presetDictionary);
+            deflater.setInput(input.array(), input.arrayOffset() + input.position(), input.remaining());
+            deflater.finish();
+
+            // Deflate can expand incompressible data slightly, so keep growing the target until the stream is done
+            int chunkSize = Math.max(64, input.remaining() / 2);
+            while (!deflater.finished())
+            {
+                final ByteBuffer output = target.prepareWrite(chunkSize);
+                final int written = deflater.deflate(output.array(), output.arrayOffset() + output.position(),
+                        output.remaining());
+                output.position(output.position() + written);
+                chunkSize = Math.max(chunkSize, 256);
+            }
+        } finally
+        {
+            deflater.reset();
+            releaseDeflater(deflater);
+        }
+
+        return target;
+    }
+
+    /**
+     * @return The trained dictionary, or null if it is not ready yet or dictionaries are not used for this topic.
+     */
+    byte[] getDictionary()
+    {
+        return dictionary;
+    }
+
+    /**
+     * @return The ID of the dictionary, which is how the header of a payload identifies it. This is the Adler-32
+     * checksum of the dictionary for deflate, and the ID zstd stored in the dictionary for zstd.
+     */
+    int getDictionaryId()
+    {
+        return dictionaryId;
+    }
+
+    CompressionConfig getConfig()
+    {
+        return config;
+    }
+
+    /**
+     * Frees the native memory held by the pooled deflaters and zstd contexts. Those that are in use are freed once they
+     * are returned. A dictionary that is still being trained is discarded.
+     */
+    void close()
+    {
+        closed = true;
+        if (zstdCompressor != null) zstdCompressor.close();
+
+        Deflater deflater;
+        while ((deflater = deflaterPool.poll()) != null)
+        {
+            deflater.end();
+        }
+    }
+
+    private void releaseDeflater(Deflater deflater)
+    {
+        if (closed)
+        {
+            deflater.end();
+            return;
+        }
+
+        deflaterPool.offer(deflater);
+
+        // Catch the race with a concurrent close so that the deflater is not left in the pool
+        if (closed) close();
+    }
+
+    /**
+     * Keeps a copy of the payload if the dictionary still needs samples, and starts training the dictionary once there
+     * are enough.
+     */
+    private void sample(ByteBuffer input)
+    {
+        if (samples == null) return;
+
+        final List<byte[]> trainingSamples;
+        synchronized (sampleLock)
+        {
+            if (samples == null) return;
+
+            final byte[] sample = new byte[input.remaining()];
+            input.duplicate().get(sample);
+            samples.add(sample);
+
+            if (samples.size() < config.getDictionarySampleCount()) return;
+
+            trainingSamples = samples;
+            samples = null;
+        }
+
+        trainingExecutor.execute(() -> trainDictionary(trainingSamples));
+    }
+
+    private void trainDictionary(List<byte[]> trainingSamples)
+    {
+        if (closed) return;
+
+        try
+        {
+            final byte[] trained;
+            final int trainedId;
+            if (zstdCompressor != null)
+            {
+                trained = ZstdCompressor.train(trainingSamples, config.getDictionarySize());
+                if (trained.length == 0) return;
+                trainedId = ZstdCompressor.getDictionaryId(trained);
+            } else
+            {
+                trained = DictionaryTrainer.train(trainingSamples, config.getDictionarySize());
+                if (trained.length == 0) return;
+
+                final Adler32 adler32 = new Adler32();
+                adler32.update(trained, 0, trained.length);
+                trainedId = (int) adler32.getValue();
+            }
+
+            // The ID is written first so that it is visible to any thread that sees the dictionary
+            dictionaryId = trainedId;
+            dictionary = trained;
+
+            Timber.d("Trained a %d byte %s compression dictionary from %d payloads", trained.length,
+                    config.getAlgorithm(), trainingSamples.size());
+        } catch (RuntimeException e)
+        {
+            Timber.e(e, "Unable to train the %s compression dictionary, compressing without one",
+                    config.getAlgorithm());
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package com.craxiom.mqttlibrary.connection;
+
+import com.google.protobuf.Descriptors;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * Holds the encoded messages that are published before the MQTT client has connected for the first time, and then
+ * publishes them at a controlled rate once the connection is up.
+ * <p>
+ * The messages are held in a lock-free {@link BoundedRingBuffer} so that the threads producing messages are never
+ * blocked. Nothing is handed to the consumer until it reports that it is ready to publish, which keeps the buffered
+ * messages away from a HiveMQ client that has never connected (HiveMQ Issue #612).
+ * <p>
+ * Only the backlog, which is the messages offered while the consumer was not ready, is held to the flush rate. Messages
+ * offered once the consumer is ready are queued behind the backlog so that the order is kept, and are published as
+ * fast as the flush timer can hand them off once the backlog has been published.
+ *
+ * @since 1.3.0
+ */
+final class PreConnectBuffer
+{
+    /**
+     * The flush timer never runs more often than this, larger flush rates publish several messages per tick.
+     */
+    private static final long MIN_FLUSH_INTERVAL_MS = 10L;
+
+    /**
+     * The most messages published by each run of the flush timer, so that a large buffer does not hold up the shared
+     * timer.
+     */
+    private static final int MAX_MESSAGES_PER_TICK = 1_000;
+
+    /**
+     * Receives the buffered messages.
+     */
+    interface IBufferedMessageConsumer
+    {
+        /**
+         * @return True if buffered messages can be published now.
+         */
+        boolean isReadyToPublish();
+
+        /**
+         * Publishes a buffered message. Ownership of the payload buffer is transferred to the consumer.
+         */
+        void publishBuffered(BufferedMessage message);
+
+        /**
+         * Called for each message that is dropped from the buffer so that its payload buffer can be released.
+         */
+        void discard(BufferedMessage message);
+    }
+
+    private final PreConnectBufferConfig config;
+    private final IBufferedMessageConsumer consumer;
+    private final BoundedRingBuffer<BufferedMessage> ringBuffer;
+    private final ScheduledExecutorService flushScheduler;
+    private final long flushIntervalMs;
+    private final int messagesPerFlush;
+
+    private final AtomicLong droppedNewestCount = new AtomicLong();
+    private final AtomicLong droppedOldestCount = new AtomicLong();
+
+    /**
+     * The number of messages at the front of the buffer that were offered before the consumer was ready, and so are
+     * published at the flush rate.
+     */
+    private final AtomicInteger backlogCount = new AtomicInteger();
+
+    /**
+     * The running flush task, or null if the buffer is not being flushed. Guarded by this object's monitor.
+     */
+    private ScheduledFuture<?> flushTask;
+    private boolean closed;
+
+    /**
+     * @param config         The buffer settings.
+     * @param consumer       Receives the buffered messages.
+     * @param flushScheduler Runs the flush timer. It is not shut down by this buffer, so it can be shared.
+     */
+    PreConnectBuffer(PreConnectBufferConfig config, IBufferedMessageConsumer consumer,
+                     ScheduledExecutorService flushScheduler)
+    {
+        this.config = config;
+        this.consumer = consumer;
+        this.flushScheduler = flushScheduler;
+        ringBuffer = new BoundedRingBuffer<>(config.getCapacity());
+
+        final int flushRate = config.getFlushRatePerSecond();
+        if (flushRate <= 0)
+        {
+            flushIntervalMs = MIN_FLUSH_INTERVAL_MS;
+            messagesPerFlush = Integer.MAX_VALUE;
+        } else
+        {
+            flushIntervalMs = Math.max(MIN_FLUSH_INTERVAL_MS, 1000L / flushRate);
+            messagesPerFlush = (int) Math.max(1L, flushRate * flushIntervalMs / 1000L);
+        }
+    }
+
+    /**
+     * Adds a message to the buffer, applying the overflow policy if the buffer is full.
+     *
+     * @return True if the message was buffered, false if it was dropped. Ownership of a dropped message's payload
+     * buffer stays with the caller.
+     */
+    boolean offer(BufferedMessage message)
+    {
+        // Counted before the message is added so that the flush never sees a backlog message it does not know about
+        final boolean backlog = !consumer.isReadyToPublish();
+        if (backlog) backlogCount.incrementAndGet();
+
+        if (config.getOverflowPolicy() == PreConnectBufferConfig.OverflowPolicy.DROP_NEWEST)
+        {
+            if (ringBuffer.offer(message)) return true;
+
+            if (backlog) decrementBacklog();
+            droppedNewestCount.incrementAndGet();
+            return false;
+        }
+
+        while (!ringBuffer.offer(message))
+        {
+            final BufferedMessage oldest = ringBuffer.poll();
+            if (oldest != null)
+            {
+                // The oldest message is part of the backlog if there is one, since the backlog is at the front
+                decrementBacklog();
+                droppedOldestCount.incrementAndGet();
+                consumer.discard(oldest);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Starts publishing the buffered messages if they are not already being published. The flush stops by itself once
+     * the buffer is empty or the consumer is no longer ready to publish.
+     */
+    synchronized void startFlush()
+    {
+        if (closed || flushTask != null || ringBuffer.isEmpty()) return;
+
+        flushTask = flushScheduler.scheduleWithFixedDelay(this::flush, 0, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Called by the flush timer to publish the next group of buffered messages. No more than the flush rate allows of
+     * the backlog are published, but the messages queued behind the backlog are not limited.
+     */
+    private void flush()
+    {
+        try
+        {
+            int backlogPublished = 0;
+            for (int i = 0; i < MAX_MESSAGES_PER_TICK; i++)
+            {
+                if (!consumer.isReadyToPublish())
+                {
+                    stopFlush();
+                    return;
+                }
+
+                final boolean backlog = backlogCount.get() > 0;
+                if (backlog && backlogPublished >= messagesPerFlush) return;
+
+                final BufferedMessage message = ringBuffer.poll();
+                if (message == null)
+                {
+                    stopFlush();
+                    // A message could have been added between the poll and stopping the flush
+                    if (!ringBuffer.isEmpty()) startFlush();
+                    return;
+                }
+
+                if (backlog)
+                {
+                    decrementBacklog();
+                    backlogPublished++;
+                }
+                consumer.publishBuffered(message);
+            }
+        } catch (Exception e)
+        {
+            // Don't let an exception cancel the flush task without clearing it, or the buffer would never flush again
+            Timber.e(e, "Could not publish a message from the MQTT pre-connect buffer");
+        }
+    }
+
+    /**
+     * Removes one message from the backlog count, unless it is already zero.
+     */
+    private void decrementBacklog()
+    {
+        backlogCount.updateAndGet(count -> count > 0 ? count - 1 : 0);
+    }
+
+    private synchronized void stopFlush()
+    {
+        if (flushTask == null) return;
+
+        flushTask.cancel(false);
+        flushTask = null;
+    }
+
+    /**
+     * Stops the flush timer and drops all the buffered messages.
+     */
+    void close()
+    {
+        synchronized (this)
+        {
+            closed = true;
+            stopFlush();
+        }
+
+        BufferedMessage message;
+        while ((message = ringBuffer.poll()) != null)
+        {
+            consumer.discard(message);
+        }
+        backlogCount.set(0);
+    }
+
+    /**
+     * Removes the oldest buffered message without publishing it. Ownership of its payload buffer is transferred to the
+     * caller.
+     *
+     * @return The message, or null if the buffer is empty.
+     */
+    BufferedMessage poll()
+    {
+        final BufferedMessage message = ringBuffer.poll();
+        if (message != null) decrementBacklog();
+        return message;
+    }
+
+    /**
+     * @return True if there are no buffered messages waiting to be published.
+     */
+    boolean isEmpty()
+    {
+        return ringBuffer.isEmpty();
+    }
+
+    /**
+     * @return The number of buffered messages waiting to be published.
+     */
+    int size()
+    {
+        return ringBuffer.size();
+    }
+
+    /**
+     * @return The number of buffered messages that were published before the consumer was ready and have not been
+     * published yet.
+     */
+    int getBacklogCount()
+    {
+        return backlogCount.get();
+    }
+
+    /**
+     * @return The number of messages that were dropped because they were published while the buffer was full.
+     */
+    long getDroppedNewestCount()
+    {
+        return droppedNewestCount.get();
+    }
+
+    /**
+     * @return The number of buffered messages that were dropped to make room for newer messages.
+     */
+    long getDroppedOldestCount()
+    {
+        return droppedOldestCount.get();
+    }
+
+    PreConnectBufferConfig getConfig()
+    {
+        return config;
+    }
+
+    /**
+     * An encoded message waiting in the buffer.
+     */
+    static final class BufferedMessage
+    {
+        final String mqttMessageTopic;
+        final PayloadBuffer payloadBuffer;
+        final MessageBatcher.Framing framing;
+
+        /**
+         * The descriptor of the binary Protobuf message type, which has to be published before the message, or null if
+         * the message is JSON.
+         */
+        final Descriptors.Descriptor descriptor;
+
+        /**
+         * The priority lane the message was published to, or null for the default lane.
+         */
+        final String lane;
+
+        BufferedMessage(String mqttMessageTopic, PayloadBuffer payloadBuffer, MessageBatcher.Framing framing,
+                        Descriptors.Descriptor descriptor, String lane)
+        {
+            this.mqttMessageTopic = mqttMessageTopic;
+            this.payloadBuffer = payloadBuffer;
+            this.framing = framing;
+            this.descriptor = descriptor;
+            this.lane = lane;
+        }
+    }
+}
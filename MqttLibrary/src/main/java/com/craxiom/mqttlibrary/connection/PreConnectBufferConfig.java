@@ -0,0 +1,110 @@
+package com.craxiom.mqttlibrary.connection;
+
+/**
+ * Holds the settings for the bounded buffer that holds the messages published before the MQTT client has connected to
+ * the broker for the first time.
+ * <p>
+ * HiveMQ must not be handed any messages before the first successful connection (HiveMQ Issue #612), so without this
+ * buffer those messages are dropped. When the buffer is enabled, up to {@link #getCapacity()} messages are held in
+ * memory until the first connection is established and are then published in order at no more than
+ * {@link #getFlushRatePerSecond()} messages per second, so that the backlog does not flood the new connection. The
+ * flush rate only applies to that backlog, messages published after the connection is established are not slowed
+ * down by it.
+ *
+ * @since 1.3.0
+ */
+public class PreConnectBufferConfig
+{
+    /**
+     * What to do with a message that is published while the pre-connect buffer is full.
+     */
+    public enum OverflowPolicy
+    {
+        /**
+         * Drop the message that is being published, keeping the oldest messages.
+         */
+        DROP_NEWEST,
+
+        /**
+         * Drop the oldest message in the buffer to make room for the message that is being published.
+         */
+        DROP_OLDEST
+    }
+
+    /**
+     * Drops the messages published before the first connection, which is the default.
+     */
+    public static final PreConnectBufferConfig DISABLED = new PreConnectBufferConfig(0, OverflowPolicy.DROP_NEWEST, 0);
+
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final int flushRatePerSecond;
+
+    /**
+     * Constructs the pre-connect buffer settings.
+     *
+     * @param capacity           The maximum number of messages to hold until the first connection, or 0 to disable the
+     *                           buffer.
+     * @param overflowPolicy     What to do with a message that is published while the buffer is full.
+     * @param flushRatePerSecond The maximum number of messages buffered before the connection to publish per second once
+     *                           connected, or 0 to publish them all right away.
+     * @throws IllegalArgumentException If the capacity or flush rate is negative, or the overflow policy is null.
+     */
+    public PreConnectBufferConfig(int capacity, OverflowPolicy overflowPolicy, int flushRatePerSecond)
+    {
+        if (capacity < 0 || flushRatePerSecond < 0 || overflowPolicy == null)
+        {
+            throw new IllegalArgumentException("Invalid pre-connect buffer settings. capacity=" + capacity
+                    + ", overflowPolicy=" + overflowPolicy + ", flushRatePerSecond=" + flushRatePerSecond);
+        }
+
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.flushRatePerSecond = flushRatePerSecond;
+    }
+
+    /**
+     * @return True if messages published before the first connection should be buffered.
+     */
+    public boolean isEnabled()
+    {
+        return capacity > 0;
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy()
+    {
+        return overflowPolicy;
+    }
+
+    public int getFlushRatePerSecond()
+    {
+        return flushRatePerSecond;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PreConnectBufferConfig that = (PreConnectBufferConfig) o;
+
+        if (capacity != that.capacity) return false;
+        if (flushRatePerSecond != that.flushRatePerSecond) return false;
+        return overflowPolicy == that.overflowPolicy;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = capacity;
+        result = 31 * result + overflowPolicy.hashCode();
+        result = 31 * result + flushRatePerSecond;
+        return result;
+    }
+}
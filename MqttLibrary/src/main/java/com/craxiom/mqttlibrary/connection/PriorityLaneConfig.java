@@ -0,0 +1,88 @@
+package com.craxiom.mqttlibrary.connection;
+
+/**
+ * Describes a named priority lane that messages can be published to.
+ * <p>
+ * Each lane has its own bounded queue, and a weighted fair scheduler decides which lane the next message handed to the
+ * MQTT client comes from. When several lanes have messages waiting, each lane is given a share of the streaming queue
+ * proportional to its weight, so a lane with a small amount of urgent traffic is never starved by a lane with a lot of
+ * bulk traffic. A message published while its lane's queue is full is dropped and counted against that lane only.
+ *
+ * @since 1.3.0
+ */
+public class PriorityLaneConfig
+{
+    /**
+     * The name of the lane that messages are published to when no lane is specified, or when the specified lane does
+     * not exist. A lane with this name can be configured to change the weight or capacity of the default lane.
+     */
+    public static final String DEFAULT_LANE = "default";
+
+    /**
+     * The default lane configuration that is used if the default lane is not configured explicitly.
+     */
+    public static final PriorityLaneConfig DEFAULT = new PriorityLaneConfig(DEFAULT_LANE, 1, 1000);
+
+    private final String name;
+    private final int weight;
+    private final int capacity;
+
+    /**
+     * Constructs the configuration for a priority lane.
+     *
+     * @param name     The name used to select the lane when publishing a message.
+     * @param weight   The relative share of the streaming queue that the lane gets when other lanes also have messages
+     *                 waiting.
+     * @param capacity The maximum number of messages that can wait in the lane's queue.
+     * @throws IllegalArgumentException If the name is null or the weight or capacity is not positive.
+     */
+    public PriorityLaneConfig(String name, int weight, int capacity)
+    {
+        if (name == null || weight <= 0 || capacity <= 0)
+        {
+            throw new IllegalArgumentException("Invalid priority lane. name=" + name + ", weight=" + weight
+                    + ", capacity=" + capacity);
+        }
+
+        this.name = name;
+        this.weight = weight;
+        this.capacity = capacity;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getWeight()
+    {
+        return weight;
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PriorityLaneConfig that = (PriorityLaneConfig) o;
+
+        if (weight != that.weight) return false;
+        if (capacity != that.capacity) return false;
+        return name.equals(that.name);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = name.hashCode();
+        result = 31 * result + weight;
+        result = 31 * result + capacity;
+        return result;
+    }
+}
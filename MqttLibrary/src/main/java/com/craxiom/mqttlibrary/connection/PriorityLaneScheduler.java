@@ -0,0 +1,264 @@
+package com.craxiom.mqttlibrary.connection;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the messages published to each {@link PriorityLaneConfig priority lane} in a bounded queue per lane, and feeds
+ * them to the MQTT client using smooth weighted round robin.
+ * <p>
+ * Each time a message is sent, every lane with messages waiting adds its weight to its current weight, the lane with
+ * the highest current weight is chosen, and the total weight of the waiting lanes is subtracted from the chosen lane.
+ * This interleaves the lanes in proportion to their weights without bursts, and lanes without messages waiting don't
+ * build up credit while they are idle.
+ * <p>
+ * Messages are only sent while the {@link StreamingQueueController} has room for them. The scheduler runs whenever a
+ * message is queued or a publish completes, and only one thread runs it at a time; a thread that finds it already
+ * running leaves the work to that thread instead of waiting.
+ *
+ * @since 1.3.0
+ */
+final class PriorityLaneScheduler
+{
+    /**
+     * Sends the messages chosen by the scheduler.
+     */
+    interface ILanePublisher
+    {
+        /**
+         * Publishes a message. A slot has already been claimed in the streaming queue for the message. Ownership of
+         * the payload buffer is transferred to the callee.
+         */
+        void publish(String mqttMessageTopic, PayloadBuffer payloadBuffer);
+    }
+
+    private final StreamingQueueController streamingQueue;
+    private final ILanePublisher publisher;
+    private final Map<String, Lane> lanesByName = new LinkedHashMap<>();
+    private final Lane[] lanes;
+    private final Lane defaultLane;
+
+    /**
+     * The number of times the scheduler has been asked to run since it last checked, used so that only one thread runs
+     * the scheduler at a time without any requests being missed.
+     */
+    private final AtomicInteger scheduleRequests = new AtomicInteger();
+
+    /**
+     * @param laneConfigs The lanes to create. A default lane is added if one is not included.
+     */
+    PriorityLaneScheduler(List<PriorityLaneConfig> laneConfigs, StreamingQueueController streamingQueue,
+                          ILanePublisher publisher)
+    {
+        this.streamingQueue = streamingQueue;
+        this.publisher = publisher;
+
+        for (PriorityLaneConfig config : laneConfigs)
+        {
+            lanesByName.put(config.getName(), new Lane(config));
+        }
+        if (!lanesByName.containsKey(PriorityLaneConfig.DEFAULT_LANE))
+        {
+            lanesByName.put(PriorityLaneConfig.DEFAULT_LANE, new Lane(PriorityLaneConfig.DEFAULT));
+        }
+
+        lanes = lanesByName.values().toArray(new Lane[0]);
+        defaultLane = lanesByName.get(PriorityLaneConfig.DEFAULT_LANE);
+    }
+
+    /**
+     * Adds a message to the queue of its lane and runs the scheduler.
+     *
+     * @param laneName         The name of the lane, or null for the default lane. Unknown lane names also use the
+     *                         default lane.
+     * @param mqttMessageTopic The topic the message is being published to.
+     * @param payloadBuffer    The encoded message.
+     * @return True if the message was queued, false if the lane was full and the message was dropped. Ownership of a
+     * dropped message's payload buffer stays with the caller.
+     */
+    boolean enqueue(String laneName, String mqttMessageTopic, PayloadBuffer payloadBuffer)
+    {
+        final Lane lane = getLane(laneName);
+        if (!lane.queue.offer(new LaneMessage(mqttMessageTopic, payloadBuffer)))
+        {
+            lane.droppedCount.incrementAndGet();
+            return false;
+        }
+
+        schedule();
+        return true;
+    }
+
+    /**
+     * Sends messages from the lanes while the streaming queue has room for them.
+     */
+    void schedule()
+    {
+        if (scheduleRequests.getAndIncrement() != 0) return;
+
+        int requests = 1;
+        do
+        {
+            sendWhileRoom();
+            requests = scheduleRequests.addAndGet(-requests);
+        } while (requests != 0);
+    }
+
+    private void sendWhileRoom()
+    {
+        while (true)
+        {
+            final Lane lane = chooseLane();
+            if (lane == null) return;
+
+            // This is the only thread taking messages from the lanes, so the peeked message is the one that is polled
+            final LaneMessage next = lane.queue.peek();
+            if (next == null) return;
+            if (!streamingQueue.tryAdmit(next.payloadBuffer.length())) return;
+
+            lane.queue.poll();
+            applyChoice(lane);
+            lane.sentCount.incrementAndGet();
+            publisher.publish(next.mqttMessageTopic, next.payloadBuffer);
+        }
+    }
+
+    /**
+     * @return The lane with the highest current weight once the weights of the lanes with waiting messages are added,
+     * or null if no lane has a message waiting. The current weights are not changed.
+     */
+    private Lane chooseLane()
+    {
+        Lane chosen = null;
+        long chosenWeight = Long.MIN_VALUE;
+        for (Lane lane : lanes)
+        {
+            if (lane.queue.isEmpty()) continue;
+
+            final long candidateWeight = lane.currentWeight + lane.weight;
+            if (candidateWeight > chosenWeight)
+            {
+                chosen = lane;
+                chosenWeight = candidateWeight;
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * Updates the current weights for a message sent from the chosen lane.
+     */
+    private void applyChoice(Lane chosen)
+    {
+        long totalWeight = 0;
+        for (Lane lane : lanes)
+        {
+            // The chosen lane counts as waiting even if its queue is now empty
+            if (lane != chosen && lane.queue.isEmpty()) continue;
+
+            lane.currentWeight += lane.weight;
+            totalWeight += lane.weight;
+        }
+        chosen.currentWeight -= totalWeight;
+
+        // A lane that has run out of messages starts over with no credit or debt
+        if (chosen.queue.isEmpty()) chosen.currentWeight = 0;
+    }
+
+    /**
+     * Removes all the queued messages without sending them.
+     *
+     * @return The removed messages' payload buffers, so that they can be released.
+     */
+    List<PayloadBuffer> clear()
+    {
+        final List<PayloadBuffer> payloadBuffers = new ArrayList<>();
+        for (Lane lane : lanes)
+        {
+            LaneMessage message;
+            while ((message = lane.queue.poll()) != null)
+            {
+                payloadBuffers.add(message.payloadBuffer);
+            }
+        }
+        return payloadBuffers;
+    }
+
+    /**
+     * @return True if the lane exists, false if messages published to it would use the default lane.
+     */
+    boolean hasLane(String laneName)
+    {
+        return laneName != null && lanesByName.containsKey(laneName);
+    }
+
+    int getQueuedCount(String laneName)
+    {
+        return getLane(laneName).queue.size();
+    }
+
+    long getDroppedCount(String laneName)
+    {
+        return getLane(laneName).droppedCount.get();
+    }
+
+    long getSentCount(String laneName)
+    {
+        return getLane(laneName).sentCount.get();
+    }
+
+    List<PriorityLaneConfig> getLaneConfigs()
+    {
+        final List<PriorityLaneConfig> configs = new ArrayList<>();
+        for (Lane lane : lanes)
+        {
+            configs.add(lane.config);
+        }
+        return configs;
+    }
+
+    private Lane getLane(String laneName)
+    {
+        if (laneName == null) return defaultLane;
+
+        final Lane lane = lanesByName.get(laneName);
+        return lane == null ? defaultLane : lane;
+    }
+
+    private static final class Lane
+    {
+        private final PriorityLaneConfig config;
+        private final int weight;
+        private final BoundedRingBuffer<LaneMessage> queue;
+        private final AtomicLong droppedCount = new AtomicLong();
+        private final AtomicLong sentCount = new AtomicLong();
+
+        /**
+         * The smooth weighted round robin weight. Only accessed by the thread running the scheduler.
+         */
+        private long currentWeight;
+
+        private Lane(PriorityLaneConfig config)
+        {
+            this.config = config;
+            weight = config.getWeight();
+            queue = new BoundedRingBuffer<>(config.getCapacity());
+        }
+    }
+
+    private static final class LaneMessage
+    {
+        private final String mqttMessageTopic;
+        private final PayloadBuffer payloadBuffer;
+
+        private LaneMessage(String mqttMessageTopic, PayloadBuffer payloadBuffer)
+        {
+            this.mqttMessageTopic = mqttMessageTopic;
+            this.payloadBuffer = payloadBuffer;
+        }
+    }
+}
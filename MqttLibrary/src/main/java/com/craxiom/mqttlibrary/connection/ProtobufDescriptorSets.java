@@ -0,0 +1,51 @@
+package com.craxiom.mqttlibrary.connection;
+
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.Descriptors;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Utility methods for building the self describing schema that is published alongside binary Protobuf payloads.
+ *
+ * @since 1.3.0
+ */
+final class ProtobufDescriptorSets
+{
+    private ProtobufDescriptorSets()
+    {
+    }
+
+    /**
+     * Builds a {@link DescriptorProtos.FileDescriptorSet} containing the file that defines the provided message type
+     * along with all of its transitive dependencies.
+     * <p>
+     * The files are ordered so that every file appears after the files it depends on, which is the order expected by
+     * {@link Descriptors.FileDescriptor#buildFrom(DescriptorProtos.FileDescriptorProto, Descriptors.FileDescriptor[])}
+     * when a consumer rebuilds the descriptors.
+     *
+     * @param descriptor The descriptor of the message type to describe.
+     * @return The file descriptor set for the message type.
+     */
+    static DescriptorProtos.FileDescriptorSet forMessageType(Descriptors.Descriptor descriptor)
+    {
+        final Map<String, DescriptorProtos.FileDescriptorProto> files = new LinkedHashMap<>();
+        addFileAndDependencies(descriptor.getFile(), files);
+
+        return DescriptorProtos.FileDescriptorSet.newBuilder().addAllFile(files.values()).build();
+    }
+
+    private static void addFileAndDependencies(Descriptors.FileDescriptor file,
+                                               Map<String, DescriptorProtos.FileDescriptorProto> files)
+    {
+        if (files.containsKey(file.getName())) return;
+
+        for (Descriptors.FileDescriptor dependency : file.getDependencies())
+        {
+            addFileAndDependencies(dependency, files);
+        }
+
+        files.put(file.getName(), file.toProto());
+    }
+}
@@ -0,0 +1,100 @@
+package com.craxiom.mqttlibrary.connection;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Room in the streaming queue of a {@link DefaultMqttConnection} that a producer has claimed before building its
+ * messages, obtained from {@link DefaultMqttConnection#tryAcquireCredits(int)} or
+ * {@link DefaultMqttConnection#awaitCredits(int, long, java.util.concurrent.TimeUnit)}.
+ * <p>
+ * Each credit is spent by publishing one message with it, and the message is never dropped by the streaming queue
+ * limit. The room a credit holds is returned to the queue when its message's publish completes or fails. Credits that
+ * are not spent must be returned with {@link #close()}, otherwise the room they hold is lost, so the credits are best
+ * used in a try-with-resources block in the connection subclass:
+ * <pre>
+ * try (PublishCredits credits = tryAcquireCredits(records.size()))
+ * {
+ *     if (credits == null) return; // The queue is full, skip this scan
+ *     for (Record record : records) publishMessage(credits, topic, buildMessage(record));
+ * }
+ * </pre>
+ * The credits can be shared between threads.
+ *
+ * @since 1.3.0
+ */
+public final class PublishCredits implements AutoCloseable
+{
+    private final StreamingQueueController streamingQueue;
+    private final boolean reserved;
+    private final AtomicInteger remaining;
+
+    /**
+     * @param streamingQueue The streaming queue the credits belong to.
+     * @param count          The number of credits.
+     * @param reserved       True if the credits hold slots in the streaming queue, false if the queue was not limited
+     *                       when they were acquired.
+     */
+    PublishCredits(StreamingQueueController streamingQueue, int count, boolean reserved)
+    {
+        this.streamingQueue = streamingQueue;
+        this.reserved = reserved;
+        remaining = new AtomicInteger(count);
+    }
+
+    /**
+     * @return The number of credits that have not been spent or returned.
+     */
+    public int getRemaining()
+    {
+        return remaining.get();
+    }
+
+    /**
+     * Returns the credits that have not been spent to the streaming queue. Closing the credits more than once has no
+     * further effect.
+     */
+    @Override
+    public void close()
+    {
+        final int unused = remaining.getAndSet(0);
+        if (reserved && unused > 0) streamingQueue.releaseSlots(unused, 0);
+    }
+
+    /**
+     * @return True if the credits hold slots in the streaming queue that their messages are published with.
+     */
+    boolean isReserved()
+    {
+        return reserved;
+    }
+
+    /**
+     * @return True if the credits were acquired from the provided streaming queue.
+     */
+    boolean belongsTo(StreamingQueueController queue)
+    {
+        return streamingQueue == queue;
+    }
+
+    /**
+     * Spends one of the credits. If the credits hold slots in the streaming queue, the slot is handed over to the
+     * caller, which must either publish a message with it or release it.
+     *
+     * @return True if a credit was spent, false if there were none left.
+     */
+    boolean spend()
+    {
+        int count;
+        while ((count = remaining.get()) > 0)
+        {
+            if (remaining.compareAndSet(count, count - 1)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PublishCredits{remaining=" + remaining.get() + ", reserved=" + reserved + "}";
+    }
+}
@@ -0,0 +1,107 @@
+package com.craxiom.mqttlibrary.connection;
+
+import com.craxiom.mqttlibrary.PublishMetrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the publish metrics of a connection for each topic.
+ * <p>
+ * Once a topic has been seen, recording a message for it is a map lookup followed by updates to striped counters and
+ * {@link LogHistogram}s, so it does not allocate on the publish path. The first {@link #MAX_TOPICS} topics get their
+ * own metrics, and the rest are combined under {@link PublishMetrics#OTHER_TOPICS}.
+ *
+ * @since 1.3.0
+ */
+final class PublishMetricsRegistry
+{
+    static final int MAX_TOPICS = 256;
+
+    private final Map<String, TopicRecorder> topicRecorders = new ConcurrentHashMap<>();
+    private final TopicRecorder otherTopicsRecorder = new TopicRecorder();
+
+    void recordSerialization(String mqttMessageTopic, long durationNanos)
+    {
+        recorderFor(mqttMessageTopic).serializationTime.record(durationNanos);
+    }
+
+    /**
+     * @param latencyNanos The time from handing the message to HiveMQ until the publish completed.
+     */
+    void recordPublished(String mqttMessageTopic, int payloadLength, long latencyNanos)
+    {
+        final TopicRecorder recorder = recorderFor(mqttMessageTopic);
+        recorder.publishedCount.increment();
+        recorder.publishedBytes.add(payloadLength);
+        recorder.publishLatency.record(latencyNanos);
+    }
+
+    void recordFailed(String mqttMessageTopic, int payloadLength)
+    {
+        final TopicRecorder recorder = recorderFor(mqttMessageTopic);
+        recorder.failedCount.increment();
+        recorder.failedBytes.add(payloadLength);
+    }
+
+    void recordDropped(String mqttMessageTopic, int payloadLength)
+    {
+        final TopicRecorder recorder = recorderFor(mqttMessageTopic);
+        recorder.droppedCount.increment();
+        recorder.droppedBytes.add(payloadLength);
+    }
+
+    /**
+     * @param timestampMs The wall clock time to stamp the snapshot with.
+     * @return The metrics recorded so far.
+     */
+    PublishMetrics snapshot(long timestampMs)
+    {
+        final Map<String, PublishMetrics.TopicMetrics> topicMetrics = new HashMap<>();
+        for (Map.Entry<String, TopicRecorder> entry : topicRecorders.entrySet())
+        {
+            topicMetrics.put(entry.getKey(), entry.getValue().snapshot());
+        }
+
+        final PublishMetrics.TopicMetrics otherTopics = otherTopicsRecorder.snapshot();
+        if (otherTopics.getPublishedCount() != 0 || otherTopics.getDroppedCount() != 0
+                || otherTopics.getFailedCount() != 0 || otherTopics.getSerializationTime().getCount() != 0)
+        {
+            topicMetrics.put(PublishMetrics.OTHER_TOPICS, otherTopics);
+        }
+
+        return new PublishMetrics(timestampMs, topicMetrics);
+    }
+
+    private TopicRecorder recorderFor(String mqttMessageTopic)
+    {
+        final TopicRecorder recorder = topicRecorders.get(mqttMessageTopic);
+        if (recorder != null) return recorder;
+
+        // The cap can be passed by a few topics that are added at the same time, which is harmless
+        if (topicRecorders.size() >= MAX_TOPICS) return otherTopicsRecorder;
+
+        return topicRecorders.computeIfAbsent(mqttMessageTopic, topic -> new TopicRecorder());
+    }
+
+    private static final class TopicRecorder
+    {
+        private final LongAdder publishedCount = new LongAdder();
+        private final LongAdder publishedBytes = new LongAdder();
+        private final LongAdder droppedCount = new LongAdder();
+        private final LongAdder droppedBytes = new LongAdder();
+        private final LongAdder failedCount = new LongAdder();
+        private final LongAdder failedBytes = new LongAdder();
+        private final LogHistogram serializationTime = new LogHistogram();
+        private final LogHistogram publishLatency = new LogHistogram();
+
+        private PublishMetrics.TopicMetrics snapshot()
+        {
+            return new PublishMetrics.TopicMetrics(publishedCount.sum(), publishedBytes.sum(), droppedCount.sum(),
+                    droppedBytes.sum(), failedCount.sum(), failedBytes.sum(), serializationTime.snapshot(),
+                    publishLatency.snapshot());
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.craxiom.mqttlibrary.connection;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * One of the MQTT clients that messages can be published to, along with the number and size of the publishes that
+ * have claimed a slot in the streaming queue and were handed to the client but have not completed yet.
+ * <p>
+ * When publishing fails over from one client to another, the target of the old client is detached. From then on it
+ * stops tracking new publishes and ignores the completions of the ones that were in flight, so that their slots can be
+ * released from the streaming queue once at the switch instead of being held until the old client reconnects.
+ * <p>
+ * Every publish and every completion updates the in-flight count, so the count is split into stripes in the same way
+ * as the {@link StripedPermitPool}, and each thread only updates the stripe it is mapped to. A stripe holds the count
+ * and the bytes packed into one long so that both are updated with a single compare-and-set, and can go negative when
+ * publishes complete on a different thread than the one that published them. Detaching swaps each stripe for a marker
+ * that rejects any later update, so every publish and completion lands either before the stripe was detached, where
+ * it is counted, or after, where it is refused. The sum of the stripes taken while detaching is therefore exactly the
+ * publishes that were in flight, without a lock on the publish path.
+ *
+ * @since 1.3.0
+ */
+final class PublishTarget
+{
+    /**
+     * The number of low bits of a stripe that hold the in-flight count. The count in a single stripe stays far below
+     * the 2^23 that fit, and the remaining bits leave room for 2^40 bytes.
+     */
+    private static final int COUNT_BITS = 24;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    /**
+     * The value of a stripe once the target is detached, which a packed count and size never come close to.
+     */
+    private static final long DETACHED = Long.MIN_VALUE;
+
+    /**
+     * The number of longs between two stripes, which keeps each stripe on its own 64 byte cache line.
+     */
+    private static final int STRIPE_SPACING = 8;
+
+    private static final int MAX_STRIPE_COUNT = 64;
+
+    final IMqttClientEngine engine;
+
+    private final int stripeCount;
+    private final AtomicLongArray stripes;
+    private volatile boolean detached = false;
+
+    /**
+     * The in-flight count and bytes taken when the target was detached.
+     */
+    private volatile int detachedCount = 0;
+    private volatile long detachedBytes = 0;
+
+    PublishTarget(IMqttClientEngine engine)
+    {
+        this.engine = engine;
+
+        int count = 1;
+        final int parallelism = Runtime.getRuntime().availableProcessors();
+        while (count < parallelism && count < MAX_STRIPE_COUNT)
+        {
+            count <<= 1;
+        }
+        stripeCount = count;
+        stripes = new AtomicLongArray(stripeCount * STRIPE_SPACING);
+    }
+
+    /**
+     * Tracks a publish that is about to be handed to the client.
+     *
+     * @param payloadLength The size of the message payload in bytes.
+     * @return True if the publish is tracked, or false if this target has been detached, in which case the message
+     * should be published to the target that replaced it.
+     */
+    boolean track(int payloadLength)
+    {
+        return add(((long) payloadLength << COUNT_BITS) + 1);
+    }
+
+    /**
+     * Stops tracking a publish that has completed.
+     *
+     * @param payloadLength The size of the message payload in bytes.
+     * @return True if the slot of the publish should be released from the streaming queue, or false if it was already
+     * released when this target was detached.
+     */
+    boolean complete(int payloadLength)
+    {
+        return add(-(((long) payloadLength << COUNT_BITS) + 1));
+    }
+
+    /**
+     * Detaches this target so that the slots of the publishes still in flight can be released. The in-flight count and
+     * bytes no longer change once the target is detached.
+     *
+     * @return True if this call detached the target, false if it was already detached.
+     */
+    synchronized boolean detach()
+    {
+        if (detached) return false;
+
+        long total = 0;
+        for (int i = 0; i < stripeCount; i++)
+        {
+            total += stripes.getAndSet(i * STRIPE_SPACING, DETACHED);
+        }
+        detachedCount = unpackCount(total);
+        detachedBytes = unpackBytes(total);
+        detached = true;
+        return true;
+    }
+
+    int getInFlightCount()
+    {
+        if (detached) return detachedCount;
+
+        long total = 0;
+        for (int i = 0; i < stripeCount; i++)
+        {
+            total += stripes.get(i * STRIPE_SPACING);
+        }
+        return unpackCount(total);
+    }
+
+    long getInFlightBytes()
+    {
+        if (detached) return detachedBytes;
+
+        long total = 0;
+        for (int i = 0; i < stripeCount; i++)
+        {
+            total += stripes.get(i * STRIPE_SPACING);
+        }
+        return unpackBytes(total);
+    }
+
+    private boolean add(long delta)
+    {
+        final int stripe = stripeIndex();
+        long value;
+        while ((value = stripes.get(stripe)) != DETACHED)
+        {
+            if (stripes.compareAndSet(stripe, value, value + delta)) return true;
+        }
+        return false;
+    }
+
+    private int stripeIndex()
+    {
+        // Spread the sequential thread IDs across the stripes
+        final long hash = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return ((int) (hash >>> 32) & (stripeCount - 1)) * STRIPE_SPACING;
+    }
+
+    /**
+     * @return The count in the low bits of a packed value, sign extended so that a negative stripe reads correctly.
+     */
+    private static int unpackCount(long packed)
+    {
+        return (int) ((packed & COUNT_MASK) << (64 - COUNT_BITS) >> (64 - COUNT_BITS));
+    }
+
+    private static long unpackBytes(long packed)
+    {
+        return (packed - unpackCount(packed)) >> COUNT_BITS;
+    }
+}
@@ -0,0 +1,311 @@
+package com.craxiom.mqttlibrary.connection;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * A single append-only, memory-mapped segment file of the {@link DurableMessageQueue}.
+ * <p>
+ * The file starts with a fixed size header followed by the records:
+ * <pre>
+ * header: magic (int) | reserved (int) | acknowledged offset (long)
+ * record: body length (int) | CRC32 of the body (int) | topic length (short) | topic (UTF-8) | payload
+ * </pre>
+ * The body of a record is written before its length, so a record only becomes visible once it has been completely
+ * written. When a segment is opened the records are scanned and validated against their CRC, and the segment is
+ * truncated at the first record that is incomplete or corrupt. The acknowledged offset is the end of the last record
+ * that the broker acknowledged, so that records which were already delivered are not sent again after a restart.
+ * <p>
+ * This class is not thread safe; all access is guarded by the lock of the owning {@link DurableMessageQueue}.
+ *
+ * @since 1.3.0
+ */
+final class QueueSegment
+{
+    static final String FILE_EXTENSION = ".seg";
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_HEADER_SIZE = 8;
+
+    private static final int MAGIC = 0x4D515131; // "MQQ1"
+    private static final int ACKNOWLEDGED_OFFSET_POSITION = 8;
+    private static final int TOPIC_LENGTH_SIZE = 2;
+
+    private final long sequence;
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final CRC32 crc32 = new CRC32();
+
+    private int writeOffset;
+    private int acknowledgedOffset;
+    private boolean sealed;
+
+    private QueueSegment(long sequence, File file, MappedByteBuffer buffer)
+    {
+        this.sequence = sequence;
+        this.file = file;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Creates a new, empty segment file. If a file with the same sequence number already exists, its content is
+     * discarded.
+     *
+     * @param directory The directory to create the segment file in.
+     * @param sequence  The sequence number of the segment, which determines the order segments are read in.
+     * @param capacity  The size of the segment file in bytes, including the header.
+     * @return The new segment, ready for appending.
+     */
+    static QueueSegment create(File directory, long sequence, int capacity) throws IOException
+    {
+        final File file = new File(directory, String.format(Locale.US, "%020d%s", sequence, FILE_EXTENSION));
+        final QueueSegment segment = new QueueSegment(sequence, file, map(file, capacity, true));
+
+        segment.buffer.putInt(0, MAGIC);
+        segment.buffer.putLong(ACKNOWLEDGED_OFFSET_POSITION, HEADER_SIZE);
+        segment.writeOffset = HEADER_SIZE;
+        segment.acknowledgedOffset = HEADER_SIZE;
+        return segment;
+    }
+
+    /**
+     * Opens an existing segment file and recovers its valid records.
+     *
+     * @param file The segment file.
+     * @return The segment, or null if the file is not a valid segment.
+     */
+    static QueueSegment open(File file) throws IOException
+    {
+        final String name = file.getName();
+        final long sequence;
+        try
+        {
+            sequence = Long.parseLong(name.substring(0, name.length() - FILE_EXTENSION.length()));
+        } catch (NumberFormatException e)
+        {
+            return null;
+        }
+
+        if (file.length() < HEADER_SIZE || file.length() > Integer.MAX_VALUE) return null;
+
+        final QueueSegment segment = new QueueSegment(sequence, file, map(file, (int) file.length(), false));
+        if (segment.buffer.getInt(0) != MAGIC) return null;
+
+        segment.recover();
+        return segment;
+    }
+
+    /**
+     * @return The segment capacity needed to hold a single record with the provided topic and payload sizes.
+     */
+    static int requiredCapacity(int topicLength, int payloadLength)
+    {
+        return HEADER_SIZE + recordSize(topicLength, payloadLength);
+    }
+
+    private static int recordSize(int topicLength, int payloadLength)
+    {
+        return RECORD_HEADER_SIZE + TOPIC_LENGTH_SIZE + topicLength + payloadLength;
+    }
+
+    private static MappedByteBuffer map(File file, int capacity, boolean truncate) throws IOException
+    {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+             FileChannel channel = randomAccessFile.getChannel())
+        {
+            // Mapping grows the truncated file back to the capacity, filled with zeros, so no stale record follows the
+            // header
+            if (truncate) randomAccessFile.setLength(0);
+
+            // The mapping remains valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+    }
+
+    /**
+     * Scans the records to find the end of the valid data, and clears the header of the next record so that a torn
+     * write from before the restart can't be mistaken for a valid record once appending resumes.
+     */
+    private void recover()
+    {
+        int offset = HEADER_SIZE;
+        while (true)
+        {
+            final int bodyLength = readBodyLength(offset);
+            if (bodyLength <= 0) break;
+            if (buffer.getInt(offset + 4) != computeCrc(offset + RECORD_HEADER_SIZE, bodyLength)) break;
+
+            offset += RECORD_HEADER_SIZE + bodyLength;
+        }
+
+        writeOffset = offset;
+        if (writeOffset + RECORD_HEADER_SIZE <= buffer.capacity())
+        {
+            buffer.putLong(writeOffset, 0L);
+        }
+
+        final long storedAcknowledgedOffset = buffer.getLong(ACKNOWLEDGED_OFFSET_POSITION);
+        acknowledgedOffset = (int) Math.max(HEADER_SIZE, Math.min(storedAcknowledgedOffset, writeOffset));
+    }
+
+    /**
+     * @return The body length of the record at the offset, or -1 if there is no complete record header there.
+     */
+    private int readBodyLength(int offset)
+    {
+        if (offset + RECORD_HEADER_SIZE > buffer.capacity()) return -1;
+
+        final int bodyLength = buffer.getInt(offset);
+        if (bodyLength < TOPIC_LENGTH_SIZE || bodyLength > buffer.capacity() - offset - RECORD_HEADER_SIZE) return -1;
+
+        return bodyLength;
+    }
+
+    private int computeCrc(int offset, int length)
+    {
+        final ByteBuffer body = buffer.duplicate();
+        body.limit(offset + length).position(offset);
+
+        crc32.reset();
+        crc32.update(body);
+        return (int) crc32.getValue();
+    }
+
+    /**
+     * Appends a record to the end of this segment.
+     *
+     * @param topicBytes The UTF-8 encoded message topic.
+     * @param payload    The message payload. Its position is not modified.
+     * @return The number of bytes written, or 0 if the record does not fit in the remaining space of this segment.
+     */
+    int append(byte[] topicBytes, ByteBuffer payload)
+    {
+        final int recordSize = recordSize(topicBytes.length, payload.remaining());
+        if (sealed || writeOffset + recordSize > buffer.capacity()) return 0;
+
+        final int bodyOffset = writeOffset + RECORD_HEADER_SIZE;
+        final int bodyLength = recordSize - RECORD_HEADER_SIZE;
+
+        final ByteBuffer body = buffer.duplicate();
+        body.position(bodyOffset);
+        body.putShort((short) topicBytes.length);
+        body.put(topicBytes);
+        body.put(payload.duplicate());
+
+        buffer.putInt(writeOffset + 4, computeCrc(bodyOffset, bodyLength));
+        // Writing the length last commits the record
+        buffer.putInt(writeOffset, bodyLength);
+
+        writeOffset += recordSize;
+        return recordSize;
+    }
+
+    /**
+     * Reads the record that starts at the provided offset.
+     *
+     * @param offset The offset of the record, which must be before the {@link #getWriteOffset() write offset}.
+     * @return The record, whose payload is a view of the mapped segment file.
+     */
+    Record read(int offset)
+    {
+        final int bodyLength = buffer.getInt(offset);
+        final int bodyOffset = offset + RECORD_HEADER_SIZE;
+        final int topicLength = buffer.getShort(bodyOffset) & 0xFFFF;
+        final int topicOffset = bodyOffset + TOPIC_LENGTH_SIZE;
+
+        final byte[] topicBytes = new byte[topicLength];
+        final ByteBuffer topicBuffer = buffer.duplicate();
+        topicBuffer.position(topicOffset);
+        topicBuffer.get(topicBytes);
+
+        final ByteBuffer payload = buffer.duplicate();
+        payload.limit(bodyOffset + bodyLength).position(topicOffset + topicLength);
+
+        return new Record(new String(topicBytes, StandardCharsets.UTF_8), payload.slice().asReadOnlyBuffer(),
+                offset + RECORD_HEADER_SIZE + bodyLength);
+    }
+
+    /**
+     * Persists that every record before the provided offset has been acknowledged by the broker.
+     */
+    void acknowledge(int offset)
+    {
+        acknowledgedOffset = offset;
+        buffer.putLong(ACKNOWLEDGED_OFFSET_POSITION, offset);
+    }
+
+    /**
+     * Marks this segment as complete; no more records will be appended to it.
+     */
+    void seal()
+    {
+        sealed = true;
+    }
+
+    /**
+     * @return True if the segment is sealed and every record in it has been acknowledged.
+     */
+    boolean isFullyAcknowledged()
+    {
+        return sealed && acknowledgedOffset == writeOffset;
+    }
+
+    /**
+     * Flushes the mapped content to the storage device.
+     */
+    void force()
+    {
+        buffer.force();
+    }
+
+    /**
+     * Deletes the segment file. The mapped memory is released once the segment is no longer referenced.
+     */
+    boolean delete()
+    {
+        return file.delete();
+    }
+
+    long getSequence()
+    {
+        return sequence;
+    }
+
+    int getWriteOffset()
+    {
+        return writeOffset;
+    }
+
+    int getAcknowledgedOffset()
+    {
+        return acknowledgedOffset;
+    }
+
+    boolean isSealed()
+    {
+        return sealed;
+    }
+
+    /**
+     * A message read from a segment.
+     */
+    static final class Record
+    {
+        final String mqttMessageTopic;
+        final ByteBuffer payload;
+        final int endOffset;
+
+        Record(String mqttMessageTopic, ByteBuffer payload, int endOffset)
+        {
+            this.mqttMessageTopic = mqttMessageTopic;
+            this.payload = payload;
+            this.endOffset = endOffset;
+        }
+    }
+}
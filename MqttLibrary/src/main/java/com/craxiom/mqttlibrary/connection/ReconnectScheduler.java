@@ -0,0 +1,110 @@
+package com.craxiom.mqttlibrary.connection;
+
+import com.craxiom.mqttlibrary.INetworkAvailabilitySource;
+import com.craxiom.mqttlibrary.IReconnectStrategy;
+import com.craxiom.mqttlibrary.ReconnectStrategies;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * Times the reconnect attempts of the MQTT clients with the installed {@link IReconnectStrategy}.
+ * <p>
+ * Each attempt waits on a trigger future that completes once the strategy's delay has passed, or as soon as the
+ * {@link INetworkAvailabilitySource} reports that a network is available, whichever comes first. The HiveMQ client
+ * reconnects when the trigger completes.
+ *
+ * @since 1.3.0
+ */
+final class ReconnectScheduler
+{
+    private final ScheduledExecutorService timer;
+    private final Set<CompletableFuture<Void>> waitingAttempts = ConcurrentHashMap.newKeySet();
+    private volatile IReconnectStrategy strategy = ReconnectStrategies.DEFAULT;
+    private INetworkAvailabilitySource networkSource;
+
+    /**
+     * @param timer Runs the reconnect delays.
+     */
+    ReconnectScheduler(ScheduledExecutorService timer)
+    {
+        this.timer = timer;
+    }
+
+    void setStrategy(IReconnectStrategy strategy)
+    {
+        this.strategy = strategy;
+    }
+
+    IReconnectStrategy getStrategy()
+    {
+        return strategy;
+    }
+
+    /**
+     * Stops the previous network availability source, if there is one, and starts the new one.
+     *
+     * @param source The source that triggers an immediate reconnect attempt, or null to only use the delays.
+     */
+    synchronized void setNetworkAvailabilitySource(INetworkAvailabilitySource source)
+    {
+        if (networkSource != null) networkSource.stop();
+
+        networkSource = source;
+        if (source != null) source.start(this::retryNow);
+    }
+
+    synchronized INetworkAvailabilitySource getNetworkAvailabilitySource()
+    {
+        return networkSource;
+    }
+
+    /**
+     * @param attempt The number of reconnect attempts already made since the last successful connection.
+     * @return The future that completes when the next reconnect attempt should be made.
+     */
+    CompletableFuture<Void> nextAttempt(int attempt)
+    {
+        final long delayMs = Math.max(0, strategy.getReconnectDelayMs(attempt));
+        Timber.d("Reconnecting to the MQTT broker in %d ms (attempt %d)", delayMs, attempt + 1);
+
+        final CompletableFuture<Void> trigger = new CompletableFuture<>();
+        if (delayMs == 0)
+        {
+            trigger.complete(null);
+            return trigger;
+        }
+
+        waitingAttempts.add(trigger);
+        trigger.whenComplete((ignored, throwable) -> waitingAttempts.remove(trigger));
+        timer.schedule(() -> trigger.complete(null), delayMs, TimeUnit.MILLISECONDS);
+        return trigger;
+    }
+
+    /**
+     * Starts every reconnect attempt that is waiting out its delay right away.
+     */
+    void retryNow()
+    {
+        if (waitingAttempts.isEmpty()) return;
+
+        Timber.i("A network is available, reconnecting to the MQTT broker now");
+        for (CompletableFuture<Void> trigger : waitingAttempts)
+        {
+            trigger.complete(null);
+        }
+    }
+
+    /**
+     * @return The number of reconnect attempts that are waiting out their delay.
+     */
+    int getWaitingAttemptCount()
+    {
+        return waitingAttempts.size();
+    }
+}
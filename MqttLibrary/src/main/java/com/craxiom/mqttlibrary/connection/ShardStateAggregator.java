@@ -0,0 +1,71 @@
+package com.craxiom.mqttlibrary.connection;
+
+import java.util.Arrays;
+
+/**
+ * Combines the connection states of the shards of a {@link ShardedMqttConnection} into a single state.
+ * <p>
+ * The aggregate state is {@link ConnectionState#CONNECTED} only when every shard is connected, and
+ * {@link ConnectionState#DISCONNECTED} only when every shard is disconnected. While the shards are being shut down it
+ * is {@link ConnectionState#DISCONNECTING}, and in every other case, such as when one shard is reconnecting, it is
+ * {@link ConnectionState#CONNECTING}.
+ *
+ * @since 1.3.0
+ */
+final class ShardStateAggregator
+{
+    private final ConnectionState[] shardStates;
+    private ConnectionState state = ConnectionState.DISCONNECTED;
+
+    ShardStateAggregator(int shardCount)
+    {
+        shardStates = new ConnectionState[shardCount];
+        Arrays.fill(shardStates, ConnectionState.DISCONNECTED);
+    }
+
+    /**
+     * Records the new state of a shard.
+     *
+     * @param shard      The index of the shard.
+     * @param shardState The new state of the shard.
+     * @return The new aggregate state if it changed, or null if it did not.
+     */
+    synchronized ConnectionState update(int shard, ConnectionState shardState)
+    {
+        shardStates[shard] = shardState;
+
+        final ConnectionState newState = aggregate(shardStates);
+        if (newState == state) return null;
+
+        state = newState;
+        return newState;
+    }
+
+    synchronized ConnectionState getState()
+    {
+        return state;
+    }
+
+    synchronized ConnectionState getShardState(int shard)
+    {
+        return shardStates[shard];
+    }
+
+    private static ConnectionState aggregate(ConnectionState[] shardStates)
+    {
+        int connected = 0;
+        int disconnected = 0;
+        int disconnecting = 0;
+        for (ConnectionState shardState : shardStates)
+        {
+            if (shardState == ConnectionState.CONNECTED) connected++;
+            else if (shardState == ConnectionState.DISCONNECTED) disconnected++;
+            else if (shardState == ConnectionState.DISCONNECTING) disconnecting++;
+        }
+
+        if (connected == shardStates.length) return ConnectionState.CONNECTED;
+        if (disconnected == shardStates.length) return ConnectionState.DISCONNECTED;
+        if (disconnected + disconnecting == shardStates.length) return ConnectionState.DISCONNECTING;
+        return ConnectionState.CONNECTING;
+    }
+}
@@ -0,0 +1,363 @@
+package com.craxiom.mqttlibrary.connection;
+
+import android.content.Context;
+
+import com.craxiom.mqttlibrary.IConnectionStateListener;
+import com.craxiom.mqttlibrary.IQueueBackpressureListener;
+import com.craxiom.mqttlibrary.IQueueOverflowPolicy;
+import com.craxiom.mqttlibrary.PublishMetrics;
+import com.google.protobuf.MessageOrBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+import timber.log.Timber;
+
+/**
+ * Publishes messages over several connections to the same MQTT broker at once, so that throughput is not limited to
+ * the in-flight window of a single TCP connection, and a slow acknowledgement on one connection does not hold up the
+ * messages on the others.
+ * <p>
+ * Each shard is a {@link DefaultMqttConnection} that connects with the client ID from the
+ * {@link BrokerConnectionInfo} followed by {@code -<shard index>}. Every message is routed to a shard by a hash of its
+ * topic, or of the routing key if one is provided, so all the messages for a topic or key are published in order over
+ * the same connection while different topics or keys are published in parallel.
+ * <p>
+ * Like {@link DefaultMqttConnection}, this is meant to be extended with methods that publish the app's messages. The
+ * connection state reported to the {@link IConnectionStateListener}s is the combined state of the shards, which is
+ * only {@link ConnectionState#CONNECTED} once every shard is connected. The streaming queue settings are applied to
+ * each shard separately, so the limits are per shard. The shards can be accessed with {@link #getShard(int)} to
+ * configure anything else, except for the durable queue, which can't be shared between the shards.
+ *
+ * @since 1.3.0
+ */
+public class ShardedMqttConnection
+{
+    private final List<DefaultMqttConnection> shards;
+    private final ShardStateAggregator stateAggregator;
+    private final List<IConnectionStateListener> mqttConnectionListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Serializes the notifications of the aggregate state so that listeners see the changes in order.
+     */
+    private final Object stateLock = new Object();
+
+    /**
+     * Constructs the sharded connection with a plain {@link DefaultMqttConnection} for each shard.
+     *
+     * @param shardCount The number of connections to open to the broker.
+     * @throws IllegalArgumentException If the shard count is less than 1.
+     */
+    protected ShardedMqttConnection(int shardCount)
+    {
+        this(shardCount, DefaultMqttConnection::new);
+    }
+
+    /**
+     * Constructs the sharded connection.
+     *
+     * @param shardCount        The number of connections to open to the broker.
+     * @param connectionFactory Creates the connection for each shard.
+     * @throws IllegalArgumentException If the shard count is less than 1.
+     */
+    protected ShardedMqttConnection(int shardCount, Supplier<? extends DefaultMqttConnection> connectionFactory)
+    {
+        if (shardCount < 1)
+        {
+            throw new IllegalArgumentException("The shard count must be at least 1, shardCount=" + shardCount);
+        }
+
+        stateAggregator = new ShardStateAggregator(shardCount);
+
+        final List<DefaultMqttConnection> connections = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++)
+        {
+            final int shard = i;
+            final DefaultMqttConnection connection = connectionFactory.get();
+            connection.registerMqttConnectionStateListener(state -> onShardStateChange(shard, state));
+            connections.add(connection);
+        }
+        shards = Collections.unmodifiableList(connections);
+    }
+
+    /**
+     * Connects each shard to the MQTT Broker.
+     *
+     * @param applicationContext The context to use for the MQTT Android Client.
+     * @param connectionInfo     The connection information. The shard index is appended to the client ID for each
+     *                           shard.
+     */
+    public synchronized void connect(Context applicationContext, BrokerConnectionInfo connectionInfo)
+    {
+        final String mqttClientId = connectionInfo.getMqttClientId();
+        for (int i = 0; i < shards.size(); i++)
+        {
+            shards.get(i).connect(applicationContext, connectionInfo.withMqttClientId(getShardClientId(mqttClientId, i)));
+        }
+    }
+
+    /**
+     * Disconnects each shard from the MQTT Broker.
+     */
+    public synchronized void disconnect()
+    {
+        for (DefaultMqttConnection shard : shards)
+        {
+            shard.disconnect();
+        }
+    }
+
+    /**
+     * @return The combined {@link ConnectionState} of the shards.
+     */
+    public ConnectionState getConnectionState()
+    {
+        return stateAggregator.getState();
+    }
+
+    public int getShardCount()
+    {
+        return shards.size();
+    }
+
+    /**
+     * @param shard The index of the shard.
+     * @return The connection for the shard.
+     */
+    public DefaultMqttConnection getShard(int shard)
+    {
+        return shards.get(shard);
+    }
+
+    /**
+     * Publishes the Protobuf message on the shard for its topic. See
+     * {@link DefaultMqttConnection#publishMessage(String, MessageOrBuilder)}.
+     *
+     * @param mqttMessageTopic The MQTT Topic to publish the message to. The topic prefix will be prepended to this.
+     * @param message          The Protobuf message to send to the MQTT Broker.
+     */
+    protected void publishMessage(String mqttMessageTopic, MessageOrBuilder message)
+    {
+        shardFor(mqttMessageTopic).publishMessage(mqttMessageTopic, message);
+    }
+
+    /**
+     * Publishes the JSON string on the shard for its topic. See
+     * {@link DefaultMqttConnection#publishMessage(String, String)}.
+     *
+     * @param mqttMessageTopic The MQTT topic to publish the message to. The topic prefix will be prepended to this.
+     * @param jsonMessage      The JSON string to send to the MQTT broker. It is encoded as UTF-8.
+     */
+    protected void publishMessage(String mqttMessageTopic, String jsonMessage)
+    {
+        shardFor(mqttMessageTopic).publishMessage(mqttMessageTopic, jsonMessage);
+    }
+
+    /**
+     * Publishes the Protobuf message on the shard for the routing key, so that messages on a busy topic can be spread
+     * across the shards while the messages for each key stay in order.
+     *
+     * @param mqttMessageTopic The MQTT Topic to publish the message to. The topic prefix will be prepended to this.
+     * @param routingKey       The key that decides the shard, such as a device or mission ID. If null, the topic is
+     *                         used.
+     * @param message          The Protobuf message to send to the MQTT Broker.
+     */
+    protected void publishKeyedMessage(String mqttMessageTopic, String routingKey, MessageOrBuilder message)
+    {
+        shardFor(routingKey != null ? routingKey : mqttMessageTopic).publishMessage(mqttMessageTopic, message);
+    }
+
+    /**
+     * Publishes the JSON string on the shard for the routing key. See
+     * {@link #publishKeyedMessage(String, String, MessageOrBuilder)}.
+     *
+     * @param mqttMessageTopic The MQTT topic to publish the message to. The topic prefix will be prepended to this.
+     * @param routingKey       The key that decides the shard. If null, the topic is used.
+     * @param jsonMessage      The JSON string to send to the MQTT broker. It is encoded as UTF-8.
+     */
+    protected void publishKeyedMessage(String mqttMessageTopic, String routingKey, String jsonMessage)
+    {
+        shardFor(routingKey != null ? routingKey : mqttMessageTopic).publishMessage(mqttMessageTopic, jsonMessage);
+    }
+
+    /**
+     * Adds an {@link IConnectionStateListener} so that it will be notified of all future changes to the combined
+     * connection state of the shards.
+     *
+     * @param connectionStateListener The listener to add.
+     */
+    public void registerMqttConnectionStateListener(IConnectionStateListener connectionStateListener)
+    {
+        mqttConnectionListeners.add(connectionStateListener);
+    }
+
+    /**
+     * Removes an {@link IConnectionStateListener} so that it will no longer be notified of connection state changes.
+     *
+     * @param connectionStateListener The listener to remove.
+     */
+    public void unregisterMqttConnectionStateListener(IConnectionStateListener connectionStateListener)
+    {
+        mqttConnectionListeners.remove(connectionStateListener);
+    }
+
+    /**
+     * Sets the streaming queue limit of each shard. See {@link DefaultMqttConnection#setStreamingQueueLimit(int)}.
+     *
+     * @param limit The maximum queue size of each shard. Set to 0 to disable queue limiting (unbounded queue).
+     */
+    public void setStreamingQueueLimit(int limit)
+    {
+        for (DefaultMqttConnection shard : shards)
+        {
+            shard.setStreamingQueueLimit(limit);
+        }
+    }
+
+    /**
+     * Sets the streaming queue byte limit of each shard. See
+     * {@link DefaultMqttConnection#setStreamingQueueByteLimit(long)}.
+     *
+     * @param byteLimit The maximum number of payload bytes of each shard. Set to 0 to disable the byte limit.
+     */
+    public void setStreamingQueueByteLimit(long byteLimit)
+    {
+        for (DefaultMqttConnection shard : shards)
+        {
+            shard.setStreamingQueueByteLimit(byteLimit);
+        }
+    }
+
+    /**
+     * Sets the streaming queue overflow policy of each shard. See
+     * {@link DefaultMqttConnection#setQueueOverflowPolicy(IQueueOverflowPolicy)}.
+     *
+     * @param policy The overflow policy to use.
+     */
+    public void setQueueOverflowPolicy(IQueueOverflowPolicy policy)
+    {
+        for (DefaultMqttConnection shard : shards)
+        {
+            shard.setQueueOverflowPolicy(policy);
+        }
+    }
+
+    /**
+     * @return The total number of messages waiting for the publish to complete across all the shards.
+     */
+    public int getPendingMessageCount()
+    {
+        int pending = 0;
+        for (DefaultMqttConnection shard : shards)
+        {
+            pending += shard.getPendingMessageCount();
+        }
+        return pending;
+    }
+
+    /**
+     * @return The publish metrics of all the shards combined, with the metrics for each topic summed across the shards.
+     * @since 1.3.0
+     */
+    public PublishMetrics getPublishMetrics()
+    {
+        final Map<String, PublishMetrics.TopicMetrics> topicMetrics = new HashMap<>();
+        for (DefaultMqttConnection shard : shards)
+        {
+            for (Map.Entry<String, PublishMetrics.TopicMetrics> entry : shard.getPublishMetrics().getTopicMetrics()
+                    .entrySet())
+            {
+                topicMetrics.merge(entry.getKey(), entry.getValue(), PublishMetrics.TopicMetrics::plus);
+            }
+        }
+        return new PublishMetrics(System.currentTimeMillis(), topicMetrics);
+    }
+
+    /**
+     * Adds the backpressure listener to each shard. The listener is notified separately for each shard's streaming
+     * queue, so only the producers that publish to the affected shard need to be paused.
+     *
+     * @param listener The listener to add.
+     */
+    public void registerQueueBackpressureListener(IQueueBackpressureListener listener)
+    {
+        for (DefaultMqttConnection shard : shards)
+        {
+            shard.registerQueueBackpressureListener(listener);
+        }
+    }
+
+    /**
+     * Removes the backpressure listener from each shard.
+     *
+     * @param listener The listener to remove.
+     */
+    public void unregisterQueueBackpressureListener(IQueueBackpressureListener listener)
+    {
+        for (DefaultMqttConnection shard : shards)
+        {
+            shard.unregisterQueueBackpressureListener(listener);
+        }
+    }
+
+    /**
+     * @param routingKey The topic or routing key of a message.
+     * @return The index of the shard that messages with the routing key are published on.
+     */
+    public int getShardIndex(String routingKey)
+    {
+        return shardIndex(routingKey, shards.size());
+    }
+
+    /**
+     * @return The index of the shard for the routing key, which is always the same for the same key and shard count.
+     */
+    static int shardIndex(String routingKey, int shardCount)
+    {
+        // Spread the high bits of the hash into the low bits, since similar topics often only differ near the end
+        final int hash = routingKey.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), shardCount);
+    }
+
+    /**
+     * @return The client ID for the shard, or the provided client ID if it is empty so that the broker assigns one.
+     */
+    static String getShardClientId(String mqttClientId, int shard)
+    {
+        if (mqttClientId == null || mqttClientId.isEmpty()) return mqttClientId;
+
+        return mqttClientId + "-" + shard;
+    }
+
+    private DefaultMqttConnection shardFor(String routingKey)
+    {
+        return shards.get(shardIndex(routingKey, shards.size()));
+    }
+
+    private void onShardStateChange(int shard, ConnectionState shardState)
+    {
+        synchronized (stateLock)
+        {
+            final ConnectionState newState = stateAggregator.update(shard, shardState);
+            if (newState == null) return;
+
+            Timber.i("Sharded MQTT Connection State Changed. shard=%d, shardState=%s, newConnectionState=%s", shard,
+                    shardState, newState);
+            for (IConnectionStateListener listener : mqttConnectionListeners)
+            {
+                try
+                {
+                    listener.onConnectionStateChange(newState);
+                } catch (Exception e)
+                {
+                    Timber.e(e, "Unable to notify a MQTT Connection State Listener because of an exception");
+                }
+            }
+        }
+    }
+}
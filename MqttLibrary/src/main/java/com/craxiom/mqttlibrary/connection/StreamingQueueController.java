@@ -0,0 +1,907 @@
+package com.craxiom.mqttlibrary.connection;
+
+import com.craxiom.mqttlibrary.IQueueOverflowPolicy;
+import com.craxiom.mqttlibrary.QueueOverflowPolicies;
+import com.craxiom.mqttlibrary.QueueOverflowStats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Applies the streaming queue limits to the messages handed to the MQTT client.
+ * <p>
+ * The pending count and pending bytes are the number and total payload size of the publishes that have been handed to
+ * the MQTT client and not yet completed. The pending count is kept as the permits in use in a
+ * {@link StripedPermitPool}, and the pending bytes in a {@link LongAdder}, so that the publishing threads and the
+ * threads completing the publishes don't all contend on the same counters. A publish claims a slot by taking a permit,
+ * which never takes the count over its limit, and then adds its size to the bytes and backs out if that takes them
+ * over the byte limit, so concurrent publishers can't all pass the check before any of them adds. The pending count
+ * and bytes that are reported are exact while no publish is being admitted or completed, and can otherwise be off by
+ * the publishes in progress. When a publish overflows a limit, backpressure is signaled and the installed
+ * {@link IQueueOverflowPolicy}
+ * decides whether the message is dropped, held in the backlog, or waits for room. Backpressure is released once the
+ * queue drains below the low watermark of each enabled limit and the backlog is empty.
+ * <p>
+ * The high watermark can be set below the limit so that backpressure is signaled while there is still room in the
+ * queue. If a growth warning horizon is set, the growth rate of the queue is sampled as messages are admitted, and a
+ * warning is raised when the queue is predicted to reach the high watermark within the horizon. This gives producers
+ * the chance to slow down gradually instead of being paused.
+ *
+ * @since 1.3.0
+ */
+final class StreamingQueueController
+{
+    /**
+     * Receives the messages and events produced by the controller.
+     */
+    interface IQueueCallbacks
+    {
+        /**
+         * Publishes a message from the backlog. A slot has already been claimed for the message, so
+         * {@link #onPublishComplete(int)} must be called once the publish completes. Ownership of the payload buffer is
+         * transferred to the callee.
+         */
+        void publishFromBacklog(String mqttMessageTopic, PayloadBuffer payloadBuffer);
+
+        /**
+         * Releases the payload buffer of a message that was dropped.
+         *
+         * @param mqttMessageTopic The topic the message was being published to.
+         * @param payloadBuffer    The encoded message.
+         */
+        void release(String mqttMessageTopic, PayloadBuffer payloadBuffer);
+
+        void onQueueFull(int queueSize, int queueLimit, long queueBytes, long queueByteLimit);
+
+        void onQueueDrained(int queueSize, int queueLimit, long queueBytes, long queueByteLimit);
+
+        void onQueueGrowthWarning(int queueSize, int queueLimit, long queueBytes, long queueByteLimit,
+                                  long msUntilFull);
+
+        void onQueueGrowthWarningCleared(int queueSize, int queueLimit, long queueBytes, long queueByteLimit);
+    }
+
+    static final double DEFAULT_HIGH_WATERMARK = 1.0;
+    static final double DEFAULT_LOW_WATERMARK = 0.5;
+
+    /**
+     * The minimum time between samples of the queue growth rate.
+     */
+    static final long GROWTH_SAMPLE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * The weight of the newest sample in the exponentially weighted moving average of the growth rate.
+     */
+    private static final double GROWTH_RATE_SMOOTHING = 0.5;
+
+    private final IQueueCallbacks callbacks;
+    private final StripedPermitPool messagePermits = new StripedPermitPool(StripedPermitPool.UNBOUNDED);
+    private final LongAdder pendingBytes = new LongAdder();
+    private final AtomicBoolean backpressureActive = new AtomicBoolean(false);
+
+    /**
+     * The number of messages that have overflowed the queue since backpressure was last signaled.
+     */
+    private final AtomicLong overflowCount = new AtomicLong(0);
+
+    /**
+     * Threads blocked by the {@link IQueueOverflowPolicy.Action#WAIT} action wait on this monitor, and are notified
+     * when a publish completes.
+     */
+    private final Object capacityMonitor = new Object();
+    private volatile int waitingThreadCount = 0;
+
+    private volatile int queueLimit = 0; // 0 = disabled (unbounded)
+
+    /**
+     * The maximum number of messages the broker allows in flight, or 0 if it does not set one.
+     */
+    private volatile int inFlightWindow = 0;
+
+    /**
+     * The window chosen by the {@link AdaptiveWindowController}, which replaces the queue limit while it is set, or 0.
+     */
+    private volatile int adaptiveWindow = 0;
+
+    private volatile long queueByteLimit = 0; // 0 = disabled (unbounded)
+
+    /**
+     * The message count limit that is applied, which is the smaller of the queue limit, or the adaptive window if it
+     * is set, and the in-flight window. The in-flight window is only applied while a count limit or the byte limit is
+     * enabled.
+     */
+    private volatile int countLimit = 0; // 0 = disabled (unbounded)
+    private volatile OverflowState overflowState = new OverflowState(QueueOverflowPolicies.DROP_NEWEST);
+
+    /**
+     * The fractions of each limit at which backpressure is signaled and released.
+     */
+    private volatile double highWatermark = DEFAULT_HIGH_WATERMARK;
+    private volatile double lowWatermark = DEFAULT_LOW_WATERMARK;
+
+    private final LongSupplier nanoClock;
+    private volatile long growthWarningHorizonNanos = 0; // 0 = disabled
+    private final AtomicBoolean growthWarningActive = new AtomicBoolean(false);
+
+    /**
+     * The time of the last growth sample. The thread that advances it takes the sample, so the fields below are only
+     * written by one thread at a time.
+     */
+    private final AtomicLong lastGrowthSampleNanos = new AtomicLong(0);
+    private volatile int lastSampledMessageCount = 0;
+    private volatile long lastSampledBytes = 0;
+    private volatile double messageGrowthPerNano = 0;
+    private volatile double byteGrowthPerNano = 0;
+
+    StreamingQueueController(IQueueCallbacks callbacks)
+    {
+        this(callbacks, System::nanoTime);
+    }
+
+    /**
+     * @param nanoClock The source of the time used to measure the queue growth rate, in nanoseconds.
+     */
+    StreamingQueueController(IQueueCallbacks callbacks, LongSupplier nanoClock)
+    {
+        this.callbacks = callbacks;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Sets the maximum number of pending messages. If backpressure is active and the queue has already drained below
+     * the low watermark of the new limit, backpressure is released right away.
+     *
+     * @param limit The maximum queue size, or 0 to disable the limit.
+     */
+    void setLimit(int limit)
+    {
+        queueLimit = Math.max(0, limit);
+        updateCountLimit();
+
+        notifyWaitingThreads();
+        drainBacklog();
+
+        // If we're reducing the limit and currently in backpressure, check if we should still be
+        releaseBackpressureIfDrained();
+    }
+
+    int getLimit()
+    {
+        return queueLimit;
+    }
+
+    /**
+     * Sets the maximum number of messages that the broker allows to be in flight at once. While the queue limit or byte
+     * limit is enabled, the in-flight window is applied as a message count limit alongside the queue limit, and the
+     * smaller of the two is used. The window alone does not enable the queue, so that messages are not dropped by the
+     * overflow policy unless a limit was asked for.
+     *
+     * @param window The maximum number of messages in flight, or 0 if the broker does not limit it.
+     */
+    void setInFlightWindow(int window)
+    {
+        inFlightWindow = Math.max(0, window);
+        updateCountLimit();
+
+        notifyWaitingThreads();
+        drainBacklog();
+        releaseBackpressureIfDrained();
+    }
+
+    int getInFlightWindow()
+    {
+        return inFlightWindow;
+    }
+
+    /**
+     * Sets the message count limit chosen by the adaptive window, which is applied instead of the queue limit while it
+     * is set. The broker's in-flight window is still applied if it is smaller. When the window shrinks below the
+     * pending count, the messages already in flight are left to complete and the next message overflows the queue, so
+     * backpressure is signaled the same way as for a fixed limit.
+     *
+     * @param window The maximum number of messages in flight, or 0 to go back to the queue limit.
+     */
+    void setAdaptiveWindow(int window)
+    {
+        adaptiveWindow = Math.max(0, window);
+        updateCountLimit();
+
+        notifyWaitingThreads();
+        drainBacklog();
+        releaseBackpressureIfDrained();
+    }
+
+    int getAdaptiveWindow()
+    {
+        return adaptiveWindow;
+    }
+
+    /**
+     * @return The message count limit that is applied, which is the smaller of the queue limit or adaptive window and
+     * the in-flight window, or 0 if no message count limit is applied.
+     */
+    int getEffectiveLimit()
+    {
+        return countLimit;
+    }
+
+    private void updateCountLimit()
+    {
+        final int adaptive = adaptiveWindow;
+        final int limit = adaptive > 0 ? adaptive : queueLimit;
+        final int window = inFlightWindow;
+        if (limit <= 0 && queueByteLimit <= 0)
+        {
+            countLimit = 0;
+        } else
+        {
+            countLimit = limit <= 0 ? window : window <= 0 ? limit : Math.min(limit, window);
+        }
+        messagePermits.setCapacity(countLimit > 0 ? countLimit : StripedPermitPool.UNBOUNDED);
+    }
+
+    /**
+     * Sets the maximum total payload size of the pending messages. If backpressure is active and the queue has already
+     * drained below the low watermark of the new limit, backpressure is released right away.
+     *
+     * @param byteLimit The maximum number of payload bytes, or 0 to disable the limit.
+     */
+    void setByteLimit(long byteLimit)
+    {
+        queueByteLimit = Math.max(0, byteLimit);
+        updateCountLimit();
+
+        notifyWaitingThreads();
+        drainBacklog();
+        releaseBackpressureIfDrained();
+    }
+
+    long getByteLimit()
+    {
+        return queueByteLimit;
+    }
+
+    /**
+     * Sets the fractions of the limits at which backpressure is signaled and released. Backpressure is signaled when
+     * the queue goes above the high watermark of either limit, and is released once it is below the low watermark of
+     * every enabled limit.
+     *
+     * @param highWatermark The fraction of each limit above which backpressure is signaled, in the range (0, 1].
+     * @param lowWatermark  The fraction of each limit below which backpressure is released, in the range
+     *                      [0, highWatermark).
+     * @throws IllegalArgumentException If the watermarks are out of range.
+     */
+    void setWatermarks(double highWatermark, double lowWatermark)
+    {
+        if (!(highWatermark > 0 && highWatermark <= 1) || !(lowWatermark >= 0 && lowWatermark < highWatermark))
+        {
+            throw new IllegalArgumentException("The watermarks must satisfy 0 <= low < high <= 1. highWatermark="
+                    + highWatermark + ", lowWatermark=" + lowWatermark);
+        }
+
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+
+        releaseBackpressureIfDrained();
+    }
+
+    double getHighWatermark()
+    {
+        return highWatermark;
+    }
+
+    double getLowWatermark()
+    {
+        return lowWatermark;
+    }
+
+    /**
+     * Sets how far ahead the queue growth is projected. A growth warning is raised when the queue is predicted to reach
+     * the high watermark within this horizon.
+     *
+     * @param horizonMs The prediction horizon in milliseconds, or 0 to disable growth warnings.
+     */
+    void setGrowthWarningHorizon(long horizonMs)
+    {
+        growthWarningHorizonNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, horizonMs));
+        lastGrowthSampleNanos.set(nanoClock.getAsLong());
+        lastSampledMessageCount = messagePermits.getInUseCount();
+        lastSampledBytes = pendingBytes.sum();
+        messageGrowthPerNano = 0;
+        byteGrowthPerNano = 0;
+        growthWarningActive.set(false);
+    }
+
+    long getGrowthWarningHorizonMs()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(growthWarningHorizonNanos);
+    }
+
+    /**
+     * @return True if the message count limit, in-flight window, or byte limit is enabled.
+     */
+    boolean isEnabled()
+    {
+        return countLimit > 0 || queueByteLimit > 0;
+    }
+
+    /**
+     * Installs a new overflow policy along with a new set of counters. Messages in the backlog of the previous policy
+     * are moved to the backlog of the new policy if it has one, and are dropped otherwise.
+     */
+    void setOverflowPolicy(IQueueOverflowPolicy policy)
+    {
+        final OverflowState oldState = overflowState;
+        final OverflowState newState = new OverflowState(policy);
+        overflowState = newState;
+
+        if (oldState.backlog != null)
+        {
+            BacklogEntry entry;
+            while ((entry = oldState.backlog.poll()) != null)
+            {
+                if (newState.backlog == null || !newState.backlog.offer(entry))
+                {
+                    newState.droppedCount.incrementAndGet();
+                    callbacks.release(entry.mqttMessageTopic, entry.payloadBuffer);
+                }
+            }
+        }
+
+        notifyWaitingThreads();
+        drainBacklog();
+        releaseBackpressureIfDrained();
+    }
+
+    IQueueOverflowPolicy getOverflowPolicy()
+    {
+        return overflowState.policy;
+    }
+
+    /**
+     * Claims a slot in the queue for a message, applying the overflow policy if the queue is full.
+     *
+     * @param mqttMessageTopic The topic the message is being published to.
+     * @param payloadBuffer    The encoded message.
+     * @return True if a slot was claimed and the caller must publish the message and then call
+     * {@link #onPublishComplete(int)} with the payload length. False if the message was dropped or moved to the backlog, in which case ownership
+     * of the payload buffer has been transferred to this controller.
+     */
+    boolean admit(String mqttMessageTopic, PayloadBuffer payloadBuffer)
+    {
+        final OverflowState state = overflowState;
+
+        // Don't let a new message jump ahead of the backlog
+        final int payloadLength = payloadBuffer.length();
+        sampleGrowth();
+        if ((state.backlog == null || state.backlog.isEmpty()) && tryClaimSlot(payloadLength)) return true;
+
+        signalBackpressure();
+
+        switch (state.policy.onQueueFull(overflowCount.incrementAndGet()))
+        {
+            case BACKLOG:
+                if (state.backlog == null) break;
+
+                addToBacklog(state, new BacklogEntry(mqttMessageTopic, payloadBuffer));
+                drainBacklog();
+                return false;
+
+            case WAIT:
+                state.waitCount.incrementAndGet();
+                if (awaitSlot(payloadLength, state.policy.getMaxWaitMs())) return true;
+
+                state.waitTimeoutCount.incrementAndGet();
+                break;
+
+            default:
+                break;
+        }
+
+        state.droppedCount.incrementAndGet();
+        callbacks.release(mqttMessageTopic, payloadBuffer);
+        return false;
+    }
+
+    /**
+     * Claims a slot for a message without applying the overflow policy, for callers that hold on to the message
+     * themselves until there is room. Backpressure is signaled if there is no room.
+     *
+     * @param payloadLength The size of the message payload in bytes.
+     * @return True if a slot was claimed and the caller must publish the message and then call
+     * {@link #onPublishComplete(int)} with the payload length.
+     */
+    boolean tryAdmit(int payloadLength)
+    {
+        sampleGrowth();
+        if (tryClaimSlot(payloadLength)) return true;
+
+        signalBackpressure();
+        return false;
+    }
+
+    /**
+     * Claims a slot for a message that must be published even if the queue is full. Backpressure is still signaled
+     * when a queue limit is exceeded.
+     *
+     * @param payloadLength The size of the message payload in bytes.
+     */
+    void admitOverLimit(int payloadLength)
+    {
+        sampleGrowth();
+        messagePermits.acquireUnchecked();
+        pendingBytes.add(payloadLength);
+        final int newPending = messagePermits.getInUseCount();
+        final long newPendingBytes = pendingBytes.sum();
+        if (isOverLimit(newPending, newPendingBytes, payloadLength)
+                || isAboveHighWatermark(newPending, newPendingBytes))
+        {
+            signalBackpressure();
+        }
+    }
+
+    /**
+     * Claims slots for messages that have not been built yet, so that a producer can find out whether there is room
+     * before it spends the time to build them. Either all the slots are claimed or none are. A reserved slot counts
+     * against the count limit but not the byte limit, since the size of the message is not known yet. It is handed to a
+     * message with {@link #attachReserved(int)}, after which the message is completed through
+     * {@link #onPublishComplete(int)} as usual, and a slot that is not used must be returned with
+     * {@link #releaseSlots(int, long)} with a byte count of 0.
+     * <p>
+     * Backpressure is signaled if the queue has no room at all, and slots are not reserved ahead of the messages in
+     * the backlog.
+     *
+     * @param count The number of slots to reserve.
+     * @return True if the slots were reserved.
+     */
+    boolean tryReserve(int count)
+    {
+        sampleGrowth();
+        final OverflowState state = overflowState;
+        if (state.backlog != null && !state.backlog.isEmpty()) return false;
+
+        for (int i = 0; i < count; i++)
+        {
+            if (!messagePermits.tryAcquire())
+            {
+                if (i > 0)
+                {
+                    releaseSlots(i, 0);
+                } else
+                {
+                    signalBackpressure();
+                }
+                return false;
+            }
+        }
+
+        if (isCountAboveHighWatermark()) signalBackpressure();
+        return true;
+    }
+
+    /**
+     * Blocks the calling thread until the slots can be reserved with {@link #tryReserve(int)} or the timeout passes.
+     *
+     * @param count        The number of slots to reserve.
+     * @param timeoutNanos The longest time to wait, in nanoseconds.
+     * @return True if the slots were reserved.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    boolean awaitReserve(int count, long timeoutNanos) throws InterruptedException
+    {
+        final long deadline = System.nanoTime() + timeoutNanos;
+        while (true)
+        {
+            if (tryReserve(count)) return true;
+
+            final long remainingNanos = deadline - System.nanoTime();
+            if (remainingNanos <= 0) return false;
+
+            synchronized (capacityMonitor)
+            {
+                waitingThreadCount++;
+                try
+                {
+                    // The queue is checked after registering as a waiter, so a completion can't be missed
+                    if (!hasRoomToReserve(count)) TimeUnit.NANOSECONDS.timedWait(capacityMonitor, remainingNanos);
+                } finally
+                {
+                    waitingThreadCount--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands a slot claimed with {@link #tryReserve(int)} to a message, adding the message's size to the pending bytes.
+     * The message is admitted even if that takes the bytes over the byte limit, in which case backpressure is signaled.
+     *
+     * @param payloadLength The size of the message payload in bytes.
+     */
+    void attachReserved(int payloadLength)
+    {
+        pendingBytes.add(payloadLength);
+
+        final long byteLimit = queueByteLimit;
+        if (byteLimit > 0 && pendingBytes.sum() > byteLimit * highWatermark) signalBackpressure();
+    }
+
+    /**
+     * Releases the slot of a completed publish, publishes the next message in the backlog if there is one, and
+     * releases backpressure if the queue has drained.
+     *
+     * @param payloadLength The size of the completed message payload in bytes.
+     */
+    void onPublishComplete(int payloadLength)
+    {
+        messagePermits.release(1);
+        pendingBytes.add(-payloadLength);
+        notifyWaitingThreads();
+        drainBacklog();
+        releaseBackpressureIfDrained();
+    }
+
+    /**
+     * Releases the slots of publishes that will not be completed through {@link #onPublishComplete(int)}, such as the
+     * messages left in flight on a client that publishing failed over from. Otherwise behaves the same as completing
+     * each of the publishes.
+     *
+     * @param messageCount The number of publishes to release.
+     * @param byteCount    The total payload size of the publishes in bytes.
+     */
+    void releaseSlots(int messageCount, long byteCount)
+    {
+        if (messageCount <= 0) return;
+
+        messagePermits.release(messageCount);
+        pendingBytes.add(-byteCount);
+        notifyWaitingThreads();
+        drainBacklog();
+        releaseBackpressureIfDrained();
+    }
+
+    int getPendingMessageCount()
+    {
+        return messagePermits.getInUseCount();
+    }
+
+    /**
+     * @return An upper bound on the pending count that is cheap enough to read on every publish, see
+     * {@link StripedPermitPool#getInUseUpperBound()}.
+     */
+    int getPendingMessageCountUpperBound()
+    {
+        return messagePermits.getInUseUpperBound();
+    }
+
+    long getPendingBytes()
+    {
+        return pendingBytes.sum();
+    }
+
+    boolean isBackpressureActive()
+    {
+        return backpressureActive.get();
+    }
+
+    /**
+     * @return A snapshot of the counters for the installed overflow policy.
+     */
+    QueueOverflowStats getOverflowStats()
+    {
+        final OverflowState state = overflowState;
+        return new QueueOverflowStats(state.policy, state.droppedCount.get(), state.backloggedCount.get(),
+                state.evictedCount.get(), state.waitCount.get(), state.waitTimeoutCount.get(),
+                state.backlog == null ? 0 : state.backlog.size());
+    }
+
+    /**
+     * Takes a message permit and then uses the increment-first pattern for the bytes, which avoids the race where
+     * multiple threads pass a check before any of them increment. The pending bytes are only summed when a byte limit
+     * is set, and the exact pending count is only read when the shared pool shows that the count may be above the high
+     * watermark.
+     */
+    private boolean tryClaimSlot(int payloadLength)
+    {
+        if (!messagePermits.tryAcquire()) return false;
+
+        pendingBytes.add(payloadLength);
+        final long byteLimit = queueByteLimit;
+        if (byteLimit <= 0)
+        {
+            if (isCountAboveHighWatermark()) signalBackpressure();
+            return true;
+        }
+
+        final long newPendingBytes = pendingBytes.sum();
+        if (newPendingBytes <= byteLimit || newPendingBytes <= payloadLength)
+        {
+            if (newPendingBytes > byteLimit * highWatermark || isCountAboveHighWatermark()) signalBackpressure();
+            return true;
+        }
+
+        messagePermits.release(1);
+        pendingBytes.add(-payloadLength);
+        return false;
+    }
+
+    /**
+     * @return True if the pending count is above the high watermark of the count limit.
+     */
+    private boolean isCountAboveHighWatermark()
+    {
+        final int limit = countLimit;
+        if (limit <= 0 || backpressureActive.get()) return false;
+
+        final double threshold = limit * highWatermark;
+        return messagePermits.getInUseUpperBound() > threshold && messagePermits.getInUseCount() > threshold;
+    }
+
+    /**
+     * @return True if the pending count or bytes, including a message of the provided length, is over its limit. A
+     * message that is larger than the byte limit on its own is allowed when nothing else is pending, otherwise it could
+     * never be published.
+     */
+    private boolean isOverLimit(int newPending, long newPendingBytes, int payloadLength)
+    {
+        final int limit = countLimit;
+        if (limit > 0 && newPending > limit) return true;
+
+        final long byteLimit = queueByteLimit;
+        return byteLimit > 0 && newPendingBytes > byteLimit && newPendingBytes > payloadLength;
+    }
+
+    /**
+     * @return True if the pending count or bytes is above the high watermark of its limit.
+     */
+    private boolean isAboveHighWatermark(int pending, long pendingByteCount)
+    {
+        final double high = highWatermark;
+        final int limit = countLimit;
+        if (limit > 0 && pending > limit * high) return true;
+
+        final long byteLimit = queueByteLimit;
+        return byteLimit > 0 && pendingByteCount > byteLimit * high;
+    }
+
+    private void signalBackpressure()
+    {
+        if (backpressureActive.getAndSet(true)) return;
+
+        overflowCount.set(0);
+        callbacks.onQueueFull(messagePermits.getInUseCount(), countLimit, pendingBytes.sum(), queueByteLimit);
+    }
+
+    private void releaseBackpressureIfDrained()
+    {
+        if (!backpressureActive.get()) return;
+
+        final OverflowState state = overflowState;
+        if (state.backlog != null && !state.backlog.isEmpty()) return;
+
+        // Resume when the queue drains below the low watermark of each enabled limit
+        final int limit = countLimit;
+        final long byteLimit = queueByteLimit;
+        if (limit <= 0 && byteLimit <= 0) return;
+
+        final double low = lowWatermark;
+        final int remaining = messagePermits.getInUseCount();
+        final long remainingBytes = pendingBytes.sum();
+        if ((limit <= 0 || remaining < (long) (limit * low))
+                && (byteLimit <= 0 || remainingBytes < (long) (byteLimit * low))
+                && backpressureActive.getAndSet(false))
+        {
+            callbacks.onQueueDrained(remaining, limit, remainingBytes, byteLimit);
+        }
+    }
+
+    /**
+     * Samples the growth rate of the queue if the sample interval has passed, and raises or clears the growth warning
+     * based on how long the queue is predicted to take to reach the high watermark.
+     */
+    private void sampleGrowth()
+    {
+        final long horizonNanos = growthWarningHorizonNanos;
+        if (horizonNanos <= 0) return;
+
+        final long now = nanoClock.getAsLong();
+        final long lastSample = lastGrowthSampleNanos.get();
+        final long elapsedNanos = now - lastSample;
+        if (elapsedNanos < GROWTH_SAMPLE_INTERVAL_NANOS || !lastGrowthSampleNanos.compareAndSet(lastSample, now)) return;
+
+        final int pending = messagePermits.getInUseCount();
+        final long pendingByteCount = pendingBytes.sum();
+        messageGrowthPerNano = smooth(messageGrowthPerNano, (pending - lastSampledMessageCount) / (double) elapsedNanos);
+        byteGrowthPerNano = smooth(byteGrowthPerNano, (pendingByteCount - lastSampledBytes) / (double) elapsedNanos);
+        lastSampledMessageCount = pending;
+        lastSampledBytes = pendingByteCount;
+
+        // Once the queue is full the backpressure callbacks take over
+        if (backpressureActive.get()) return;
+
+        final double high = highWatermark;
+        final double nanosUntilFull = Math.min(
+                nanosUntil(countLimit * high, pending, messageGrowthPerNano),
+                nanosUntil(queueByteLimit * high, pendingByteCount, byteGrowthPerNano));
+
+        final int limit = countLimit;
+        final long byteLimit = queueByteLimit;
+        if (nanosUntilFull <= horizonNanos)
+        {
+            if (!growthWarningActive.getAndSet(true))
+            {
+                callbacks.onQueueGrowthWarning(pending, limit, pendingByteCount, byteLimit,
+                        TimeUnit.NANOSECONDS.toMillis((long) nanosUntilFull));
+            }
+        } else if (nanosUntilFull > 2 * horizonNanos && growthWarningActive.getAndSet(false))
+        {
+            // Clearing at twice the horizon keeps the warning from flapping when the prediction hovers at the horizon
+            callbacks.onQueueGrowthWarningCleared(pending, limit, pendingByteCount, byteLimit);
+        }
+    }
+
+    private static double smooth(double average, double sample)
+    {
+        return average + GROWTH_RATE_SMOOTHING * (sample - average);
+    }
+
+    /**
+     * @return The predicted number of nanoseconds until the value grows to the threshold, or infinity if the threshold
+     * is disabled or the value is not growing.
+     */
+    private static double nanosUntil(double threshold, double value, double growthPerNano)
+    {
+        if (threshold <= 0 || growthPerNano <= 0) return Double.POSITIVE_INFINITY;
+
+        return Math.max(0, threshold - value) / growthPerNano;
+    }
+
+    private void addToBacklog(OverflowState state, BacklogEntry entry)
+    {
+        while (!state.backlog.offer(entry))
+        {
+            final BacklogEntry oldest = state.backlog.poll();
+            if (oldest != null)
+            {
+                state.evictedCount.incrementAndGet();
+                callbacks.release(oldest.mqttMessageTopic, oldest.payloadBuffer);
+            }
+        }
+        state.backloggedCount.incrementAndGet();
+    }
+
+    /**
+     * Publishes messages from the backlog while there is room in the queue. This is called both when a publish
+     * completes and when a message is added to the backlog, so a message can't be stranded in the backlog by a
+     * publish that completed while it was being added.
+     */
+    private void drainBacklog()
+    {
+        final OverflowState state = overflowState;
+        if (state.backlog == null) return;
+
+        while (!state.backlog.isEmpty())
+        {
+            final BacklogEntry next = state.backlog.peek();
+            if (next == null) continue;
+
+            final int claimedLength = next.payloadBuffer.length();
+            if (!tryClaimSlot(claimedLength)) return;
+
+            final BacklogEntry entry = state.backlog.poll();
+            if (entry == null)
+            {
+                // Another thread took the last message
+                messagePermits.release(1);
+                pendingBytes.add(-claimedLength);
+                notifyWaitingThreads();
+                return;
+            }
+
+            // Another thread may have taken the peeked message first, so account for the one that was actually taken
+            if (entry != next) pendingBytes.add(entry.payloadBuffer.length() - claimedLength);
+
+            callbacks.publishFromBacklog(entry.mqttMessageTopic, entry.payloadBuffer);
+        }
+    }
+
+    /**
+     * Blocks the calling thread until a slot can be claimed or the timeout passes.
+     *
+     * @return True if a slot was claimed.
+     */
+    private boolean awaitSlot(int payloadLength, long maxWaitMs)
+    {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        while (true)
+        {
+            if (tryClaimSlot(payloadLength)) return true;
+
+            final long remainingNanos = deadline - System.nanoTime();
+            if (remainingNanos <= 0) return false;
+
+            synchronized (capacityMonitor)
+            {
+                waitingThreadCount++;
+                try
+                {
+                    // The queue is checked after registering as a waiter, so a completion can't be missed
+                    if (isOverLimit(messagePermits.getInUseCount() + 1, pendingBytes.sum() + payloadLength,
+                            payloadLength))
+                    {
+                        TimeUnit.NANOSECONDS.timedWait(capacityMonitor, remainingNanos);
+                    }
+                } catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    return false;
+                } finally
+                {
+                    waitingThreadCount--;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return True if the backlog is empty and the count limit has room for the provided number of slots.
+     */
+    private boolean hasRoomToReserve(int count)
+    {
+        final OverflowState state = overflowState;
+        if (state.backlog != null && !state.backlog.isEmpty()) return false;
+
+        final int limit = countLimit;
+        return limit <= 0 || messagePermits.getInUseCount() + count <= limit;
+    }
+
+    private void notifyWaitingThreads()
+    {
+        if (waitingThreadCount == 0) return;
+
+        synchronized (capacityMonitor)
+        {
+            capacityMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * The installed policy along with its counters and backlog, which are replaced together when a new policy is
+     * installed.
+     */
+    private static final class OverflowState
+    {
+        private final IQueueOverflowPolicy policy;
+        private final BoundedRingBuffer<BacklogEntry> backlog;
+        private final AtomicLong droppedCount = new AtomicLong();
+        private final AtomicLong backloggedCount = new AtomicLong();
+        private final AtomicLong evictedCount = new AtomicLong();
+        private final AtomicLong waitCount = new AtomicLong();
+        private final AtomicLong waitTimeoutCount = new AtomicLong();
+
+        private OverflowState(IQueueOverflowPolicy policy)
+        {
+            this.policy = policy;
+            final int backlogCapacity = policy.getBacklogCapacity();
+            backlog = backlogCapacity > 0 ? new BoundedRingBuffer<>(backlogCapacity) : null;
+        }
+    }
+
+    /**
+     * A message in the backlog, which has not been handed to the MQTT client yet.
+     */
+    private static final class BacklogEntry
+    {
+        private final String mqttMessageTopic;
+        private final PayloadBuffer payloadBuffer;
+
+        private BacklogEntry(String mqttMessageTopic, PayloadBuffer payloadBuffer)
+        {
+            this.mqttMessageTopic = mqttMessageTopic;
+            this.payloadBuffer = payloadBuffer;
+        }
+    }
+}
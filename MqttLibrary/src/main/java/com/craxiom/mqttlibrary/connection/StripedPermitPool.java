@@ -0,0 +1,227 @@
+package com.craxiom.mqttlibrary.connection;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A pool of permits that many threads can take from and return to without all of them contending on one counter.
+ * <p>
+ * The free permits are split between a shared pool and a set of stripes. Each thread is mapped to a stripe, and takes
+ * its permits from that stripe. When the stripe is empty, a chunk of permits is moved into it from the shared pool,
+ * and permits returned to a stripe are moved back to the shared pool once the stripe holds more than two chunks. Most
+ * acquires and releases therefore only touch the calling thread's stripe, and the shared pool is only touched once
+ * per chunk.
+ * <p>
+ * The capacity is never exceeded by {@link #tryAcquire()}: if the stripe and the shared pool are both empty, the
+ * permits left in the other stripes are taken before giving up, so an acquire only fails when every permit is in use
+ * or is being moved by another thread at that moment. The stripes hold at most a quarter of the capacity between them,
+ * and when the capacity is too small to give each stripe a chunk, the stripes are not used and every permit is taken
+ * from the shared pool. {@link #getInUseCount()} is exact when no permits are being moved. While they are, it can be
+ * off by the permits in transit, which is at most one chunk for each thread that is moving permits.
+ *
+ * @since 1.3.0
+ */
+final class StripedPermitPool
+{
+    /**
+     * The capacity of a pool that has no limit. It leaves plenty of room below {@link Integer#MAX_VALUE} so that the
+     * permits taken with {@link #acquireUnchecked()} can't overflow the count.
+     */
+    static final int UNBOUNDED = Integer.MAX_VALUE / 2;
+
+    /**
+     * The most permits that are moved between a stripe and the shared pool at once.
+     */
+    static final int MAX_CHUNK_SIZE = 64;
+
+    /**
+     * The number of ints between two stripes, which keeps each stripe on its own 64 byte cache line.
+     */
+    private static final int STRIPE_SPACING = 16;
+
+    private static final int MAX_STRIPE_COUNT = 64;
+
+    private final int stripeCount;
+    private final AtomicIntegerArray stripes;
+    private final AtomicInteger sharedPermits;
+    private volatile int capacity;
+    private volatile int chunkSize;
+
+    StripedPermitPool(int capacity)
+    {
+        this(capacity, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param capacity    The total number of permits, or {@link #UNBOUNDED} for no limit.
+     * @param parallelism The expected number of threads taking permits at once. The number of stripes is this rounded
+     *                    up to a power of two.
+     */
+    StripedPermitPool(int capacity, int parallelism)
+    {
+        int count = 1;
+        while (count < parallelism && count < MAX_STRIPE_COUNT)
+        {
+            count <<= 1;
+        }
+        stripeCount = count;
+        stripes = new AtomicIntegerArray(stripeCount * STRIPE_SPACING);
+        sharedPermits = new AtomicInteger(capacity);
+        this.capacity = capacity;
+        chunkSize = chunkSizeFor(capacity);
+    }
+
+    /**
+     * Changes the total number of permits. The permits held in the stripes are moved back to the shared pool so that
+     * the new capacity is applied right away. If more permits are in use than the new capacity allows, acquires fail
+     * until enough of them are released.
+     *
+     * @param newCapacity The total number of permits, or {@link #UNBOUNDED} for no limit.
+     */
+    synchronized void setCapacity(int newCapacity)
+    {
+        final int oldCapacity = capacity;
+        if (newCapacity == oldCapacity) return;
+
+        // Shrink the chunks first so that the stripes don't refill with the old chunk size while they are emptied
+        chunkSize = Math.min(chunkSize, chunkSizeFor(newCapacity));
+        int flushed = 0;
+        for (int i = 0; i < stripeCount; i++)
+        {
+            flushed += stripes.getAndSet(i * STRIPE_SPACING, 0);
+        }
+
+        sharedPermits.addAndGet(flushed + newCapacity - oldCapacity);
+        capacity = newCapacity;
+        chunkSize = chunkSizeFor(newCapacity);
+    }
+
+    int getCapacity()
+    {
+        return capacity;
+    }
+
+    int getStripeCount()
+    {
+        return stripeCount;
+    }
+
+    int getChunkSize()
+    {
+        return chunkSize;
+    }
+
+    /**
+     * Takes a permit if one is free.
+     *
+     * @return True if a permit was taken, and must be returned with {@link #release(int)}.
+     */
+    boolean tryAcquire()
+    {
+        final int stripe = stripeIndex();
+        if (tryTakeFromStripe(stripe)) return true;
+
+        final int chunk = chunkSize;
+        int free;
+        while ((free = sharedPermits.get()) > 0)
+        {
+            final int taken = Math.min(free, Math.max(1, chunk));
+            if (sharedPermits.compareAndSet(free, free - taken))
+            {
+                // Keep the rest of the chunk for the next acquires on this stripe
+                if (taken > 1) stripes.addAndGet(stripe, taken - 1);
+                return true;
+            }
+        }
+
+        // Before failing, take any permit that another stripe is holding on to
+        for (int i = 0; i < stripeCount; i++)
+        {
+            final int otherStripe = i * STRIPE_SPACING;
+            if (otherStripe != stripe && tryTakeFromStripe(otherStripe)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Takes a permit even if none are free, which lets the number of permits in use go over the capacity. The free
+     * permits are used up first so that the stripes don't hold on to permits while the pool is over its capacity.
+     */
+    void acquireUnchecked()
+    {
+        if (!tryAcquire()) sharedPermits.decrementAndGet();
+    }
+
+    /**
+     * Returns permits to the pool.
+     *
+     * @param count The number of permits to return.
+     */
+    void release(int count)
+    {
+        final int stripe = stripeIndex();
+        int held = stripes.addAndGet(stripe, count);
+
+        // Return everything above one chunk to the shared pool once the stripe holds more than two chunks. While more
+        // permits are in use than the capacity allows, everything is returned so that the stripes can't hand them out.
+        final int keep = sharedPermits.get() < 0 ? 0 : chunkSize;
+        while (held > 2 * keep)
+        {
+            if (stripes.compareAndSet(stripe, held, keep))
+            {
+                sharedPermits.addAndGet(held - keep);
+                return;
+            }
+            held = stripes.get(stripe);
+        }
+    }
+
+    /**
+     * @return The number of permits that are in use. This reads every stripe, so it is meant for the slow paths.
+     */
+    int getInUseCount()
+    {
+        int held = 0;
+        for (int i = 0; i < stripeCount; i++)
+        {
+            held += stripes.get(i * STRIPE_SPACING);
+        }
+        return capacity - sharedPermits.get() - held;
+    }
+
+    /**
+     * @return An upper bound on the number of permits in use, which only reads the shared pool. It counts the permits
+     * held in the stripes as in use, so it is higher than {@link #getInUseCount()} by at most a quarter of the
+     * capacity.
+     */
+    int getInUseUpperBound()
+    {
+        return capacity - sharedPermits.get();
+    }
+
+    private boolean tryTakeFromStripe(int stripe)
+    {
+        int held;
+        while ((held = stripes.get(stripe)) > 0)
+        {
+            if (stripes.compareAndSet(stripe, held, held - 1)) return true;
+        }
+        return false;
+    }
+
+    private int stripeIndex()
+    {
+        // Spread the sequential thread IDs across the stripes
+        final long hash = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return ((int) (hash >>> 32) & (stripeCount - 1)) * STRIPE_SPACING;
+    }
+
+    /**
+     * @return The chunk size that keeps the permits held in the stripes to at most a quarter of the capacity, which is 0
+     * if the stripes should not hold any permits.
+     */
+    private int chunkSizeFor(int newCapacity)
+    {
+        return Math.min(MAX_CHUNK_SIZE, newCapacity / (8 * stripeCount));
+    }
+}
@@ -0,0 +1,132 @@
+package com.craxiom.mqttlibrary.connection;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import timber.log.Timber;
+
+/**
+ * Compresses payloads with zstd for a {@link PayloadCompressor}, and trains its dictionaries.
+ * <p>
+ * All the references to zstd-jni are kept in this class so that the library is only loaded when a topic is
+ * configured to use zstd. The compression contexts are pooled like the deflaters, with a separate pool for the
+ * contexts that have the dictionary loaded, since loading the dictionary is far more expensive than compressing a
+ * small payload.
+ *
+ * @since 1.3.0
+ */
+final class ZstdCompressor
+{
+    private final int level;
+    private final Queue<ZstdCompressCtx> contextPool = new ConcurrentLinkedQueue<>();
+    private final Queue<ZstdCompressCtx> dictionaryContextPool = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed = false;
+
+    ZstdCompressor(int level)
+    {
+        this.level = level;
+    }
+
+    /**
+     * Compresses the input into a single zstd frame appended to the target.
+     *
+     * @param input      The payload to compress, which must be backed by an array. Its position is not modified.
+     * @param target     The buffer to write the frame to.
+     * @param dictionary The dictionary to compress with, or null to compress without one. A compressor only ever
+     *                   uses a single dictionary.
+     */
+    void compress(ByteBuffer input, PayloadBuffer target, byte[] dictionary)
+    {
+        final Queue<ZstdCompressCtx> pool = dictionary == null ? contextPool : dictionaryContextPool;
+        ZstdCompressCtx context = pool.poll();
+        if (context == null) context = newContext(dictionary);
+
+        try
+        {
+            final ByteBuffer output = target.prepareWrite((int) Zstd.compressBound(input.remaining()));
+            final int written = context.compressByteArray(output.array(), output.arrayOffset() + output.position(),
+                    output.remaining(), input.array(), input.arrayOffset() + input.position(), input.remaining());
+            output.position(output.position() + written);
+        } finally
+        {
+            releaseContext(pool, context);
+        }
+    }
+
+    /**
+     * Frees the native memory held by the pooled contexts. Contexts that are in use are freed once they are returned.
+     */
+    void close()
+    {
+        closed = true;
+
+        ZstdCompressCtx context;
+        while ((context = contextPool.poll()) != null)
+        {
+            context.close();
+        }
+        while ((context = dictionaryContextPool.poll()) != null)
+        {
+            context.close();
+        }
+    }
+
+    /**
+     * Trains a zstd dictionary from the provided samples.
+     *
+     * @param samples        The sample payloads.
+     * @param dictionarySize The maximum size of the dictionary in bytes.
+     * @return The dictionary, which is empty if zstd could not train one, for example because there is too little
+     * sample data.
+     */
+    static byte[] train(List<byte[]> samples, int dictionarySize)
+    {
+        final byte[] buffer = new byte[dictionarySize];
+        final long size = Zstd.trainFromBuffer(samples.toArray(new byte[0][]), buffer);
+        if (Zstd.isError(size))
+        {
+            Timber.w("Unable to train a zstd dictionary from %d payloads: %s", samples.size(), Zstd.getErrorName(size));
+            return new byte[0];
+        }
+
+        return Arrays.copyOf(buffer, (int) size);
+    }
+
+    /**
+     * @return The ID zstd stored in the dictionary, which is written to the header of every frame compressed with it.
+     */
+    static int getDictionaryId(byte[] dictionary)
+    {
+        return (int) Zstd.getDictIdFromDict(dictionary);
+    }
+
+    private ZstdCompressCtx newContext(byte[] dictionary)
+    {
+        final ZstdCompressCtx context = new ZstdCompressCtx();
+        context.setLevel(level);
+        context.setContentSize(true);
+        context.setDictID(true);
+        if (dictionary != null) context.loadDict(dictionary);
+        return context;
+    }
+
+    private void releaseContext(Queue<ZstdCompressCtx> pool, ZstdCompressCtx context)
+    {
+        if (closed)
+        {
+            context.close();
+            return;
+        }
+
+        pool.offer(context);
+
+        // Catch the race with a concurrent close so that the context is not left in the pool
+        if (closed) close();
+    }
+}
@@ -1,12 +1,21 @@
 package com.craxiom.mqttlibrary;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 
+import com.craxiom.mqttlibrary.connection.BatchingConfig;
 import com.craxiom.mqttlibrary.connection.BrokerConnectionInfo;
+import com.craxiom.mqttlibrary.connection.CompressionConfig;
+import com.craxiom.mqttlibrary.connection.Mqtt5Config;
 
 import org.junit.Test;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Tests the {@link BrokerConnectionInfo} class.
  *
@@ -154,4 +163,152 @@ public class BrokerConnectionInfoTest
             assertEquals(qos, connectionInfo.getMqttQos());
         }
     }
+
+    @Test
+    public void validateNullPayloadFormatDefaultsToJson()
+    {
+        final BrokerConnectionInfo connectionInfo = new BrokerConnectionInfo(
+                "mqtt.example.com", 8883, true, "client", "user", "pass", "", MqttQos.AT_LEAST_ONCE);
+
+        assertEquals(MqttPayloadFormat.JSON, connectionInfo.getPayloadFormat());
+    }
+
+    @Test
+    public void validatePayloadFormatEquality()
+    {
+        final BrokerConnectionInfo jsonConnectionInfo = new BrokerConnectionInfo(
+                "mqtt.example.com", 8883, true, "client", "user", "pass", "", MqttQos.AT_LEAST_ONCE)
+                .withPayloadFormat(MqttPayloadFormat.JSON);
+        final BrokerConnectionInfo defaultConnectionInfo = new BrokerConnectionInfo(
+                "mqtt.example.com", 8883, true, "client", "user", "pass", "", MqttQos.AT_LEAST_ONCE);
+        final BrokerConnectionInfo protobufConnectionInfo = new BrokerConnectionInfo(
+                "mqtt.example.com", 8883, true, "client", "user", "pass", "", MqttQos.AT_LEAST_ONCE)
+                .withPayloadFormat(MqttPayloadFormat.PROTOBUF);
+
+        assertEquals(MqttPayloadFormat.PROTOBUF, protobufConnectionInfo.getPayloadFormat());
+        assertEquals(jsonConnectionInfo, defaultConnectionInfo);
+        assertEquals(jsonConnectionInfo.hashCode(), defaultConnectionInfo.hashCode());
+        assertNotEquals(jsonConnectionInfo, protobufConnectionInfo);
+    }
+
+    @Test
+    public void validateNullBatchingConfigDefaultsToDisabled()
+    {
+        final BrokerConnectionInfo connectionInfo = new BrokerConnectionInfo(
+                "mqtt.example.com", 8883, true, "client", "user", "pass", "", MqttQos.AT_LEAST_ONCE)
+                .withBatchingConfig(null);
+
+        assertEquals(BatchingConfig.DISABLED, connectionInfo.getBatchingConfig());
+        assertFalse(connectionInfo.getBatchingConfig().isEnabled());
+    }
+
+    @Test
+    public void validateBatchingConfigEquality()
+    {
+        final BrokerConnectionInfo connectionInfo1 = new BrokerConnectionInfo(
+                "mqtt.example.com", 8883, true, "client", "user", "pass", "", MqttQos.AT_LEAST_ONCE)
+                .withBatchingConfig(new BatchingConfig(50, 16_384, 500));
+        final BrokerConnectionInfo connectionInfo2 = new BrokerConnectionInfo(
+                "mqtt.example.com", 8883, true, "client", "user", "pass", "", MqttQos.AT_LEAST_ONCE)
+                .withBatchingConfig(new BatchingConfig(50, 16_384, 500));
+        final BrokerConnectionInfo connectionInfo3 = new BrokerConnectionInfo(
+                "mqtt.example.com", 8883, true, "client", "user", "pass", "", MqttQos.AT_LEAST_ONCE)
+                .withBatchingConfig(new BatchingConfig(50, 16_384, 1000));
+
+        assertTrue(connectionInfo1.getBatchingConfig().isEnabled());
+        assertEquals(connectionInfo1, connectionInfo2);
+        assertEquals(connectionInfo1.hashCode(), connectionInfo2.hashCode());
+        assertNotEquals(connectionInfo1, connectionInfo3);
+    }
+
+    @Test
+    public void validateNegativeBatchingLimitsAreRejected()
+    {
+        assertThrows(IllegalArgumentException.class, () -> new BatchingConfig(-1, 0, 100));
+        assertThrows(IllegalArgumentException.class, () -> new BatchingConfig(10, -1, 100));
+        assertThrows(IllegalArgumentException.class, () -> new BatchingConfig(10, 0, -100));
+    }
+
+    @Test
+    public void validateCompressionConfigs()
+    {
+        final CompressionConfig deflate = new CompressionConfig(CompressionConfig.Algorithm.DEFLATE, 6);
+        final Map<String, CompressionConfig> compressionConfigs = new HashMap<>();
+        compressionConfigs.put("lte_message", deflate);
+        compressionConfigs.put("gnss_message", CompressionConfig.DISABLED);
+
+        final BrokerConnectionInfo connectionInfo1 = new BrokerConnectionInfo(
+                "mqtt.example.com", 8883, true, "client", "user", "pass", "", MqttQos.AT_LEAST_ONCE)
+                .withCompressionConfigs(compressionConfigs);
+        final BrokerConnectionInfo connectionInfo2 = new BrokerConnectionInfo(
+                "mqtt.example.com", 8883, true, "client", "user", "pass", "", MqttQos.AT_LEAST_ONCE)
+                .withCompressionConfigs(Map.of("lte_message", deflate));
+        final BrokerConnectionInfo uncompressedConnectionInfo = new BrokerConnectionInfo(
+                "mqtt.example.com", 8883, true, "client", "user", "pass", "", MqttQos.AT_LEAST_ONCE);
+
+        assertEquals(deflate, connectionInfo1.getCompressionConfig("lte_message"));
+        assertEquals(CompressionConfig.DISABLED, connectionInfo1.getCompressionConfig("gnss_message"));
+        assertEquals(CompressionConfig.DISABLED, connectionInfo1.getCompressionConfig("wifi_beacon_message"));
+        assertEquals("Disabled topics are left out", 1, connectionInfo1.getCompressionConfigs().size());
+        assertEquals(connectionInfo1, connectionInfo2);
+        assertEquals(connectionInfo1.hashCode(), connectionInfo2.hashCode());
+        assertNotEquals(connectionInfo1, uncompressedConnectionInfo);
+        assertTrue(uncompressedConnectionInfo.getCompressionConfigs().isEmpty());
+    }
+
+    @Test
+    public void validateInvalidCompressionConfigsAreRejected()
+    {
+        assertThrows(IllegalArgumentException.class, () -> new CompressionConfig(null, 6));
+        assertThrows(IllegalArgumentException.class, () -> new CompressionConfig(CompressionConfig.Algorithm.DEFLATE, 0));
+        assertThrows(IllegalArgumentException.class, () -> new CompressionConfig(CompressionConfig.Algorithm.DEFLATE, 10));
+        assertThrows(IllegalArgumentException.class,
+                () -> new CompressionConfig(CompressionConfig.Algorithm.DEFLATE_DICTIONARY, 6, 0, 4096));
+        assertThrows(IllegalArgumentException.class,
+                () -> new CompressionConfig(CompressionConfig.Algorithm.DEFLATE_DICTIONARY, 6, 100,
+                        CompressionConfig.MAX_DICTIONARY_SIZE + 1));
+        assertThrows(IllegalArgumentException.class, () -> new CompressionConfig(CompressionConfig.Algorithm.ZSTD, 23));
+        assertThrows(IllegalArgumentException.class,
+                () -> new CompressionConfig(CompressionConfig.Algorithm.ZSTD_DICTIONARY, 3, 100,
+                        CompressionConfig.MAX_ZSTD_DICTIONARY_SIZE + 1));
+    }
+
+    @Test
+    public void validateCopyWithAnotherClientId()
+    {
+        final BrokerConnectionInfo connectionInfo = new BrokerConnectionInfo(
+                "mqtt.example.com", 8883, true, "client", "user", "pass", "prefix/", MqttQos.EXACTLY_ONCE)
+                .withPayloadFormat(MqttPayloadFormat.PROTOBUF)
+                .withBatchingConfig(new BatchingConfig(10, 1000, 100))
+                .withCompressionConfigs(Map.of("lte_message", new CompressionConfig(CompressionConfig.Algorithm.DEFLATE, 6)))
+                .withMqtt5Config(Mqtt5Config.DEFAULT);
+
+        final BrokerConnectionInfo copy = connectionInfo.withMqttClientId("client-1");
+        assertEquals("client-1", copy.getMqttClientId());
+        assertNotEquals(connectionInfo, copy);
+        assertEquals(connectionInfo, copy.withMqttClientId("client"));
+        assertTrue(copy.isMqtt5());
+    }
+
+    @Test
+    public void validateCopiesKeepTheOtherSettings()
+    {
+        final BatchingConfig batchingConfig = new BatchingConfig(10, 1000, 100);
+        final BrokerConnectionInfo connectionInfo = new BrokerConnectionInfo(
+                "mqtt.example.com", 8883, true, "client", "user", "pass", "prefix/", MqttQos.EXACTLY_ONCE)
+                .withPayloadFormat(MqttPayloadFormat.PROTOBUF)
+                .withBatchingConfig(batchingConfig)
+                .withMqtt5Config(Mqtt5Config.DEFAULT);
+
+        assertEquals(MqttPayloadFormat.PROTOBUF, connectionInfo.getPayloadFormat());
+        assertEquals(batchingConfig, connectionInfo.getBatchingConfig());
+        assertTrue(connectionInfo.isMqtt5());
+        assertEquals("client", connectionInfo.getMqttClientId());
+        assertEquals(MqttQos.EXACTLY_ONCE, connectionInfo.getMqttQos());
+
+        final BrokerConnectionInfo mqtt3ConnectionInfo = connectionInfo.withMqtt5Config(null);
+        assertFalse(mqtt3ConnectionInfo.isMqtt5());
+        assertEquals(MqttPayloadFormat.PROTOBUF, mqtt3ConnectionInfo.getPayloadFormat());
+        assertEquals(batchingConfig, mqtt3ConnectionInfo.getBatchingConfig());
+    }
 }
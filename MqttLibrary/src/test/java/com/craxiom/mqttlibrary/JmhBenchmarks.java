@@ -0,0 +1,55 @@
+package com.craxiom.mqttlibrary;
+
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Test;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Runs the JMH benchmarks that live alongside the unit tests.
+ * <p>
+ * The benchmarks take several minutes, so they are skipped during a normal build. Run them with:
+ * <pre>
+ * ./gradlew :MqttLibrary:testReleaseUnitTest -Pbenchmark --tests com.craxiom.mqttlibrary.JmhBenchmarks
+ * </pre>
+ * The results are written as JSON to {@code MqttLibrary/build/reports/jmh/results-<version>.json}, named after the
+ * library version so that the results of different releases can be kept side by side and compared for regressions.
+ * <p>
+ * The suite covers the publish hot path: message serialization ({@code PublishSerializationBenchmark}), topic prefix
+ * handling ({@code MqttTopicCacheBenchmark}), contention on the streaming queue counters
+ * ({@code StreamingQueueContentionBenchmark}, {@code AdmissionControlBenchmark}) and on the whole counted publish path
+ * ({@code PublishPathContentionBenchmark}), listener notification ({@code ListenerFanOutBenchmark}), payload
+ * compression ({@code PayloadCompressionBenchmark}), and publishing to an in-process broker
+ * ({@code EndToEndPublishBenchmark}).
+ *
+ * @since 1.3.0
+ */
+public class JmhBenchmarks
+{
+    private static final String BENCHMARK_PROPERTY = "mqttlibrary.benchmark";
+    private static final String VERSION_PROPERTY = "mqttlibrary.version";
+
+    @Test
+    public void runBenchmarks() throws Exception
+    {
+        assumeTrue("Benchmarks are only run when requested with -Pbenchmark", Boolean.getBoolean(BENCHMARK_PROPERTY));
+
+        final File resultFile = new File("build/reports/jmh/results-" + System.getProperty(VERSION_PROPERTY, "dev")
+                + ".json");
+        //noinspection ResultOfMethodCallIgnored
+        resultFile.getParentFile().mkdirs();
+
+        final Options options = new OptionsBuilder()
+                .include("com\\.craxiom\\.mqttlibrary\\..*Benchmark")
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultFile.getAbsolutePath())
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,52 @@
+package com.craxiom.mqttlibrary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the built-in {@link IReconnectStrategy} implementations in {@link ReconnectStrategies}.
+ *
+ * @since 1.3.0
+ */
+public class ReconnectStrategiesTest
+{
+    @Test
+    public void validateBackoffCeilingDoublesUpToTheCap()
+    {
+        assertEquals(1_000, ReconnectStrategies.backoffCeilingMs(1_000, 20_000, 0));
+        assertEquals(2_000, ReconnectStrategies.backoffCeilingMs(1_000, 20_000, 1));
+        assertEquals(16_000, ReconnectStrategies.backoffCeilingMs(1_000, 20_000, 4));
+        assertEquals(20_000, ReconnectStrategies.backoffCeilingMs(1_000, 20_000, 5));
+        assertEquals("Large attempt counts must not overflow", 20_000,
+                ReconnectStrategies.backoffCeilingMs(1_000, 20_000, 1_000));
+    }
+
+    @Test
+    public void validateFullJitterStaysWithinTheCeiling()
+    {
+        final IReconnectStrategy strategy = ReconnectStrategies.fullJitterBackoff(100, 1_000, TimeUnit.MILLISECONDS);
+        long maxDelay = 0;
+        for (int attempt = 0; attempt < 20; attempt++)
+        {
+            final long ceiling = ReconnectStrategies.backoffCeilingMs(100, 1_000, attempt);
+            for (int i = 0; i < 200; i++)
+            {
+                final long delay = strategy.getReconnectDelayMs(attempt);
+                assertTrue("delay=" + delay + ", ceiling=" + ceiling, delay >= 0 && delay <= ceiling);
+                maxDelay = Math.max(maxDelay, delay);
+            }
+        }
+
+        assertTrue("The delays should be spread up to the cap, max=" + maxDelay, maxDelay > 900);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void validateMaxDelayMustNotBeBelowBaseDelay()
+    {
+        ReconnectStrategies.fullJitterBackoff(10, 5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,224 @@
+package com.craxiom.mqttlibrary.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the {@link AdaptiveWindowController} class against a simulated clock.
+ *
+ * @since 1.3.0
+ */
+public class AdaptiveWindowControllerTest
+{
+    private static final long BASE_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private final List<Integer> appliedWindows = new ArrayList<>();
+    private long nowNanos = 0;
+
+    @Test
+    public void validateWindowGrowsByOnePerWindowOfPublishes()
+    {
+        final AdaptiveWindowController controller = newController(new AdaptiveWindowConfig(4, 100));
+        assertEquals(4, controller.getWindow());
+
+        completeWindow(controller, BASE_LATENCY_NANOS);
+        assertEquals(5, controller.getWindow());
+        completeWindow(controller, BASE_LATENCY_NANOS);
+        assertEquals(6, controller.getWindow());
+        assertEquals(List.of(5, 6), appliedWindows);
+        assertEquals(BASE_LATENCY_NANOS, controller.getBaseLatencyNanos());
+    }
+
+    @Test
+    public void validateWindowDoesNotGrowWhileMostOfItIsUnused()
+    {
+        final AdaptiveWindowController controller = newController(new AdaptiveWindowConfig(10, 100));
+        for (int i = 0; i < 100; i++)
+        {
+            complete(controller, BASE_LATENCY_NANOS, false, 2);
+        }
+        assertEquals(10, controller.getWindow());
+    }
+
+    @Test
+    public void validateHighLatencyHalvesTheWindowOncePerRoundTrip()
+    {
+        final AdaptiveWindowController controller = newController(
+                new AdaptiveWindowConfig(1, 100, 40, 1, 0.5, 2.0));
+        complete(controller, BASE_LATENCY_NANOS, false, 40);
+
+        final long congestedLatency = BASE_LATENCY_NANOS * 3;
+        complete(controller, congestedLatency, false, 40);
+        assertEquals(20, controller.getWindow());
+
+        // The rest of the publishes that were in flight complete late as well, within the same round trip
+        for (int i = 0; i < 10; i++)
+        {
+            complete(controller, congestedLatency, false, 20);
+        }
+        assertEquals(20, controller.getWindow());
+        assertEquals(1, controller.getDecreaseCount());
+
+        nowNanos += congestedLatency;
+        complete(controller, congestedLatency, false, 20);
+        assertEquals(10, controller.getWindow());
+        assertEquals(2, controller.getDecreaseCount());
+    }
+
+    @Test
+    public void validateFailureDecreasesTheWindow()
+    {
+        final AdaptiveWindowController controller = newController(
+                new AdaptiveWindowConfig(2, 100, 16, 1, 0.75, 2.0));
+        complete(controller, BASE_LATENCY_NANOS, false, 16);
+
+        complete(controller, 0, true, 16);
+        assertEquals(12, controller.getWindow());
+    }
+
+    @Test
+    public void validateWindowStaysWithinTheBounds()
+    {
+        final AdaptiveWindowController controller = newController(
+                new AdaptiveWindowConfig(4, 8, 6, 2, 0.5, 2.0));
+        for (int i = 0; i < 100; i++)
+        {
+            complete(controller, BASE_LATENCY_NANOS, false, 8);
+        }
+        assertEquals(8, controller.getWindow());
+
+        for (int i = 0; i < 10; i++)
+        {
+            nowNanos += TimeUnit.SECONDS.toNanos(1);
+            complete(controller, 0, true, 8);
+        }
+        assertEquals(4, controller.getWindow());
+    }
+
+    @Test
+    public void validateSlowerPathMovesTheBaseLatencyUp()
+    {
+        final AdaptiveWindowController controller = newController(new AdaptiveWindowConfig(1, 100, 8, 1, 0.5, 2.0));
+        complete(controller, BASE_LATENCY_NANOS, false, 8);
+
+        // The path now takes five times as long, so the window is cut until it reaches the minimum
+        final long slowerLatency = BASE_LATENCY_NANOS * 5;
+        for (int i = 0; i < 10; i++)
+        {
+            nowNanos += slowerLatency;
+            complete(controller, slowerLatency, false, controller.getWindow());
+        }
+        assertEquals(slowerLatency, controller.getBaseLatencyNanos());
+
+        // The slower latency is the new normal, so the window grows again
+        for (int i = 0; i < 5; i++)
+        {
+            completeWindow(controller, slowerLatency);
+        }
+        assertTrue("window=" + controller.getWindow(), controller.getWindow() > 3);
+    }
+
+    @Test
+    public void validateBaseLatencyExpires()
+    {
+        final AdaptiveWindowController controller = newController(new AdaptiveWindowConfig(10, 100));
+        complete(controller, BASE_LATENCY_NANOS, false, 10);
+
+        final long slowerLatency = BASE_LATENCY_NANOS + TimeUnit.MILLISECONDS.toNanos(10);
+        for (int i = 0; i < 3; i++)
+        {
+            nowNanos += AdaptiveWindowController.BASE_LATENCY_PERIOD_NANOS;
+            complete(controller, slowerLatency, false, 10);
+        }
+        assertEquals(slowerLatency, controller.getBaseLatencyNanos());
+    }
+
+    @Test
+    public void validateStoppedControllerIgnoresPublishes()
+    {
+        final AdaptiveWindowController controller = newController(new AdaptiveWindowConfig(1, 100));
+        controller.stop();
+        for (int i = 0; i < 10; i++)
+        {
+            complete(controller, BASE_LATENCY_NANOS, false, 1);
+        }
+        assertEquals(1, controller.getWindow());
+        assertTrue(appliedWindows.isEmpty());
+    }
+
+    @Test
+    public void validateConnectionKeepsTheLimitWhileTheAdaptiveWindowIsEnabled()
+    {
+        final DefaultMqttConnection connection = new DefaultMqttConnection();
+        connection.setStreamingQueueLimit(100);
+
+        final AdaptiveWindowConfig config = new AdaptiveWindowConfig(4, 50);
+        connection.setAdaptiveWindowConfig(config);
+        assertEquals(config, connection.getAdaptiveWindowConfig());
+        assertEquals(4, connection.getAdaptiveWindow());
+        assertEquals(4, connection.getEffectiveStreamingQueueLimit());
+        assertEquals(100, connection.getStreamingQueueLimit());
+
+        connection.setAdaptiveWindowConfig(null);
+        assertNull(connection.getAdaptiveWindowConfig());
+        assertEquals(0, connection.getAdaptiveWindow());
+        assertEquals(100, connection.getEffectiveStreamingQueueLimit());
+    }
+
+    @Test
+    public void validateInvalidConfigIsRejected()
+    {
+        assertInvalid(0, 10, 1, 1, 0.5, 2.0);
+        assertInvalid(10, 5, 10, 1, 0.5, 2.0);
+        assertInvalid(1, 10, 11, 1, 0.5, 2.0);
+        assertInvalid(1, 10, 1, 0, 0.5, 2.0);
+        assertInvalid(1, 10, 1, 1, 1.0, 2.0);
+        assertInvalid(1, 10, 1, 1, 0.5, 1.0);
+        assertInvalid(1, 10, 1, 1, Double.NaN, 2.0);
+    }
+
+    private AdaptiveWindowController newController(AdaptiveWindowConfig config)
+    {
+        return new AdaptiveWindowController(config, () -> nowNanos, appliedWindows::add);
+    }
+
+    private void complete(AdaptiveWindowController controller, long latencyNanos, boolean failed, int inFlightCount)
+    {
+        nowNanos += TimeUnit.MILLISECONDS.toNanos(1);
+        controller.onPublishComplete(latencyNanos, failed, inFlightCount);
+    }
+
+    /**
+     * Completes one window of publishes with the window fully in use.
+     */
+    private void completeWindow(AdaptiveWindowController controller, long latencyNanos)
+    {
+        final int window = controller.getWindow();
+        for (int i = 0; i < window; i++)
+        {
+            complete(controller, latencyNanos, false, window);
+        }
+    }
+
+    private static void assertInvalid(int minWindow, int maxWindow, int initialWindow, int additiveIncrease,
+                                      double decreaseFactor, double latencyTolerance)
+    {
+        try
+        {
+            new AdaptiveWindowConfig(minWindow, maxWindow, initialWindow, additiveIncrease, decreaseFactor,
+                    latencyTolerance);
+            fail("The adaptive window settings should be rejected");
+        } catch (IllegalArgumentException expected)
+        {
+            // Expected
+        }
+    }
+}
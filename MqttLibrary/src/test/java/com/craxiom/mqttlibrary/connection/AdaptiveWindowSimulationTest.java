@@ -0,0 +1,312 @@
+package com.craxiom.mqttlibrary.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A deterministic simulation of a producer publishing through the {@link StreamingQueueController} to a simulated
+ * broker whose bandwidth and latency change over time, comparing the {@link AdaptiveWindowController} against a fixed
+ * streaming queue limit. Everything runs on the test thread against a simulated clock, so each run produces exactly the
+ * same result.
+ * <p>
+ * The broker is reached over a bottleneck link that sends a fixed number of messages per second, with the messages
+ * waiting in line for the link, and each PUBACK arrives a fixed delay after its message was sent. The producer always
+ * has more messages than the link can carry and pauses on backpressure, so the number of messages in flight is set by
+ * the streaming queue limit. The link goes through three phases: a fast network, a slow network with a longer delay,
+ * and then a very fast network.
+ *
+ * @since 1.3.0
+ */
+public class AdaptiveWindowSimulationTest
+{
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final double PRODUCER_RATE = 3; // messages per tick
+
+    /**
+     * The length in ticks, bandwidth in messages per second, and delay in milliseconds of each phase of the link.
+     */
+    private static final int[][] PHASES = {
+            {20_000, 1_000, 20},
+            {20_000, 200, 50},
+            {20_000, 2_000, 10}};
+
+    /**
+     * A limit that was tuned for the fast network.
+     */
+    private static final int STATIC_LIMIT = 100;
+
+    private static final AdaptiveWindowConfig ADAPTIVE_CONFIG = new AdaptiveWindowConfig(2, 200);
+
+    @Test
+    public void validateAdaptiveWindowKeepsTheLinkBusy()
+    {
+        final SimulationResult adaptive = new Simulation(ADAPTIVE_CONFIG).run();
+
+        for (int phase = 0; phase < PHASES.length; phase++)
+        {
+            assertTrue("Phase " + phase + ": " + adaptive, adaptive.getUtilization(phase) > 0.85);
+        }
+    }
+
+    @Test
+    public void validateAdaptiveWindowKeepsTheLatencyDownOnTheSlowNetwork()
+    {
+        final SimulationResult adaptive = new Simulation(ADAPTIVE_CONFIG).run();
+        final SimulationResult fixed = new Simulation(null).run();
+
+        // With the fixed limit, 100 messages wait in line for a link that sends 200 per second
+        assertTrue("fixed=" + fixed, fixed.p99LatencyMs[1] > 400);
+        assertTrue("adaptive=" + adaptive, adaptive.p99LatencyMs[1] < 150);
+        assertTrue("adaptive=" + adaptive + ", fixed=" + fixed,
+                adaptive.getUtilization(1) > fixed.getUtilization(1) * 0.9);
+    }
+
+    @Test
+    public void validateWindowFollowsTheBandwidthDelayProduct()
+    {
+        final SimulationResult adaptive = new Simulation(ADAPTIVE_CONFIG).run();
+
+        // The window needs to be at least the bandwidth-delay product to keep the link busy, and is cut once the
+        // queueing delay reaches the base latency, so it settles between one and two times the product
+        for (int phase = 0; phase < PHASES.length; phase++)
+        {
+            final int bandwidthDelayProduct = PHASES[phase][1] * PHASES[phase][2] / 1_000;
+            assertTrue("Phase " + phase + ": " + adaptive, adaptive.meanWindow[phase] > bandwidthDelayProduct * 0.8);
+            assertTrue("Phase " + phase + ": " + adaptive, adaptive.meanWindow[phase] < bandwidthDelayProduct * 3);
+        }
+        assertTrue(adaptive.toString(), adaptive.decreaseCount > 0);
+    }
+
+    @Test
+    public void validateWindowStaysWithinTheBounds()
+    {
+        final SimulationResult bounded = new Simulation(new AdaptiveWindowConfig(8, 16)).run();
+
+        assertTrue(bounded.toString(), bounded.minWindow >= 8);
+        assertTrue(bounded.toString(), bounded.maxWindow <= 16);
+        assertEquals("The fast network has room for more than the maximum", 16, bounded.maxWindow);
+    }
+
+    @Test
+    public void validateBackpressureListenersFollowTheWindow()
+    {
+        final SimulationResult adaptive = new Simulation(ADAPTIVE_CONFIG).run();
+
+        assertTrue(adaptive.toString(), adaptive.pauseCount > 0);
+        assertTrue("Every pause is followed by a resume, " + adaptive, adaptive.resumeCount >= adaptive.pauseCount - 1);
+        assertEquals("The listeners are given the window as the limit, " + adaptive, 0, adaptive.otherLimitCount);
+    }
+
+    @Test
+    public void validateSimulationIsDeterministic()
+    {
+        final SimulationResult first = new Simulation(ADAPTIVE_CONFIG).run();
+        final SimulationResult second = new Simulation(ADAPTIVE_CONFIG).run();
+
+        assertEquals(first.toString(), second.toString());
+    }
+
+    private static final class SimulationResult
+    {
+        private final long[] completedCount = new long[PHASES.length];
+        private final long[] p99LatencyMs = new long[PHASES.length];
+        private final long[] meanWindow = new long[PHASES.length];
+        private int minWindow = Integer.MAX_VALUE;
+        private int maxWindow = 0;
+        private int otherLimitCount;
+        private long decreaseCount;
+        private int pauseCount;
+        private int resumeCount;
+
+        /**
+         * @return The fraction of the link's capacity that was used in the second half of the phase.
+         */
+        private double getUtilization(int phase)
+        {
+            return completedCount[phase] / (PHASES[phase][1] * (PHASES[phase][0] / 2 / 1_000.0));
+        }
+
+        @Override
+        public String toString()
+        {
+            return "SimulationResult{completedCount=" + Arrays.toString(completedCount)
+                    + ", p99LatencyMs=" + Arrays.toString(p99LatencyMs)
+                    + ", meanWindow=" + Arrays.toString(meanWindow) + ", minWindow=" + minWindow
+                    + ", maxWindow=" + maxWindow + ", otherLimitCount=" + otherLimitCount
+                    + ", decreaseCount=" + decreaseCount + ", pauseCount=" + pauseCount + ", resumeCount=" + resumeCount
+                    + '}';
+        }
+    }
+
+    private static final class SimulatedMessage
+    {
+        private final long sentNanos;
+        private final int payloadLength;
+        private long ackNanos;
+
+        private SimulatedMessage(long sentNanos, int payloadLength)
+        {
+            this.sentNanos = sentNanos;
+            this.payloadLength = payloadLength;
+        }
+    }
+
+    /**
+     * A producer that pauses on backpressure, publishing through the controller to the simulated broker. The results
+     * of each phase are measured over its second half, once the window has had time to settle.
+     */
+    private static final class Simulation implements StreamingQueueController.IQueueCallbacks
+    {
+        private final PayloadBufferPool payloadBufferPool = new PayloadBufferPool();
+        private final ArrayDeque<SimulatedMessage> waitingForLink = new ArrayDeque<>();
+        private final ArrayDeque<SimulatedMessage> waitingForAck = new ArrayDeque<>();
+        private final StreamingQueueController queue;
+        private final AdaptiveWindowController adaptiveWindow;
+        private final SimulationResult result = new SimulationResult();
+
+        private long nowNanos = 0;
+        private boolean paused = false;
+        private double producerCredit = 0;
+        private double linkCredit = 0;
+
+        /**
+         * @param config The adaptive window settings, or null to use the {@link #STATIC_LIMIT}.
+         */
+        private Simulation(AdaptiveWindowConfig config)
+        {
+            queue = new StreamingQueueController(this, () -> nowNanos);
+            queue.setLimit(STATIC_LIMIT);
+            if (config == null)
+            {
+                adaptiveWindow = null;
+            } else
+            {
+                adaptiveWindow = new AdaptiveWindowController(config, () -> nowNanos, queue::setAdaptiveWindow);
+                queue.setAdaptiveWindow(adaptiveWindow.getWindow());
+            }
+        }
+
+        private SimulationResult run()
+        {
+            for (int phase = 0; phase < PHASES.length; phase++)
+            {
+                final int ticks = PHASES[phase][0];
+                final double linkRate = PHASES[phase][1] / 1_000.0;
+                final long delayNanos = TimeUnit.MILLISECONDS.toNanos(PHASES[phase][2]);
+
+                final long[] latencies = new long[ticks * 3];
+                int latencyCount = 0;
+                long windowSum = 0;
+
+                for (int tick = 0; tick < ticks; tick++)
+                {
+                    nowNanos += TICK_NANOS;
+                    final boolean measured = tick >= ticks / 2;
+
+                    // The PUBACKs that have arrived
+                    while (!waitingForAck.isEmpty() && waitingForAck.peek().ackNanos <= nowNanos)
+                    {
+                        final SimulatedMessage message = waitingForAck.poll();
+                        final long latencyNanos = nowNanos - message.sentNanos;
+                        if (adaptiveWindow != null)
+                        {
+                            adaptiveWindow.onPublishComplete(latencyNanos, false, queue.getPendingMessageCount());
+                        }
+                        queue.onPublishComplete(message.payloadLength);
+
+                        if (measured)
+                        {
+                            result.completedCount[phase]++;
+                            latencies[latencyCount++] = latencyNanos;
+                        }
+                    }
+
+                    // The link sends the messages waiting for it in order, and can't save up unused capacity
+                    linkCredit += linkRate;
+                    while (linkCredit >= 1 && !waitingForLink.isEmpty())
+                    {
+                        linkCredit--;
+                        final SimulatedMessage message = waitingForLink.poll();
+                        message.ackNanos = nowNanos + delayNanos;
+                        waitingForAck.add(message);
+                    }
+                    if (waitingForLink.isEmpty()) linkCredit = Math.min(linkCredit, 1);
+
+                    if (!paused)
+                    {
+                        producerCredit += PRODUCER_RATE;
+                        while (producerCredit >= 1 && !paused)
+                        {
+                            producerCredit--;
+                            final PayloadBuffer payloadBuffer = payloadBufferPool.acquire().append("{\"rsrp\":-95}");
+                            final int payloadLength = payloadBuffer.length();
+                            if (queue.admit("lte_message", payloadBuffer))
+                            {
+                                waitingForLink.add(new SimulatedMessage(nowNanos, payloadLength));
+                                payloadBufferPool.release(payloadBuffer);
+                            }
+                        }
+                    }
+
+                    final int window = queue.getEffectiveLimit();
+                    result.minWindow = Math.min(result.minWindow, window);
+                    result.maxWindow = Math.max(result.maxWindow, window);
+                    if (measured) windowSum += window;
+                }
+
+                Arrays.sort(latencies, 0, latencyCount);
+                result.p99LatencyMs[phase] = TimeUnit.NANOSECONDS.toMillis(
+                        latencyCount == 0 ? 0 : latencies[(int) (latencyCount * 0.99)]);
+                result.meanWindow[phase] = windowSum / (ticks - ticks / 2);
+            }
+
+            if (adaptiveWindow != null) result.decreaseCount = adaptiveWindow.getDecreaseCount();
+            return result;
+        }
+
+        @Override
+        public void publishFromBacklog(String mqttMessageTopic, PayloadBuffer payloadBuffer)
+        {
+            waitingForLink.add(new SimulatedMessage(nowNanos, payloadBuffer.length()));
+            payloadBufferPool.release(payloadBuffer);
+        }
+
+        @Override
+        public void release(String mqttMessageTopic, PayloadBuffer payloadBuffer)
+        {
+            payloadBufferPool.release(payloadBuffer);
+        }
+
+        @Override
+        public void onQueueFull(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+        {
+            paused = true;
+            result.pauseCount++;
+            if (adaptiveWindow != null && queueLimit != adaptiveWindow.getWindow()) result.otherLimitCount++;
+        }
+
+        @Override
+        public void onQueueDrained(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+        {
+            paused = false;
+            result.resumeCount++;
+        }
+
+        @Override
+        public void onQueueGrowthWarning(int queueSize, int queueLimit, long queueBytes, long queueByteLimit,
+                                         long msUntilFull)
+        {
+        }
+
+        @Override
+        public void onQueueGrowthWarningCleared(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+        {
+        }
+    }
+}
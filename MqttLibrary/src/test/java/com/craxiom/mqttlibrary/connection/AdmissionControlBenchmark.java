@@ -0,0 +1,159 @@
+package com.craxiom.mqttlibrary.connection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares the admission control of the streaming queue, a {@link StripedPermitPool} for the pending count and a
+ * {@link LongAdder} for the pending bytes, against the single {@link AtomicInteger} and {@link AtomicLong} that every
+ * publish used to add to and subtract from, as the number of producer threads grows from 1 to 32.
+ * <p>
+ * Each operation claims a slot and releases it again. The limit is large enough that the queue never fills, so the
+ * results only show the cost of the shared counters.
+ *
+ * @since 1.3.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdmissionControlBenchmark
+{
+    private static final int LIMIT = 1_000_000;
+    private static final int PAYLOAD_LENGTH = 512;
+
+    @Param({"atomic", "striped"})
+    public String implementation;
+
+    private IAdmission admission;
+
+    @Setup
+    public void setup()
+    {
+        admission = "atomic".equals(implementation) ? new AtomicAdmission() : new StripedAdmission();
+    }
+
+    private boolean admitAndComplete()
+    {
+        final boolean admitted = admission.tryClaim(PAYLOAD_LENGTH);
+        if (admitted) admission.release(PAYLOAD_LENGTH);
+        return admitted;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean producers01()
+    {
+        return admitAndComplete();
+    }
+
+    @Benchmark
+    @Threads(2)
+    public boolean producers02()
+    {
+        return admitAndComplete();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean producers04()
+    {
+        return admitAndComplete();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean producers08()
+    {
+        return admitAndComplete();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public boolean producers16()
+    {
+        return admitAndComplete();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public boolean producers32()
+    {
+        return admitAndComplete();
+    }
+
+    private interface IAdmission
+    {
+        boolean tryClaim(int payloadLength);
+
+        void release(int payloadLength);
+    }
+
+    /**
+     * The increment-first claim on a single pair of counters that the streaming queue used before the permits were
+     * striped.
+     */
+    private static final class AtomicAdmission implements IAdmission
+    {
+        private final AtomicInteger pendingMessageCount = new AtomicInteger();
+        private final AtomicLong pendingBytes = new AtomicLong();
+
+        @Override
+        public boolean tryClaim(int payloadLength)
+        {
+            final int newPending = pendingMessageCount.incrementAndGet();
+            pendingBytes.addAndGet(payloadLength);
+            if (newPending <= LIMIT) return true;
+
+            pendingMessageCount.decrementAndGet();
+            pendingBytes.addAndGet(-payloadLength);
+            return false;
+        }
+
+        @Override
+        public void release(int payloadLength)
+        {
+            pendingMessageCount.decrementAndGet();
+            pendingBytes.addAndGet(-payloadLength);
+        }
+    }
+
+    private static final class StripedAdmission implements IAdmission
+    {
+        private final StripedPermitPool messagePermits = new StripedPermitPool(LIMIT);
+        private final LongAdder pendingBytes = new LongAdder();
+
+        @Override
+        public boolean tryClaim(int payloadLength)
+        {
+            if (!messagePermits.tryAcquire()) return false;
+
+            pendingBytes.add(payloadLength);
+            return true;
+        }
+
+        @Override
+        public void release(int payloadLength)
+        {
+            messagePermits.release(1);
+            pendingBytes.add(-payloadLength);
+        }
+    }
+}
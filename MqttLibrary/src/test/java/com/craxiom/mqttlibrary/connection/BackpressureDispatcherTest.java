@@ -0,0 +1,202 @@
+package com.craxiom.mqttlibrary.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.craxiom.mqttlibrary.IQueueBackpressureListener;
+import com.craxiom.mqttlibrary.MqttQos;
+import com.craxiom.mqttlibrary.PublishMetrics;
+import com.craxiom.mqttlibrary.QueueOverflowPolicies;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the {@link BackpressureDispatcher} class, and that a slow {@link IQueueBackpressureListener} does not delay
+ * the publishes of a {@link DefaultMqttConnection}.
+ *
+ * @since 1.3.0
+ */
+public class BackpressureDispatcherTest
+{
+    private static final long SLOW_LISTENER_MS = 300;
+
+    @Test
+    public void validateOnlyTheLatestStateIsDelivered()
+    {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+        final BackpressureDispatcher dispatcher = new BackpressureDispatcher(tasks::add);
+        final RecordingListener listener = new RecordingListener();
+        dispatcher.addListener(listener);
+
+        dispatcher.queueFull(10, 10, 100, 0);
+        dispatcher.queueDrained(4, 10, 40, 0);
+        dispatcher.queueFull(10, 10, 100, 0);
+
+        assertEquals("Only one drain should be scheduled at a time", 1, tasks.size());
+        tasks.poll().run();
+        assertEquals(Arrays.asList("full 10"), listener.events);
+
+        // The queue drained and filled again, so the listener is still paused and is not told about it
+        dispatcher.queueDrained(3, 10, 30, 0);
+        dispatcher.queueFull(10, 10, 100, 0);
+        tasks.poll().run();
+        assertEquals(Arrays.asList("full 10"), listener.events);
+
+        dispatcher.queueDrained(2, 10, 20, 0);
+        tasks.poll().run();
+        assertEquals(Arrays.asList("full 10", "drained 2"), listener.events);
+        assertEquals(4, dispatcher.getCoalescedCount());
+    }
+
+    @Test
+    public void validateGrowthWarningsAreDeliveredInOrderWithBackpressure()
+    {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+        final BackpressureDispatcher dispatcher = new BackpressureDispatcher(tasks::add);
+        final RecordingListener listener = new RecordingListener();
+        dispatcher.addListener(listener);
+
+        dispatcher.growthWarning(6, 10, 60, 0, 250);
+        dispatcher.queueFull(10, 10, 100, 0);
+        tasks.poll().run();
+
+        dispatcher.queueDrained(4, 10, 40, 0);
+        dispatcher.growthWarningCleared(2, 10, 20, 0);
+        tasks.poll().run();
+
+        assertEquals(Arrays.asList("warning 250", "full 10", "drained 4", "cleared 2"), listener.events);
+        assertEquals(0, dispatcher.getCoalescedCount());
+    }
+
+    @Test
+    public void validateInlineDispatchWithoutAnExecutor()
+    {
+        final BackpressureDispatcher dispatcher = new BackpressureDispatcher(null);
+        final RecordingListener listener = new RecordingListener();
+        dispatcher.addListener(listener);
+
+        dispatcher.queueFull(10, 10, 100, 0);
+        assertEquals(Arrays.asList("full 10"), listener.events);
+
+        dispatcher.queueDrained(4, 10, 40, 0);
+        assertEquals(Arrays.asList("full 10", "drained 4"), listener.events);
+    }
+
+    @Test
+    public void validateSlowListenerDoesNotDelayPublishCompletion() throws Exception
+    {
+        final int messageCount = 2_000;
+        final AtomicInteger notificationCount = new AtomicInteger();
+        final IQueueBackpressureListener slowListener = new IQueueBackpressureListener()
+        {
+            @Override
+            public void onQueueFull(int queueSize, int queueLimit)
+            {
+                notificationCount.incrementAndGet();
+                sleep(SLOW_LISTENER_MS);
+            }
+
+            @Override
+            public void onQueueDrained(int queueSize, int queueLimit)
+            {
+                notificationCount.incrementAndGet();
+                sleep(SLOW_LISTENER_MS);
+            }
+        };
+
+        try (LocalMqttBroker broker = new LocalMqttBroker(0, 0))
+        {
+            broker.setRecordPublishes(false);
+
+            final DefaultMqttConnection connection = new DefaultMqttConnection();
+            connection.setStreamingQueueLimit(20);
+            connection.setQueueOverflowPolicy(QueueOverflowPolicies.blockWithTimeout(5, TimeUnit.SECONDS));
+            connection.registerQueueBackpressureListener(slowListener);
+            connection.connect(null, new BrokerConnectionInfo("127.0.0.1", broker.getPort(), false,
+                    "backpressure-test", null, null, "test/", MqttQos.AT_LEAST_ONCE));
+            try
+            {
+                final long connectDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (connection.getConnectionState() != ConnectionState.CONNECTED)
+                {
+                    assertTrue("Could not connect to the local broker", System.nanoTime() < connectDeadline);
+                    Thread.sleep(10);
+                }
+
+                for (int i = 0; i < messageCount; i++)
+                {
+                    connection.publishMessage("backpressure_message", "{\"index\":" + i + "}");
+                }
+                final long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (connection.getPendingMessageCount() > 0 && System.nanoTime() < drainDeadline)
+                {
+                    Thread.sleep(10);
+                }
+
+                final PublishMetrics.TopicMetrics metrics = connection.getPublishMetrics()
+                        .getTopicMetrics("backpressure_message");
+                assertEquals(messageCount, metrics.getPublishedCount());
+                assertTrue("The queue never filled up", notificationCount.get() > 0);
+                assertTrue("The backpressure events flapped faster than the listener, but none were coalesced",
+                        connection.getCoalescedBackpressureEventCount() > 0);
+
+                final long p99Ms = TimeUnit.NANOSECONDS.toMillis(metrics.getPublishLatency().getPercentileNanos(99));
+                assertTrue("The slow listener delayed the publishes, p99 latency " + p99Ms + " ms",
+                        p99Ms < SLOW_LISTENER_MS);
+            } finally
+            {
+                connection.unregisterQueueBackpressureListener(slowListener);
+                connection.disconnect();
+            }
+        }
+    }
+
+    private static void sleep(long ms)
+    {
+        try
+        {
+            Thread.sleep(ms);
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class RecordingListener implements IQueueBackpressureListener
+    {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onQueueFull(int queueSize, int queueLimit)
+        {
+            events.add("full " + queueSize);
+        }
+
+        @Override
+        public void onQueueDrained(int queueSize, int queueLimit)
+        {
+            events.add("drained " + queueSize);
+        }
+
+        @Override
+        public void onQueueGrowthWarning(int queueSize, int queueLimit, long queueBytes, long queueByteLimit,
+                                         long msUntilFull)
+        {
+            events.add("warning " + msUntilFull);
+        }
+
+        @Override
+        public void onQueueGrowthWarningCleared(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+        {
+            events.add("cleared " + queueSize);
+        }
+    }
+}
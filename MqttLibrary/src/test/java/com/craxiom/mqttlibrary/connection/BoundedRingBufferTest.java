@@ -0,0 +1,122 @@
+package com.craxiom.mqttlibrary.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the {@link BoundedRingBuffer} class.
+ *
+ * @since 1.3.0
+ */
+public class BoundedRingBufferTest
+{
+    @Test
+    public void validateFifoOrderAndCapacity()
+    {
+        final BoundedRingBuffer<Integer> ringBuffer = new BoundedRingBuffer<>(3);
+
+        assertTrue(ringBuffer.isEmpty());
+        assertTrue(ringBuffer.offer(1));
+        assertTrue(ringBuffer.offer(2));
+        assertTrue(ringBuffer.offer(3));
+        assertFalse("The buffer must not grow past its capacity", ringBuffer.offer(4));
+        assertEquals(3, ringBuffer.size());
+
+        assertEquals(Integer.valueOf(1), ringBuffer.peek());
+        assertEquals(Integer.valueOf(1), ringBuffer.poll());
+        assertTrue(ringBuffer.offer(4));
+        assertEquals(Integer.valueOf(2), ringBuffer.poll());
+        assertEquals(Integer.valueOf(3), ringBuffer.poll());
+        assertEquals(Integer.valueOf(4), ringBuffer.poll());
+        assertNull(ringBuffer.poll());
+        assertNull(ringBuffer.peek());
+        assertTrue(ringBuffer.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void validateZeroCapacityIsRejected()
+    {
+        new BoundedRingBuffer<Integer>(0);
+    }
+
+    @Test
+    public void validateConcurrentProducersAndConsumers() throws InterruptedException
+    {
+        final int producerCount = 4;
+        final int consumerCount = 4;
+        final int perProducer = 50_000;
+        final BoundedRingBuffer<Integer> ringBuffer = new BoundedRingBuffer<>(64);
+        final AtomicInteger consumedCount = new AtomicInteger();
+        final ConcurrentLinkedQueue<Integer> consumed = new ConcurrentLinkedQueue<>();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        final List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producerCount; p++)
+        {
+            final int producer = p;
+            threads.add(new Thread(() -> {
+                awaitQuietly(start);
+                for (int i = 0; i < perProducer; i++)
+                {
+                    final Integer value = producer * perProducer + i;
+                    while (!ringBuffer.offer(value)) Thread.yield();
+                }
+            }));
+        }
+        for (int c = 0; c < consumerCount; c++)
+        {
+            threads.add(new Thread(() -> {
+                awaitQuietly(start);
+                while (consumedCount.get() < producerCount * perProducer)
+                {
+                    final Integer value = ringBuffer.poll();
+                    if (value == null)
+                    {
+                        Thread.yield();
+                        continue;
+                    }
+                    consumed.add(value);
+                    consumedCount.incrementAndGet();
+                }
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread thread : threads)
+        {
+            thread.join(30_000);
+            assertFalse("A producer or consumer did not finish", thread.isAlive());
+        }
+
+        final boolean[] seen = new boolean[producerCount * perProducer];
+        for (Integer value : consumed)
+        {
+            assertFalse("Value consumed twice: " + value, seen[value]);
+            seen[value] = true;
+        }
+        assertEquals(producerCount * perProducer, consumed.size());
+        assertTrue(ringBuffer.isEmpty());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch)
+    {
+        try
+        {
+            latch.await();
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package com.craxiom.mqttlibrary.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * Tests the {@link BrokerSelector} and {@link HandshakeLatencyProbe} classes against local TLS listeners that delay
+ * the handshake to simulate brokers that are further away.
+ *
+ * @since 1.3.0
+ */
+public class BrokerSelectorTest
+{
+    private static final char[] KEYSTORE_PASSWORD = "test-password".toCharArray();
+
+    private final List<Closeable> closeables = new ArrayList<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService probeExecutor = Executors.newFixedThreadPool(2);
+    private SSLContext sslContext;
+    private HandshakeLatencyProbe probe;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        final KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream input = getClass().getClassLoader().getResourceAsStream("test-broker.p12"))
+        {
+            keyStore.load(input, KEYSTORE_PASSWORD);
+        }
+
+        final KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(
+                KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, KEYSTORE_PASSWORD);
+        final TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(
+                TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(keyStore);
+
+        sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), trustManagerFactory.getTrustManagers(), null);
+        probe = new HandshakeLatencyProbe(sslContext.getSocketFactory());
+
+        // Warm up the TLS code so that the first probe in each test is not slower for unrelated reasons
+        final DelayedTlsListener warmUp = listener(0);
+        for (int i = 0; i < 3; i++)
+        {
+            probe.probeNanos(endpoint(warmUp.getPort()), 5_000);
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        for (Closeable closeable : closeables)
+        {
+            closeable.close();
+        }
+        timer.shutdownNow();
+        probeExecutor.shutdownNow();
+    }
+
+    @Test(timeout = 30_000)
+    public void validateFastestHealthyEndpointIsSelected() throws Exception
+    {
+        final DelayedTlsListener slow = listener(400);
+        final DelayedTlsListener fast = listener(0);
+        final DelayedTlsListener medium = listener(200);
+        final int closedPort = closedPort();
+
+        final List<BrokerConnectionInfo> endpoints = Arrays.asList(endpoint(closedPort), endpoint(slow.getPort()),
+                endpoint(fast.getPort()), endpoint(medium.getPort()));
+        final BrokerSelector selector = selector(endpoints, new BrokerSelectionConfig(2_000, 0, 50, 3));
+
+        final long start = System.nanoTime();
+        assertSame(endpoints.get(2), selector.selectInitial());
+        assertTrue("The endpoints are probed in parallel",
+                System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(550 + 200 + 400));
+
+        final long[] latencies = selector.getLatencyNanos();
+        assertEquals(BrokerSelector.ILatencyProbe.UNHEALTHY, latencies[0]);
+        assertTrue(latencies[1] >= TimeUnit.MILLISECONDS.toNanos(400));
+        assertTrue(latencies[3] >= TimeUnit.MILLISECONDS.toNanos(200));
+        assertTrue(latencies[2] < latencies[3]);
+    }
+
+    @Test(timeout = 30_000)
+    public void validateFirstEndpointIsSelectedWhenNoneAreHealthy() throws Exception
+    {
+        final List<BrokerConnectionInfo> endpoints = Arrays.asList(endpoint(closedPort()), endpoint(closedPort()));
+        final BrokerSelector selector = selector(endpoints, new BrokerSelectionConfig(500, 0, 50, 3));
+
+        assertSame(endpoints.get(0), selector.selectInitial());
+        assertNull(selector.reevaluate(true));
+    }
+
+    @Test(timeout = 30_000)
+    public void validateSwitchOnlyOnceConsistentlyFasterByTheMargin() throws Exception
+    {
+        final DelayedTlsListener first = listener(0);
+        final DelayedTlsListener second = listener(300);
+        final List<BrokerConnectionInfo> endpoints = Arrays.asList(endpoint(first.getPort()),
+                endpoint(second.getPort()));
+        final BrokerSelector selector = selector(endpoints, new BrokerSelectionConfig(2_000, 0, 100, 3));
+        assertSame(endpoints.get(0), selector.selectInitial());
+
+        first.delayMs = 300;
+        second.delayMs = 0;
+        assertNull(selector.reevaluate(false));
+        assertNull(selector.reevaluate(false));
+        assertSame("Faster for three evaluations in a row", endpoints.get(1), selector.reevaluate(false));
+        assertSame(endpoints.get(1), selector.getSelected());
+
+        // A single faster probe does not cause a switch back
+        first.delayMs = 0;
+        assertNull(selector.reevaluate(false));
+        first.delayMs = 300;
+        assertNull(selector.reevaluate(false));
+        first.delayMs = 0;
+        assertNull(selector.reevaluate(false));
+        assertNull(selector.reevaluate(false));
+        assertSame(endpoints.get(1), selector.getSelected());
+    }
+
+    @Test(timeout = 30_000)
+    public void validateNoSwitchWithinTheMargin() throws Exception
+    {
+        final DelayedTlsListener first = listener(0);
+        final DelayedTlsListener second = listener(150);
+        final List<BrokerConnectionInfo> endpoints = Arrays.asList(endpoint(first.getPort()),
+                endpoint(second.getPort()));
+        final BrokerSelector selector = selector(endpoints, new BrokerSelectionConfig(2_000, 0, 400, 2));
+        assertSame(endpoints.get(0), selector.selectInitial());
+
+        // The second endpoint is now faster, but not by enough to be worth switching
+        first.delayMs = 150;
+        second.delayMs = 0;
+        for (int i = 0; i < 4; i++)
+        {
+            assertNull(selector.reevaluate(false));
+        }
+        assertSame(endpoints.get(0), selector.getSelected());
+    }
+
+    @Test(timeout = 30_000)
+    public void validateReconnectSwitchesAwayFromAnUnreachableEndpoint() throws Exception
+    {
+        final DelayedTlsListener first = listener(0);
+        final DelayedTlsListener second = listener(200);
+        final List<BrokerConnectionInfo> endpoints = Arrays.asList(endpoint(first.getPort()),
+                endpoint(second.getPort()));
+        final BrokerSelector selector = selector(endpoints, new BrokerSelectionConfig(2_000, 0, 50, 5));
+        assertSame(endpoints.get(0), selector.selectInitial());
+
+        first.close();
+        assertSame("Switches right away when reconnecting", endpoints.get(1), selector.reevaluate(true));
+    }
+
+    @Test(timeout = 30_000)
+    public void validateStartedSelectorSwitchesOnReevaluationRequest() throws Exception
+    {
+        final DelayedTlsListener first = listener(0);
+        final DelayedTlsListener second = listener(100);
+        final List<BrokerConnectionInfo> endpoints = Arrays.asList(endpoint(first.getPort()),
+                endpoint(second.getPort()));
+        final BrokerSelector selector = selector(endpoints, new BrokerSelectionConfig(2_000, 60_000, 50, 3));
+
+        final BlockingQueue<BrokerConnectionInfo> switches = new LinkedBlockingQueue<>();
+        selector.requestReevaluation();
+        selector.start(switches::add);
+        assertSame(endpoints.get(0), switches.poll(10, TimeUnit.SECONDS));
+
+        first.close();
+        selector.requestReevaluation();
+        assertSame(endpoints.get(1), switches.poll(10, TimeUnit.SECONDS));
+
+        selector.close();
+        selector.requestReevaluation();
+        assertNull(switches.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(timeout = 30_000)
+    public void validateSlowProbesDoNotHoldUpTheSharedExecutors() throws Exception
+    {
+        final DelayedTlsListener slow = listener(1_000);
+        final DelayedTlsListener fast = listener(0);
+        final DelayedTlsListener slower = listener(1_500);
+        final List<BrokerConnectionInfo> endpoints = Arrays.asList(endpoint(slow.getPort()), endpoint(fast.getPort()),
+                endpoint(slower.getPort()));
+        final BrokerSelector selector = selector(endpoints, new BrokerSelectionConfig(5_000, 60_000, 50, 3));
+
+        final BlockingQueue<BrokerConnectionInfo> switches = new LinkedBlockingQueue<>();
+        selector.start(switches::add);
+
+        // The timer only starts the probes, so other work on it is not held up while the endpoints are probed
+        final long start = System.nanoTime();
+        timer.submit(() -> { }).get(5, TimeUnit.SECONDS);
+        assertTrue("The timer was held up by the probes",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+
+        // The two probe threads are enough for the three endpoints
+        assertSame(endpoints.get(1), switches.poll(10, TimeUnit.SECONDS));
+
+        selector.close();
+        assertFalse(timer.isShutdown());
+        assertFalse(probeExecutor.isShutdown());
+    }
+
+    @Test(timeout = 30_000)
+    public void validatePlainTcpProbe() throws Exception
+    {
+        final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        closeables.add(serverSocket);
+
+        final BrokerConnectionInfo plainEndpoint = new BrokerConnectionInfo("127.0.0.1", serverSocket.getLocalPort(),
+                false, "client", null, null, "", null);
+        assertTrue(probe.probeNanos(plainEndpoint, 2_000) >= 0);
+
+        final BrokerConnectionInfo closedEndpoint = new BrokerConnectionInfo("127.0.0.1", closedPort(), false,
+                "client", null, null, "", null);
+        assertEquals(BrokerSelector.ILatencyProbe.UNHEALTHY, probe.probeNanos(closedEndpoint, 2_000));
+    }
+
+    @Test(timeout = 30_000)
+    public void validateHandshakeSlowerThanTheTimeoutIsUnhealthy() throws Exception
+    {
+        final DelayedTlsListener listener = listener(1_000);
+        assertEquals(BrokerSelector.ILatencyProbe.UNHEALTHY, probe.probeNanos(endpoint(listener.getPort()), 300));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void validateEndpointsAreRequired()
+    {
+        new BrokerSelector(new ArrayList<>(), BrokerSelectionConfig.DEFAULT, probe, timer, probeExecutor);
+    }
+
+    private BrokerSelector selector(List<BrokerConnectionInfo> endpoints, BrokerSelectionConfig config)
+    {
+        final BrokerSelector selector = new BrokerSelector(endpoints, config, probe, timer, probeExecutor);
+        closeables.add(selector::close);
+        return selector;
+    }
+
+    private DelayedTlsListener listener(long delayMs) throws IOException
+    {
+        final DelayedTlsListener listener = new DelayedTlsListener(sslContext, delayMs);
+        closeables.add(listener);
+        return listener;
+    }
+
+    private static BrokerConnectionInfo endpoint(int port)
+    {
+        return new BrokerConnectionInfo("127.0.0.1", port, true, "client", null, null, "", null);
+    }
+
+    /**
+     * @return A local port that nothing is listening on.
+     */
+    private static int closedPort() throws IOException
+    {
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress()))
+        {
+            return serverSocket.getLocalPort();
+        }
+    }
+
+    /**
+     * Accepts TLS connections and waits for the configured delay before completing the handshake.
+     */
+    private static final class DelayedTlsListener implements Closeable
+    {
+        private final SSLServerSocket serverSocket;
+        private final Thread acceptThread;
+        volatile long delayMs;
+
+        DelayedTlsListener(SSLContext sslContext, long delayMs) throws IOException
+        {
+            this.delayMs = delayMs;
+            serverSocket = (SSLServerSocket) sslContext.getServerSocketFactory()
+                    .createServerSocket(0, 50, InetAddress.getLoopbackAddress());
+
+            acceptThread = new Thread(this::acceptConnections, "DelayedTlsListener");
+            acceptThread.setDaemon(true);
+            acceptThread.start();
+        }
+
+        int getPort()
+        {
+            return serverSocket.getLocalPort();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            serverSocket.close();
+
+            // The port only stops accepting connections once the accept thread has been woken up
+            try
+            {
+                acceptThread.join(5_000);
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void acceptConnections()
+        {
+            while (!serverSocket.isClosed())
+            {
+                try
+                {
+                    final Socket socket = serverSocket.accept();
+                    final Thread connectionThread = new Thread(() -> handshake((SSLSocket) socket));
+                    connectionThread.setDaemon(true);
+                    connectionThread.start();
+                } catch (IOException e)
+                {
+                    // The listener was closed
+                    return;
+                }
+            }
+        }
+
+        private void handshake(SSLSocket socket)
+        {
+            try (SSLSocket ignored = socket)
+            {
+                Thread.sleep(delayMs);
+                socket.startHandshake();
+                //noinspection StatementWithEmptyBody
+                while (socket.getInputStream().read() >= 0)
+                {
+                    // Wait for the probe to close the connection
+                }
+            } catch (IOException | InterruptedException e)
+            {
+                // The probe gave up or closed the connection
+            }
+        }
+    }
+}
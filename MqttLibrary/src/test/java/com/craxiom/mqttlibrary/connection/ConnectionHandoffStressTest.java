@@ -0,0 +1,182 @@
+package com.craxiom.mqttlibrary.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.craxiom.mqttlibrary.MqttQos;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Interleaves {@link DefaultMqttConnection#connect} and {@link DefaultMqttConnection#disconnect()} calls against a
+ * {@link LocalMqttBroker} to check that the connection lifecycle never holds the connection's monitor while waiting for
+ * an old client to disconnect, and that the handoff still sends what was pending to the old client.
+ *
+ * @since 1.3.0
+ */
+public class ConnectionHandoffStressTest
+{
+    private static final long TIMEOUT_MS = 10_000;
+
+    /**
+     * Creating a client takes a few milliseconds, but nothing should come close to the 3 second teardown timeout.
+     */
+    private static final long MAX_LOCK_HOLD_MS = 500;
+
+    private LocalMqttBroker broker;
+    private DefaultMqttConnection connection;
+
+    @After
+    public void tearDown() throws Exception
+    {
+        if (connection != null) connection.disconnect();
+        if (broker != null) broker.close();
+    }
+
+    @Test(timeout = 60_000)
+    public void validateConnectAndDisconnectReturnWithoutHoldingTheLock() throws Exception
+    {
+        broker = new LocalMqttBroker(0, 0);
+        connection = new DefaultMqttConnection();
+        final BrokerConnectionInfo connectionInfo = new BrokerConnectionInfo("127.0.0.1", broker.getPort(), false,
+                "handoff-stress", null, null, "stress/", MqttQos.AT_LEAST_ONCE);
+
+        // Connect once so that the first handoff has a connected client to tear down
+        connection.connect(null, connectionInfo);
+        awaitState(ConnectionState.CONNECTED);
+
+        final AtomicLong maxCallNanos = new AtomicLong();
+        final AtomicLong maxLockWaitNanos = new AtomicLong();
+        final AtomicBoolean running = new AtomicBoolean(true);
+
+        // Times how long another thread has to wait for the monitor while the lifecycle calls are made
+        final Thread lockProbe = new Thread(() -> {
+            while (running.get())
+            {
+                final long start = System.nanoTime();
+                synchronized (connection)
+                {
+                    recordMax(maxLockWaitNanos, System.nanoTime() - start);
+                }
+                sleepQuietly(1);
+            }
+        }, "LockProbe");
+        lockProbe.start();
+
+        final int threadCount = 3;
+        final int callsPerThread = 40;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> callers = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++)
+        {
+            final Thread caller = new Thread(() -> {
+                try
+                {
+                    start.await();
+                } catch (InterruptedException e)
+                {
+                    return;
+                }
+
+                for (int j = 0; j < callsPerThread; j++)
+                {
+                    final boolean connect = ThreadLocalRandom.current().nextInt(3) != 0;
+                    final long callStart = System.nanoTime();
+                    if (connect)
+                    {
+                        connection.connect(null, connectionInfo);
+                    } else
+                    {
+                        connection.disconnect();
+                    }
+                    recordMax(maxCallNanos, System.nanoTime() - callStart);
+
+                    sleepQuietly(ThreadLocalRandom.current().nextInt(20));
+                }
+            }, "LifecycleCaller-" + i);
+            callers.add(caller);
+            caller.start();
+        }
+
+        start.countDown();
+        for (Thread caller : callers)
+        {
+            caller.join();
+        }
+        running.set(false);
+        lockProbe.join();
+
+        assertTrue("A lifecycle call held the lock for " + TimeUnit.NANOSECONDS.toMillis(maxCallNanos.get()) + " ms",
+                maxCallNanos.get() < TimeUnit.MILLISECONDS.toNanos(MAX_LOCK_HOLD_MS));
+        assertTrue("Waited " + TimeUnit.NANOSECONDS.toMillis(maxLockWaitNanos.get()) + " ms for the lock",
+                maxLockWaitNanos.get() < TimeUnit.MILLISECONDS.toNanos(MAX_LOCK_HOLD_MS));
+
+        // The last call wins once the background handoffs have settled
+        connection.connect(null, connectionInfo);
+        awaitState(ConnectionState.CONNECTED);
+
+        connection.disconnect();
+        awaitState(ConnectionState.DISCONNECTED);
+    }
+
+    @Test(timeout = 30_000)
+    public void validatePendingBatchesArePublishedToTheOldClientOnReconnect() throws Exception
+    {
+        broker = new LocalMqttBroker(0, 0);
+        connection = new DefaultMqttConnection();
+        final FakeMqttClientEngine oldEngine = new FakeMqttClientEngine(true);
+        connection.attachEngine(oldEngine, new BrokerConnectionInfo("127.0.0.1", 1883, false, "handoff-batches", null,
+                null, "stress/", MqttQos.AT_LEAST_ONCE).withBatchingConfig(new BatchingConfig(100, 0, 60_000L)));
+
+        connection.publishMessage("lte_message", "{\"pci\":1}");
+        connection.publishMessage("lte_message", "{\"pci\":2}");
+        assertTrue(oldEngine.getPublishes().isEmpty());
+
+        connection.connect(null, new BrokerConnectionInfo("127.0.0.1", broker.getPort(), false, "handoff-batches",
+                null, null, "stress/", MqttQos.AT_LEAST_ONCE));
+
+        final List<FakeMqttClientEngine.Publish> publishes = oldEngine.getPublishes();
+        assertEquals("The partial batch is published to the old client instead of being dropped", 1, publishes.size());
+        assertEquals("stress/lte_message", publishes.get(0).topic);
+        assertEquals("[{\"pci\":1},{\"pci\":2}]", new String(publishes.get(0).payload, StandardCharsets.UTF_8));
+        assertEquals(0, connection.getPublishMetrics().getTopicMetrics("lte_message").getDroppedCount());
+
+        awaitState(ConnectionState.CONNECTED);
+    }
+
+    private void awaitState(ConnectionState expected) throws InterruptedException
+    {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+        while (connection.getConnectionState() != expected && System.nanoTime() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, connection.getConnectionState());
+    }
+
+    private static void recordMax(AtomicLong max, long value)
+    {
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    private static void sleepQuietly(long ms)
+    {
+        try
+        {
+            Thread.sleep(ms);
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
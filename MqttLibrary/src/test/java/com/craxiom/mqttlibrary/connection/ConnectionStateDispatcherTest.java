@@ -0,0 +1,169 @@
+package com.craxiom.mqttlibrary.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.craxiom.mqttlibrary.IConnectionStateListener;
+import com.craxiom.mqttlibrary.PublishMetrics;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the {@link ConnectionStateDispatcher} class.
+ *
+ * @since 1.3.0
+ */
+public class ConnectionStateDispatcherTest
+{
+    @Test
+    public void validateInlineDispatchDeliversEveryChangeOnTheCallingThread()
+    {
+        final ConnectionStateDispatcher dispatcher = new ConnectionStateDispatcher();
+        final List<ConnectionState> states = new ArrayList<>();
+        final Thread callingThread = Thread.currentThread();
+        dispatcher.addListener(newConnectionState -> {
+            assertSame(callingThread, Thread.currentThread());
+            states.add(newConnectionState);
+        });
+
+        dispatcher.dispatch(ConnectionState.CONNECTING);
+        dispatcher.dispatch(ConnectionState.CONNECTING);
+        dispatcher.dispatch(ConnectionState.CONNECTED);
+
+        assertEquals(Arrays.asList(ConnectionState.CONNECTING, ConnectionState.CONNECTING, ConnectionState.CONNECTED),
+                states);
+        assertEquals(0, dispatcher.getCoalescedCount());
+    }
+
+    @Test
+    public void validateQueuedRepeatedStatesAreCoalesced()
+    {
+        final ConnectionStateDispatcher dispatcher = new ConnectionStateDispatcher();
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+        dispatcher.setExecutor(tasks::add);
+        final List<ConnectionState> states = new ArrayList<>();
+        dispatcher.addListener(states::add);
+
+        dispatcher.dispatch(ConnectionState.CONNECTING);
+        dispatcher.dispatch(ConnectionState.CONNECTING);
+        dispatcher.dispatch(ConnectionState.CONNECTING);
+        dispatcher.dispatch(ConnectionState.CONNECTED);
+        dispatcher.dispatch(ConnectionState.CONNECTED);
+        dispatcher.dispatch(ConnectionState.DISCONNECTED);
+
+        assertEquals("Only one drain should be scheduled at a time", 1, tasks.size());
+        assertTrue(states.isEmpty());
+
+        tasks.poll().run();
+
+        assertEquals(Arrays.asList(ConnectionState.CONNECTING, ConnectionState.CONNECTED, ConnectionState.DISCONNECTED),
+                states);
+        assertEquals(3, dispatcher.getCoalescedCount());
+
+        // A change after the drain schedules a new one, and a repeat of the last delivered state is still skipped
+        dispatcher.dispatch(ConnectionState.DISCONNECTED);
+        dispatcher.dispatch(ConnectionState.CONNECTING);
+        assertEquals(1, tasks.size());
+        tasks.poll().run();
+
+        assertEquals(ConnectionState.CONNECTING, states.get(states.size() - 1));
+        assertEquals(4, states.size());
+        assertEquals(4, dispatcher.getCoalescedCount());
+    }
+
+    @Test
+    public void validateOrderIsKeptOnAMultiThreadedExecutor() throws InterruptedException
+    {
+        final int changeCount = 10_000;
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            final ConnectionStateDispatcher dispatcher = new ConnectionStateDispatcher();
+            dispatcher.setExecutor(executor);
+            final List<ConnectionState> states = Collections.synchronizedList(new ArrayList<>());
+            final CountDownLatch delivered = new CountDownLatch(changeCount);
+            dispatcher.addListener(newConnectionState -> {
+                states.add(newConnectionState);
+                delivered.countDown();
+            });
+
+            // Alternating states are never coalesced, so every change is delivered
+            for (int i = 0; i < changeCount; i++)
+            {
+                dispatcher.dispatch(i % 2 == 0 ? ConnectionState.CONNECTING : ConnectionState.CONNECTED);
+            }
+
+            assertTrue(delivered.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < changeCount; i++)
+            {
+                assertEquals("Out of order at " + i, i % 2 == 0 ? ConnectionState.CONNECTING : ConnectionState.CONNECTED,
+                        states.get(i));
+            }
+            assertEquals(0, dispatcher.getCoalescedCount());
+        } finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void validateListenerLatencyIsRecorded()
+    {
+        final ConnectionStateDispatcher dispatcher = new ConnectionStateDispatcher();
+        final IConnectionStateListener slowListener = newConnectionState -> {
+            try
+            {
+                Thread.sleep(5);
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        };
+        final IConnectionStateListener failingListener = newConnectionState -> {
+            throw new IllegalStateException("Listener failure");
+        };
+        dispatcher.addListener(failingListener);
+        dispatcher.addListener(slowListener);
+
+        dispatcher.dispatch(ConnectionState.CONNECTING);
+        dispatcher.dispatch(ConnectionState.CONNECTED);
+
+        final PublishMetrics.Histogram latency = dispatcher.getListenerLatency(slowListener);
+        assertEquals(2, latency.getCount());
+        assertTrue(latency.getMaxNanos() >= TimeUnit.MILLISECONDS.toNanos(5));
+        assertEquals("A listener that throws is still timed", 2, dispatcher.getListenerLatency(failingListener).getCount());
+
+        dispatcher.removeListener(slowListener);
+        assertNull(dispatcher.getListenerLatency(slowListener));
+    }
+
+    @Test
+    public void validateRejectedDispatchIsDeliveredInline()
+    {
+        final ConnectionStateDispatcher dispatcher = new ConnectionStateDispatcher();
+        dispatcher.setExecutor(command -> {
+            throw new RejectedExecutionException("Shut down");
+        });
+        final List<ConnectionState> states = new ArrayList<>();
+        dispatcher.addListener(states::add);
+
+        dispatcher.dispatch(ConnectionState.CONNECTING);
+        dispatcher.dispatch(ConnectionState.CONNECTED);
+
+        assertEquals(Arrays.asList(ConnectionState.CONNECTING, ConnectionState.CONNECTED), states);
+    }
+}
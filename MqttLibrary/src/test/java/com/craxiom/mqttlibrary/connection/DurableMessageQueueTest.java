@@ -0,0 +1,419 @@
+package com.craxiom.mqttlibrary.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the {@link DurableMessageQueue} and {@link QueueSegment} classes.
+ *
+ * @since 1.3.0
+ */
+public class DurableMessageQueueTest
+{
+    private static final int SMALL_SEGMENT_SIZE = 4096;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void validateMessagesDrainInOrder() throws Exception
+    {
+        final File directory = temporaryFolder.newFolder();
+        final DurableMessageQueue queue = new DurableMessageQueue(directory, SMALL_SEGMENT_SIZE, 1024 * 1024, 8);
+        final RecordingPublisher publisher = new RecordingPublisher(true);
+        queue.start(publisher);
+
+        for (int i = 0; i < 500; i++)
+        {
+            assertTrue(queue.append("lte_message", utf8("{\"recordNumber\":" + i + "}")));
+        }
+
+        for (int i = 0; i < 500; i++)
+        {
+            final String message = publisher.published.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertEquals("lte_message {\"recordNumber\":" + i + "}", message);
+        }
+
+        awaitQueuedBytes(queue, 0);
+        assertEquals("Fully acknowledged segments must be deleted", 1, queue.getSegmentCount());
+        queue.close();
+    }
+
+    @Test
+    public void validateNothingIsPublishedUntilReady() throws Exception
+    {
+        final DurableMessageQueue queue = new DurableMessageQueue(temporaryFolder.newFolder());
+        final RecordingPublisher publisher = new RecordingPublisher(false);
+        queue.start(publisher);
+
+        queue.append("lte_message", utf8("first"));
+        assertEquals(null, publisher.published.poll(100, TimeUnit.MILLISECONDS));
+
+        publisher.ready = true;
+        queue.signal();
+
+        assertEquals("lte_message first", publisher.published.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        queue.close();
+    }
+
+    @Test
+    public void validateUnacknowledgedMessagesSurviveRestart() throws Exception
+    {
+        final File directory = temporaryFolder.newFolder();
+
+        DurableMessageQueue queue = new DurableMessageQueue(directory, SMALL_SEGMENT_SIZE, 1024 * 1024, 1);
+        final RecordingPublisher publisher = new RecordingPublisher(true);
+        publisher.acknowledgeLimit = 100;
+        queue.start(publisher);
+        for (int i = 0; i < 300; i++)
+        {
+            queue.append("nr_message", utf8(Integer.toString(i)));
+        }
+
+        // Wait for the first 100 to be acknowledged and the next one to be in flight, then "crash"
+        for (int i = 0; i <= 100; i++)
+        {
+            publisher.published.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        queue.close();
+
+        queue = new DurableMessageQueue(directory, SMALL_SEGMENT_SIZE, 1024 * 1024, 8);
+        final RecordingPublisher restartedPublisher = new RecordingPublisher(true);
+        queue.start(restartedPublisher);
+
+        for (int i = 100; i < 300; i++)
+        {
+            assertEquals("nr_message " + i, restartedPublisher.published.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+        awaitQueuedBytes(queue, 0);
+        queue.close();
+    }
+
+    @Test
+    public void validateFailedPublishIsRetried() throws Exception
+    {
+        final DurableMessageQueue queue = new DurableMessageQueue(temporaryFolder.newFolder(), SMALL_SEGMENT_SIZE,
+                1024 * 1024, 4);
+        final RecordingPublisher publisher = new RecordingPublisher(true);
+        publisher.failNext = 1;
+        queue.start(publisher);
+
+        queue.append("gsm_message", utf8("a"));
+        queue.append("gsm_message", utf8("b"));
+
+        final List<String> published = new ArrayList<>();
+        while (!published.contains("gsm_message b") || published.lastIndexOf("gsm_message a") > published.lastIndexOf("gsm_message b"))
+        {
+            final String message = publisher.published.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertTrue("Timed out waiting for the retry, published=" + published, message != null);
+            published.add(message);
+        }
+
+        assertEquals("gsm_message a", published.get(0));
+        assertTrue("The failed message must be published again", published.lastIndexOf("gsm_message a") > 0);
+        awaitQueuedBytes(queue, 0);
+        queue.close();
+    }
+
+    @Test
+    public void validateQueueLimitDropsNewMessages() throws Exception
+    {
+        final DurableMessageQueue queue = new DurableMessageQueue(temporaryFolder.newFolder(), SMALL_SEGMENT_SIZE,
+                200, 4);
+
+        assertTrue(queue.append("wifi_message", ByteBuffer.allocate(100)));
+        assertFalse(queue.append("wifi_message", ByteBuffer.allocate(100)));
+        assertEquals(1, queue.getDroppedCount());
+        queue.close();
+    }
+
+    @Test
+    public void validateCorruptRecordIsDiscardedOnRecovery() throws Exception
+    {
+        final File directory = temporaryFolder.newFolder();
+        DurableMessageQueue queue = new DurableMessageQueue(directory, SMALL_SEGMENT_SIZE, 1024 * 1024, 4);
+        queue.append("cdma_message", utf8("intact"));
+        queue.append("cdma_message", utf8("corrupted"));
+        queue.close();
+
+        // Flip the last byte of the second record's payload so that its CRC no longer matches
+        final File segmentFile = segmentFiles(directory)[0];
+        final int firstRecordSize = QueueSegment.RECORD_HEADER_SIZE + 2 + "cdma_message".length() + "intact".length();
+        final int secondRecordEnd = QueueSegment.HEADER_SIZE + firstRecordSize
+                + QueueSegment.RECORD_HEADER_SIZE + 2 + "cdma_message".length() + "corrupted".length();
+        try (RandomAccessFile file = new RandomAccessFile(segmentFile, "rw"))
+        {
+            file.seek(secondRecordEnd - 1);
+            final int lastByte = file.read();
+            file.seek(secondRecordEnd - 1);
+            file.write(lastByte ^ 0xFF);
+        }
+
+        queue = new DurableMessageQueue(directory, SMALL_SEGMENT_SIZE, 1024 * 1024, 4);
+        final RecordingPublisher publisher = new RecordingPublisher(true);
+        queue.start(publisher);
+        assertEquals("cdma_message intact", publisher.published.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(null, publisher.published.poll(200, TimeUnit.MILLISECONDS));
+
+        // Appending resumes where the corrupt record was
+        queue.append("cdma_message", utf8("after restart"));
+        assertEquals("cdma_message after restart", publisher.published.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        queue.close();
+    }
+
+    @Test
+    public void validateDirectoryCanOnlyBeOpenedOnce() throws Exception
+    {
+        final File directory = temporaryFolder.newFolder();
+        final DurableMessageQueue queue = new DurableMessageQueue(directory, SMALL_SEGMENT_SIZE, 1024 * 1024, 4);
+        try
+        {
+            new DurableMessageQueue(directory, SMALL_SEGMENT_SIZE, 1024 * 1024, 4);
+            fail("A second queue must not open a directory that is already in use");
+        } catch (IOException expected)
+        {
+            // Expected
+        }
+        queue.close();
+
+        new DurableMessageQueue(directory, SMALL_SEGMENT_SIZE, 1024 * 1024, 4).close();
+    }
+
+    @Test
+    public void validatePublishesCompletingAfterCloseAreIgnored() throws Exception
+    {
+        final File directory = temporaryFolder.newFolder();
+        DurableMessageQueue queue = new DurableMessageQueue(directory, SMALL_SEGMENT_SIZE, 1024 * 1024, 8);
+        final RecordingPublisher publisher = new RecordingPublisher(true);
+        publisher.acknowledgeLimit = 0;
+        queue.start(publisher);
+        queue.append("umts_message", utf8("first"));
+        queue.append("umts_message", utf8("second"));
+        assertEquals("umts_message first", publisher.published.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("umts_message second", publisher.published.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        queue.close();
+
+        // The broker acknowledges the messages after the queue was closed and a new queue was opened
+        queue = new DurableMessageQueue(directory, SMALL_SEGMENT_SIZE, 1024 * 1024, 8);
+        final long recoveredBytes = queue.getQueuedBytes();
+        for (CompletableFuture<Void> acknowledgement : publisher.pendingAcknowledgements)
+        {
+            acknowledgement.complete(null);
+        }
+        assertTrue(recoveredBytes > 0);
+        assertEquals(recoveredBytes, queue.getQueuedBytes());
+
+        final RecordingPublisher restartedPublisher = new RecordingPublisher(true);
+        queue.start(restartedPublisher);
+        assertEquals("umts_message first", restartedPublisher.published.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("umts_message second", restartedPublisher.published.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        awaitQueuedBytes(queue, 0);
+        queue.close();
+    }
+
+    @Test
+    public void validateCreatedSegmentDiscardsExistingFile() throws Exception
+    {
+        final File directory = temporaryFolder.newFolder();
+        final QueueSegment stale = QueueSegment.create(directory, 7, SMALL_SEGMENT_SIZE);
+        assertTrue(stale.append("lte_message".getBytes(StandardCharsets.UTF_8), utf8("stale")) > 0);
+        stale.force();
+
+        QueueSegment.create(directory, 7, SMALL_SEGMENT_SIZE).force();
+
+        final QueueSegment reopened = QueueSegment.open(segmentFiles(directory)[0]);
+        assertEquals(QueueSegment.HEADER_SIZE, reopened.getWriteOffset());
+    }
+
+    /**
+     * Kills a separate writer process while it is appending messages and has publishes in flight, then verifies that
+     * the restarted queue delivers every message the writer reported as appended, in order and without gaps.
+     */
+    @Test
+    public void validateWriterKilledWithMessagesInFlight() throws Exception
+    {
+        final File directory = temporaryFolder.newFolder();
+        final String javaBinary = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        final Process writer = new ProcessBuilder(javaBinary, "-cp", System.getProperty("java.class.path"),
+                DurableQueueWriterProcess.class.getName(), directory.getAbsolutePath())
+                .redirectErrorStream(true)
+                .start();
+
+        long lastAppended = -1;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(writer.getInputStream(), StandardCharsets.UTF_8)))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                if (!line.startsWith(DurableQueueWriterProcess.APPENDED_PREFIX)) continue;
+
+                lastAppended = Long.parseLong(line.substring(DurableQueueWriterProcess.APPENDED_PREFIX.length()));
+                if (lastAppended >= 5_000) break;
+            }
+        } finally
+        {
+            writer.destroyForcibly();
+            writer.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        assertTrue("The writer process did not report any appended messages", lastAppended >= 5_000);
+
+        final DurableMessageQueue queue = new DurableMessageQueue(directory, DurableQueueWriterProcess.SEGMENT_SIZE,
+                DurableMessageQueue.DEFAULT_MAX_QUEUE_BYTES, 64);
+        final RecordingPublisher publisher = new RecordingPublisher(true);
+        queue.start(publisher);
+
+        long previous = -1;
+        String message;
+        while ((message = publisher.published.poll(1, TimeUnit.SECONDS)) != null)
+        {
+            final long sequence = Long.parseLong(message.substring(message.indexOf(' ') + 1));
+            if (previous >= 0) assertEquals("Messages must be delivered in order without gaps", previous + 1, sequence);
+            previous = sequence;
+        }
+        queue.close();
+
+        assertTrue("Expected every reported message to be recovered, last recovered=" + previous
+                + ", last appended=" + lastAppended, previous >= lastAppended);
+    }
+
+    private static void awaitQueuedBytes(DurableMessageQueue queue, long expected) throws InterruptedException
+    {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (queue.getQueuedBytes() != expected && System.nanoTime() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, queue.getQueuedBytes());
+    }
+
+    private static File[] segmentFiles(File directory)
+    {
+        return directory.listFiles((dir, name) -> name.endsWith(QueueSegment.FILE_EXTENSION));
+    }
+
+    private static ByteBuffer utf8(String value)
+    {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Records each publish as "topic payload" and acknowledges it right away, unless told otherwise.
+     */
+    static final class RecordingPublisher implements DurableMessageQueue.IRecordPublisher
+    {
+        final LinkedBlockingQueue<String> published = new LinkedBlockingQueue<>();
+        volatile boolean ready;
+        volatile int acknowledgeLimit = Integer.MAX_VALUE;
+        volatile int failNext;
+        final List<CompletableFuture<Void>> pendingAcknowledgements = new ArrayList<>();
+        private int acknowledged;
+
+        RecordingPublisher(boolean ready)
+        {
+            this.ready = ready;
+        }
+
+        @Override
+        public boolean isReadyToPublish()
+        {
+            return ready;
+        }
+
+        @Override
+        public synchronized CompletableFuture<?> publish(String mqttMessageTopic, ByteBuffer payload)
+        {
+            final byte[] bytes = new byte[payload.remaining()];
+            payload.duplicate().get(bytes);
+            published.add(mqttMessageTopic + " " + new String(bytes, StandardCharsets.UTF_8));
+
+            if (failNext > 0)
+            {
+                failNext--;
+                final CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new IllegalStateException("Simulated publish failure"));
+                return failed;
+            }
+
+            if (acknowledged >= acknowledgeLimit)
+            {
+                final CompletableFuture<Void> pending = new CompletableFuture<>();
+                pendingAcknowledgements.add(pending);
+                return pending;
+            }
+
+            acknowledged++;
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * The writer process for {@link #validateWriterKilledWithMessagesInFlight()}. It appends numbered messages as
+     * fast as it can while acknowledging the publishes asynchronously, so that there are always publishes in flight
+     * when it is killed.
+     */
+    public static final class DurableQueueWriterProcess
+    {
+        static final String APPENDED_PREFIX = "appended ";
+        static final int SEGMENT_SIZE = 16 * 1024;
+
+        public static void main(String[] args) throws Exception
+        {
+            final ScheduledExecutorService acknowledger = Executors.newSingleThreadScheduledExecutor();
+            final DurableMessageQueue queue = new DurableMessageQueue(new File(args[0]), SEGMENT_SIZE,
+                    DurableMessageQueue.DEFAULT_MAX_QUEUE_BYTES, 64);
+            queue.start(new DurableMessageQueue.IRecordPublisher()
+            {
+                @Override
+                public boolean isReadyToPublish()
+                {
+                    return true;
+                }
+
+                @Override
+                public CompletableFuture<?> publish(String mqttMessageTopic, ByteBuffer payload)
+                {
+                    final CompletableFuture<Void> future = new CompletableFuture<>();
+                    acknowledger.schedule(() -> future.complete(null), 2, TimeUnit.MILLISECONDS);
+                    return future;
+                }
+            });
+
+            for (long sequence = 0; ; sequence++)
+            {
+                if (!queue.append("survey", ByteBuffer.wrap(Long.toString(sequence).getBytes(StandardCharsets.UTF_8))))
+                {
+                    Thread.sleep(1);
+                    sequence--;
+                    continue;
+                }
+                if (sequence % 100 == 0)
+                {
+                    System.out.println(APPENDED_PREFIX + sequence);
+                    System.out.flush();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.craxiom.mqttlibrary.connection;
+
+import com.craxiom.mqttlibrary.MqttQos;
+import com.craxiom.mqttlibrary.PublishMetrics;
+import com.craxiom.mqttlibrary.QueueOverflowPolicies;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the sustained publish throughput of a {@link DefaultMqttConnection} connected to a {@link LocalMqttBroker}
+ * over the loopback interface, which covers the whole publish path from encoding the message to the broker's
+ * acknowledgement.
+ * <p>
+ * The streaming queue limit holds the number of messages in flight steady, and the publishing thread waits for room
+ * in the queue instead of dropping messages, so the throughput is limited by how fast the messages are acknowledged.
+ * The publish latency percentiles from the connection's {@link PublishMetrics} are printed at the end of each trial.
+ *
+ * @since 1.3.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EndToEndPublishBenchmark
+{
+    private static final String MESSAGE_TOPIC = "lte_message";
+    private static final int PAYLOAD_COUNT = 256;
+    private static final int STREAMING_QUEUE_LIMIT = 256;
+    private static final long CONNECT_TIMEOUT_MS = 10_000;
+
+    @Param({"AT_MOST_ONCE", "AT_LEAST_ONCE"})
+    public String qosName;
+
+    private LocalMqttBroker broker;
+    private DefaultMqttConnection connection;
+    private String[] payloads;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, InterruptedException
+    {
+        broker = new LocalMqttBroker(0, 0);
+        broker.setRecordPublishes(false);
+
+        final SamplePayloads samples = new SamplePayloads(SamplePayloads.Shape.LTE_RECORD, 42);
+        payloads = new String[PAYLOAD_COUNT];
+        for (int i = 0; i < PAYLOAD_COUNT; i++)
+        {
+            payloads[i] = samples.next();
+        }
+
+        connection = new DefaultMqttConnection();
+        connection.setStreamingQueueLimit(STREAMING_QUEUE_LIMIT);
+        connection.setQueueOverflowPolicy(QueueOverflowPolicies.blockWithTimeout(5, TimeUnit.SECONDS));
+        connection.connect(null, new BrokerConnectionInfo("127.0.0.1", broker.getPort(), false, "e2e-benchmark",
+                null, null, "benchmark/", MqttQos.valueOf(qosName)));
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CONNECT_TIMEOUT_MS);
+        while (connection.getConnectionState() != ConnectionState.CONNECTED)
+        {
+            if (System.nanoTime() > deadline) throw new IllegalStateException("Could not connect to the local broker");
+            Thread.sleep(10);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        final PublishMetrics.TopicMetrics metrics = connection.getPublishMetrics().getTopicMetrics(MESSAGE_TOPIC);
+        final PublishMetrics.Histogram latency = metrics.getPublishLatency();
+        System.out.printf(Locale.US, "%n%s: %d published, %d dropped, %d received; latency p50 %d us, p99 %d us, "
+                        + "max %d us%n", qosName, metrics.getPublishedCount(), metrics.getDroppedCount(),
+                broker.getPublishCount(), TimeUnit.NANOSECONDS.toMicros(latency.getPercentileNanos(50)),
+                TimeUnit.NANOSECONDS.toMicros(latency.getPercentileNanos(99)),
+                TimeUnit.NANOSECONDS.toMicros(latency.getMaxNanos()));
+
+        connection.disconnect();
+        broker.close();
+    }
+
+    @Benchmark
+    public void publishJson()
+    {
+        index = (index + 1) % PAYLOAD_COUNT;
+        connection.publishMessage(MESSAGE_TOPIC, payloads[index]);
+    }
+}
@@ -0,0 +1,124 @@
+package com.craxiom.mqttlibrary.connection;
+
+import com.hivemq.client.mqtt.MqttClientState;
+import com.hivemq.client.mqtt.datatypes.MqttTopic;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An {@link IMqttClientEngine} that is always connected and completes every publish right away on the publishing
+ * thread, so that the publish path of a {@link DefaultMqttConnection} can be run without a broker. It can also record
+ * each publish so that the tests can check what was sent.
+ *
+ * @since 1.3.0
+ */
+final class FakeMqttClientEngine implements IMqttClientEngine
+{
+    private static final CompletableFuture<Void> COMPLETED = CompletableFuture.completedFuture(null);
+
+    private final LongAdder publishCount = new LongAdder();
+    private final LongAdder publishedBytes = new LongAdder();
+    private final boolean recordPublishes;
+    private final Queue<Publish> publishes = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Creates an engine that only counts the publishes, so that it does not allocate while publishing.
+     */
+    FakeMqttClientEngine()
+    {
+        this(false);
+    }
+
+    /**
+     * @param recordPublishes True to keep a copy of each publish, see {@link #getPublishes()}.
+     */
+    FakeMqttClientEngine(boolean recordPublishes)
+    {
+        this.recordPublishes = recordPublishes;
+    }
+
+    @Override
+    public CompletableFuture<?> connect()
+    {
+        return COMPLETED;
+    }
+
+    @Override
+    public CompletableFuture<Void> disconnect()
+    {
+        return COMPLETED;
+    }
+
+    @Override
+    public MqttClientState getState()
+    {
+        return MqttClientState.CONNECTED;
+    }
+
+    @Override
+    public CompletableFuture<?> publish(MqttTopic topic, ByteBuffer payload, boolean retain)
+    {
+        publishCount.increment();
+        publishedBytes.add(payload.remaining());
+        if (recordPublishes)
+        {
+            final byte[] copy = new byte[payload.remaining()];
+            payload.duplicate().get(copy);
+            publishes.add(new Publish(topic.toString(), copy, retain));
+        }
+        return COMPLETED;
+    }
+
+    @Override
+    public boolean isAuthenticationFailure(Throwable cause)
+    {
+        return false;
+    }
+
+    @Override
+    public int getInFlightWindow()
+    {
+        return 0;
+    }
+
+    long getPublishCount()
+    {
+        return publishCount.sum();
+    }
+
+    long getPublishedBytes()
+    {
+        return publishedBytes.sum();
+    }
+
+    /**
+     * @return The recorded publishes in the order they were made, or an empty list if they are not recorded.
+     */
+    List<Publish> getPublishes()
+    {
+        return new ArrayList<>(publishes);
+    }
+
+    /**
+     * A recorded publish.
+     */
+    static final class Publish
+    {
+        final String topic;
+        final byte[] payload;
+        final boolean retain;
+
+        private Publish(String topic, byte[] payload, boolean retain)
+        {
+            this.topic = topic;
+            this.payload = payload;
+            this.retain = retain;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.craxiom.mqttlibrary.connection;
+
+import com.craxiom.mqttlibrary.INetworkAvailabilitySource;
+
+/**
+ * An {@link INetworkAvailabilitySource} that reports a network as available when the test tells it to.
+ *
+ * @since 1.3.0
+ */
+final class FakeNetworkAvailabilitySource implements INetworkAvailabilitySource
+{
+    private volatile INetworkAvailabilityListener listener;
+
+    @Override
+    public void start(INetworkAvailabilityListener listener)
+    {
+        this.listener = listener;
+    }
+
+    @Override
+    public void stop()
+    {
+        listener = null;
+    }
+
+    boolean isStarted()
+    {
+        return listener != null;
+    }
+
+    /**
+     * Simulates a network becoming available, such as after a handover from Wi-Fi to cellular.
+     */
+    void networkAvailable()
+    {
+        final INetworkAvailabilityListener current = listener;
+        if (current != null) current.onNetworkAvailable();
+    }
+}
@@ -0,0 +1,89 @@
+package com.craxiom.mqttlibrary.connection;
+
+import com.craxiom.mqttlibrary.IQueueBackpressureListener;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long the thread that triggers a backpressure or connection state notification spends notifying the
+ * registered listeners, for an increasing number of listeners. The listeners do a small amount of work each so that
+ * the cost of the fan-out itself is what is measured. The backpressure listeners are called on the calling thread
+ * here, and the queue alternates between full and drained since a repeated state is not delivered again.
+ *
+ * @since 1.3.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListenerFanOutBenchmark
+{
+    @Param({"1", "4", "16"})
+    public int listenerCount;
+
+    private DefaultMqttConnection connection;
+    private long notificationCount;
+    private boolean connected;
+    private boolean queueFull;
+
+    @Setup
+    public void setup()
+    {
+        connection = new DefaultMqttConnection();
+        connection.setQueueBackpressureListenerExecutor(null);
+        for (int i = 0; i < listenerCount; i++)
+        {
+            connection.registerMqttConnectionStateListener(newConnectionState -> notificationCount++);
+            connection.registerQueueBackpressureListener(new IQueueBackpressureListener()
+            {
+                @Override
+                public void onQueueFull(int queueSize, int queueLimit)
+                {
+                    notificationCount += queueSize;
+                }
+
+                @Override
+                public void onQueueDrained(int queueSize, int queueLimit)
+                {
+                    notificationCount -= queueSize;
+                }
+            });
+        }
+    }
+
+    @Benchmark
+    public long notifyQueueBackpressure()
+    {
+        queueFull = !queueFull;
+        if (queueFull)
+        {
+            connection.notifyQueueFull(100, 100, 51_200, 0);
+        } else
+        {
+            connection.notifyQueueDrained(49, 100, 25_088, 0);
+        }
+        return notificationCount;
+    }
+
+    @Benchmark
+    public long notifyConnectionStateChange()
+    {
+        connected = !connected;
+        connection.notifyConnectionStateChange(connected ? ConnectionState.CONNECTED : ConnectionState.CONNECTING);
+        return notificationCount;
+    }
+}
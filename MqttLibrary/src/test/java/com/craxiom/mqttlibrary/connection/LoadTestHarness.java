@@ -0,0 +1,409 @@
+package com.craxiom.mqttlibrary.connection;
+
+import com.craxiom.mqttlibrary.IQueueOverflowPolicy;
+import com.craxiom.mqttlibrary.MqttQos;
+import com.craxiom.mqttlibrary.PublishMetrics;
+import com.craxiom.mqttlibrary.QueueOverflowPolicies;
+import com.craxiom.mqttlibrary.ReconnectStrategies;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a {@link DefaultMqttConnection} against a {@link LocalMqttBroker} at a fixed rate and payload size, while
+ * applying broker events such as restarts, slow acknowledgements, and dropped connections at set times, and reports
+ * the sustained throughput, acknowledgement latency, losses, and heap growth of the run.
+ * <p>
+ * Everything runs on the loopback interface, so the harness works without a network.
+ *
+ * @since 1.3.0
+ */
+final class LoadTestHarness implements Closeable
+{
+    private static final long CONNECT_TIMEOUT_MS = 10_000;
+    private static final long DRAIN_TIMEOUT_MS = 10_000;
+    private static final long RECONNECT_DELAY_MS = 100;
+    private static final int PAYLOAD_VARIANTS = 64;
+
+    /**
+     * Something that happens to the broker partway through a scenario.
+     */
+    interface IBrokerEvent
+    {
+        void apply(LoadTestHarness harness) throws IOException, InterruptedException;
+    }
+
+    /**
+     * The load to generate and the broker events to apply while generating it.
+     */
+    static final class Scenario
+    {
+        final String name;
+        final int messagesPerSecond;
+        final int payloadSize;
+        final long durationMs;
+        final MqttQos qos;
+        private int streamingQueueLimit = 1_000;
+        private IQueueOverflowPolicy overflowPolicy = QueueOverflowPolicies.DROP_NEWEST;
+        private final List<Long> eventOffsetsMs = new ArrayList<>();
+        private final List<IBrokerEvent> events = new ArrayList<>();
+
+        /**
+         * @param name              The name printed in the report.
+         * @param messagesPerSecond The rate to publish at.
+         * @param payloadSize       The size of each JSON payload in bytes.
+         * @param durationMs        How long to publish for.
+         * @param qos               The QoS to publish with.
+         */
+        Scenario(String name, int messagesPerSecond, int payloadSize, long durationMs, MqttQos qos)
+        {
+            this.name = name;
+            this.messagesPerSecond = messagesPerSecond;
+            this.payloadSize = payloadSize;
+            this.durationMs = durationMs;
+            this.qos = qos;
+        }
+
+        Scenario streamingQueueLimit(int limit)
+        {
+            streamingQueueLimit = limit;
+            return this;
+        }
+
+        Scenario overflowPolicy(IQueueOverflowPolicy policy)
+        {
+            overflowPolicy = policy;
+            return this;
+        }
+
+        /**
+         * Applies the event once the provided time has passed since publishing started. Events are applied in the
+         * order they are added, so they should be added in time order.
+         */
+        Scenario at(long offsetMs, IBrokerEvent event)
+        {
+            eventOffsetsMs.add(offsetMs);
+            events.add(event);
+            return this;
+        }
+    }
+
+    /**
+     * The results of running a scenario.
+     */
+    static final class Report
+    {
+        final String scenarioName;
+        final long elapsedMs;
+        final long sentCount;
+        final long publishedCount;
+        final long droppedCount;
+        final long failedCount;
+        final long receivedCount;
+        final long receivedSinceLastEvent;
+        final int pendingCount;
+        final int reconnectCount;
+        final PublishMetrics.Histogram ackLatency;
+        final long heapGrowthBytes;
+
+        private Report(String scenarioName, long elapsedMs, long sentCount, PublishMetrics.TopicMetrics metrics,
+                       long receivedCount, long receivedSinceLastEvent, int pendingCount, int reconnectCount,
+                       long heapGrowthBytes)
+        {
+            this.scenarioName = scenarioName;
+            this.elapsedMs = elapsedMs;
+            this.sentCount = sentCount;
+            this.receivedCount = receivedCount;
+            this.receivedSinceLastEvent = receivedSinceLastEvent;
+            this.pendingCount = pendingCount;
+            this.reconnectCount = reconnectCount;
+            this.heapGrowthBytes = heapGrowthBytes;
+            publishedCount = metrics.getPublishedCount();
+            droppedCount = metrics.getDroppedCount();
+            failedCount = metrics.getFailedCount();
+            ackLatency = metrics.getPublishLatency();
+        }
+
+        /**
+         * @return The published messages per second over the whole run, including the time taken to drain the queue.
+         */
+        double getMessagesPerSecond()
+        {
+            return elapsedMs == 0 ? 0 : publishedCount * 1_000.0 / elapsedMs;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format(Locale.US, "%s: %.0f msgs/sec over %d ms; sent %d, published %d, dropped %d, "
+                            + "failed %d, pending %d, received %d (%d since the last event), reconnects %d; "
+                            + "ack latency p50 %.2f ms, p95 %.2f ms, p99 %.2f ms, max %.2f ms; heap growth %d KB",
+                    scenarioName, getMessagesPerSecond(), elapsedMs, sentCount, publishedCount, droppedCount,
+                    failedCount, pendingCount, receivedCount, receivedSinceLastEvent, reconnectCount,
+                    toMillis(ackLatency.getPercentileNanos(50)), toMillis(ackLatency.getPercentileNanos(95)),
+                    toMillis(ackLatency.getPercentileNanos(99)), toMillis(ackLatency.getMaxNanos()),
+                    heapGrowthBytes / 1024);
+        }
+
+        private static double toMillis(long nanos)
+        {
+            return nanos / 1_000_000.0;
+        }
+    }
+
+    private volatile LocalMqttBroker broker;
+    private final int port;
+    private volatile long ackDelayMs = 0;
+
+    /**
+     * The publishes received by the brokers that were closed by a restart.
+     */
+    private volatile long receivedByClosedBrokers = 0;
+    private volatile long lastEventReceivedCount = 0;
+
+    private LoadTestHarness() throws IOException
+    {
+        broker = newBroker(0);
+        port = broker.getPort();
+    }
+
+    /**
+     * Runs the scenario against a new broker and connection.
+     */
+    static Report run(Scenario scenario) throws IOException, InterruptedException
+    {
+        try (LoadTestHarness harness = new LoadTestHarness())
+        {
+            return harness.execute(scenario);
+        }
+    }
+
+    /**
+     * @return The event that closes the broker and starts a new one on the same port after the downtime.
+     */
+    static IBrokerEvent restartBroker(long downtimeMs)
+    {
+        return harness -> harness.closeAndRestartBroker(downtimeMs);
+    }
+
+    /**
+     * @return The event that delays every following acknowledgement, to act like a slow consumer.
+     */
+    static IBrokerEvent delayAcks(long delayMs)
+    {
+        return harness -> harness.setAckDelayMs(delayMs);
+    }
+
+    /**
+     * @return The event that drops the client connections without an MQTT DISCONNECT, like a network failure.
+     */
+    static IBrokerEvent dropConnections()
+    {
+        return harness -> harness.dropClientConnections();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        broker.close();
+    }
+
+    private Report execute(Scenario scenario) throws IOException, InterruptedException
+    {
+        final long heapBefore = usedHeapAfterGc();
+        final String[] payloads = newPayloads(scenario.payloadSize);
+
+        final AtomicInteger connectCount = new AtomicInteger();
+        final DefaultMqttConnection connection = new DefaultMqttConnection();
+        connection.setReconnectStrategy(ReconnectStrategies.fixedDelay(RECONNECT_DELAY_MS, TimeUnit.MILLISECONDS));
+        connection.setStreamingQueueLimit(scenario.streamingQueueLimit);
+        connection.setQueueOverflowPolicy(scenario.overflowPolicy);
+        connection.registerMqttConnectionStateListener(state -> {
+            if (state == ConnectionState.CONNECTED) connectCount.incrementAndGet();
+        });
+        connection.connect(null, new BrokerConnectionInfo("127.0.0.1", port, false, "load-test-" + scenario.name,
+                null, null, "loadtest/", scenario.qos));
+
+        try
+        {
+            awaitConnected(connection);
+
+            final long start = System.nanoTime();
+            final EventRunner eventRunner = new EventRunner(scenario, start);
+            eventRunner.start();
+
+            final long sentCount = publishAtRate(connection, scenario, payloads, start);
+            awaitDrained(connection);
+            final long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            eventRunner.join();
+            if (eventRunner.failure != null) throw new IllegalStateException("A broker event failed",
+                    eventRunner.failure);
+
+            final long receivedByBroker = broker.getPublishCount();
+            return new Report(scenario.name, elapsedMs, sentCount, connection.getPublishMetrics().getTotals(),
+                    receivedByClosedBrokers + receivedByBroker, receivedByBroker - lastEventReceivedCount,
+                    connection.getPendingMessageCount(), Math.max(0, connectCount.get() - 1),
+                    usedHeapAfterGc() - heapBefore);
+        } finally
+        {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Publishes messages at the scenario's rate until its duration has passed. If publishing falls behind, the missed
+     * messages are sent right away so that the average rate is held.
+     *
+     * @return The number of messages that were published.
+     */
+    private static long publishAtRate(DefaultMqttConnection connection, Scenario scenario, String[] payloads,
+                                      long start)
+    {
+        final long intervalNanos = TimeUnit.SECONDS.toNanos(1) / scenario.messagesPerSecond;
+        final long end = start + TimeUnit.MILLISECONDS.toNanos(scenario.durationMs);
+
+        long sentCount = 0;
+        long nextSend = start;
+        long now;
+        while ((now = System.nanoTime()) < end)
+        {
+            if (now < nextSend)
+            {
+                LockSupport.parkNanos(nextSend - now);
+                continue;
+            }
+
+            connection.publishMessage("load_message", payloads[(int) (sentCount % payloads.length)]);
+            sentCount++;
+            nextSend += intervalNanos;
+        }
+        return sentCount;
+    }
+
+    private void closeAndRestartBroker(long downtimeMs) throws IOException, InterruptedException
+    {
+        final LocalMqttBroker oldBroker = broker;
+        oldBroker.close();
+        receivedByClosedBrokers += oldBroker.getPublishCount();
+
+        Thread.sleep(downtimeMs);
+        broker = newBroker(port);
+        lastEventReceivedCount = 0;
+    }
+
+    private void setAckDelayMs(long delayMs)
+    {
+        ackDelayMs = delayMs;
+        broker.setAckDelayMs(delayMs);
+        lastEventReceivedCount = broker.getPublishCount();
+    }
+
+    private void dropClientConnections() throws IOException
+    {
+        lastEventReceivedCount = broker.getPublishCount();
+        broker.dropConnections();
+    }
+
+    private LocalMqttBroker newBroker(int brokerPort) throws IOException
+    {
+        final LocalMqttBroker localBroker = new LocalMqttBroker(0, 0, brokerPort);
+        localBroker.setRecordPublishes(false);
+        if (ackDelayMs > 0) localBroker.setAckDelayMs(ackDelayMs);
+        return localBroker;
+    }
+
+    private static void awaitConnected(DefaultMqttConnection connection) throws InterruptedException
+    {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CONNECT_TIMEOUT_MS);
+        while (connection.getConnectionState() != ConnectionState.CONNECTED)
+        {
+            if (System.nanoTime() > deadline) throw new IllegalStateException("Could not connect to the local broker");
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Waits for the messages that are still in flight to be acknowledged, or for the timeout to pass.
+     */
+    private static void awaitDrained(DefaultMqttConnection connection) throws InterruptedException
+    {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_TIMEOUT_MS);
+        while (connection.getPendingMessageCount() > 0 && System.nanoTime() < deadline)
+        {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * @return JSON payloads of exactly the requested size, or as close as the JSON framing allows for tiny sizes.
+     */
+    private static String[] newPayloads(int payloadSize)
+    {
+        final String[] payloads = new String[PAYLOAD_VARIANTS];
+        for (int i = 0; i < PAYLOAD_VARIANTS; i++)
+        {
+            final String prefix = "{\"variant\":" + i + ",\"padding\":\"";
+            final String suffix = "\"}";
+            final char[] padding = new char[Math.max(0, payloadSize - prefix.length() - suffix.length())];
+            Arrays.fill(padding, (char) ('a' + i % 26));
+            payloads[i] = prefix + new String(padding) + suffix;
+        }
+        return payloads;
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException
+    {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+        {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Applies the scenario's broker events at their offsets from the start of publishing.
+     */
+    private final class EventRunner extends Thread
+    {
+        private final Scenario scenario;
+        private final long start;
+        private volatile Exception failure;
+
+        private EventRunner(Scenario scenario, long start)
+        {
+            super("LoadTestEvents");
+            setDaemon(true);
+            this.scenario = scenario;
+            this.start = start;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                for (int i = 0; i < scenario.events.size(); i++)
+                {
+                    final long waitNanos = start + TimeUnit.MILLISECONDS.toNanos(scenario.eventOffsetsMs.get(i))
+                            - System.nanoTime();
+                    if (waitNanos > 0) TimeUnit.NANOSECONDS.sleep(waitNanos);
+
+                    scenario.events.get(i).apply(LoadTestHarness.this);
+                }
+            } catch (Exception e)
+            {
+                failure = e;
+            }
+        }
+    }
+}
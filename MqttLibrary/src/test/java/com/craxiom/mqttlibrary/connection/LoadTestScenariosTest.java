@@ -0,0 +1,92 @@
+package com.craxiom.mqttlibrary.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.craxiom.mqttlibrary.MqttQos;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the {@link LoadTestHarness} scenarios against an in-process broker. The report for each scenario is included in
+ * the assertion messages.
+ * <p>
+ * Each scenario publishes for the requested number of seconds, so they are skipped during a normal build. Run them for
+ * a few seconds each as a load test, or for longer as a soak test, with:
+ * <pre>
+ * ./gradlew :MqttLibrary:testReleaseUnitTest -PloadTestSeconds=600 --tests com.craxiom.mqttlibrary.connection.LoadTestScenariosTest
+ * </pre>
+ *
+ * @since 1.3.0
+ */
+public class LoadTestScenariosTest
+{
+    private static final String DURATION_PROPERTY = "mqttlibrary.loadtest.seconds";
+    private static final long DURATION_MS = TimeUnit.SECONDS.toMillis(Long.getLong(DURATION_PROPERTY, 0));
+
+    @Before
+    public void setUp()
+    {
+        assumeTrue("Load tests are only run when requested with -PloadTestSeconds=<seconds>", DURATION_MS > 0);
+    }
+
+    @Test
+    public void validateSteadyStatePublishingKeepsUp() throws Exception
+    {
+        final LoadTestHarness.Report report = LoadTestHarness.run(
+                new LoadTestHarness.Scenario("steady-state", 1_000, 512, DURATION_MS, MqttQos.AT_LEAST_ONCE));
+
+        final String message = report.toString();
+        assertTrue(message, report.sentCount > 0);
+        assertEquals(message, 0, report.droppedCount);
+        assertEquals(message, 0, report.failedCount);
+        assertEquals(message, report.sentCount, report.publishedCount);
+        assertEquals(message, report.publishedCount, report.receivedCount);
+        assertEquals(message, report.publishedCount, report.ackLatency.getCount());
+    }
+
+    @Test
+    public void validateSlowConsumerCausesDropsInsteadOfUnboundedGrowth() throws Exception
+    {
+        // 50 messages in flight that each take 50 ms to be acknowledged is 1,000 messages per second at most
+        final long ackDelayMs = 50;
+        final LoadTestHarness.Report report = LoadTestHarness.run(
+                new LoadTestHarness.Scenario("slow-consumer", 3_000, 512, DURATION_MS, MqttQos.AT_LEAST_ONCE)
+                        .streamingQueueLimit(50)
+                        .at(0, LoadTestHarness.delayAcks(ackDelayMs)));
+
+        final String message = report.toString();
+        assertTrue("The queue limit should have dropped messages: " + message, report.droppedCount > 0);
+        assertEquals(message, report.sentCount, report.publishedCount + report.droppedCount);
+        assertTrue(message, report.ackLatency.getPercentileNanos(50) >= TimeUnit.MILLISECONDS.toNanos(ackDelayMs));
+        assertEquals(message, 0, report.pendingCount);
+    }
+
+    @Test
+    public void validatePublishingResumesAfterBrokerRestart() throws Exception
+    {
+        final LoadTestHarness.Report report = LoadTestHarness.run(
+                new LoadTestHarness.Scenario("broker-restart", 500, 512, DURATION_MS, MqttQos.AT_LEAST_ONCE)
+                        .at(DURATION_MS / 3, LoadTestHarness.restartBroker(500)));
+
+        final String message = report.toString();
+        assertTrue(message, report.reconnectCount >= 1);
+        assertTrue("Nothing was received after the restart: " + message, report.receivedSinceLastEvent > 0);
+    }
+
+    @Test
+    public void validatePublishingResumesAfterForcedDisconnect() throws Exception
+    {
+        final LoadTestHarness.Report report = LoadTestHarness.run(
+                new LoadTestHarness.Scenario("forced-disconnect", 500, 512, DURATION_MS, MqttQos.AT_LEAST_ONCE)
+                        .at(DURATION_MS / 2, LoadTestHarness.dropConnections()));
+
+        final String message = report.toString();
+        assertTrue(message, report.reconnectCount >= 1);
+        assertTrue("Nothing was received after the disconnect: " + message, report.receivedSinceLastEvent > 0);
+    }
+}
@@ -0,0 +1,627 @@
+package com.craxiom.mqttlibrary.connection;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A minimal MQTT broker that runs in the test process, so that the MQTT 3.1.1 and MQTT 5 clients can be tested
+ * against the packets they actually send without a broker being installed.
+ * <p>
+ * Only the packets needed to publish are supported: CONNECT, PUBLISH with QoS 0, 1, or 2, PUBREL, PINGREQ, and
+ * DISCONNECT. For MQTT 5 connections the CONNACK carries the configured Receive Maximum and Topic Alias Maximum, and
+ * topic aliases in the received publishes are resolved. The acknowledgements can be withheld to hold the client's
+ * in-flight window open, or delayed to act like a slow consumer, and the client connections can be dropped to force a
+ * reconnect.
+ *
+ * @since 1.3.0
+ */
+final class LocalMqttBroker implements Closeable
+{
+    /**
+     * The settings the client sent in its CONNECT packet.
+     */
+    static final class ConnectInfo
+    {
+        final int protocolLevel;
+        final String clientId;
+        final boolean cleanStart;
+        final long sessionExpiryInterval;
+
+        ConnectInfo(int protocolLevel, String clientId, boolean cleanStart, long sessionExpiryInterval)
+        {
+            this.protocolLevel = protocolLevel;
+            this.clientId = clientId;
+            this.cleanStart = cleanStart;
+            this.sessionExpiryInterval = sessionExpiryInterval;
+        }
+    }
+
+    /**
+     * A PUBLISH packet received from the client.
+     */
+    static final class ReceivedPublish
+    {
+        /**
+         * The topic, resolved from the topic alias if the topic name was not sent.
+         */
+        final String topic;
+
+        /**
+         * True if the topic name was sent in the packet, false if only the topic alias was.
+         */
+        final boolean topicNameSent;
+
+        /**
+         * The topic alias, or 0 if there wasn't one.
+         */
+        final int topicAlias;
+        final int qos;
+        final boolean retain;
+        final byte[] payload;
+
+        ReceivedPublish(String topic, boolean topicNameSent, int topicAlias, int qos, boolean retain, byte[] payload)
+        {
+            this.topic = topic;
+            this.topicNameSent = topicNameSent;
+            this.topicAlias = topicAlias;
+            this.qos = qos;
+            this.retain = retain;
+            this.payload = payload;
+        }
+    }
+
+    private static final int PROTOCOL_LEVEL_5 = 5;
+
+    private final int receiveMaximum;
+    private final int topicAliasMaximum;
+    private final ServerSocket serverSocket;
+    private final Thread acceptThread;
+
+    private final Object lock = new Object();
+    private final List<Socket> sockets = new ArrayList<>();
+    private final List<ConnectInfo> connects = new ArrayList<>();
+    private final List<ReceivedPublish> publishes = new ArrayList<>();
+    private final List<Runnable> withheldAcks = new ArrayList<>();
+    private boolean withholdAcks = false;
+    private boolean recordPublishes = true;
+    private long ackDelayMs = 0;
+    private ScheduledExecutorService ackTimer;
+    private long publishCount = 0;
+    private int inFlight = 0;
+    private int maxInFlight = 0;
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param receiveMaximum    The Receive Maximum sent to MQTT 5 clients, or 0 to not send one.
+     * @param topicAliasMaximum The Topic Alias Maximum sent to MQTT 5 clients, or 0 to not allow topic aliases.
+     */
+    LocalMqttBroker(int receiveMaximum, int topicAliasMaximum) throws IOException
+    {
+        this(receiveMaximum, topicAliasMaximum, 0);
+    }
+
+    /**
+     * @param receiveMaximum    The Receive Maximum sent to MQTT 5 clients, or 0 to not send one.
+     * @param topicAliasMaximum The Topic Alias Maximum sent to MQTT 5 clients, or 0 to not allow topic aliases.
+     * @param port              The port to listen on, such as the port of a broker that was closed to simulate a
+     *                          restart, or 0 to pick a free port.
+     */
+    LocalMqttBroker(int receiveMaximum, int topicAliasMaximum, int port) throws IOException
+    {
+        this.receiveMaximum = receiveMaximum;
+        this.topicAliasMaximum = topicAliasMaximum;
+
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 50);
+        acceptThread = new Thread(this::acceptConnections, "LocalMqttBroker");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    int getPort()
+    {
+        return serverSocket.getLocalPort();
+    }
+
+    List<ConnectInfo> getConnects()
+    {
+        synchronized (lock)
+        {
+            return new ArrayList<>(connects);
+        }
+    }
+
+    List<ReceivedPublish> getPublishes()
+    {
+        synchronized (lock)
+        {
+            return new ArrayList<>(publishes);
+        }
+    }
+
+    /**
+     * Keeps every received publish for {@link #getPublishes()} when true, which is the default. Benchmarks that send
+     * more publishes than fit in memory turn this off and only use {@link #getPublishCount()}.
+     */
+    void setRecordPublishes(boolean record)
+    {
+        synchronized (lock)
+        {
+            recordPublishes = record;
+        }
+    }
+
+    /**
+     * @return The number of publishes received, whether or not they were recorded.
+     */
+    long getPublishCount()
+    {
+        synchronized (lock)
+        {
+            return publishCount;
+        }
+    }
+
+    /**
+     * Waits until at least the provided number of publishes have been received.
+     *
+     * @return True if they were received before the timeout.
+     */
+    boolean awaitPublishes(int count, long timeoutMs) throws InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (lock)
+        {
+            while (publishCount < count)
+            {
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) return false;
+                lock.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Stops acknowledging QoS 1 and 2 publishes when true. When set back to false, all the withheld acknowledgements
+     * are sent.
+     */
+    void setWithholdAcks(boolean withhold)
+    {
+        final List<Runnable> acks;
+        synchronized (lock)
+        {
+            withholdAcks = withhold;
+            if (withhold) return;
+
+            acks = new ArrayList<>(withheldAcks);
+            withheldAcks.clear();
+        }
+
+        for (Runnable ack : acks)
+        {
+            ack.run();
+        }
+    }
+
+    /**
+     * Delays the acknowledgement of each QoS 1 and 2 publish, like a broker that is slow to deliver the messages to its
+     * subscribers.
+     *
+     * @param delayMs The delay, or 0 to acknowledge each publish as soon as it is received.
+     */
+    void setAckDelayMs(long delayMs)
+    {
+        synchronized (lock)
+        {
+            ackDelayMs = delayMs;
+            if (delayMs > 0 && ackTimer == null)
+            {
+                ackTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    final Thread thread = new Thread(runnable, "LocalMqttBroker-ack");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+    }
+
+    /**
+     * Closes the connections to all the clients without an MQTT DISCONNECT, like a network failure would, while
+     * continuing to accept new connections.
+     */
+    void dropConnections() throws IOException
+    {
+        final List<Socket> connected;
+        synchronized (lock)
+        {
+            connected = new ArrayList<>(sockets);
+            sockets.clear();
+        }
+
+        for (Socket socket : connected)
+        {
+            socket.close();
+        }
+    }
+
+    /**
+     * @return The most QoS 1 and 2 publishes that were waiting for an acknowledgement at the same time.
+     */
+    int getMaxInFlight()
+    {
+        synchronized (lock)
+        {
+            return maxInFlight;
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        closed = true;
+        serverSocket.close();
+        synchronized (lock)
+        {
+            if (ackTimer != null) ackTimer.shutdownNow();
+
+            for (Socket socket : sockets)
+            {
+                socket.close();
+            }
+        }
+    }
+
+    private void acceptConnections()
+    {
+        while (!closed)
+        {
+            try
+            {
+                final Socket socket = serverSocket.accept();
+                synchronized (lock)
+                {
+                    sockets.add(socket);
+                }
+
+                final Thread connectionThread = new Thread(() -> serve(socket), "LocalMqttBroker-connection");
+                connectionThread.setDaemon(true);
+                connectionThread.start();
+            } catch (IOException e)
+            {
+                // The server socket was closed
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket)
+    {
+        try
+        {
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            final OutputStream output = socket.getOutputStream();
+            final Map<Integer, String> topicAliases = new HashMap<>();
+            int protocolLevel = 0;
+
+            while (!closed)
+            {
+                final int header = input.read();
+                if (header < 0) return;
+
+                final byte[] body = new byte[readVariableInt(input)];
+                input.readFully(body);
+                final Packet packet = new Packet(body);
+
+                switch (header >> 4)
+                {
+                    case 1: // CONNECT
+                        protocolLevel = readConnect(packet);
+                        writeConnAck(output, protocolLevel);
+                        break;
+
+                    case 3: // PUBLISH
+                        readPublish(output, header, packet, protocolLevel, topicAliases);
+                        break;
+
+                    case 6: // PUBREL
+                        write(output, 0x70, new byte[]{body[0], body[1]});
+                        break;
+
+                    case 12: // PINGREQ
+                        write(output, 0xD0, new byte[0]);
+                        break;
+
+                    case 14: // DISCONNECT
+                        socket.close();
+                        return;
+
+                    default:
+                        throw new IOException("Unsupported packet type " + (header >> 4));
+                }
+            }
+        } catch (IOException e)
+        {
+            // The connection was closed
+        }
+    }
+
+    private int readConnect(Packet packet)
+    {
+        packet.readString(); // Protocol name
+        final int protocolLevel = packet.readByte();
+        final int flags = packet.readByte();
+        packet.readShort(); // Keep alive
+
+        long sessionExpiryInterval = 0;
+        if (protocolLevel == PROTOCOL_LEVEL_5)
+        {
+            final Map<Integer, Long> properties = packet.readProperties();
+            final Long interval = properties.get(0x11);
+            if (interval != null) sessionExpiryInterval = interval;
+        }
+
+        final String clientId = packet.readString();
+        synchronized (lock)
+        {
+            connects.add(new ConnectInfo(protocolLevel, clientId, (flags & 0x02) != 0, sessionExpiryInterval));
+        }
+        return protocolLevel;
+    }
+
+    private void writeConnAck(OutputStream output, int protocolLevel) throws IOException
+    {
+        if (protocolLevel != PROTOCOL_LEVEL_5)
+        {
+            write(output, 0x20, new byte[]{0, 0});
+            return;
+        }
+
+        final List<Byte> properties = new ArrayList<>();
+        if (receiveMaximum > 0) addShortProperty(properties, 0x21, receiveMaximum);
+        if (topicAliasMaximum > 0) addShortProperty(properties, 0x22, topicAliasMaximum);
+
+        final byte[] body = new byte[3 + properties.size()];
+        body[2] = (byte) properties.size();
+        for (int i = 0; i < properties.size(); i++)
+        {
+            body[3 + i] = properties.get(i);
+        }
+        write(output, 0x20, body);
+    }
+
+    private void readPublish(OutputStream output, int header, Packet packet, int protocolLevel,
+                             Map<Integer, String> topicAliases) throws IOException
+    {
+        final int qos = (header >> 1) & 0x03;
+        final boolean retain = (header & 0x01) != 0;
+
+        String topic = packet.readString();
+        final int packetId = qos > 0 ? packet.readShort() : 0;
+
+        int topicAlias = 0;
+        if (protocolLevel == PROTOCOL_LEVEL_5)
+        {
+            final Long alias = packet.readProperties().get(0x23);
+            if (alias != null) topicAlias = alias.intValue();
+        }
+
+        final boolean topicNameSent = !topic.isEmpty();
+        if (topicAlias != 0)
+        {
+            if (topicNameSent)
+            {
+                topicAliases.put(topicAlias, topic);
+            } else
+            {
+                topic = topicAliases.get(topicAlias);
+                if (topic == null) throw new IOException("Unknown topic alias " + topicAlias);
+            }
+        }
+
+        final ReceivedPublish publish = new ReceivedPublish(topic, topicNameSent, topicAlias, qos, retain,
+                packet.readRemaining());
+        final Runnable ack = () -> {
+            synchronized (lock)
+            {
+                inFlight--;
+            }
+            try
+            {
+                write(output, qos == 1 ? 0x40 : 0x50, new byte[]{(byte) (packetId >> 8), (byte) packetId});
+            } catch (IOException ignored)
+            {
+                // The connection was closed
+            }
+        };
+
+        final boolean withhold;
+        final long delayMs;
+        synchronized (lock)
+        {
+            publishCount++;
+            if (recordPublishes) publishes.add(publish);
+            if (qos > 0)
+            {
+                inFlight++;
+                maxInFlight = Math.max(maxInFlight, inFlight);
+            }
+
+            withhold = qos > 0 && withholdAcks;
+            if (withhold) withheldAcks.add(ack);
+            delayMs = ackDelayMs;
+            lock.notifyAll();
+        }
+
+        if (qos == 0 || withhold) return;
+
+        if (delayMs > 0)
+        {
+            try
+            {
+                ackTimer.schedule(ack, delayMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e)
+            {
+                // The broker was closed
+            }
+        } else
+        {
+            ack.run();
+        }
+    }
+
+    private static void addShortProperty(List<Byte> properties, int id, int value)
+    {
+        properties.add((byte) id);
+        properties.add((byte) (value >> 8));
+        properties.add((byte) value);
+    }
+
+    private static void write(OutputStream output, int header, byte[] body) throws IOException
+    {
+        synchronized (output)
+        {
+            output.write(header);
+            int length = body.length;
+            do
+            {
+                int encoded = length & 0x7F;
+                length >>>= 7;
+                if (length > 0) encoded |= 0x80;
+                output.write(encoded);
+            } while (length > 0);
+            output.write(body);
+            output.flush();
+        }
+    }
+
+    private static int readVariableInt(InputStream input) throws IOException
+    {
+        int value = 0;
+        int shift = 0;
+        int encoded;
+        do
+        {
+            encoded = input.read();
+            if (encoded < 0) throw new EOFException();
+            value |= (encoded & 0x7F) << shift;
+            shift += 7;
+        } while ((encoded & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Reads the fields of a packet body.
+     */
+    private static final class Packet
+    {
+        private final byte[] body;
+        private int position = 0;
+
+        Packet(byte[] body)
+        {
+            this.body = body;
+        }
+
+        int readByte()
+        {
+            return body[position++] & 0xFF;
+        }
+
+        int readShort()
+        {
+            return (readByte() << 8) | readByte();
+        }
+
+        long readInt()
+        {
+            return ((long) readShort() << 16) | readShort();
+        }
+
+        int readVariableInt()
+        {
+            int value = 0;
+            int shift = 0;
+            int encoded;
+            do
+            {
+                encoded = readByte();
+                value |= (encoded & 0x7F) << shift;
+                shift += 7;
+            } while ((encoded & 0x80) != 0);
+            return value;
+        }
+
+        String readString()
+        {
+            final int length = readShort();
+            final String value = new String(body, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        byte[] readRemaining()
+        {
+            final byte[] remaining = new byte[body.length - position];
+            System.arraycopy(body, position, remaining, 0, remaining.length);
+            position = body.length;
+            return remaining;
+        }
+
+        /**
+         * Reads the MQTT 5 properties, keeping the values of the numeric ones and skipping the rest.
+         */
+        Map<Integer, Long> readProperties()
+        {
+            final Map<Integer, Long> properties = new HashMap<>();
+            final int end = readVariableInt() + position;
+            while (position < end)
+            {
+                final int id = readVariableInt();
+                switch (id)
+                {
+                    case 0x01: case 0x17: case 0x19: case 0x24: case 0x25: case 0x28: case 0x29: case 0x2A:
+                        properties.put(id, (long) readByte());
+                        break;
+                    case 0x13: case 0x21: case 0x22: case 0x23:
+                        properties.put(id, (long) readShort());
+                        break;
+                    case 0x02: case 0x11: case 0x18: case 0x27:
+                        properties.put(id, readInt());
+                        break;
+                    case 0x0B:
+                        properties.put(id, (long) readVariableInt());
+                        break;
+                    case 0x26: // User property, a pair of strings
+                        readString();
+                        readString();
+                        break;
+                    default: // UTF-8 string or binary data
+                        position += readShort();
+                        break;
+                }
+            }
+            return properties;
+        }
+    }
+}
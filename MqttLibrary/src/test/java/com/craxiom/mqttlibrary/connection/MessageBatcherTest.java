@@ -0,0 +1,238 @@
+package com.craxiom.mqttlibrary.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Timestamp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the {@link MessageBatcher} class.
+ *
+ * @since 1.3.0
+ */
+public class MessageBatcherTest
+{
+    private static final long LONG_DELAY_MS = 60_000L;
+
+    private final PayloadBufferPool payloadBufferPool = new PayloadBufferPool();
+    private final LinkedBlockingQueue<PublishedBatch> publishedBatches = new LinkedBlockingQueue<>();
+    private final ScheduledExecutorService flushScheduler = Executors.newSingleThreadScheduledExecutor();
+    private MessageBatcher messageBatcher;
+
+    @After
+    public void tearDown()
+    {
+        if (messageBatcher != null) messageBatcher.close();
+        flushScheduler.shutdownNow();
+    }
+
+    @Test
+    public void validateBatchPublishedWhenMaxMessagesReached()
+    {
+        messageBatcher = createBatcher(new BatchingConfig(3, 0, LONG_DELAY_MS));
+
+        addJson("lte_message", "{\"pci\":1}");
+        addJson("lte_message", "{\"pci\":2}");
+        assertTrue(publishedBatches.isEmpty());
+
+        addJson("lte_message", "{\"pci\":3}");
+
+        assertEquals(1, publishedBatches.size());
+        final PublishedBatch batch = publishedBatches.poll();
+        assertEquals("lte_message", batch.topic);
+        assertEquals("[{\"pci\":1},{\"pci\":2},{\"pci\":3}]", batch.asString());
+    }
+
+    @Test
+    public void validateBatchesAreKeptPerTopic()
+    {
+        messageBatcher = createBatcher(new BatchingConfig(2, 0, LONG_DELAY_MS));
+
+        addJson("lte_message", "{\"pci\":1}");
+        addJson("nr_message", "{\"pci\":2}");
+        assertTrue(publishedBatches.isEmpty());
+
+        addJson("nr_message", "{\"pci\":3}");
+
+        final PublishedBatch batch = publishedBatches.poll();
+        assertEquals("nr_message", batch.topic);
+        assertEquals("[{\"pci\":2},{\"pci\":3}]", batch.asString());
+        assertTrue(publishedBatches.isEmpty());
+    }
+
+    @Test
+    public void validateBatchPublishedBeforeMaxBytesExceeded()
+    {
+        // Each message is 9 bytes, so "[m1,m2]" is 21 bytes and adding a third message would make it 31 bytes
+        messageBatcher = createBatcher(new BatchingConfig(0, 25, LONG_DELAY_MS));
+
+        addJson("lte_message", "{\"pci\":1}");
+        addJson("lte_message", "{\"pci\":2}");
+        assertTrue(publishedBatches.isEmpty());
+
+        addJson("lte_message", "{\"pci\":3}");
+
+        assertEquals("[{\"pci\":1},{\"pci\":2}]", publishedBatches.poll().asString());
+        messageBatcher.flushAll();
+        assertEquals("[{\"pci\":3}]", publishedBatches.poll().asString());
+    }
+
+    @Test
+    public void validateOversizedMessageIsPublishedAlone()
+    {
+        messageBatcher = createBatcher(new BatchingConfig(0, 8, LONG_DELAY_MS));
+
+        addJson("lte_message", "{\"pci\":12345}");
+
+        assertEquals("[{\"pci\":12345}]", publishedBatches.poll().asString());
+    }
+
+    @Test
+    public void validateBatchPublishedWhenMaxDelayReached() throws Exception
+    {
+        messageBatcher = createBatcher(new BatchingConfig(100, 0, 50));
+
+        final long start = System.nanoTime();
+        addJson("lte_message", "{\"pci\":1}");
+        addJson("lte_message", "{\"pci\":2}");
+
+        final PublishedBatch batch = publishedBatches.poll(5, TimeUnit.SECONDS);
+        final long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals("[{\"pci\":1},{\"pci\":2}]", batch.asString());
+        assertTrue("The batch was published before the max delay, elapsed=" + elapsedMs, elapsedMs >= 45);
+    }
+
+    @Test
+    public void validateFlushAllPublishesEveryOpenBatch()
+    {
+        messageBatcher = createBatcher(new BatchingConfig(100, 0, LONG_DELAY_MS));
+
+        addJson("lte_message", "{\"pci\":1}");
+        addJson("nr_message", "{\"pci\":2}");
+        messageBatcher.flushAll();
+
+        assertEquals(2, publishedBatches.size());
+
+        messageBatcher.flushAll();
+        assertEquals("Empty batches must not be published", 2, publishedBatches.size());
+    }
+
+    @Test
+    public void validateMessagesAddedAfterClosePublishImmediately()
+    {
+        messageBatcher = createBatcher(new BatchingConfig(100, 0, LONG_DELAY_MS));
+        addJson("lte_message", "{\"pci\":1}");
+
+        messageBatcher.close();
+        assertEquals("[{\"pci\":1}]", publishedBatches.poll().asString());
+
+        addJson("lte_message", "{\"pci\":2}");
+        assertEquals("[{\"pci\":2}]", publishedBatches.poll().asString());
+    }
+
+    @Test
+    public void validateLengthDelimitedFraming() throws Exception
+    {
+        messageBatcher = createBatcher(new BatchingConfig(3, 0, LONG_DELAY_MS));
+
+        final List<Timestamp> timestamps = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+        {
+            final Timestamp timestamp = Timestamp.newBuilder().setSeconds(1_792_145_730L + i).setNanos(i * 1000).build();
+            timestamps.add(timestamp);
+
+            final PayloadBuffer messageBuffer = payloadBufferPool.acquire();
+            messageBuffer.write(ByteBuffer.wrap(timestamp.toByteArray()));
+            messageBatcher.add("gnss_message", messageBuffer, MessageBatcher.Framing.LENGTH_DELIMITED);
+        }
+
+        final CodedInputStream inputStream = CodedInputStream.newInstance(publishedBatches.poll().payload);
+        for (Timestamp expected : timestamps)
+        {
+            final int length = inputStream.readRawVarint32();
+            assertEquals(expected, Timestamp.parseFrom(inputStream.readRawBytes(length)));
+        }
+        assertTrue(inputStream.isAtEnd());
+    }
+
+    @Test
+    public void validateFramingChangeStartsNewBatch()
+    {
+        messageBatcher = createBatcher(new BatchingConfig(100, 0, LONG_DELAY_MS));
+
+        addJson("lte_message", "{\"pci\":1}");
+        final PayloadBuffer binaryMessage = payloadBufferPool.acquire();
+        binaryMessage.write((byte) 0x08);
+        binaryMessage.write((byte) 0x01);
+        messageBatcher.add("lte_message", binaryMessage, MessageBatcher.Framing.LENGTH_DELIMITED);
+
+        assertEquals("[{\"pci\":1}]", publishedBatches.poll().asString());
+    }
+
+    @Test
+    public void validateCloseLeavesTheSharedSchedulerRunning() throws Exception
+    {
+        final MessageBatcher closedBatcher = createBatcher(new BatchingConfig(100, 0, LONG_DELAY_MS));
+        messageBatcher = closedBatcher;
+        addJson("lte_message", "{\"pci\":1}");
+        closedBatcher.close();
+
+        assertEquals("[{\"pci\":1}]", publishedBatches.poll().asString());
+        assertFalse(flushScheduler.isShutdown());
+
+        // A batcher created for the next connection still gets its timed flushes from the same scheduler
+        messageBatcher = createBatcher(new BatchingConfig(100, 0, 50L));
+        addJson("lte_message", "{\"pci\":2}");
+
+        final PublishedBatch batch = publishedBatches.poll(5, TimeUnit.SECONDS);
+        assertEquals("[{\"pci\":2}]", batch.asString());
+    }
+
+    private MessageBatcher createBatcher(BatchingConfig batchingConfig)
+    {
+        return new MessageBatcher(batchingConfig, payloadBufferPool, flushScheduler, (topic, payloadBuffer) -> {
+            final ByteBuffer payload = payloadBuffer.toPayload();
+            final byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            payloadBufferPool.release(payloadBuffer);
+            publishedBatches.add(new PublishedBatch(topic, bytes));
+        });
+    }
+
+    private void addJson(String topic, String json)
+    {
+        messageBatcher.add(topic, payloadBufferPool.acquire().append(json), MessageBatcher.Framing.JSON_ARRAY);
+    }
+
+    private static final class PublishedBatch
+    {
+        private final String topic;
+        private final byte[] payload;
+
+        private PublishedBatch(String topic, byte[] payload)
+        {
+            this.topic = topic;
+            this.payload = payload;
+        }
+
+        private String asString()
+        {
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.craxiom.mqttlibrary.connection;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.hivemq.client.mqtt.MqttClient;
+import com.hivemq.client.mqtt.MqttClientBuilder;
+import com.hivemq.client.mqtt.datatypes.MqttQos;
+import com.hivemq.client.mqtt.datatypes.MqttTopic;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the {@link Mqtt3ClientEngine} and {@link Mqtt5ClientEngine} classes against a {@link LocalMqttBroker}.
+ *
+ * @since 1.3.0
+ */
+public class MqttClientEngineTest
+{
+    private static final long TIMEOUT_MS = 10_000;
+
+    private LocalMqttBroker broker;
+    private IMqttClientEngine engine;
+
+    @After
+    public void tearDown() throws Exception
+    {
+        if (engine != null) engine.disconnect().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        if (broker != null) broker.close();
+    }
+
+    @Test(timeout = 30_000)
+    public void validateMqtt5ConnectUsesSessionExpiryInsteadOfCleanSession() throws Exception
+    {
+        broker = new LocalMqttBroker(0, 0);
+        engine = new Mqtt5ClientEngine(clientBuilder("mqtt5-session").useMqttVersion5(), null, null,
+                MqttQos.AT_LEAST_ONCE, new Mqtt5Config(3600, 8));
+        engine.connect().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        final LocalMqttBroker.ConnectInfo connect = broker.getConnects().get(0);
+        assertEquals(5, connect.protocolLevel);
+        assertEquals("mqtt5-session", connect.clientId);
+        assertFalse(connect.cleanStart);
+        assertEquals(3600, connect.sessionExpiryInterval);
+        assertTrue(engine.getState().isConnected());
+    }
+
+    @Test(timeout = 30_000)
+    public void validateMqtt5AssignsTopicAliasesToRepeatedTopics() throws Exception
+    {
+        broker = new LocalMqttBroker(0, 8);
+        engine = new Mqtt5ClientEngine(clientBuilder("mqtt5-alias").useMqttVersion5(), null, null,
+                MqttQos.AT_LEAST_ONCE, Mqtt5Config.DEFAULT);
+        engine.connect().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        final String[] topics = {"prefix/lte_message", "prefix/80211_beacon_message"};
+        final int messagesPerTopic = 50;
+        publishAndWait(topics, messagesPerTopic);
+
+        final List<LocalMqttBroker.ReceivedPublish> publishes = broker.getPublishes();
+        assertEquals(topics.length * messagesPerTopic, publishes.size());
+        for (String topic : topics)
+        {
+            int topicNameCount = 0;
+            int aliasOnlyCount = 0;
+            int index = 0;
+            for (LocalMqttBroker.ReceivedPublish publish : publishes)
+            {
+                if (!publish.topic.equals(topic)) continue;
+
+                assertArrayEquals((topic + index++).getBytes(StandardCharsets.UTF_8), publish.payload);
+                if (publish.topicNameSent)
+                {
+                    topicNameCount++;
+                } else
+                {
+                    assertTrue(publish.topicAlias > 0);
+                    aliasOnlyCount++;
+                }
+            }
+
+            assertEquals(messagesPerTopic, index);
+            assertTrue(topic + " sent the topic name " + topicNameCount + " times",
+                    aliasOnlyCount > messagesPerTopic / 2);
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void validateMqtt5WithoutTopicAliases() throws Exception
+    {
+        broker = new LocalMqttBroker(0, 8);
+        engine = new Mqtt5ClientEngine(clientBuilder("mqtt5-no-alias").useMqttVersion5(), null, null,
+                MqttQos.AT_LEAST_ONCE, new Mqtt5Config(0, 0));
+        engine.connect().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        publishAndWait(new String[]{"prefix/gnss_message"}, 20);
+
+        for (LocalMqttBroker.ReceivedPublish publish : broker.getPublishes())
+        {
+            assertTrue(publish.topicNameSent);
+            assertEquals(0, publish.topicAlias);
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void validateInFlightNeverExceedsReceiveMaximum() throws Exception
+    {
+        final int receiveMaximum = 5;
+        broker = new LocalMqttBroker(receiveMaximum, 0);
+        engine = new Mqtt5ClientEngine(clientBuilder("mqtt5-window").useMqttVersion5(), null, null,
+                MqttQos.AT_LEAST_ONCE, Mqtt5Config.DEFAULT);
+        engine.connect().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertEquals(receiveMaximum, engine.getInFlightWindow());
+
+        // The streaming queue applies the broker's window, so the messages beyond it go to the overflow policy
+        final List<PayloadBuffer> dropped = new ArrayList<>();
+        final StreamingQueueController streamingQueue = new StreamingQueueController(new NoOpCallbacks(dropped));
+        streamingQueue.setLimit(100);
+        streamingQueue.setInFlightWindow(engine.getInFlightWindow());
+
+        broker.setWithholdAcks(true);
+        final PayloadBufferPool payloadBufferPool = new PayloadBufferPool();
+        final List<CompletableFuture<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+        {
+            final PayloadBuffer payloadBuffer = payloadBufferPool.acquire().append("message" + i);
+            if (!streamingQueue.admit("window", payloadBuffer)) continue;
+
+            futures.add(engine.publish(MqttTopic.of("prefix/window"), payloadBuffer.toPayload(), false)
+                    .whenComplete((result, error) -> streamingQueue.onPublishComplete(payloadBuffer.length())));
+        }
+        assertEquals(receiveMaximum, futures.size());
+        assertEquals(20 - receiveMaximum, dropped.size());
+        assertTrue(streamingQueue.isBackpressureActive());
+
+        assertTrue(broker.awaitPublishes(receiveMaximum, TIMEOUT_MS));
+        broker.setWithholdAcks(false);
+        for (CompletableFuture<?> future : futures)
+        {
+            future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(0, streamingQueue.getPendingMessageCount());
+        assertFalse(streamingQueue.isBackpressureActive());
+        assertTrue(broker.getMaxInFlight() <= receiveMaximum);
+    }
+
+    @Test(timeout = 30_000)
+    public void validateClientHoldsBackPublishesBeyondReceiveMaximum() throws Exception
+    {
+        final int receiveMaximum = 3;
+        broker = new LocalMqttBroker(receiveMaximum, 0);
+        engine = new Mqtt5ClientEngine(clientBuilder("mqtt5-held").useMqttVersion5(), null, null,
+                MqttQos.AT_LEAST_ONCE, Mqtt5Config.DEFAULT);
+        engine.connect().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        broker.setWithholdAcks(true);
+        final List<CompletableFuture<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 12; i++)
+        {
+            futures.add(engine.publish(MqttTopic.of("prefix/held"), ByteBuffer.wrap(new byte[]{(byte) i}), false));
+        }
+
+        assertTrue(broker.awaitPublishes(receiveMaximum, TIMEOUT_MS));
+        assertFalse("The client sent more than the Receive Maximum",
+                broker.awaitPublishes(receiveMaximum + 1, 500));
+
+        broker.setWithholdAcks(false);
+        for (CompletableFuture<?> future : futures)
+        {
+            future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(12, broker.getPublishes().size());
+        assertTrue(broker.getMaxInFlight() <= receiveMaximum);
+    }
+
+    @Test(timeout = 30_000)
+    public void validateMqtt3EnginePublishesWithCleanSessionDisabled() throws Exception
+    {
+        broker = new LocalMqttBroker(5, 8);
+        engine = new Mqtt3ClientEngine(clientBuilder("mqtt3").useMqttVersion3(), null, null,
+                MqttQos.AT_LEAST_ONCE);
+        engine.connect().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        final LocalMqttBroker.ConnectInfo connect = broker.getConnects().get(0);
+        assertEquals(4, connect.protocolLevel);
+        assertFalse(connect.cleanStart);
+        assertEquals("MQTT 3.1.1 has no in-flight window", 0, engine.getInFlightWindow());
+
+        publishAndWait(new String[]{"prefix/lte_message"}, 10);
+        for (LocalMqttBroker.ReceivedPublish publish : broker.getPublishes())
+        {
+            assertTrue(publish.topicNameSent);
+            assertEquals(1, publish.qos);
+        }
+
+        engine.publish(MqttTopic.of("prefix/$meta/descriptor/lte_message/Lte"), ByteBuffer.wrap(new byte[]{1}), true)
+                .get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertTrue(broker.getPublishes().get(10).retain);
+    }
+
+    @Test
+    public void validateOnlyCredentialErrorsAreAuthenticationFailures() throws IOException
+    {
+        broker = new LocalMqttBroker(0, 0);
+        final IMqttClientEngine mqtt5Engine = new Mqtt5ClientEngine(clientBuilder("auth").useMqttVersion5(), "user",
+                "password", MqttQos.AT_LEAST_ONCE, Mqtt5Config.DEFAULT);
+        final IMqttClientEngine mqtt3Engine = new Mqtt3ClientEngine(clientBuilder("auth").useMqttVersion3(), "user",
+                "password", MqttQos.AT_LEAST_ONCE);
+
+        assertFalse(mqtt5Engine.isAuthenticationFailure(null));
+        assertFalse(mqtt5Engine.isAuthenticationFailure(new IOException("Connection refused")));
+        assertFalse(mqtt3Engine.isAuthenticationFailure(new IOException("Connection refused")));
+    }
+
+    private MqttClientBuilder clientBuilder(String clientId)
+    {
+        return MqttClient.builder()
+                .identifier(clientId)
+                .serverHost("127.0.0.1")
+                .serverPort(broker.getPort());
+    }
+
+    /**
+     * Publishes the messages to each topic in turn, and waits for all of them to be acknowledged.
+     */
+    private void publishAndWait(String[] topics, int messagesPerTopic) throws Exception
+    {
+        final List<CompletableFuture<?>> futures = new ArrayList<>();
+        for (int i = 0; i < messagesPerTopic; i++)
+        {
+            for (String topic : topics)
+            {
+                futures.add(engine.publish(MqttTopic.of(topic),
+                        ByteBuffer.wrap((topic + i).getBytes(StandardCharsets.UTF_8)), false));
+            }
+        }
+
+        for (CompletableFuture<?> future : futures)
+        {
+            future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        assertTrue(broker.awaitPublishes(topics.length * messagesPerTopic, TIMEOUT_MS));
+    }
+
+    private static final class NoOpCallbacks implements StreamingQueueController.IQueueCallbacks
+    {
+        private final List<PayloadBuffer> released;
+
+        NoOpCallbacks(List<PayloadBuffer> released)
+        {
+            this.released = released;
+        }
+
+        @Override
+        public void publishFromBacklog(String mqttMessageTopic, PayloadBuffer payloadBuffer)
+        {
+        }
+
+        @Override
+        public void release(String mqttMessageTopic, PayloadBuffer payloadBuffer)
+        {
+            released.add(payloadBuffer);
+        }
+
+        @Override
+        public void onQueueFull(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+        {
+        }
+
+        @Override
+        public void onQueueDrained(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+        {
+        }
+
+        @Override
+        public void onQueueGrowthWarning(int queueSize, int queueLimit, long queueBytes, long queueByteLimit,
+                                         long msUntilFull)
+        {
+        }
+
+        @Override
+        public void onQueueGrowthWarningCleared(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+        {
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.craxiom.mqttlibrary.connection;
+
+import com.hivemq.client.mqtt.datatypes.MqttTopic;
+import com.hivemq.client.mqtt.mqtt3.message.publish.Mqtt3Publish;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares building the topic for each publish from the topic prefix and message topic with reusing the validated
+ * topics held by the {@link MqttTopicCache}.
+ *
+ * @since 1.3.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MqttTopicCacheBenchmark
+{
+    private static final String TOPIC_PREFIX = "craxiom/network-survey/Pixel8-356789104523611/";
+    private static final String[] MESSAGE_TOPICS = {"lte_message", "nr_message", "umts_message", "gsm_message",
+            "cdma_message", "wifi_beacon_message", "bluetooth_message", "gnss_message", "device_status_message",
+            "phone_state_message", "cellular_beacon_message", "80211_beacon_message"};
+
+    private final MqttTopicCache topicCache = new MqttTopicCache();
+    private int index;
+
+    @Setup
+    public void setup()
+    {
+        topicCache.reset(TOPIC_PREFIX);
+    }
+
+    private String nextMessageTopic()
+    {
+        index = (index + 1) % MESSAGE_TOPICS.length;
+        return MESSAGE_TOPICS[index];
+    }
+
+    @Benchmark
+    public MqttTopic concatenateAndValidateTopic()
+    {
+        return MqttTopic.of(TOPIC_PREFIX + nextMessageTopic());
+    }
+
+    @Benchmark
+    public MqttTopic cachedTopic()
+    {
+        return topicCache.get(nextMessageTopic());
+    }
+
+    @Benchmark
+    public Mqtt3Publish buildPublishWithTopicString()
+    {
+        return Mqtt3Publish.builder().topic(TOPIC_PREFIX + nextMessageTopic()).build();
+    }
+
+    @Benchmark
+    public Mqtt3Publish buildPublishWithCachedTopic()
+    {
+        return Mqtt3Publish.builder().topic(topicCache.get(nextMessageTopic())).build();
+    }
+}
@@ -0,0 +1,88 @@
+package com.craxiom.mqttlibrary.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+
+import com.hivemq.client.mqtt.datatypes.MqttTopic;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link MqttTopicCache} class.
+ *
+ * @since 1.3.0
+ */
+public class MqttTopicCacheTest
+{
+    @Test
+    public void validatePrefixIsPrepended()
+    {
+        final MqttTopicCache topicCache = new MqttTopicCache();
+        topicCache.reset("craxiom/");
+
+        assertEquals("craxiom/lte_message", topicCache.get("lte_message").toString());
+    }
+
+    @Test
+    public void validateNullPrefixIsTreatedAsEmpty()
+    {
+        final MqttTopicCache topicCache = new MqttTopicCache();
+        topicCache.reset(null);
+
+        assertEquals("lte_message", topicCache.get("lte_message").toString());
+    }
+
+    @Test
+    public void validateTopicsAreReused()
+    {
+        final MqttTopicCache topicCache = new MqttTopicCache();
+        topicCache.reset("craxiom/");
+
+        final MqttTopic topic = topicCache.get("lte_message");
+
+        assertSame(topic, topicCache.get("lte_message"));
+        assertEquals(1, topicCache.size());
+    }
+
+    @Test
+    public void validateResetClearsTheCache()
+    {
+        final MqttTopicCache topicCache = new MqttTopicCache();
+        topicCache.reset("craxiom/");
+        final MqttTopic oldTopic = topicCache.get("lte_message");
+
+        topicCache.reset("survey/");
+
+        assertEquals(0, topicCache.size());
+        final MqttTopic newTopic = topicCache.get("lte_message");
+        assertNotSame(oldTopic, newTopic);
+        assertEquals("survey/lte_message", newTopic.toString());
+    }
+
+    @Test
+    public void validateCacheIsBounded()
+    {
+        final MqttTopicCache topicCache = new MqttTopicCache(2);
+        topicCache.reset("");
+
+        topicCache.get("a");
+        topicCache.get("b");
+        final MqttTopic uncachedTopic = topicCache.get("c");
+
+        assertEquals(2, topicCache.size());
+        assertEquals("c", uncachedTopic.toString());
+        assertNotSame(uncachedTopic, topicCache.get("c"));
+    }
+
+    @Test
+    public void validateInvalidTopicIsRejected()
+    {
+        final MqttTopicCache topicCache = new MqttTopicCache();
+        topicCache.reset("craxiom/");
+
+        assertThrows(IllegalArgumentException.class, () -> topicCache.get("lte/#"));
+        assertEquals(0, topicCache.size());
+    }
+}
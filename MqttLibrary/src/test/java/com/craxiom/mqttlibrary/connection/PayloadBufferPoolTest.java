@@ -0,0 +1,302 @@
+package com.craxiom.mqttlibrary.connection;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.craxiom.mqttlibrary.MqttPayloadFormat;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageOrBuilder;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Timestamp;
+import com.google.protobuf.util.JsonFormat;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Tests the {@link PayloadBufferPool} and {@link PayloadBuffer} classes.
+ *
+ * @since 1.3.0
+ */
+public class PayloadBufferPoolTest
+{
+    private static final String SURVEY_RECORD = "{\"version\":\"1.3.0\",\"messageType\":\"LteRecord\",\"data\":{"
+            + "\"deviceSerialNumber\":\"356789104523611\",\"deviceName\":\"Pixel 8\",\"deviceTime\":\"2026-10-16T10:15:30.123Z\","
+            + "\"latitude\":51.50735,\"longitude\":-0.127758,\"altitude\":35.2,\"missionId\":\"survey-2026-10-16\","
+            + "\"recordNumber\":1234,\"groupNumber\":7,\"mcc\":310,\"mnc\":260,\"tac\":10801,\"eci\":136724482,"
+            + "\"earfcn\":5230,\"pci\":331,\"rsrp\":-97.0,\"rsrq\":-11.0,\"ta\":3,\"servingCell\":true,\"lteBandwidth\":\"MHZ_10\"}}";
+    private static final String SURVEY_TOPIC = "lte_message";
+    private static final int ALLOCATION_ITERATIONS = 100_000;
+
+    /**
+     * Configured the same as the printer in {@link DefaultMqttConnection}.
+     */
+    private final JsonFormat.Printer jsonFormatter =
+            JsonFormat.printer().preservingProtoFieldNames().omittingInsignificantWhitespace();
+    private long checksum;
+
+    @Test
+    public void validateUtf8Encoding()
+    {
+        final String[] samples = {"", "plain ascii", "caf\u00e9 \u00fcber", "\u6e2c\u91cf", "emoji \ud83d\udce1 signal",
+                "lone high \ud83d", "lone low \udce1 end", "trailing high \ud83d", SURVEY_RECORD};
+
+        final PayloadBufferPool pool = new PayloadBufferPool(4, 4, 1024);
+        for (String sample : samples)
+        {
+            final PayloadBuffer buffer = pool.acquire().append(sample);
+
+            assertArrayEquals(sample, sample.getBytes(StandardCharsets.UTF_8), toBytes(buffer.toPayload()));
+            assertEquals(sample.getBytes(StandardCharsets.UTF_8).length, buffer.length());
+            pool.release(buffer);
+        }
+    }
+
+    @Test
+    public void validateSurrogatePairSplitAcrossAppends()
+    {
+        final PayloadBuffer buffer = new PayloadBuffer(16);
+        buffer.append("a").append('\ud83d').append('\udce1').append("b");
+
+        assertArrayEquals("a\ud83d\udce1b".getBytes(StandardCharsets.UTF_8), toBytes(buffer.toPayload()));
+    }
+
+    @Test
+    public void validateBinaryWrite() throws Exception
+    {
+        final Timestamp timestamp = Timestamp.newBuilder().setSeconds(1_792_145_730L).setNanos(123_000_000).build();
+        final PayloadBuffer buffer = new PayloadBuffer(2);
+
+        final CodedOutputStream outputStream = CodedOutputStream.newInstance(
+                buffer.prepareWrite(timestamp.getSerializedSize()));
+        timestamp.writeTo(outputStream);
+        outputStream.flush();
+
+        assertArrayEquals(timestamp.toByteArray(), toBytes(buffer.toPayload()));
+    }
+
+    @Test
+    public void validateBuffersAreReused()
+    {
+        final PayloadBufferPool pool = new PayloadBufferPool(2, 64, 1024);
+
+        final PayloadBuffer first = pool.acquire().append("first");
+        first.toPayload();
+        pool.release(first);
+
+        final PayloadBuffer second = pool.acquire();
+        assertSame(first, second);
+        assertEquals(0, second.length());
+        assertArrayEquals("second".getBytes(StandardCharsets.UTF_8), toBytes(second.append("second").toPayload()));
+    }
+
+    @Test
+    public void validateOversizedBuffersAreNotRetained()
+    {
+        final PayloadBufferPool pool = new PayloadBufferPool(2, 16, 64);
+
+        final PayloadBuffer buffer = pool.acquire().append(SURVEY_RECORD);
+        pool.release(buffer);
+
+        assertEquals(0, pool.size());
+        assertNotSame(buffer, pool.acquire());
+    }
+
+    @Test
+    public void validatePoolIsBounded()
+    {
+        final PayloadBufferPool pool = new PayloadBufferPool(2, 16, 64);
+
+        pool.release(new PayloadBuffer(16));
+        pool.release(new PayloadBuffer(16));
+        pool.release(new PayloadBuffer(16));
+
+        assertEquals(2, pool.size());
+    }
+
+    /**
+     * Shows that once the pool has warmed up, encoding a message into a pooled buffer and releasing it again does not
+     * allocate, whereas the previous {@code String.getBytes()} approach allocates at least the full payload size for
+     * every message.
+     */
+    @Test
+    public void validateSteadyStateEncodingIsAllocationFree()
+    {
+        final com.sun.management.ThreadMXBean allocationMxBean = getAllocationMxBean();
+        final PayloadBufferPool pool = new PayloadBufferPool();
+
+        final double pooledBytesPerMessage = allocatedBytesPerCall(allocationMxBean,
+                () -> checksum += encodeAndRelease(pool));
+        final double getBytesBytesPerMessage = allocatedBytesPerCall(allocationMxBean,
+                () -> checksum += SURVEY_RECORD.getBytes(StandardCharsets.UTF_8).length);
+
+        assertTrue(String.format(Locale.US, "Expected the String.getBytes() path to allocate the %d byte payload but "
+                        + "it allocated %.2f bytes per message", SURVEY_RECORD.length(), getBytesBytesPerMessage),
+                getBytesBytesPerMessage >= SURVEY_RECORD.length());
+        assertTrue(String.format(Locale.US, "Expected the pooled path to be allocation free in steady state but it "
+                + "allocated %.2f bytes per message", pooledBytesPerMessage), pooledBytesPerMessage < 8);
+        assertTrue(checksum > 0);
+    }
+
+    /**
+     * Measures the bytes allocated by each {@link DefaultMqttConnection#publishMessage(String, MessageOrBuilder)} call
+     * once the pool has warmed up, publishing to a {@link FakeMqttClientEngine} that completes each publish right away.
+     * The JSON printer and the completion callback still allocate, but the payload is printed straight into a pooled
+     * buffer and never copied. A whole publish therefore allocates less than printing the message to a string and
+     * calling {@code String.getBytes()} did for the encoding alone.
+     */
+    @Test
+    public void validateSteadyStatePublishDoesNotCopyThePayload() throws Exception
+    {
+        final com.sun.management.ThreadMXBean allocationMxBean = getAllocationMxBean();
+
+        final Struct.Builder builder = Struct.newBuilder();
+        JsonFormat.parser().merge(SURVEY_RECORD, builder);
+        final Struct message = builder.build();
+        final int payloadLength = printToBytes(message).length;
+
+        final FakeMqttClientEngine engine = new FakeMqttClientEngine();
+        final DefaultMqttConnection connection = new DefaultMqttConnection();
+        connection.attachEngine(engine, new BrokerConnectionInfo("127.0.0.1", 1883, false, "allocation-test", null,
+                null, "survey/", null));
+        final PayloadBufferPool pool = new PayloadBufferPool();
+
+        final double publishBytesPerMessage = allocatedBytesPerCall(allocationMxBean,
+                () -> connection.publishMessage(SURVEY_TOPIC, message));
+        final double printerBytesPerMessage = allocatedBytesPerCall(allocationMxBean,
+                () -> checksum += appendAndRelease(pool, message));
+        final double stringBytesPerMessage = allocatedBytesPerCall(allocationMxBean,
+                () -> checksum += printToBytes(message).length);
+
+        // Every publish, including the warm up, went all the way through to the client
+        assertEquals(2L * ALLOCATION_ITERATIONS, engine.getPublishCount());
+        assertEquals(2L * ALLOCATION_ITERATIONS * payloadLength, engine.getPublishedBytes());
+
+        assertTrue(String.format(Locale.US, "Expected printing to a string and calling String.getBytes() to allocate "
+                        + "the %d byte payload at least twice but it allocated %.2f bytes per message", payloadLength,
+                stringBytesPerMessage), stringBytesPerMessage >= 2 * payloadLength);
+        assertTrue(String.format(Locale.US, "Expected a publish to allocate less than the string encoding alone but "
+                        + "the publish allocated %.2f bytes per message and the string encoding %.2f",
+                publishBytesPerMessage, stringBytesPerMessage), publishBytesPerMessage < stringBytesPerMessage);
+        assertTrue(String.format(Locale.US, "Expected the publish path besides the JSON printer to allocate less than "
+                        + "a copy of the %d byte payload but it allocated %.2f bytes per message (%.2f for the whole "
+                        + "publish, %.2f for the printer)", payloadLength,
+                publishBytesPerMessage - printerBytesPerMessage, publishBytesPerMessage, printerBytesPerMessage),
+                publishBytesPerMessage - printerBytesPerMessage < payloadLength);
+        assertTrue(checksum > 0);
+    }
+
+    /**
+     * Measures the bytes allocated by each binary {@link com.craxiom.mqttlibrary.MqttPayloadFormat#PROTOBUF} publish
+     * once the descriptor has been published. The message is written straight into a pooled buffer, and checking
+     * whether the descriptor has been published does not build the descriptor topic, so only protobuf's
+     * {@link CodedOutputStream} and the completion callback allocate. Uses a message type without map fields, since
+     * protobuf allocates a map entry for each map field it writes.
+     */
+    @Test
+    public void validateSteadyStateBinaryPublishIsNearlyAllocationFree()
+    {
+        final com.sun.management.ThreadMXBean allocationMxBean = getAllocationMxBean();
+
+        final Timestamp message = Timestamp.newBuilder().setSeconds(1_792_145_730L).setNanos(123_000_000).build();
+        final String topic = "lte_message/serving_cell/neighbor_report";
+
+        final FakeMqttClientEngine engine = new FakeMqttClientEngine();
+        final DefaultMqttConnection connection = new DefaultMqttConnection();
+        connection.attachEngine(engine, new BrokerConnectionInfo("127.0.0.1", 1883, false, "allocation-test", null,
+                null, "survey/", null).withPayloadFormat(MqttPayloadFormat.PROTOBUF));
+
+        final double publishBytesPerMessage = allocatedBytesPerCall(allocationMxBean,
+                () -> connection.publishMessage(topic, message));
+
+        // The descriptor, and then every publish including the warm up
+        assertEquals(1L + 2L * ALLOCATION_ITERATIONS, engine.getPublishCount());
+
+        final int descriptorTopicLength = DefaultMqttConnection.getDescriptorTopic(topic,
+                message.getDescriptorForType().getFullName()).length();
+        assertTrue(String.format(Locale.US, "Expected a binary publish to allocate less than a %d character "
+                        + "descriptor topic string (about 40 bytes plus one per character) but it allocated %.2f bytes per "
+                        + "message", descriptorTopicLength,
+                publishBytesPerMessage), publishBytesPerMessage < descriptorTopicLength + 40);
+    }
+
+    /**
+     * @return The thread MX bean that can report the bytes allocated by a thread. The test is skipped if the JVM can't.
+     */
+    private static com.sun.management.ThreadMXBean getAllocationMxBean()
+    {
+        final ThreadMXBean threadMxBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMxBean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean allocationMxBean = (com.sun.management.ThreadMXBean) threadMxBean;
+        assumeTrue(allocationMxBean.isThreadAllocatedMemorySupported());
+        allocationMxBean.setThreadAllocatedMemoryEnabled(true);
+        return allocationMxBean;
+    }
+
+    /**
+     * Runs the call enough times for the pools to fill and the JIT to compile it, then measures the bytes that the
+     * current thread allocates per call.
+     */
+    private static double allocatedBytesPerCall(com.sun.management.ThreadMXBean allocationMxBean, Runnable call)
+    {
+        for (int i = 0; i < ALLOCATION_ITERATIONS; i++) call.run();
+
+        final long threadId = Thread.currentThread().getId();
+        final long start = allocationMxBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ALLOCATION_ITERATIONS; i++) call.run();
+        return (allocationMxBean.getThreadAllocatedBytes(threadId) - start) / (double) ALLOCATION_ITERATIONS;
+    }
+
+    private byte[] printToBytes(MessageOrBuilder message)
+    {
+        try
+        {
+            return jsonFormatter.print(message).getBytes(StandardCharsets.UTF_8);
+        } catch (InvalidProtocolBufferException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int appendAndRelease(PayloadBufferPool pool, MessageOrBuilder message)
+    {
+        final PayloadBuffer buffer = pool.acquire();
+        try
+        {
+            jsonFormatter.appendTo(message, buffer);
+        } catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        final int length = buffer.toPayload().remaining();
+        pool.release(buffer);
+        return length;
+    }
+
+    private static int encodeAndRelease(PayloadBufferPool pool)
+    {
+        final PayloadBuffer buffer = pool.acquire().append(SURVEY_RECORD);
+        final int length = buffer.toPayload().remaining();
+        pool.release(buffer);
+        return length;
+    }
+
+    private static byte[] toBytes(ByteBuffer payload)
+    {
+        final byte[] bytes = new byte[payload.remaining()];
+        payload.duplicate().get(bytes);
+        return bytes;
+    }
+}
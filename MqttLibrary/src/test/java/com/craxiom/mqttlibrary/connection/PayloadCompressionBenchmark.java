@@ -0,0 +1,142 @@
+package com.craxiom.mqttlibrary.connection;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the CPU cost per message of compressing the typical survey record payloads with each
+ * {@link CompressionConfig.Algorithm}, along with the compression ratio that is achieved.
+ * <p>
+ * The time per operation is the cost of compressing a single message. The {@code originalBytes} and
+ * {@code compressedBytes} secondary results hold the total payload sizes before and after compression, and the
+ * compression ratio for each configuration is also printed at the end of its trial.
+ *
+ * @since 1.3.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadCompressionBenchmark
+{
+    private static final int PAYLOAD_COUNT = 1024;
+    private static final int DICTIONARY_SAMPLE_COUNT = 1000;
+    private static final int DICTIONARY_SIZE = 16 * 1024;
+
+    @Param({"LTE_RECORD", "WIFI_BEACON_RECORD", "GNSS_RECORD"})
+    public String shapeName;
+
+    @Param({"DEFLATE", "DEFLATE_DICTIONARY", "ZSTD", "ZSTD_DICTIONARY"})
+    public String algorithmName;
+
+    @Param({"1", "6"})
+    public int level;
+
+    private final PayloadBufferPool payloadBufferPool = new PayloadBufferPool();
+    private SamplePayloads.Shape shape;
+    private CompressionConfig.Algorithm algorithm;
+    private PayloadCompressor compressor;
+    private byte[][] payloads;
+    private int index;
+
+    private long trialOriginalBytes;
+    private long trialCompressedBytes;
+
+    /**
+     * The payload bytes compressed during each iteration, reported by JMH as secondary results.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class ByteCounters
+    {
+        public long originalBytes;
+        public long compressedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            originalBytes = 0;
+            compressedBytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        shape = SamplePayloads.Shape.valueOf(shapeName);
+        algorithm = CompressionConfig.Algorithm.valueOf(algorithmName);
+        final CompressionConfig config = algorithm.usesDictionary()
+                ? new CompressionConfig(algorithm, level, DICTIONARY_SAMPLE_COUNT, DICTIONARY_SIZE)
+                : new CompressionConfig(algorithm, level);
+        // Train on this thread so that the dictionary is ready before the measurement starts
+        compressor = new PayloadCompressor(config, payloadBufferPool, Runnable::run);
+
+        // Train the dictionary from earlier records than the ones that are measured
+        final SamplePayloads samplePayloads = new SamplePayloads(shape, 42);
+        if (algorithm.usesDictionary())
+        {
+            for (int i = 0; i < DICTIONARY_SAMPLE_COUNT; i++)
+            {
+                payloadBufferPool.release(compress(samplePayloads.nextBytes(), false));
+            }
+        }
+
+        payloads = new byte[PAYLOAD_COUNT][];
+        for (int i = 0; i < PAYLOAD_COUNT; i++)
+        {
+            payloads[i] = samplePayloads.nextBytes();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void printCompressionRatio()
+    {
+        System.out.printf(Locale.US, "%n%s %s level %d: compression ratio %.2f (%d -> %d bytes)%n", shape, algorithm,
+                level, (double) trialOriginalBytes / trialCompressedBytes, trialOriginalBytes, trialCompressedBytes);
+        compressor.close();
+    }
+
+    @Benchmark
+    public int compress(ByteCounters counters)
+    {
+        index = (index + 1) % PAYLOAD_COUNT;
+        final byte[] payload = payloads[index];
+
+        final PayloadBuffer compressed = compress(payload, true);
+        final int compressedLength = compressed.length();
+        payloadBufferPool.release(compressed);
+
+        counters.originalBytes += payload.length;
+        counters.compressedBytes += compressedLength;
+        trialOriginalBytes += payload.length;
+        trialCompressedBytes += compressedLength;
+        return compressedLength;
+    }
+
+    private PayloadBuffer compress(byte[] payload, boolean useDictionary)
+    {
+        final PayloadBuffer source = payloadBufferPool.acquire();
+        source.write(ByteBuffer.wrap(payload));
+        final PayloadBuffer compressed = compressor.compress(source, useDictionary);
+        payloadBufferPool.release(source);
+        return compressed;
+    }
+}
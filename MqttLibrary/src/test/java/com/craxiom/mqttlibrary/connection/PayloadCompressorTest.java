@@ -0,0 +1,434 @@
+package com.craxiom.mqttlibrary.connection;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.hivemq.client.mqtt.datatypes.MqttTopic;
+import com.hivemq.client.mqtt.datatypes.MqttTopicFilter;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Tests the {@link PayloadCompressor}, {@link DictionaryTrainer}, and {@link ZstdCompressor} classes, and the
+ * publishing of the compressed payloads and their dictionaries by the {@link DefaultMqttConnection}. The compressors
+ * train their dictionaries on the calling thread unless a test says otherwise.
+ *
+ * @since 1.3.0
+ */
+public class PayloadCompressorTest
+{
+    private final PayloadBufferPool payloadBufferPool = new PayloadBufferPool();
+
+    @Test
+    public void validateDeflateRoundTrip() throws Exception
+    {
+        final PayloadCompressor compressor = new PayloadCompressor(
+                new CompressionConfig(CompressionConfig.Algorithm.DEFLATE, 6), payloadBufferPool, Runnable::run);
+        final SamplePayloads payloads = new SamplePayloads(SamplePayloads.Shape.LTE_RECORD, 1);
+
+        for (int i = 0; i < 20; i++)
+        {
+            final byte[] original = payloads.nextBytes();
+            final byte[] compressed = compress(compressor, original, true);
+
+            assertTrue(compressed.length < original.length);
+            assertArrayEquals(original, inflate(compressed, null));
+        }
+        assertNull("Plain deflate does not train a dictionary", compressor.getDictionary());
+    }
+
+    @Test
+    public void validateIncompressiblePayloadRoundTrip() throws Exception
+    {
+        final PayloadCompressor compressor = new PayloadCompressor(
+                new CompressionConfig(CompressionConfig.Algorithm.DEFLATE, 9), payloadBufferPool, Runnable::run);
+        final byte[] original = new byte[10_000];
+        new Random(7).nextBytes(original);
+
+        assertArrayEquals(original, inflate(compress(compressor, original, true), null));
+    }
+
+    @Test
+    public void validateDictionaryIsTrainedAndIdentifiedInTheZlibHeader() throws Exception
+    {
+        final int sampleCount = 50;
+        final PayloadCompressor compressor = new PayloadCompressor(
+                new CompressionConfig(CompressionConfig.Algorithm.DEFLATE_DICTIONARY, 6, sampleCount, 4096),
+                payloadBufferPool, Runnable::run);
+        final SamplePayloads payloads = new SamplePayloads(SamplePayloads.Shape.WIFI_BEACON_RECORD, 2);
+
+        for (int i = 0; i < sampleCount - 1; i++)
+        {
+            final byte[] original = payloads.nextBytes();
+            assertArrayEquals(original, inflate(compress(compressor, original, true), null));
+        }
+        assertNull(compressor.getDictionary());
+
+        compress(compressor, payloads.nextBytes(), true);
+        final byte[] dictionary = compressor.getDictionary();
+        assertNotNull(dictionary);
+        assertTrue(dictionary.length <= 4096);
+
+        final Adler32 adler32 = new Adler32();
+        adler32.update(dictionary, 0, dictionary.length);
+        assertEquals((int) adler32.getValue(), compressor.getDictionaryId());
+
+        final byte[] original = payloads.nextBytes();
+        final byte[] withDictionary = compress(compressor, original, true);
+        final byte[] withoutDictionary = compress(compressor, original, false);
+
+        // FDICT flag, followed by the big endian dictionary ID
+        assertTrue((withDictionary[1] & 0x20) != 0);
+        assertEquals(compressor.getDictionaryId(), ByteBuffer.wrap(withDictionary, 2, 4).getInt());
+        assertFalse((withoutDictionary[1] & 0x20) != 0);
+
+        assertArrayEquals(original, inflate(withDictionary, dictionary));
+        assertArrayEquals(original, inflate(withoutDictionary, null));
+    }
+
+    @Test
+    public void validateDictionaryIsTrainedOnTheTrainingExecutor() throws Exception
+    {
+        final int sampleCount = 20;
+        final List<Runnable> trainingTasks = new ArrayList<>();
+        final PayloadCompressor compressor = new PayloadCompressor(
+                new CompressionConfig(CompressionConfig.Algorithm.DEFLATE_DICTIONARY, 6, sampleCount, 4096),
+                payloadBufferPool, trainingTasks::add);
+        final SamplePayloads payloads = new SamplePayloads(SamplePayloads.Shape.LTE_RECORD, 4);
+
+        for (int i = 0; i < sampleCount; i++)
+        {
+            compress(compressor, payloads.nextBytes(), true);
+        }
+        assertEquals(1, trainingTasks.size());
+        assertNull("The dictionary must not be trained on the publishing thread", compressor.getDictionary());
+
+        // Plain deflate is used until the dictionary is ready
+        final byte[] original = payloads.nextBytes();
+        final byte[] beforeTraining = compress(compressor, original, true);
+        assertFalse((beforeTraining[1] & 0x20) != 0);
+        assertArrayEquals(original, inflate(beforeTraining, null));
+
+        trainingTasks.get(0).run();
+        final byte[] dictionary = compressor.getDictionary();
+        assertNotNull(dictionary);
+        assertArrayEquals(original, inflate(compress(compressor, original, true), dictionary));
+        assertEquals("Only one dictionary is trained", 1, trainingTasks.size());
+    }
+
+    @Test
+    public void validateZstdRoundTrip()
+    {
+        assumeTrue(CompressionConfig.isZstdAvailable());
+        final PayloadCompressor compressor = new PayloadCompressor(
+                new CompressionConfig(CompressionConfig.Algorithm.ZSTD, 3), payloadBufferPool, Runnable::run);
+        final SamplePayloads payloads = new SamplePayloads(SamplePayloads.Shape.LTE_RECORD, 1);
+
+        for (int i = 0; i < 20; i++)
+        {
+            final byte[] original = payloads.nextBytes();
+            final byte[] compressed = compress(compressor, original, true);
+
+            assertTrue(compressed.length < original.length);
+            assertEquals(original.length, Zstd.getFrameContentSize(compressed));
+            assertArrayEquals(original, Zstd.decompress(compressed, original.length));
+        }
+
+        final byte[] incompressible = new byte[10_000];
+        new Random(7).nextBytes(incompressible);
+        assertArrayEquals(incompressible, Zstd.decompress(compress(compressor, incompressible, true),
+                incompressible.length));
+        assertNull("Plain zstd does not train a dictionary", compressor.getDictionary());
+        compressor.close();
+    }
+
+    @Test
+    public void validateZstdDictionaryIsTrainedAndIdentifiedInTheFrameHeader()
+    {
+        assumeTrue(CompressionConfig.isZstdAvailable());
+        final int sampleCount = 500;
+        final PayloadCompressor compressor = new PayloadCompressor(
+                new CompressionConfig(CompressionConfig.Algorithm.ZSTD_DICTIONARY, 3, sampleCount, 8192),
+                payloadBufferPool, Runnable::run);
+        final SamplePayloads payloads = new SamplePayloads(SamplePayloads.Shape.WIFI_BEACON_RECORD, 2);
+
+        long plainBytes = 0;
+        for (int i = 0; i < sampleCount; i++)
+        {
+            plainBytes += compress(compressor, payloads.nextBytes(), false).length;
+        }
+        final byte[] dictionary = compressor.getDictionary();
+        assertNotNull(dictionary);
+        assertTrue(dictionary.length <= 8192);
+        assertEquals((int) Zstd.getDictIdFromDict(dictionary), compressor.getDictionaryId());
+        assertTrue(compressor.getDictionaryId() != 0);
+
+        long dictionaryBytes = 0;
+        final ZstdDecompressCtx decompressor = new ZstdDecompressCtx();
+        decompressor.loadDict(dictionary);
+        try
+        {
+            for (int i = 0; i < sampleCount; i++)
+            {
+                final byte[] original = payloads.nextBytes();
+                final byte[] withDictionary = compress(compressor, original, true);
+                dictionaryBytes += withDictionary.length;
+
+                assertEquals(compressor.getDictionaryId(), (int) Zstd.getDictIdFromFrame(withDictionary));
+                assertArrayEquals(original, decompressor.decompress(withDictionary, original.length));
+            }
+        } finally
+        {
+            decompressor.close();
+        }
+
+        final byte[] withoutDictionary = compress(compressor, payloads.nextBytes(), false);
+        assertEquals(0, Zstd.getDictIdFromFrame(withoutDictionary));
+        assertTrue("dictionary " + dictionaryBytes + " vs plain " + plainBytes, dictionaryBytes * 3 < plainBytes * 2);
+        compressor.close();
+    }
+
+    /**
+     * Publishes through a {@link DefaultMqttConnection} the way an app would, and decodes what was published the way a
+     * consumer would: payloads without a dictionary ID in the frame header are decompressed on their own, and the
+     * others with the dictionary from the retained dictionary topic for that ID.
+     */
+    @Test(timeout = 30_000)
+    public void validateZstdDictionaryPayloadsDecodeWithThePublishedDictionary() throws Exception
+    {
+        assumeTrue(CompressionConfig.isZstdAvailable());
+        final String topic = "wifi_beacon_message";
+        final int sampleCount = 200;
+        final FakeMqttClientEngine engine = new FakeMqttClientEngine(true);
+        final DefaultMqttConnection connection = new DefaultMqttConnection();
+        connection.attachEngine(engine, new BrokerConnectionInfo("127.0.0.1", 1883, false, "compression-test", null,
+                null, "survey/", null).withCompressionConfigs(Map.of(topic,
+                new CompressionConfig(CompressionConfig.Algorithm.ZSTD_DICTIONARY, 3, sampleCount, 8192))));
+
+        // The dictionary is trained in the background, so keep publishing until it has been published
+        final SamplePayloads payloads = new SamplePayloads(SamplePayloads.Shape.WIFI_BEACON_RECORD, 3);
+        final List<String> originals = new ArrayList<>();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        int publishedAfterDictionary = 0;
+        while (publishedAfterDictionary < 100)
+        {
+            assertTrue("The dictionary was not published in time", System.nanoTime() < deadline);
+            final String message = payloads.next();
+            originals.add(message);
+            connection.publishMessage(topic, message);
+            if (publishedAfterDictionary > 0 || engine.getPublishes().stream().anyMatch(publish -> publish.retain))
+            {
+                publishedAfterDictionary++;
+            }
+        }
+
+        final MqttTopicFilter messageSubscription = MqttTopicFilter.of("survey/" + topic + "/#");
+        final Map<Integer, byte[]> dictionaries = new HashMap<>();
+        int messageIndex = 0;
+        int plainFrames = 0;
+        int dictionaryFrames = 0;
+        for (FakeMqttClientEngine.Publish publish : engine.getPublishes())
+        {
+            if (publish.retain)
+            {
+                final int dictionaryId = (int) Zstd.getDictIdFromDict(publish.payload);
+                assertEquals(String.format(Locale.US, "survey/$meta/dictionary/%s/%08x", topic, dictionaryId),
+                        publish.topic);
+                assertEquals("survey/" + DefaultMqttConnection.getDictionaryTopic(topic, dictionaryId), publish.topic);
+                assertFalse(messageSubscription.matches(MqttTopic.of(publish.topic)));
+                dictionaries.put(dictionaryId, publish.payload);
+                continue;
+            }
+
+            assertEquals("survey/" + topic, publish.topic);
+            final byte[] original = originals.get(messageIndex++).getBytes(StandardCharsets.UTF_8);
+            assertEquals(original.length, Zstd.getFrameContentSize(publish.payload));
+
+            final int dictionaryId = (int) Zstd.getDictIdFromFrame(publish.payload);
+            if (dictionaryId == 0)
+            {
+                plainFrames++;
+                assertArrayEquals(original, Zstd.decompress(publish.payload, original.length));
+            } else
+            {
+                dictionaryFrames++;
+                final byte[] dictionary = dictionaries.get(dictionaryId);
+                assertNotNull("The dictionary is published before the first payload that needs it", dictionary);
+                try (ZstdDecompressCtx decompressor = new ZstdDecompressCtx())
+                {
+                    decompressor.loadDict(dictionary);
+                    assertArrayEquals(original, decompressor.decompress(publish.payload, original.length));
+                }
+            }
+        }
+
+        assertEquals(originals.size(), messageIndex);
+        assertEquals("Only one dictionary is trained", 1, dictionaries.size());
+        assertTrue("The samples are compressed without the dictionary", plainFrames >= sampleCount);
+        assertTrue(dictionaryFrames >= 100);
+    }
+
+    @Test
+    public void validateTrainedDictionaryImprovesSmallPayloadCompression()
+    {
+        for (SamplePayloads.Shape shape : SamplePayloads.Shape.values())
+        {
+            final SamplePayloads payloads = new SamplePayloads(shape, 3);
+            final List<byte[]> samples = new ArrayList<>();
+            for (int i = 0; i < 500; i++)
+            {
+                samples.add(payloads.nextBytes());
+            }
+
+            final byte[] dictionary = DictionaryTrainer.train(samples, 8192);
+            assertTrue(dictionary.length > 0 && dictionary.length <= 8192);
+
+            final PayloadCompressor plain = new PayloadCompressor(
+                    new CompressionConfig(CompressionConfig.Algorithm.DEFLATE, 6), payloadBufferPool, Runnable::run);
+            final PayloadCompressor withDictionary = new PayloadCompressor(
+                    new CompressionConfig(CompressionConfig.Algorithm.DEFLATE_DICTIONARY, 6, 500, 8192),
+                    payloadBufferPool, Runnable::run);
+            for (byte[] sample : samples)
+            {
+                compress(withDictionary, sample, false);
+            }
+
+            long originalBytes = 0;
+            long plainBytes = 0;
+            long dictionaryBytes = 0;
+            for (int i = 0; i < 200; i++)
+            {
+                final byte[] original = payloads.nextBytes();
+                originalBytes += original.length;
+                plainBytes += compress(plain, original, true).length;
+                dictionaryBytes += compress(withDictionary, original, true).length;
+            }
+
+            assertTrue(shape + " dictionary " + dictionaryBytes + " vs plain " + plainBytes,
+                    dictionaryBytes * 3 < plainBytes * 2);
+            assertTrue(shape + " ratio " + (double) originalBytes / dictionaryBytes,
+                    originalBytes > dictionaryBytes * 3);
+        }
+    }
+
+    @Test
+    public void validateTrainingFromSamplesSmallerThanTheDictionary()
+    {
+        final List<byte[]> samples = new ArrayList<>();
+        samples.add(new byte[]{1, 2, 3});
+        samples.add(new byte[]{4, 5});
+
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, DictionaryTrainer.train(samples, 1024));
+        assertEquals(0, DictionaryTrainer.train(new ArrayList<>(), 1024).length);
+    }
+
+    @Test(timeout = 30_000)
+    public void validateConcurrentCompression() throws Exception
+    {
+        final PayloadCompressor compressor = new PayloadCompressor(
+                new CompressionConfig(CompressionConfig.Algorithm.DEFLATE_DICTIONARY, 6, 100, 4096),
+                payloadBufferPool, Runnable::run);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++)
+        {
+            final long seed = t;
+            futures.add(executor.submit(() -> {
+                final SamplePayloads payloads = new SamplePayloads(SamplePayloads.Shape.GNSS_RECORD, seed);
+                for (int i = 0; i < 500; i++)
+                {
+                    final byte[] original = payloads.nextBytes();
+                    final byte[] dictionary = compressor.getDictionary();
+                    final PayloadBuffer source = payloadBufferPool.acquire();
+                    source.write(ByteBuffer.wrap(original));
+                    final PayloadBuffer compressed = compressor.compress(source, dictionary != null);
+                    final byte[] bytes = toBytes(compressed);
+                    payloadBufferPool.release(source);
+                    payloadBufferPool.release(compressed);
+                    assertArrayEquals(original, inflate(bytes, dictionary));
+                }
+                return null;
+            }));
+        }
+
+        for (Future<?> future : futures)
+        {
+            future.get();
+        }
+        executor.shutdown();
+        compressor.close();
+        assertNotNull(compressor.getDictionary());
+    }
+
+    private byte[] compress(PayloadCompressor compressor, byte[] original, boolean useDictionary)
+    {
+        final PayloadBuffer source = payloadBufferPool.acquire();
+        source.write(ByteBuffer.wrap(original));
+
+        final PayloadBuffer compressed = compressor.compress(source, useDictionary);
+        final byte[] bytes = toBytes(compressed);
+
+        payloadBufferPool.release(source);
+        payloadBufferPool.release(compressed);
+        return bytes;
+    }
+
+    private static byte[] toBytes(PayloadBuffer payloadBuffer)
+    {
+        final ByteBuffer payload = payloadBuffer.toPayload();
+        final byte[] bytes = new byte[payload.remaining()];
+        payload.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Decompresses the payload the way a consumer would, supplying the dictionary only if the stream asks for it.
+     */
+    private static byte[] inflate(byte[] compressed, byte[] dictionary) throws DataFormatException
+    {
+        final Inflater inflater = new Inflater();
+        try
+        {
+            inflater.setInput(compressed);
+            final byte[] buffer = new byte[64 * 1024];
+            int length = inflater.inflate(buffer);
+            if (length == 0 && inflater.needsDictionary())
+            {
+                assertNotNull("The payload needs a dictionary", dictionary);
+                inflater.setDictionary(dictionary);
+                length = inflater.inflate(buffer);
+            }
+            assertTrue(inflater.finished());
+
+            final byte[] result = new byte[length];
+            System.arraycopy(buffer, 0, result, 0, length);
+            return result;
+        } finally
+        {
+            inflater.end();
+        }
+    }
+}
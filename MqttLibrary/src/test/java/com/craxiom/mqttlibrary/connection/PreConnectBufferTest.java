@@ -0,0 +1,259 @@
+package com.craxiom.mqttlibrary.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the {@link PreConnectBuffer} class.
+ *
+ * @since 1.3.0
+ */
+public class PreConnectBufferTest
+{
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private final PayloadBufferPool payloadBufferPool = new PayloadBufferPool();
+    private final FakeConsumer consumer = new FakeConsumer();
+    private final ScheduledExecutorService flushScheduler = Executors.newSingleThreadScheduledExecutor();
+    private PreConnectBuffer preConnectBuffer;
+
+    @After
+    public void tearDown()
+    {
+        if (preConnectBuffer != null) preConnectBuffer.close();
+        flushScheduler.shutdownNow();
+    }
+
+    @Test
+    public void validateNothingIsPublishedBeforeReady() throws InterruptedException
+    {
+        preConnectBuffer = new PreConnectBuffer(new PreConnectBufferConfig(10,
+                PreConnectBufferConfig.OverflowPolicy.DROP_NEWEST, 0), consumer, flushScheduler);
+
+        assertTrue(preConnectBuffer.offer(message("first")));
+        preConnectBuffer.startFlush();
+
+        assertNull(consumer.published.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, preConnectBuffer.size());
+
+        consumer.ready = true;
+        preConnectBuffer.startFlush();
+        assertEquals("first", consumer.published.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(preConnectBuffer.isEmpty());
+    }
+
+    @Test
+    public void validateDropNewestKeepsOldestMessages() throws InterruptedException
+    {
+        preConnectBuffer = new PreConnectBuffer(new PreConnectBufferConfig(2,
+                PreConnectBufferConfig.OverflowPolicy.DROP_NEWEST, 0), consumer, flushScheduler);
+
+        assertTrue(preConnectBuffer.offer(message("1")));
+        assertTrue(preConnectBuffer.offer(message("2")));
+        assertFalse(preConnectBuffer.offer(message("3")));
+        assertEquals(1, preConnectBuffer.getDroppedNewestCount());
+        assertEquals(0, preConnectBuffer.getDroppedOldestCount());
+
+        consumer.ready = true;
+        preConnectBuffer.startFlush();
+        assertEquals("1", consumer.published.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("2", consumer.published.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertNull(consumer.published.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void validateDropOldestKeepsNewestMessages() throws InterruptedException
+    {
+        preConnectBuffer = new PreConnectBuffer(new PreConnectBufferConfig(2,
+                PreConnectBufferConfig.OverflowPolicy.DROP_OLDEST, 0), consumer, flushScheduler);
+
+        assertTrue(preConnectBuffer.offer(message("1")));
+        assertTrue(preConnectBuffer.offer(message("2")));
+        assertTrue(preConnectBuffer.offer(message("3")));
+        assertTrue(preConnectBuffer.offer(message("4")));
+        assertEquals(0, preConnectBuffer.getDroppedNewestCount());
+        assertEquals(2, preConnectBuffer.getDroppedOldestCount());
+        assertEquals(2, consumer.discardedCount);
+
+        consumer.ready = true;
+        preConnectBuffer.startFlush();
+        assertEquals("3", consumer.published.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("4", consumer.published.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void validateFlushRateIsLimited() throws InterruptedException
+    {
+        // 100 messages per second is published as 1 message every 10 ms
+        preConnectBuffer = new PreConnectBuffer(new PreConnectBufferConfig(100,
+                PreConnectBufferConfig.OverflowPolicy.DROP_NEWEST, 100), consumer, flushScheduler);
+        for (int i = 0; i < 30; i++)
+        {
+            preConnectBuffer.offer(message(Integer.toString(i)));
+        }
+
+        consumer.ready = true;
+        final long start = System.nanoTime();
+        preConnectBuffer.startFlush();
+
+        final List<String> published = new ArrayList<>();
+        for (int i = 0; i < 30; i++)
+        {
+            published.add(consumer.published.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+        final long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        for (int i = 0; i < 30; i++)
+        {
+            assertEquals(Integer.toString(i), published.get(i));
+        }
+        assertTrue("The buffer was flushed too quickly: " + elapsedMs + " ms", elapsedMs >= 250);
+    }
+
+    @Test
+    public void validateOnlyTheBacklogIsRateLimited() throws InterruptedException
+    {
+        // The 20 message backlog takes about 200 ms at 100 messages per second, while the 500 messages produced after
+        // the connection would take 5 seconds if they were held to the same rate
+        preConnectBuffer = new PreConnectBuffer(new PreConnectBufferConfig(1_000,
+                PreConnectBufferConfig.OverflowPolicy.DROP_OLDEST, 100), consumer, flushScheduler);
+        final int backlog = 20;
+        final int produced = 500;
+        for (int i = 0; i < backlog; i++)
+        {
+            preConnectBuffer.offer(message(Integer.toString(i)));
+        }
+        assertEquals(backlog, preConnectBuffer.getBacklogCount());
+
+        consumer.ready = true;
+        final long start = System.nanoTime();
+        preConnectBuffer.startFlush();
+
+        // Produce faster than the flush rate, queueing behind the backlog the same way the connection does while the
+        // buffer is not empty
+        for (int i = backlog; i < backlog + produced; i++)
+        {
+            preConnectBuffer.offer(message(Integer.toString(i)));
+            preConnectBuffer.startFlush();
+            if (i % 10 == 0) Thread.sleep(1);
+        }
+
+        final List<String> published = new ArrayList<>();
+        for (int i = 0; i < backlog + produced; i++)
+        {
+            published.add(consumer.published.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+        final long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        for (int i = 0; i < backlog + produced; i++)
+        {
+            assertEquals(Integer.toString(i), published.get(i));
+        }
+        assertEquals(0, preConnectBuffer.getDroppedOldestCount());
+        assertEquals(0, preConnectBuffer.getBacklogCount());
+        assertTrue(preConnectBuffer.isEmpty());
+        assertTrue("The messages produced after the connection were held to the flush rate: " + elapsedMs + " ms",
+                elapsedMs < 2_500);
+    }
+
+    @Test
+    public void validateFlushStopsWhenNoLongerReadyAndResumes() throws InterruptedException
+    {
+        preConnectBuffer = new PreConnectBuffer(new PreConnectBufferConfig(100,
+                PreConnectBufferConfig.OverflowPolicy.DROP_NEWEST, 100), consumer, flushScheduler);
+        for (int i = 0; i < 20; i++)
+        {
+            preConnectBuffer.offer(message(Integer.toString(i)));
+        }
+
+        consumer.ready = true;
+        preConnectBuffer.startFlush();
+        assertEquals("0", consumer.published.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        consumer.ready = false;
+
+        Thread.sleep(100);
+        consumer.published.clear();
+        final int remaining = preConnectBuffer.size();
+        assertTrue("Messages must stay buffered while not ready", remaining > 0);
+
+        consumer.ready = true;
+        preConnectBuffer.startFlush();
+        for (int i = 0; i < remaining; i++)
+        {
+            assertTrue(consumer.published.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS) != null);
+        }
+        assertEquals("19", consumer.lastPublished);
+    }
+
+    @Test
+    public void validateCloseDiscardsBufferedMessages()
+    {
+        preConnectBuffer = new PreConnectBuffer(new PreConnectBufferConfig(10,
+                PreConnectBufferConfig.OverflowPolicy.DROP_NEWEST, 0), consumer, flushScheduler);
+        preConnectBuffer.offer(message("1"));
+        preConnectBuffer.offer(message("2"));
+
+        preConnectBuffer.close();
+
+        assertEquals(2, consumer.discardedCount);
+        assertTrue(preConnectBuffer.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void validateNegativeCapacityIsRejected()
+    {
+        new PreConnectBufferConfig(-1, PreConnectBufferConfig.OverflowPolicy.DROP_NEWEST, 0);
+    }
+
+    private PreConnectBuffer.BufferedMessage message(String payload)
+    {
+        return new PreConnectBuffer.BufferedMessage("lte_message", payloadBufferPool.acquire().append(payload),
+                MessageBatcher.Framing.JSON_ARRAY, null, null);
+    }
+
+    private final class FakeConsumer implements PreConnectBuffer.IBufferedMessageConsumer
+    {
+        final LinkedBlockingQueue<String> published = new LinkedBlockingQueue<>();
+        volatile boolean ready;
+        volatile int discardedCount;
+        volatile String lastPublished;
+
+        @Override
+        public boolean isReadyToPublish()
+        {
+            return ready;
+        }
+
+        @Override
+        public void publishBuffered(PreConnectBuffer.BufferedMessage message)
+        {
+            final ByteBuffer payload = message.payloadBuffer.toPayload();
+            final byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            lastPublished = new String(bytes, StandardCharsets.UTF_8);
+            published.add(lastPublished);
+            payloadBufferPool.release(message.payloadBuffer);
+        }
+
+        @Override
+        public synchronized void discard(PreConnectBuffer.BufferedMessage message)
+        {
+            discardedCount++;
+            payloadBufferPool.release(message.payloadBuffer);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.craxiom.mqttlibrary.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the {@link PriorityLaneScheduler} class.
+ *
+ * @since 1.3.0
+ */
+public class PriorityLaneSchedulerTest
+{
+    private static final String ALERTS = "alerts";
+
+    private final PayloadBufferPool payloadBufferPool = new PayloadBufferPool();
+    private final StreamingQueueController streamingQueue = new StreamingQueueController(new NoOpCallbacks());
+    private final RecordingPublisher publisher = new RecordingPublisher();
+
+    @Test
+    public void validateLanesShareTheQueueByWeight()
+    {
+        streamingQueue.setLimit(1);
+        final PriorityLaneScheduler scheduler = newScheduler(new PriorityLaneConfig(ALERTS, 4, 100));
+
+        for (int i = 0; i < 50; i++)
+        {
+            assertTrue(scheduler.enqueue(null, "bulk", payload()));
+            assertTrue(scheduler.enqueue(ALERTS, ALERTS, payload()));
+        }
+        assertEquals("Only one message fits in the streaming queue", 1, publisher.published.size());
+
+        completeNext(scheduler, 25);
+
+        final List<String> window = publisher.published.subList(1, 26);
+        assertEquals(20, Collections.frequency(window, ALERTS));
+        assertEquals(5, Collections.frequency(window, "bulk"));
+    }
+
+    @Test
+    public void validateUrgentLaneIsNotStarvedByBulkTraffic()
+    {
+        streamingQueue.setLimit(1);
+        final PriorityLaneScheduler scheduler = newScheduler(new PriorityLaneConfig(ALERTS, 1, 10),
+                new PriorityLaneConfig(PriorityLaneConfig.DEFAULT_LANE, 1, 1000));
+
+        for (int i = 0; i < 1000; i++)
+        {
+            scheduler.enqueue(null, "bulk", payload());
+        }
+        completeNext(scheduler, 10);
+
+        assertTrue(scheduler.enqueue(ALERTS, ALERTS, payload()));
+        completeNext(scheduler, 2);
+
+        assertTrue("The alert is sent right away instead of after the bulk messages",
+                publisher.published.contains(ALERTS));
+        assertEquals(0, scheduler.getQueuedCount(ALERTS));
+        assertTrue(scheduler.getQueuedCount(null) > 900);
+    }
+
+    @Test
+    public void validateFullLaneOnlyDropsItsOwnMessages()
+    {
+        streamingQueue.setLimit(1);
+        final PriorityLaneScheduler scheduler = newScheduler(new PriorityLaneConfig(ALERTS, 1, 2),
+                new PriorityLaneConfig(PriorityLaneConfig.DEFAULT_LANE, 1, 2));
+
+        // The first message is sent right away, and the next two wait in the lane
+        assertTrue(scheduler.enqueue(null, "bulk", payload()));
+        assertTrue(scheduler.enqueue(null, "bulk", payload()));
+        assertTrue(scheduler.enqueue(null, "bulk", payload()));
+        assertFalse(scheduler.enqueue(null, "bulk", payload()));
+
+        assertTrue(scheduler.enqueue(ALERTS, ALERTS, payload()));
+        assertTrue(scheduler.enqueue(ALERTS, ALERTS, payload()));
+
+        assertEquals(1, scheduler.getDroppedCount(null));
+        assertEquals(0, scheduler.getDroppedCount(ALERTS));
+        assertEquals(2, scheduler.getQueuedCount(ALERTS));
+    }
+
+    @Test
+    public void validateUnknownLaneUsesTheDefaultLane()
+    {
+        streamingQueue.setLimit(1);
+        final PriorityLaneScheduler scheduler = newScheduler(new PriorityLaneConfig(ALERTS, 1, 10));
+
+        scheduler.enqueue(null, "first", payload());
+        scheduler.enqueue("no_such_lane", "second", payload());
+
+        assertFalse(scheduler.hasLane("no_such_lane"));
+        assertTrue(scheduler.hasLane(PriorityLaneConfig.DEFAULT_LANE));
+        assertEquals(1, scheduler.getQueuedCount(PriorityLaneConfig.DEFAULT_LANE));
+        assertEquals(Arrays.asList(new PriorityLaneConfig(ALERTS, 1, 10), PriorityLaneConfig.DEFAULT),
+                scheduler.getLaneConfigs());
+    }
+
+    @Test
+    public void validateClearReturnsTheQueuedBuffers()
+    {
+        streamingQueue.setLimit(1);
+        final PriorityLaneScheduler scheduler = newScheduler(new PriorityLaneConfig(ALERTS, 1, 10));
+
+        scheduler.enqueue(null, "bulk", payload());
+        scheduler.enqueue(null, "bulk", payload());
+        scheduler.enqueue(ALERTS, ALERTS, payload());
+
+        assertEquals(2, scheduler.clear().size());
+        assertEquals(0, scheduler.getQueuedCount(null));
+        assertEquals(0, scheduler.getQueuedCount(ALERTS));
+    }
+
+    @Test(timeout = 30_000)
+    public void validateConcurrentProducersAndCompletions() throws Exception
+    {
+        streamingQueue.setLimit(8);
+        final PriorityLaneScheduler scheduler = newScheduler(new PriorityLaneConfig(ALERTS, 3, 10_000),
+                new PriorityLaneConfig(PriorityLaneConfig.DEFAULT_LANE, 1, 10_000));
+
+        // Complete the publishes on another thread, the way HiveMQ completes them on its own threads
+        final ExecutorService completer = Executors.newSingleThreadExecutor();
+        publisher.onPublish = () -> completer.execute(() -> {
+            streamingQueue.onPublishComplete(1);
+            scheduler.schedule();
+        });
+
+        final int producers = 4;
+        final int messagesPerProducer = 2_000;
+        final ExecutorService producerPool = Executors.newFixedThreadPool(producers);
+        final CountDownLatch start = new CountDownLatch(1);
+        for (int p = 0; p < producers; p++)
+        {
+            final String lane = p % 2 == 0 ? ALERTS : null;
+            producerPool.execute(() -> {
+                try
+                {
+                    start.await();
+                } catch (InterruptedException e)
+                {
+                    return;
+                }
+                for (int i = 0; i < messagesPerProducer; i++)
+                {
+                    scheduler.enqueue(lane, lane == null ? "bulk" : ALERTS, payload());
+                }
+            });
+        }
+        start.countDown();
+        producerPool.shutdown();
+        assertTrue(producerPool.awaitTermination(20, TimeUnit.SECONDS));
+
+        final int total = producers * messagesPerProducer;
+        while (publisher.published.size() < total)
+        {
+            Thread.sleep(5);
+        }
+        completer.shutdown();
+        assertTrue(completer.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(total, publisher.published.size());
+        assertEquals(total / 2, scheduler.getSentCount(ALERTS));
+        assertEquals(total / 2, scheduler.getSentCount(null));
+        assertEquals(0, streamingQueue.getPendingMessageCount());
+    }
+
+    private PriorityLaneScheduler newScheduler(PriorityLaneConfig... laneConfigs)
+    {
+        return new PriorityLaneScheduler(Arrays.asList(laneConfigs), streamingQueue, publisher);
+    }
+
+    private PayloadBuffer payload()
+    {
+        return payloadBufferPool.acquire().append("x");
+    }
+
+    /**
+     * Completes the oldest outstanding publish the provided number of times, letting the scheduler send the next
+     * message each time.
+     */
+    private void completeNext(PriorityLaneScheduler scheduler, int count)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            publisher.outstanding.remove();
+            streamingQueue.onPublishComplete(1);
+            scheduler.schedule();
+        }
+    }
+
+    private final class RecordingPublisher implements PriorityLaneScheduler.ILanePublisher
+    {
+        final List<String> published = new CopyOnWriteArrayList<>();
+        final LinkedBlockingQueue<String> outstanding = new LinkedBlockingQueue<>();
+        volatile Runnable onPublish;
+
+        @Override
+        public void publish(String mqttMessageTopic, PayloadBuffer payloadBuffer)
+        {
+            published.add(mqttMessageTopic);
+            payloadBufferPool.release(payloadBuffer);
+
+            final Runnable runnable = onPublish;
+            if (runnable == null)
+            {
+                outstanding.add(mqttMessageTopic);
+            } else
+            {
+                runnable.run();
+            }
+        }
+    }
+
+    private static final class NoOpCallbacks implements StreamingQueueController.IQueueCallbacks
+    {
+        @Override
+        public void publishFromBacklog(String mqttMessageTopic, PayloadBuffer payloadBuffer)
+        {
+        }
+
+        @Override
+        public void release(String mqttMessageTopic, PayloadBuffer payloadBuffer)
+        {
+        }
+
+        @Override
+        public void onQueueFull(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+        {
+        }
+
+        @Override
+        public void onQueueDrained(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+        {
+        }
+
+        @Override
+        public void onQueueGrowthWarning(int queueSize, int queueLimit, long queueBytes, long queueByteLimit,
+                                         long msUntilFull)
+        {
+        }
+
+        @Override
+        public void onQueueGrowthWarningCleared(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+        {
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.craxiom.mqttlibrary.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.craxiom.mqttlibrary.MqttPayloadFormat;
+import com.google.protobuf.Api;
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Method;
+import com.google.protobuf.Timestamp;
+import com.hivemq.client.mqtt.datatypes.MqttTopic;
+import com.hivemq.client.mqtt.datatypes.MqttTopicFilter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the {@link ProtobufDescriptorSets} class, and the publishing of the descriptors by the
+ * {@link DefaultMqttConnection}.
+ *
+ * @since 1.3.0
+ */
+public class ProtobufDescriptorSetsTest
+{
+    @Test
+    public void validateSingleFileDescriptorSet()
+    {
+        final DescriptorProtos.FileDescriptorSet descriptorSet =
+                ProtobufDescriptorSets.forMessageType(Timestamp.getDescriptor());
+
+        assertEquals(1, descriptorSet.getFileCount());
+        assertEquals("google/protobuf/timestamp.proto", descriptorSet.getFile(0).getName());
+    }
+
+    @Test
+    public void validateDependenciesAppearBeforeDependents()
+    {
+        final DescriptorProtos.FileDescriptorSet descriptorSet =
+                ProtobufDescriptorSets.forMessageType(Api.getDescriptor());
+
+        final List<String> fileNames = new ArrayList<>();
+        for (DescriptorProtos.FileDescriptorProto file : descriptorSet.getFileList())
+        {
+            for (String dependency : file.getDependencyList())
+            {
+                assertTrue(dependency + " must appear before " + file.getName(), fileNames.contains(dependency));
+            }
+            fileNames.add(file.getName());
+        }
+
+        assertEquals("google/protobuf/api.proto", fileNames.get(fileNames.size() - 1));
+        assertEquals(fileNames.size(), fileNames.stream().distinct().count());
+    }
+
+    @Test
+    public void validateConsumerCanDecodeWithDescriptorSet() throws Exception
+    {
+        final Api api = Api.newBuilder().setName("survey").addMethods(Method.newBuilder().setName("publish")).build();
+        final DescriptorProtos.FileDescriptorSet descriptorSet = DescriptorProtos.FileDescriptorSet.parseFrom(
+                ProtobufDescriptorSets.forMessageType(Api.getDescriptor()).toByteArray());
+
+        // Rebuild the descriptors the same way a consumer without the generated classes would
+        final Map<String, Descriptors.FileDescriptor> builtFiles = new HashMap<>();
+        Descriptors.FileDescriptor apiFile = null;
+        for (DescriptorProtos.FileDescriptorProto fileProto : descriptorSet.getFileList())
+        {
+            final List<Descriptors.FileDescriptor> dependencies = new ArrayList<>();
+            for (String dependency : fileProto.getDependencyList())
+            {
+                dependencies.add(builtFiles.get(dependency));
+            }
+            apiFile = Descriptors.FileDescriptor.buildFrom(fileProto,
+                    dependencies.toArray(new Descriptors.FileDescriptor[0]));
+            builtFiles.put(fileProto.getName(), apiFile);
+        }
+
+        assertNotNull(apiFile);
+        final Descriptors.Descriptor apiDescriptor = apiFile.findMessageTypeByName("Api");
+        final DynamicMessage decoded = DynamicMessage.parseFrom(apiDescriptor, api.toByteArray());
+
+        assertEquals("survey", decoded.getField(apiDescriptor.findFieldByName("name")));
+    }
+
+    @Test
+    public void validateDescriptorIsPublishedOutsideTheMessageTopic() throws Exception
+    {
+        final FakeMqttClientEngine engine = new FakeMqttClientEngine(true);
+        final DefaultMqttConnection connection = new DefaultMqttConnection();
+        connection.attachEngine(engine, new BrokerConnectionInfo("127.0.0.1", 1883, false, "descriptor-test", null,
+                null, "survey/", null).withPayloadFormat(MqttPayloadFormat.PROTOBUF));
+
+        final Timestamp timestamp = Timestamp.newBuilder().setSeconds(1_700_000_000L).build();
+        connection.publishMessage("lte_message", timestamp);
+        connection.publishMessage("lte_message", timestamp);
+
+        final List<FakeMqttClientEngine.Publish> publishes = engine.getPublishes();
+        assertEquals("The descriptor is only published once per connection", 3, publishes.size());
+
+        final FakeMqttClientEngine.Publish descriptorPublish = publishes.get(0);
+        assertEquals("survey/$meta/descriptor/lte_message/google.protobuf.Timestamp", descriptorPublish.topic);
+        assertEquals("survey/" + DefaultMqttConnection.getDescriptorTopic("lte_message", "google.protobuf.Timestamp"),
+                descriptorPublish.topic);
+        assertTrue(descriptorPublish.retain);
+        assertEquals("google/protobuf/timestamp.proto",
+                DescriptorProtos.FileDescriptorSet.parseFrom(descriptorPublish.payload).getFile(0).getName());
+
+        // A consumer subscribed to the message topic with a wildcard only receives the messages
+        final MqttTopicFilter messageSubscription = MqttTopicFilter.of("survey/lte_message/#");
+        assertFalse(messageSubscription.matches(MqttTopic.of(descriptorPublish.topic)));
+        for (FakeMqttClientEngine.Publish publish : publishes.subList(1, publishes.size()))
+        {
+            assertEquals("survey/lte_message", publish.topic);
+            assertTrue(messageSubscription.matches(MqttTopic.of(publish.topic)));
+            assertEquals(timestamp, Timestamp.parseFrom(publish.payload));
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.craxiom.mqttlibrary.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.craxiom.mqttlibrary.MqttQos;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests publishing with the {@link PublishCredits} of a {@link DefaultMqttConnection} connected to a
+ * {@link LocalMqttBroker}.
+ *
+ * @since 1.3.0
+ */
+public class PublishCreditsTest
+{
+    private static final String MESSAGE_TOPIC = "credit_message";
+
+    @Test
+    public void validateCreditsHoldRoomUntilThePublishCompletes() throws Exception
+    {
+        try (LocalMqttBroker broker = new LocalMqttBroker(0, 0))
+        {
+            final DefaultMqttConnection connection = connect(broker);
+            try
+            {
+                connection.setStreamingQueueLimit(10);
+
+                final PublishCredits credits = connection.tryAcquireCredits(10);
+                assertNotNull(credits);
+                assertEquals(10, connection.getPendingMessageCount());
+                assertNull("The queue has no room left", connection.tryAcquireCredits(1));
+
+                for (int i = 0; i < 10; i++)
+                {
+                    connection.publishMessage(credits, MESSAGE_TOPIC, "{\"index\":" + i + "}");
+                }
+                assertEquals(0, credits.getRemaining());
+
+                assertTrue(broker.awaitPublishes(10, 5_000));
+                awaitDrained(connection);
+                assertEquals(0, connection.getPendingMessageCount());
+                assertEquals(0, connection.getPendingBytes());
+                assertEquals(10, connection.getPublishMetrics().getTopicMetrics(MESSAGE_TOPIC).getPublishedCount());
+                assertEquals(0, connection.getPublishMetrics().getTopicMetrics(MESSAGE_TOPIC).getDroppedCount());
+
+                try
+                {
+                    connection.publishMessage(credits, MESSAGE_TOPIC, "{}");
+                    fail("Publishing without any credits left should throw");
+                } catch (IllegalStateException expected)
+                {
+                    // Expected
+                }
+            } finally
+            {
+                connection.disconnect();
+            }
+        }
+    }
+
+    @Test
+    public void validateUnusedCreditsAreReturnedOnClose() throws Exception
+    {
+        try (LocalMqttBroker broker = new LocalMqttBroker(0, 0))
+        {
+            final DefaultMqttConnection connection = connect(broker);
+            try
+            {
+                connection.setStreamingQueueLimit(4);
+
+                try (PublishCredits credits = connection.tryAcquireCredits(4))
+                {
+                    assertNotNull(credits);
+                    connection.publishMessage(credits, MESSAGE_TOPIC, "{}");
+                    assertEquals(3, credits.getRemaining());
+                }
+
+                assertTrue(broker.awaitPublishes(1, 5_000));
+                awaitDrained(connection);
+                assertEquals(0, connection.getPendingMessageCount());
+                assertFalse(connection.isQueueBackpressureActive());
+
+                final PublishCredits waited = connection.awaitCredits(4, 1, TimeUnit.SECONDS);
+                assertNotNull(waited);
+                waited.close();
+                waited.close();
+                assertEquals(0, connection.getPendingMessageCount());
+            } finally
+            {
+                connection.disconnect();
+            }
+        }
+    }
+
+    @Test
+    public void validateCreditsWithoutAQueueLimitDoNotHoldRoom()
+    {
+        final DefaultMqttConnection connection = new DefaultMqttConnection();
+        final PublishCredits credits = connection.tryAcquireCredits(1_000);
+        assertNotNull(credits);
+        assertEquals(1_000, credits.getRemaining());
+        assertEquals(0, connection.getPendingMessageCount());
+        credits.close();
+    }
+
+    @Test
+    public void validateCreditsCannotBeUsedOnAnotherConnection()
+    {
+        final DefaultMqttConnection connection = new DefaultMqttConnection();
+        final DefaultMqttConnection otherConnection = new DefaultMqttConnection();
+        try (PublishCredits credits = connection.tryAcquireCredits(1))
+        {
+            otherConnection.publishMessage(credits, MESSAGE_TOPIC, "{}");
+            fail("Credits from another connection should be rejected");
+        } catch (IllegalArgumentException expected)
+        {
+            // Expected
+        }
+    }
+
+    private static DefaultMqttConnection connect(LocalMqttBroker broker) throws InterruptedException
+    {
+        final DefaultMqttConnection connection = new DefaultMqttConnection();
+        connection.connect(null, new BrokerConnectionInfo("127.0.0.1", broker.getPort(), false, "credits-test",
+                null, null, "test/", MqttQos.AT_LEAST_ONCE));
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (connection.getConnectionState() != ConnectionState.CONNECTED)
+        {
+            assertTrue("Could not connect to the local broker", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+        return connection;
+    }
+
+    private static void awaitDrained(DefaultMqttConnection connection) throws InterruptedException
+    {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (connection.getPendingMessageCount() > 0 && System.nanoTime() < deadline)
+        {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.craxiom.mqttlibrary.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.craxiom.mqttlibrary.PublishMetrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Tests the {@link PublishMetricsRegistry} class and the {@link PublishMetrics} snapshots it produces.
+ *
+ * @since 1.3.0
+ */
+public class PublishMetricsRegistryTest
+{
+    @Test
+    public void validateCountersArePerTopic()
+    {
+        final PublishMetricsRegistry registry = new PublishMetricsRegistry();
+        registry.recordPublished("cellular", 100, 1_000);
+        registry.recordPublished("cellular", 50, 3_000);
+        registry.recordDropped("cellular", 20);
+        registry.recordFailed("wifi", 70);
+        registry.recordSerialization("wifi", 500);
+
+        final PublishMetrics metrics = registry.snapshot(42);
+        assertEquals(42, metrics.getTimestampMs());
+
+        final PublishMetrics.TopicMetrics cellular = metrics.getTopicMetrics("cellular");
+        assertEquals(2, cellular.getPublishedCount());
+        assertEquals(150, cellular.getPublishedBytes());
+        assertEquals(1, cellular.getDroppedCount());
+        assertEquals(20, cellular.getDroppedBytes());
+        assertEquals(0, cellular.getFailedCount());
+        assertEquals(2, cellular.getPublishLatency().getCount());
+        assertEquals(4_000, cellular.getPublishLatency().getSumNanos());
+        assertEquals(3_000, cellular.getPublishLatency().getMaxNanos());
+
+        final PublishMetrics.TopicMetrics wifi = metrics.getTopicMetrics("wifi");
+        assertEquals(1, wifi.getFailedCount());
+        assertEquals(70, wifi.getFailedBytes());
+        assertEquals(1, wifi.getSerializationTime().getCount());
+
+        final PublishMetrics.TopicMetrics totals = metrics.getTotals();
+        assertEquals(2, totals.getPublishedCount());
+        assertEquals(1, totals.getDroppedCount());
+        assertEquals(1, totals.getFailedCount());
+        assertEquals(2, totals.getPublishLatency().getCount());
+
+        assertEquals(0, metrics.getTopicMetrics("unknown").getPublishedCount());
+    }
+
+    @Test
+    public void validateSnapshotIsNotChangedByLaterRecords()
+    {
+        final PublishMetricsRegistry registry = new PublishMetricsRegistry();
+        registry.recordPublished("topic", 10, 100);
+
+        final PublishMetrics before = registry.snapshot(0);
+        registry.recordPublished("topic", 10, 100);
+
+        assertEquals(1, before.getTopicMetrics("topic").getPublishedCount());
+        assertEquals(2, registry.snapshot(0).getTopicMetrics("topic").getPublishedCount());
+    }
+
+    @Test
+    public void validateTopicsBeyondTheCapAreCombined()
+    {
+        final PublishMetricsRegistry registry = new PublishMetricsRegistry();
+        for (int i = 0; i < PublishMetricsRegistry.MAX_TOPICS + 10; i++)
+        {
+            registry.recordPublished("topic" + i, 1, 1);
+        }
+
+        final PublishMetrics metrics = registry.snapshot(0);
+        assertEquals(PublishMetricsRegistry.MAX_TOPICS + 1, metrics.getTopicMetrics().size());
+        assertEquals(10, metrics.getTopicMetrics(PublishMetrics.OTHER_TOPICS).getPublishedCount());
+        assertEquals(PublishMetricsRegistry.MAX_TOPICS + 10, metrics.getTotals().getPublishedCount());
+    }
+
+    @Test
+    public void validateHistogramBuckets()
+    {
+        assertEquals(0, PublishMetrics.Histogram.bucketIndex(0));
+        assertEquals(1, PublishMetrics.Histogram.bucketIndex(1));
+        assertEquals(2, PublishMetrics.Histogram.bucketIndex(2));
+        assertEquals(2, PublishMetrics.Histogram.bucketIndex(3));
+        assertEquals(11, PublishMetrics.Histogram.bucketIndex(1_024));
+        assertEquals(63, PublishMetrics.Histogram.bucketIndex(Long.MAX_VALUE));
+
+        assertEquals(3, PublishMetrics.Histogram.getBucketUpperBoundNanos(2));
+        assertEquals(Long.MAX_VALUE, PublishMetrics.Histogram.getBucketUpperBoundNanos(63));
+    }
+
+    @Test
+    public void validatePercentilesAreWithinAFactorOfTwo()
+    {
+        final LogHistogram histogram = new LogHistogram();
+        for (int i = 1; i <= 100; i++)
+        {
+            histogram.record(i * 1_000L);
+        }
+
+        final PublishMetrics.Histogram snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(50_500, (long) snapshot.getMeanNanos());
+
+        final long p50 = snapshot.getPercentileNanos(50);
+        assertTrue(p50 >= 50_000 && p50 < 100_000);
+
+        assertEquals("The estimate is limited to the max", 100_000, snapshot.getPercentileNanos(100));
+        assertEquals(0, PublishMetrics.EMPTY.getTotals().getPublishLatency().getPercentileNanos(99));
+    }
+
+    @Test
+    public void validateNegativeDurationsAreRecordedAsZero()
+    {
+        final LogHistogram histogram = new LogHistogram();
+        histogram.record(-5);
+
+        final PublishMetrics.Histogram snapshot = histogram.snapshot();
+        assertEquals(1, snapshot.getBucketCount(0));
+        assertEquals(0, snapshot.getSumNanos());
+    }
+
+    @Test(timeout = 10_000)
+    public void validateConcurrentRecordsAreNotLost() throws InterruptedException
+    {
+        final PublishMetricsRegistry registry = new PublishMetricsRegistry();
+        final int threadCount = 4;
+        final int recordsPerThread = 10_000;
+        final CountDownLatch done = new CountDownLatch(threadCount);
+
+        for (int t = 0; t < threadCount; t++)
+        {
+            final long latency = (t + 1) * 1_000L;
+            new Thread(() -> {
+                for (int i = 0; i < recordsPerThread; i++)
+                {
+                    registry.recordPublished("topic", 10, latency);
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+
+        final PublishMetrics.TopicMetrics metrics = registry.snapshot(0).getTopicMetrics("topic");
+        assertEquals(threadCount * recordsPerThread, metrics.getPublishedCount());
+        assertEquals(threadCount * recordsPerThread * 10L, metrics.getPublishedBytes());
+        assertEquals(threadCount * recordsPerThread, metrics.getPublishLatency().getCount());
+        assertEquals(threadCount * 1_000L, metrics.getPublishLatency().getMaxNanos());
+        assertFalse(metrics.getPublishLatency().getPercentileNanos(50) == 0);
+    }
+}
@@ -0,0 +1,97 @@
+package com.craxiom.mqttlibrary.connection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures publishing through the whole counted publish path of a {@link DefaultMqttConnection} as the number of
+ * producer threads grows from 1 to 32. Unlike {@link StreamingQueueContentionBenchmark}, each message goes through
+ * {@code publishCounted}, so the results include the in-flight accounting of the {@link PublishTarget} and the
+ * completion handling along with the streaming queue.
+ * <p>
+ * The connection publishes to a {@link FakeMqttClientEngine}, which completes each publish right away on the
+ * publishing thread. The streaming queue limit is large enough that the queue never fills, so the results only show
+ * the cost of the publish path and the counters it shares between the threads.
+ *
+ * @since 1.3.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PublishPathContentionBenchmark
+{
+    private static final String MESSAGE_TOPIC = "lte_message";
+    private static final String MESSAGE = "{\"mcc\":310,\"mnc\":260,\"tac\":10801,\"eci\":136724482,\"rsrp\":-97.0}";
+
+    private DefaultMqttConnection connection;
+
+    @Setup
+    public void setup()
+    {
+        connection = new DefaultMqttConnection();
+        connection.attachEngine(new FakeMqttClientEngine(), new BrokerConnectionInfo("127.0.0.1", 1883, false,
+                "benchmark", null, null, "benchmark/", null));
+        connection.setStreamingQueueLimit(1_000_000);
+    }
+
+    private void publish()
+    {
+        connection.publishMessage(MESSAGE_TOPIC, MESSAGE);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void producers01()
+    {
+        publish();
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void producers02()
+    {
+        publish();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void producers04()
+    {
+        publish();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void producers08()
+    {
+        publish();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void producers16()
+    {
+        publish();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void producers32()
+    {
+        publish();
+    }
+}
@@ -0,0 +1,100 @@
+package com.craxiom.mqttlibrary.connection;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Struct;
+import com.google.protobuf.util.JsonFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding a Protobuf message into its payload the way
+ * {@link DefaultMqttConnection#publishMessage(String, com.google.protobuf.MessageOrBuilder)} does, with the
+ * {@link JsonFormat} printer appending straight into a pooled {@link PayloadBuffer}, compared with printing to a
+ * string first and with the binary Protobuf format.
+ * <p>
+ * The messages are {@link Struct}s parsed from the {@link SamplePayloads} records, so they have the same fields and
+ * values as the survey records.
+ *
+ * @since 1.3.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PublishSerializationBenchmark
+{
+    private static final int MESSAGE_COUNT = 256;
+
+    @Param({"LTE_RECORD", "WIFI_BEACON_RECORD", "GNSS_RECORD"})
+    public String shapeName;
+
+    /**
+     * Configured the same as the printer in {@link DefaultMqttConnection}.
+     */
+    private final JsonFormat.Printer jsonFormatter =
+            JsonFormat.printer().preservingProtoFieldNames().omittingInsignificantWhitespace();
+    private final PayloadBufferPool payloadBufferPool = new PayloadBufferPool();
+    private Struct[] messages;
+    private int index;
+
+    @Setup
+    public void setup() throws InvalidProtocolBufferException
+    {
+        final SamplePayloads samples = new SamplePayloads(SamplePayloads.Shape.valueOf(shapeName), 42);
+        messages = new Struct[MESSAGE_COUNT];
+        for (int i = 0; i < MESSAGE_COUNT; i++)
+        {
+            final Struct.Builder builder = Struct.newBuilder();
+            JsonFormat.parser().merge(samples.next(), builder);
+            messages[i] = builder.build();
+        }
+    }
+
+    private Struct nextMessage()
+    {
+        index = (index + 1) % MESSAGE_COUNT;
+        return messages[index];
+    }
+
+    @Benchmark
+    public byte[] printJsonToString() throws InvalidProtocolBufferException
+    {
+        return jsonFormatter.print(nextMessage()).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int appendJsonToPooledBuffer() throws IOException
+    {
+        final PayloadBuffer payloadBuffer = payloadBufferPool.acquire();
+        jsonFormatter.appendTo(nextMessage(), payloadBuffer);
+        final int length = payloadBuffer.length();
+        payloadBufferPool.release(payloadBuffer);
+        return length;
+    }
+
+    @Benchmark
+    public int writeBinaryToPooledBuffer() throws IOException
+    {
+        final PayloadBuffer payloadBuffer = payloadBufferPool.acquire();
+        DefaultMqttConnection.writeBinary(nextMessage(), payloadBuffer);
+        final int length = payloadBuffer.length();
+        payloadBufferPool.release(payloadBuffer);
+        return length;
+    }
+}
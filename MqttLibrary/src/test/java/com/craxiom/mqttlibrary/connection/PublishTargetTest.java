@@ -0,0 +1,126 @@
+package com.craxiom.mqttlibrary.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the in-flight accounting of the {@link PublishTarget} class that is used when switching to and from the hot
+ * standby broker.
+ *
+ * @since 1.3.0
+ */
+public class PublishTargetTest
+{
+    @Test
+    public void validateCompletionsReleaseTheirSlots()
+    {
+        final PublishTarget target = new PublishTarget(null);
+        assertTrue(target.track(10));
+        assertTrue(target.track(20));
+        assertEquals(2, target.getInFlightCount());
+        assertEquals(30, target.getInFlightBytes());
+
+        assertTrue(target.complete(10));
+        assertEquals(1, target.getInFlightCount());
+        assertEquals(20, target.getInFlightBytes());
+    }
+
+    @Test
+    public void validateDetachedTargetIgnoresLaterPublishes()
+    {
+        final PublishTarget target = new PublishTarget(null);
+        target.track(10);
+        target.track(20);
+
+        assertTrue(target.detach());
+        assertFalse("A target is only detached once", target.detach());
+        assertEquals(2, target.getInFlightCount());
+        assertEquals(30, target.getInFlightBytes());
+
+        assertFalse("New publishes must move to the new target", target.track(5));
+        assertFalse("The slot was already released when the target was detached", target.complete(10));
+        assertEquals(2, target.getInFlightCount());
+        assertEquals(30, target.getInFlightBytes());
+    }
+
+    @Test
+    public void validateEverySlotIsReleasedExactlyOnce() throws InterruptedException
+    {
+        final PublishTarget target = new PublishTarget(null);
+        final int threadCount = 4;
+        final int publishesPerThread = 10_000;
+        final AtomicInteger tracked = new AtomicInteger();
+        final AtomicInteger completed = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        final Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++)
+        {
+            threads[i] = new Thread(() -> {
+                try
+                {
+                    start.await();
+                } catch (InterruptedException e)
+                {
+                    return;
+                }
+
+                for (int j = 0; j < publishesPerThread; j++)
+                {
+                    if (!target.track(1)) return;
+
+                    tracked.incrementAndGet();
+                    if (target.complete(1)) completed.incrementAndGet();
+                }
+            });
+            threads[i].start();
+        }
+
+        start.countDown();
+        Thread.sleep(5);
+        target.detach();
+
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        // The publishes released by their completions plus the ones released by the detach account for all of them
+        assertEquals(tracked.get(), completed.get() + target.getInFlightCount());
+        assertEquals(target.getInFlightCount(), target.getInFlightBytes());
+    }
+
+    @Test
+    public void validateCompletionsOnAnotherThreadAreCounted() throws InterruptedException
+    {
+        final PublishTarget target = new PublishTarget(null);
+        for (int i = 0; i < 100; i++)
+        {
+            assertTrue(target.track(1_000));
+        }
+
+        // The network threads complete the publishes, so their stripes go negative
+        final Thread completer = new Thread(() -> {
+            for (int i = 0; i < 60; i++)
+            {
+                target.complete(1_000);
+            }
+        });
+        completer.start();
+        completer.join();
+        assertEquals(40, target.getInFlightCount());
+        assertEquals(40_000, target.getInFlightBytes());
+
+        assertTrue(target.detach());
+        assertEquals(40, target.getInFlightCount());
+        assertEquals(40_000, target.getInFlightBytes());
+        assertFalse(target.complete(1_000));
+        assertEquals(40, target.getInFlightCount());
+    }
+}
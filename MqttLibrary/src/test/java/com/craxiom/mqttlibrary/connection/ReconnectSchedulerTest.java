@@ -0,0 +1,91 @@
+package com.craxiom.mqttlibrary.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.craxiom.mqttlibrary.ReconnectStrategies;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the {@link ReconnectScheduler} class.
+ *
+ * @since 1.3.0
+ */
+public class ReconnectSchedulerTest
+{
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final ReconnectScheduler scheduler = new ReconnectScheduler(timer);
+
+    @After
+    public void tearDown()
+    {
+        timer.shutdownNow();
+    }
+
+    @Test(timeout = 10_000)
+    public void validateAttemptWaitsForTheStrategyDelay() throws Exception
+    {
+        scheduler.setStrategy(ReconnectStrategies.fixedDelay(50, TimeUnit.MILLISECONDS));
+
+        final long start = System.nanoTime();
+        scheduler.nextAttempt(0).get();
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void validateZeroDelayReconnectsRightAway()
+    {
+        scheduler.setStrategy(ReconnectStrategies.fixedDelay(0, TimeUnit.MILLISECONDS));
+
+        assertTrue(scheduler.nextAttempt(3).isDone());
+        assertEquals(0, scheduler.getWaitingAttemptCount());
+    }
+
+    @Test
+    public void validateNetworkAvailabilityCutsTheDelayShort()
+    {
+        final FakeNetworkAvailabilitySource networkSource = new FakeNetworkAvailabilitySource();
+        scheduler.setNetworkAvailabilitySource(networkSource);
+        assertTrue(networkSource.isStarted());
+        scheduler.setStrategy(ReconnectStrategies.fixedDelay(1, TimeUnit.HOURS));
+
+        final CompletableFuture<Void> attempt = scheduler.nextAttempt(5);
+        assertFalse(attempt.isDone());
+        assertEquals(1, scheduler.getWaitingAttemptCount());
+
+        // A handover to another network should not wait out the rest of the hour
+        networkSource.networkAvailable();
+        assertTrue(attempt.isDone());
+        assertEquals(0, scheduler.getWaitingAttemptCount());
+
+        // Network events without a waiting attempt are ignored
+        networkSource.networkAvailable();
+    }
+
+    @Test
+    public void validateReplacedSourceIsStopped()
+    {
+        final FakeNetworkAvailabilitySource first = new FakeNetworkAvailabilitySource();
+        final FakeNetworkAvailabilitySource second = new FakeNetworkAvailabilitySource();
+
+        scheduler.setNetworkAvailabilitySource(first);
+        scheduler.setNetworkAvailabilitySource(second);
+        assertFalse(first.isStarted());
+        assertTrue(second.isStarted());
+        assertSame(second, scheduler.getNetworkAvailabilitySource());
+
+        scheduler.setNetworkAvailabilitySource(null);
+        assertFalse(second.isStarted());
+        assertNull(scheduler.getNetworkAvailabilitySource());
+    }
+}
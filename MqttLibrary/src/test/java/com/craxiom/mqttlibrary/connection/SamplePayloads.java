@@ -0,0 +1,105 @@
+package com.craxiom.mqttlibrary.connection;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates JSON payloads shaped like the survey records that are typically published through this library, with
+ * realistic variation in the values so that compression results are not overly optimistic.
+ *
+ * @since 1.3.0
+ */
+final class SamplePayloads
+{
+    /**
+     * The kinds of record that can be generated.
+     */
+    enum Shape
+    {
+        LTE_RECORD,
+        WIFI_BEACON_RECORD,
+        GNSS_RECORD
+    }
+
+    private static final String DEVICE_SERIAL = "356789104523611";
+    private static final String[] SSIDS = {"Starbucks WiFi", "xfinitywifi", "NETGEAR-5G", "ATT-WIFI-7742",
+            "Linksys00042", "", "DIRECT-roku-851", "eduroam"};
+    private static final String[] CONSTELLATIONS = {"GPS", "GLONASS", "GALILEO", "BEIDOU"};
+
+    private final Shape shape;
+    private final Random random;
+    private long timestamp = 1_760_000_000_000L;
+
+    SamplePayloads(Shape shape, long seed)
+    {
+        this.shape = shape;
+        random = new Random(seed);
+    }
+
+    byte[] nextBytes()
+    {
+        return next().getBytes(StandardCharsets.UTF_8);
+    }
+
+    String next()
+    {
+        timestamp += 250 + random.nextInt(750);
+        final double latitude = 39.0 + random.nextDouble() * 0.01;
+        final double longitude = -104.8 - random.nextDouble() * 0.01;
+
+        switch (shape)
+        {
+            case WIFI_BEACON_RECORD:
+                return String.format(Locale.US, "{\"version\":\"1.14.0\",\"messageType\":\"80211BeaconRecord\","
+                                + "\"data\":{\"deviceSerialNumber\":\"%s\",\"deviceName\":\"Pixel 8\","
+                                + "\"deviceTime\":\"%d\",\"latitude\":%.7f,\"longitude\":%.7f,\"altitude\":%.1f,"
+                                + "\"missionId\":\"NS Pixel 8 20251009-083012\",\"recordNumber\":%d,"
+                                + "\"accuracy\":%d,\"sourceAddress\":\"%02x:%02x:%02x:%02x:%02x:%02x\","
+                                + "\"bssid\":\"%02x:%02x:%02x:%02x:%02x:%02x\",\"channel\":%d,\"frequencyMhz\":%d,"
+                                + "\"signalStrength\":%.1f,\"ssid\":\"%s\",\"encryptionType\":\"WPA_WPA2\","
+                                + "\"wps\":false,\"nodeType\":\"AP\",\"standard\":\"IEEE80211AX\"}}",
+                        DEVICE_SERIAL, timestamp, latitude, longitude, 1840 + random.nextDouble() * 20,
+                        random.nextInt(100_000), 3 + random.nextInt(20),
+                        random.nextInt(256), random.nextInt(256), random.nextInt(256), random.nextInt(256),
+                        random.nextInt(256), random.nextInt(256),
+                        random.nextInt(256), random.nextInt(256), random.nextInt(256), random.nextInt(256),
+                        random.nextInt(256), random.nextInt(256),
+                        1 + random.nextInt(11), 2412 + 5 * random.nextInt(11), -90 + random.nextDouble() * 60,
+                        SSIDS[random.nextInt(SSIDS.length)]);
+
+            case GNSS_RECORD:
+                return String.format(Locale.US, "{\"version\":\"1.14.0\",\"messageType\":\"GnssRecord\","
+                                + "\"data\":{\"deviceSerialNumber\":\"%s\",\"deviceName\":\"Pixel 8\","
+                                + "\"deviceTime\":\"%d\",\"latitude\":%.7f,\"longitude\":%.7f,\"altitude\":%.1f,"
+                                + "\"missionId\":\"NS Pixel 8 20251009-083012\",\"recordNumber\":%d,"
+                                + "\"groupNumber\":%d,\"accuracy\":%d,\"constellation\":\"%s\",\"spaceVehicleId\":%d,"
+                                + "\"carrierFreqHz\":\"1575420030\",\"clockOffset\":%.9f,\"usedInSolution\":%b,"
+                                + "\"undulationM\":-17.2,\"latitudeStdDevM\":%.2f,\"longitudeStdDevM\":%.2f,"
+                                + "\"altitudeStdDevM\":%.2f,\"agcDb\":%.2f,\"cn0DbHz\":%.1f}}",
+                        DEVICE_SERIAL, timestamp, latitude, longitude, 1840 + random.nextDouble() * 20,
+                        random.nextInt(100_000), random.nextInt(10_000), 3 + random.nextInt(20),
+                        CONSTELLATIONS[random.nextInt(CONSTELLATIONS.length)], 1 + random.nextInt(32),
+                        random.nextDouble() * 1e-3, random.nextBoolean(), random.nextDouble() * 5,
+                        random.nextDouble() * 5, random.nextDouble() * 8, random.nextDouble() * 3,
+                        20 + random.nextDouble() * 30);
+
+            case LTE_RECORD:
+            default:
+                return String.format(Locale.US, "{\"version\":\"1.14.0\",\"messageType\":\"LteRecord\","
+                                + "\"data\":{\"deviceSerialNumber\":\"%s\",\"deviceName\":\"Pixel 8\","
+                                + "\"deviceTime\":\"%d\",\"latitude\":%.7f,\"longitude\":%.7f,\"altitude\":%.1f,"
+                                + "\"missionId\":\"NS Pixel 8 20251009-083012\",\"recordNumber\":%d,"
+                                + "\"groupNumber\":%d,\"accuracy\":%d,\"mcc\":310,\"mnc\":410,\"tac\":%d,\"eci\":%d,"
+                                + "\"earfcn\":%d,\"pci\":%d,\"rsrp\":%.1f,\"rsrq\":%.1f,\"ta\":%d,"
+                                + "\"servingCell\":%b,\"lteBandwidth\":\"MHZ_20\",\"provider\":\"AT&T\","
+                                + "\"signalStrength\":%.1f,\"cqi\":%d,\"slot\":1}}",
+                        DEVICE_SERIAL, timestamp, latitude, longitude, 1840 + random.nextDouble() * 20,
+                        random.nextInt(100_000), random.nextInt(10_000), 3 + random.nextInt(20),
+                        14_000 + random.nextInt(200), 20_000_000 + random.nextInt(5_000_000),
+                        new int[]{850, 2175, 5110, 66_486}[random.nextInt(4)], random.nextInt(504),
+                        -120 + random.nextDouble() * 50, -20 + random.nextDouble() * 17, random.nextInt(64),
+                        random.nextInt(4) == 0, -110 + random.nextDouble() * 60, random.nextInt(16));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.craxiom.mqttlibrary.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * Tests the routing and connection state aggregation of the {@link ShardedMqttConnection} and
+ * {@link ShardStateAggregator} classes.
+ *
+ * @since 1.3.0
+ */
+public class ShardedMqttConnectionTest
+{
+    @Test
+    public void validateRoutingIsStableForEachKey()
+    {
+        for (int shardCount = 1; shardCount <= 8; shardCount++)
+        {
+            for (int i = 0; i < 100; i++)
+            {
+                final String key = "device-" + i;
+                final int shard = ShardedMqttConnection.shardIndex(key, shardCount);
+                assertTrue(shard >= 0 && shard < shardCount);
+                assertEquals(shard, ShardedMqttConnection.shardIndex(new String(key.toCharArray()), shardCount));
+            }
+        }
+    }
+
+    @Test
+    public void validateKeysAreSpreadAcrossTheShards()
+    {
+        final int shardCount = 4;
+        final int[] counts = new int[shardCount];
+        for (int i = 0; i < 4000; i++)
+        {
+            counts[ShardedMqttConnection.shardIndex("survey/lte_message/" + i, shardCount)]++;
+        }
+
+        for (int count : counts)
+        {
+            assertTrue("Uneven shard counts: " + Arrays.toString(counts), count > 800 && count < 1200);
+        }
+    }
+
+    @Test
+    public void validateShardClientIds()
+    {
+        assertEquals("pixel-8-0", ShardedMqttConnection.getShardClientId("pixel-8", 0));
+        assertEquals("pixel-8-3", ShardedMqttConnection.getShardClientId("pixel-8", 3));
+        assertEquals("An empty ID is left for the broker to assign", "",
+                ShardedMqttConnection.getShardClientId("", 1));
+        assertNull(ShardedMqttConnection.getShardClientId(null, 1));
+    }
+
+    @Test
+    public void validateConnectedOnlyWhenEveryShardIsConnected()
+    {
+        final ShardStateAggregator aggregator = new ShardStateAggregator(3);
+        assertEquals(ConnectionState.DISCONNECTED, aggregator.getState());
+
+        assertEquals(ConnectionState.CONNECTING, aggregator.update(0, ConnectionState.CONNECTING));
+        assertNull("No change while the other shards connect", aggregator.update(1, ConnectionState.CONNECTING));
+        assertNull(aggregator.update(0, ConnectionState.CONNECTED));
+        assertNull(aggregator.update(1, ConnectionState.CONNECTED));
+        assertEquals(ConnectionState.CONNECTED, aggregator.update(2, ConnectionState.CONNECTED));
+
+        // One shard reconnecting means the publisher is not fully connected
+        assertEquals(ConnectionState.CONNECTING, aggregator.update(1, ConnectionState.CONNECTING));
+        assertEquals(ConnectionState.CONNECTED, aggregator.update(1, ConnectionState.CONNECTED));
+    }
+
+    @Test
+    public void validateDisconnectedOnlyWhenEveryShardIsDisconnected()
+    {
+        final ShardStateAggregator aggregator = new ShardStateAggregator(2);
+        aggregator.update(0, ConnectionState.CONNECTED);
+        assertEquals(ConnectionState.CONNECTED, aggregator.update(1, ConnectionState.CONNECTED));
+
+        assertEquals(ConnectionState.CONNECTING, aggregator.update(0, ConnectionState.DISCONNECTING));
+        assertEquals(ConnectionState.DISCONNECTING, aggregator.update(1, ConnectionState.DISCONNECTED));
+        assertEquals(ConnectionState.DISCONNECTED, aggregator.update(0, ConnectionState.DISCONNECTED));
+        assertEquals(ConnectionState.DISCONNECTED, aggregator.getShardState(0));
+    }
+
+    @Test
+    public void validateSingleShardReportsItsOwnState()
+    {
+        final ShardStateAggregator aggregator = new ShardStateAggregator(1);
+        for (ConnectionState state : new ConnectionState[]{ConnectionState.CONNECTING, ConnectionState.CONNECTED,
+                ConnectionState.DISCONNECTING, ConnectionState.DISCONNECTED})
+        {
+            assertEquals(state, aggregator.update(0, state));
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.craxiom.mqttlibrary.connection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of claiming and releasing a slot in a shared {@link StreamingQueueController} as the number of
+ * producer threads grows from 1 to 32, which is the contention on the pending message count and pending bytes that
+ * every publish goes through when a streaming queue limit is set.
+ * <p>
+ * The limit is large enough that the queue never fills, so the results only show the cost of the shared counters.
+ *
+ * @since 1.3.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamingQueueContentionBenchmark
+{
+    private static final int PAYLOAD_LENGTH = 512;
+
+    private StreamingQueueController streamingQueue;
+
+    @Setup
+    public void setup()
+    {
+        streamingQueue = new StreamingQueueController(new NoOpCallbacks());
+        streamingQueue.setLimit(1_000_000);
+    }
+
+    private boolean admitAndComplete()
+    {
+        final boolean admitted = streamingQueue.tryAdmit(PAYLOAD_LENGTH);
+        if (admitted) streamingQueue.onPublishComplete(PAYLOAD_LENGTH);
+        return admitted;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean producers01()
+    {
+        return admitAndComplete();
+    }
+
+    @Benchmark
+    @Threads(2)
+    public boolean producers02()
+    {
+        return admitAndComplete();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean producers04()
+    {
+        return admitAndComplete();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean producers08()
+    {
+        return admitAndComplete();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public boolean producers16()
+    {
+        return admitAndComplete();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public boolean producers32()
+    {
+        return admitAndComplete();
+    }
+
+    private static final class NoOpCallbacks implements StreamingQueueController.IQueueCallbacks
+    {
+        @Override
+        public void publishFromBacklog(String mqttMessageTopic, PayloadBuffer payloadBuffer)
+        {
+        }
+
+        @Override
+        public void release(String mqttMessageTopic, PayloadBuffer payloadBuffer)
+        {
+        }
+
+        @Override
+        public void onQueueFull(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+        {
+        }
+
+        @Override
+        public void onQueueDrained(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+        {
+        }
+
+        @Override
+        public void onQueueGrowthWarning(int queueSize, int queueLimit, long queueBytes, long queueByteLimit,
+                                         long msUntilFull)
+        {
+        }
+
+        @Override
+        public void onQueueGrowthWarningCleared(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+        {
+        }
+    }
+}
@@ -0,0 +1,585 @@
+package com.craxiom.mqttlibrary.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.craxiom.mqttlibrary.QueueOverflowPolicies;
+import com.craxiom.mqttlibrary.QueueOverflowStats;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the {@link StreamingQueueController} class and the built-in overflow policies.
+ *
+ * @since 1.3.0
+ */
+public class StreamingQueueControllerTest
+{
+    private final PayloadBufferPool payloadBufferPool = new PayloadBufferPool();
+    private final RecordingCallbacks callbacks = new RecordingCallbacks();
+    private final StreamingQueueController controller = new StreamingQueueController(callbacks);
+
+    @Test
+    public void validateDropNewestIsTheDefault()
+    {
+        controller.setLimit(2);
+
+        assertTrue(admit("1"));
+        assertTrue(admit("2"));
+        assertFalse(admit("3"));
+        assertEquals(2, controller.getPendingMessageCount());
+        assertTrue(controller.isBackpressureActive());
+        assertEquals(1, callbacks.queueFullCount.get());
+        assertEquals(1, callbacks.releasedCount.get());
+
+        final QueueOverflowStats stats = controller.getOverflowStats();
+        assertEquals(QueueOverflowPolicies.DROP_NEWEST, stats.getPolicy());
+        assertEquals(1, stats.getDroppedCount());
+
+        controller.onPublishComplete(1);
+        assertTrue("Backpressure is released at half the limit", controller.isBackpressureActive());
+        controller.onPublishComplete(1);
+        assertFalse(controller.isBackpressureActive());
+        assertEquals(1, callbacks.queueDrainedCount.get());
+    }
+
+    @Test
+    public void validateByteLimitAppliesBackpressure()
+    {
+        controller.setByteLimit(100);
+
+        assertTrue(admitBytes(60));
+        assertFalse("The second message would take the queue over the byte limit", admitBytes(60));
+        assertTrue("A smaller message still fits", admitBytes(40));
+        assertEquals(2, controller.getPendingMessageCount());
+        assertEquals(100, controller.getPendingBytes());
+        assertTrue(controller.isBackpressureActive());
+        assertEquals(60, callbacks.lastQueueFullBytes);
+
+        controller.onPublishComplete(40);
+        assertTrue("Backpressure is released below half the byte limit", controller.isBackpressureActive());
+        controller.onPublishComplete(60);
+        assertFalse(controller.isBackpressureActive());
+        assertEquals(0, controller.getPendingBytes());
+    }
+
+    @Test
+    public void validateWhicheverLimitIsHitFirstAppliesBackpressure()
+    {
+        controller.setLimit(3);
+        controller.setByteLimit(1_000);
+
+        assertTrue(admitBytes(10));
+        assertTrue(admitBytes(10));
+        assertTrue(admitBytes(10));
+        assertFalse("The message count limit is hit before the byte limit", admitBytes(10));
+
+        controller.onPublishComplete(10);
+        controller.onPublishComplete(10);
+        controller.onPublishComplete(10);
+        assertFalse(controller.isBackpressureActive());
+
+        assertTrue(admitBytes(900));
+        assertFalse("The byte limit is hit before the message count limit", admitBytes(200));
+        assertTrue(controller.isBackpressureActive());
+    }
+
+    @Test
+    public void validateOversizedMessageIsAdmittedWhenQueueIsEmpty()
+    {
+        controller.setByteLimit(100);
+
+        assertTrue(admitBytes(500));
+        assertFalse(admitBytes(1));
+
+        controller.onPublishComplete(500);
+        assertEquals(0, controller.getPendingBytes());
+    }
+
+    @Test
+    public void validateReleasedSlotsDrainTheQueue()
+    {
+        controller.setLimit(4);
+        controller.setOverflowPolicy(QueueOverflowPolicies.dropOldest(5));
+
+        for (int i = 0; i < 4; i++)
+        {
+            assertTrue(admitBytes(10));
+        }
+        assertFalse(admitBytes(10));
+        assertTrue(controller.isBackpressureActive());
+
+        // Releasing the messages left on a lost client makes room for the backlog and releases backpressure
+        controller.releaseSlots(3, 30);
+        assertEquals(1, callbacks.backlogPublishes.size());
+        assertEquals(2, controller.getPendingMessageCount());
+        assertEquals(20, controller.getPendingBytes());
+
+        controller.onPublishComplete(10);
+        assertFalse(controller.isBackpressureActive());
+        assertEquals(1, callbacks.queueDrainedCount.get());
+    }
+
+    @Test
+    public void validateBacklogMessagesCountTheirBytes()
+    {
+        controller.setByteLimit(100);
+        controller.setOverflowPolicy(QueueOverflowPolicies.dropOldest(5));
+
+        assertTrue(admitBytes(80));
+        assertFalse(admitBytes(30));
+        assertEquals(80, controller.getPendingBytes());
+
+        controller.onPublishComplete(80);
+        assertEquals(1, callbacks.backlogPublishes.size());
+        assertEquals(30, controller.getPendingBytes());
+    }
+
+    @Test
+    public void validateHighWatermarkSignalsBackpressureBeforeTheLimit()
+    {
+        controller.setLimit(10);
+        controller.setWatermarks(0.8, 0.2);
+
+        for (int i = 0; i < 8; i++)
+        {
+            assertTrue(admit(Integer.toString(i)));
+        }
+        assertFalse(controller.isBackpressureActive());
+
+        assertTrue("Messages are still admitted above the high watermark", admit("8"));
+        assertTrue(controller.isBackpressureActive());
+        assertEquals(1, callbacks.queueFullCount.get());
+
+        // Released below 20% of the limit
+        for (int i = 0; i < 7; i++)
+        {
+            controller.onPublishComplete(1);
+        }
+        assertTrue(controller.isBackpressureActive());
+        controller.onPublishComplete(1);
+        assertFalse(controller.isBackpressureActive());
+        assertEquals(1, controller.getPendingMessageCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void validateLowWatermarkMustBeBelowHighWatermark()
+    {
+        controller.setWatermarks(0.5, 0.5);
+    }
+
+    @Test
+    public void validateDropOldestKeepsNewestMessagesInBacklog()
+    {
+        controller.setLimit(1);
+        controller.setOverflowPolicy(QueueOverflowPolicies.dropOldest(2));
+
+        assertTrue(admit("a"));
+        assertFalse(admit("b"));
+        assertFalse(admit("c"));
+        assertFalse(admit("d"));
+
+        QueueOverflowStats stats = controller.getOverflowStats();
+        assertEquals(3, stats.getBackloggedCount());
+        assertEquals(1, stats.getEvictedCount());
+        assertEquals(2, stats.getBacklogSize());
+        assertEquals(0, stats.getDroppedCount());
+
+        controller.onPublishComplete(1);
+        assertEquals("c", callbacks.lastBacklogPublish());
+        assertTrue("Backpressure stays active while the backlog is not empty", controller.isBackpressureActive());
+
+        controller.onPublishComplete(1);
+        assertEquals("d", callbacks.lastBacklogPublish());
+
+        controller.onPublishComplete(1);
+        assertEquals(0, controller.getPendingMessageCount());
+        assertEquals(0, controller.getOverflowStats().getBacklogSize());
+        assertEquals(2, callbacks.backlogPublishes.size());
+    }
+
+    @Test
+    public void validateNewMessagesDoNotJumpAheadOfBacklog()
+    {
+        controller.setLimit(2);
+        controller.setOverflowPolicy(QueueOverflowPolicies.dropOldest(10));
+
+        assertTrue(admit("1"));
+        assertTrue(admit("2"));
+        assertFalse(admit("3"));
+
+        // Room frees up, the backlog is published first
+        controller.onPublishComplete(1);
+        assertEquals("3", callbacks.lastBacklogPublish());
+        assertFalse("The queue is full again", admit("4"));
+        assertEquals(1, controller.getOverflowStats().getBacklogSize());
+    }
+
+    @Test
+    public void validateSampleEveryNKeepsEveryNthMessage()
+    {
+        controller.setLimit(1);
+        controller.setOverflowPolicy(QueueOverflowPolicies.sampleEveryN(3, 10));
+
+        assertTrue(admit("0"));
+        for (int i = 1; i <= 6; i++)
+        {
+            assertFalse(admit(Integer.toString(i)));
+        }
+
+        final QueueOverflowStats stats = controller.getOverflowStats();
+        assertEquals(2, stats.getBackloggedCount());
+        assertEquals(4, stats.getDroppedCount());
+
+        controller.onPublishComplete(1);
+        assertEquals("3", callbacks.lastBacklogPublish());
+        controller.onPublishComplete(1);
+        assertEquals("6", callbacks.lastBacklogPublish());
+    }
+
+    @Test
+    public void validateBlockWithTimeoutWaitsForRoom() throws Exception
+    {
+        controller.setLimit(1);
+        controller.setOverflowPolicy(QueueOverflowPolicies.blockWithTimeout(5, TimeUnit.SECONDS));
+        assertTrue(admit("1"));
+
+        final CompletableFuture<Boolean> blocked = CompletableFuture.supplyAsync(() -> admit("2"));
+        Thread.sleep(100);
+        assertFalse("The publishing thread must be blocked while the queue is full", blocked.isDone());
+
+        controller.onPublishComplete(1);
+        assertTrue(blocked.get(5, TimeUnit.SECONDS));
+        assertEquals(1, controller.getPendingMessageCount());
+
+        final QueueOverflowStats stats = controller.getOverflowStats();
+        assertEquals(1, stats.getWaitCount());
+        assertEquals(0, stats.getWaitTimeoutCount());
+        assertEquals(0, stats.getDroppedCount());
+    }
+
+    @Test
+    public void validateBlockWithTimeoutDropsAfterTimeout()
+    {
+        controller.setLimit(1);
+        controller.setOverflowPolicy(QueueOverflowPolicies.blockWithTimeout(50, TimeUnit.MILLISECONDS));
+        assertTrue(admit("1"));
+
+        final long start = System.nanoTime();
+        assertFalse(admit("2"));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 50);
+
+        final QueueOverflowStats stats = controller.getOverflowStats();
+        assertEquals(1, stats.getWaitTimeoutCount());
+        assertEquals(1, stats.getDroppedCount());
+        assertEquals(1, callbacks.releasedCount.get());
+    }
+
+    @Test
+    public void validateChangingPolicyResetsCountersAndKeepsBacklog()
+    {
+        controller.setLimit(1);
+        controller.setOverflowPolicy(QueueOverflowPolicies.dropOldest(5));
+        assertTrue(admit("1"));
+        assertFalse(admit("2"));
+        assertFalse(admit("3"));
+
+        controller.setOverflowPolicy(QueueOverflowPolicies.sampleEveryN(2, 5));
+        QueueOverflowStats stats = controller.getOverflowStats();
+        assertEquals(0, stats.getBackloggedCount());
+        assertEquals(2, stats.getBacklogSize());
+
+        controller.setOverflowPolicy(QueueOverflowPolicies.DROP_NEWEST);
+        stats = controller.getOverflowStats();
+        assertEquals("Messages can't be kept without a backlog", 2, stats.getDroppedCount());
+        assertEquals(2, callbacks.releasedCount.get());
+    }
+
+    @Test
+    public void validateDisablingTheLimitPublishesTheBacklog()
+    {
+        controller.setLimit(1);
+        controller.setOverflowPolicy(QueueOverflowPolicies.dropOldest(5));
+        assertTrue(admit("1"));
+        assertFalse(admit("2"));
+        assertFalse(admit("3"));
+
+        controller.setLimit(0);
+        assertEquals(2, callbacks.backlogPublishes.size());
+        assertEquals(3, controller.getPendingMessageCount());
+    }
+
+    @Test
+    public void validatePendingCountNeverExceedsLimitUnderContention() throws Exception
+    {
+        final int limit = 16;
+        controller.setLimit(limit);
+        controller.setOverflowPolicy(QueueOverflowPolicies.dropOldest(32));
+
+        final ScheduledExecutorService completer = Executors.newScheduledThreadPool(2);
+        final AtomicInteger maxPending = new AtomicInteger();
+        callbacks.onBacklogPublish = () -> completer.schedule(() -> controller.onPublishComplete(1), 100, TimeUnit.MICROSECONDS);
+
+        final List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < 8; t++)
+        {
+            producers.add(new Thread(() -> {
+                for (int i = 0; i < 5_000; i++)
+                {
+                    if (admit("m"))
+                    {
+                        maxPending.accumulateAndGet(controller.getPendingMessageCount(), Math::max);
+                        completer.schedule(() -> controller.onPublishComplete(1), 100, TimeUnit.MICROSECONDS);
+                    }
+                }
+            }));
+        }
+        producers.forEach(Thread::start);
+        for (Thread producer : producers)
+        {
+            producer.join();
+        }
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ((controller.getPendingMessageCount() != 0 || controller.getOverflowStats().getBacklogSize() != 0)
+                && System.nanoTime() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        completer.shutdown();
+
+        assertTrue("Pending count exceeded the limit: " + maxPending.get(), maxPending.get() <= limit);
+        assertEquals(0, controller.getPendingMessageCount());
+        assertEquals(0, controller.getOverflowStats().getBacklogSize());
+        assertFalse(controller.isBackpressureActive());
+        assertEquals(callbacks.queueFullCount.get(), callbacks.queueDrainedCount.get());
+    }
+
+    @Test
+    public void validateInFlightWindowTightensTheLimit()
+    {
+        controller.setLimit(10);
+        controller.setInFlightWindow(3);
+        assertEquals(10, controller.getLimit());
+        assertEquals(3, controller.getEffectiveLimit());
+
+        assertTrue(admit("1"));
+        assertTrue(admit("2"));
+        assertTrue(admit("3"));
+        assertFalse("The broker's window is full", admit("4"));
+        assertTrue(controller.isBackpressureActive());
+        assertEquals(3, callbacks.lastQueueFullLimit);
+
+        // A larger window than the limit leaves the limit in place
+        controller.setInFlightWindow(20);
+        assertEquals(10, controller.getEffectiveLimit());
+        assertTrue(admit("5"));
+        assertEquals(4, controller.getPendingMessageCount());
+
+        controller.setInFlightWindow(0);
+        assertEquals(10, controller.getEffectiveLimit());
+    }
+
+    @Test
+    public void validateInFlightWindowAloneDoesNotEnableTheQueue()
+    {
+        controller.setInFlightWindow(2);
+        assertFalse(controller.isEnabled());
+        assertEquals(0, controller.getEffectiveLimit());
+
+        // Once a byte limit is set, the window becomes the message count limit
+        controller.setByteLimit(1000);
+        assertEquals(2, controller.getEffectiveLimit());
+        assertTrue(admit("1"));
+        assertTrue(admit("2"));
+        assertFalse(admit("3"));
+
+        controller.setByteLimit(0);
+        assertFalse(controller.isEnabled());
+    }
+
+    @Test
+    public void validateAdaptiveWindowReplacesTheLimit()
+    {
+        controller.setLimit(10);
+        controller.setAdaptiveWindow(2);
+        assertTrue(controller.isEnabled());
+        assertEquals(10, controller.getLimit());
+        assertEquals(2, controller.getEffectiveLimit());
+
+        assertTrue(admit("1"));
+        assertTrue(admit("2"));
+        assertFalse("The adaptive window is full", admit("3"));
+        assertEquals(2, callbacks.lastQueueFullLimit);
+
+        // Growing the window releases the backpressure once the queue is below its low watermark
+        controller.setAdaptiveWindow(6);
+        assertFalse(controller.isBackpressureActive());
+        assertEquals(1, callbacks.queueDrainedCount.get());
+
+        // The broker's window still applies when it is smaller
+        controller.setInFlightWindow(4);
+        assertEquals(4, controller.getEffectiveLimit());
+
+        controller.setAdaptiveWindow(0);
+        assertEquals(4, controller.getEffectiveLimit());
+        controller.setInFlightWindow(0);
+        assertEquals(10, controller.getEffectiveLimit());
+    }
+
+    @Test
+    public void validateReservedSlotsCountAgainstTheLimit()
+    {
+        controller.setLimit(10);
+        controller.setByteLimit(100);
+
+        assertTrue(controller.tryReserve(6));
+        assertEquals(6, controller.getPendingMessageCount());
+        assertEquals("Reserved slots don't count any bytes", 0, controller.getPendingBytes());
+
+        assertFalse("Slots are reserved for all the messages or none", controller.tryReserve(5));
+        assertEquals(6, controller.getPendingMessageCount());
+        assertFalse("There was still room, so backpressure is not signaled", controller.isBackpressureActive());
+
+        assertTrue(controller.tryReserve(4));
+        assertFalse(admit("1"));
+        assertTrue(controller.isBackpressureActive());
+
+        // A reserved message is admitted even if it goes over the byte limit
+        controller.attachReserved(150);
+        assertEquals(150, controller.getPendingBytes());
+        controller.onPublishComplete(150);
+        assertEquals(9, controller.getPendingMessageCount());
+        assertEquals(0, controller.getPendingBytes());
+
+        // Returning the unused slots drains the queue
+        controller.releaseSlots(9, 0);
+        assertEquals(0, controller.getPendingMessageCount());
+        assertFalse(controller.isBackpressureActive());
+    }
+
+    @Test
+    public void validateReserveDoesNotJumpAheadOfBacklog()
+    {
+        controller.setLimit(1);
+        controller.setOverflowPolicy(QueueOverflowPolicies.dropOldest(4));
+        assertTrue(admit("1"));
+        assertFalse(admit("2"));
+
+        assertFalse(controller.tryReserve(1));
+
+        controller.onPublishComplete(1);
+        assertEquals("2", callbacks.lastBacklogPublish());
+        controller.onPublishComplete(1);
+        assertTrue(controller.tryReserve(1));
+    }
+
+    @Test
+    public void validateAwaitReserveWaitsForRoom() throws Exception
+    {
+        controller.setLimit(2);
+        assertTrue(admit("1"));
+        assertTrue(admit("2"));
+
+        final CompletableFuture<Boolean> waiting = CompletableFuture.supplyAsync(() -> {
+            try
+            {
+                return controller.awaitReserve(1, TimeUnit.SECONDS.toNanos(5));
+            } catch (InterruptedException e)
+            {
+                return false;
+            }
+        });
+        Thread.sleep(100);
+        assertFalse("The thread must wait while the queue is full", waiting.isDone());
+
+        controller.onPublishComplete(1);
+        assertTrue(waiting.get(5, TimeUnit.SECONDS));
+        assertEquals(2, controller.getPendingMessageCount());
+
+        assertFalse(controller.awaitReserve(1, TimeUnit.MILLISECONDS.toNanos(50)));
+    }
+
+    private boolean admitBytes(int payloadLength)
+    {
+        return controller.admit("lte_message", payloadBufferPool.acquire().append(new String(new char[payloadLength])));
+    }
+
+    private boolean admit(String payload)
+    {
+        return controller.admit("lte_message", payloadBufferPool.acquire().append(payload));
+    }
+
+    private final class RecordingCallbacks implements StreamingQueueController.IQueueCallbacks
+    {
+        final List<String> backlogPublishes = new CopyOnWriteArrayList<>();
+        final AtomicInteger releasedCount = new AtomicInteger();
+        final AtomicInteger queueFullCount = new AtomicInteger();
+        final AtomicInteger queueDrainedCount = new AtomicInteger();
+        volatile Runnable onBacklogPublish;
+        volatile long lastQueueFullBytes;
+        volatile int lastQueueFullLimit;
+
+        String lastBacklogPublish()
+        {
+            return backlogPublishes.get(backlogPublishes.size() - 1);
+        }
+
+        @Override
+        public void publishFromBacklog(String mqttMessageTopic, PayloadBuffer payloadBuffer)
+        {
+            final ByteBuffer payload = payloadBuffer.toPayload();
+            final byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            backlogPublishes.add(new String(bytes, StandardCharsets.UTF_8));
+            payloadBufferPool.release(payloadBuffer);
+
+            final Runnable runnable = onBacklogPublish;
+            if (runnable != null) runnable.run();
+        }
+
+        @Override
+        public void release(String mqttMessageTopic, PayloadBuffer payloadBuffer)
+        {
+            releasedCount.incrementAndGet();
+            payloadBufferPool.release(payloadBuffer);
+        }
+
+        @Override
+        public void onQueueFull(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+        {
+            lastQueueFullBytes = queueBytes;
+            lastQueueFullLimit = queueLimit;
+            queueFullCount.incrementAndGet();
+        }
+
+        @Override
+        public void onQueueDrained(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+        {
+            queueDrainedCount.incrementAndGet();
+        }
+
+        @Override
+        public void onQueueGrowthWarning(int queueSize, int queueLimit, long queueBytes, long queueByteLimit,
+                                         long msUntilFull)
+        {
+        }
+
+        @Override
+        public void onQueueGrowthWarningCleared(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+        {
+        }
+    }
+}
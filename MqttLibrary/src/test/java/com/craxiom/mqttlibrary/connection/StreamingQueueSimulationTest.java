@@ -0,0 +1,194 @@
+package com.craxiom.mqttlibrary.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A deterministic simulation of producers publishing through the {@link StreamingQueueController} to a fake MQTT
+ * client that completes a fixed number of publishes per tick. Everything runs on the test thread against a simulated
+ * clock, so each run produces exactly the same result.
+ * <p>
+ * The producers publish slightly faster than the client can send, which is the steady load that causes the saw-tooth
+ * pause and resume pattern.
+ *
+ * @since 1.3.0
+ */
+public class StreamingQueueSimulationTest
+{
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int TICKS = 6_000; // 60 simulated seconds
+    private static final int QUEUE_LIMIT = 100;
+    private static final double PRODUCER_RATE = 12; // messages per tick
+    private static final int CLIENT_RATE = 10; // completions per tick
+
+    @Test
+    public void validateDefaultWatermarksSawTooth()
+    {
+        final SimulationResult result = new Simulation(1.0, 0.5, 0, false).run();
+
+        // Fill from 50 to 100 at +2 per tick and drain from 100 to 49 at -10 per tick, roughly 30 ticks per cycle
+        assertTrue("Expected the saw-tooth pattern, pauses=" + result.pauseCount, result.pauseCount > 150);
+    }
+
+    @Test
+    public void validateWiderWatermarksReducePauseCycles()
+    {
+        final SimulationResult defaults = new Simulation(1.0, 0.5, 0, false).run();
+        final SimulationResult wider = new Simulation(1.0, 0.1, 0, false).run();
+
+        assertTrue("defaults=" + defaults + ", wider=" + wider, wider.pauseCount < defaults.pauseCount * 0.7);
+
+        // The client is kept busy either way, so the throughput is essentially the same
+        assertTrue("defaults=" + defaults + ", wider=" + wider, wider.publishedCount >= defaults.publishedCount * 0.95);
+    }
+
+    @Test
+    public void validateGrowthWarningAvoidsPauses()
+    {
+        final SimulationResult defaults = new Simulation(1.0, 0.5, 0, false).run();
+        final SimulationResult smooth = new Simulation(1.0, 0.5, 1_000, true).run();
+
+        assertTrue("defaults=" + defaults + ", smooth=" + smooth, smooth.pauseCount < defaults.pauseCount / 10);
+        assertTrue("Expected growth warnings, smooth=" + smooth, smooth.warningCount > 0);
+        assertTrue("defaults=" + defaults + ", smooth=" + smooth, smooth.publishedCount >= defaults.publishedCount * 0.9);
+        assertEquals("No messages should be dropped when the producer slows down", 0, smooth.droppedCount);
+    }
+
+    @Test
+    public void validateSimulationIsDeterministic()
+    {
+        final SimulationResult first = new Simulation(1.0, 0.5, 1_000, true).run();
+        final SimulationResult second = new Simulation(1.0, 0.5, 1_000, true).run();
+
+        assertEquals(first.toString(), second.toString());
+    }
+
+    private static final class SimulationResult
+    {
+        private int pauseCount;
+        private int warningCount;
+        private long publishedCount;
+        private long droppedCount;
+
+        @Override
+        public String toString()
+        {
+            return "SimulationResult{pauseCount=" + pauseCount + ", warningCount=" + warningCount
+                    + ", publishedCount=" + publishedCount + ", droppedCount=" + droppedCount + '}';
+        }
+    }
+
+    /**
+     * A producer that pauses on backpressure, publishing through the controller to a fake client. The adaptive producer
+     * also cuts its rate on each growth warning, and otherwise gradually speeds back up to its full rate while no
+     * warning is active.
+     */
+    private static final class Simulation implements StreamingQueueController.IQueueCallbacks
+    {
+        private final PayloadBufferPool payloadBufferPool = new PayloadBufferPool();
+        private final ArrayDeque<Integer> inFlight = new ArrayDeque<>();
+        private final StreamingQueueController controller;
+        private final boolean adaptiveProducer;
+        private final SimulationResult result = new SimulationResult();
+
+        private long nowNanos = 0;
+        private boolean paused = false;
+        private boolean warningActive = false;
+        private double producerRate = PRODUCER_RATE;
+        private double producerCredit = 0;
+
+        private Simulation(double highWatermark, double lowWatermark, long growthWarningHorizonMs,
+                           boolean adaptiveProducer)
+        {
+            this.adaptiveProducer = adaptiveProducer;
+            controller = new StreamingQueueController(this, () -> nowNanos);
+            controller.setLimit(QUEUE_LIMIT);
+            controller.setWatermarks(highWatermark, lowWatermark);
+            controller.setGrowthWarningHorizon(growthWarningHorizonMs);
+        }
+
+        private SimulationResult run()
+        {
+            for (int tick = 0; tick < TICKS; tick++)
+            {
+                nowNanos += TICK_NANOS;
+
+                if (adaptiveProducer && !warningActive)
+                {
+                    producerRate = Math.min(PRODUCER_RATE, producerRate + 0.01);
+                }
+
+                if (!paused)
+                {
+                    producerCredit += producerRate;
+                    while (producerCredit >= 1 && !paused)
+                    {
+                        producerCredit--;
+                        final PayloadBuffer payloadBuffer = payloadBufferPool.acquire().append("{\"rsrp\":-95}");
+                        final int payloadLength = payloadBuffer.length();
+                        if (controller.admit("lte_message", payloadBuffer))
+                        {
+                            inFlight.add(payloadLength);
+                            payloadBufferPool.release(payloadBuffer);
+                        }
+                    }
+                }
+
+                for (int i = 0; i < CLIENT_RATE && !inFlight.isEmpty(); i++)
+                {
+                    result.publishedCount++;
+                    controller.onPublishComplete(inFlight.poll());
+                }
+            }
+
+            result.droppedCount = controller.getOverflowStats().getDroppedCount();
+            return result;
+        }
+
+        @Override
+        public void publishFromBacklog(String mqttMessageTopic, PayloadBuffer payloadBuffer)
+        {
+            inFlight.add(payloadBuffer.length());
+            payloadBufferPool.release(payloadBuffer);
+        }
+
+        @Override
+        public void release(String mqttMessageTopic, PayloadBuffer payloadBuffer)
+        {
+            payloadBufferPool.release(payloadBuffer);
+        }
+
+        @Override
+        public void onQueueFull(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+        {
+            paused = true;
+            result.pauseCount++;
+        }
+
+        @Override
+        public void onQueueDrained(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+        {
+            paused = false;
+        }
+
+        @Override
+        public void onQueueGrowthWarning(int queueSize, int queueLimit, long queueBytes, long queueByteLimit,
+                                         long msUntilFull)
+        {
+            result.warningCount++;
+            warningActive = true;
+            if (adaptiveProducer) producerRate *= 0.8;
+        }
+
+        @Override
+        public void onQueueGrowthWarningCleared(int queueSize, int queueLimit, long queueBytes, long queueByteLimit)
+        {
+            warningActive = false;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.craxiom.mqttlibrary.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the {@link StripedPermitPool} class.
+ *
+ * @since 1.3.0
+ */
+public class StripedPermitPoolTest
+{
+    @Test
+    public void validateCapacityIsNotExceeded()
+    {
+        final StripedPermitPool pool = new StripedPermitPool(1_000, 4);
+        assertEquals(4, pool.getStripeCount());
+        assertTrue(pool.getChunkSize() > 1);
+
+        for (int i = 0; i < 1_000; i++)
+        {
+            assertTrue("Permit " + i + " was refused", pool.tryAcquire());
+        }
+        assertFalse(pool.tryAcquire());
+        assertEquals(1_000, pool.getInUseCount());
+
+        pool.release(1);
+        assertEquals(999, pool.getInUseCount());
+        assertTrue(pool.tryAcquire());
+        assertFalse(pool.tryAcquire());
+
+        pool.release(1_000);
+        assertEquals(0, pool.getInUseCount());
+        assertTrue("The stripes should hold at most a quarter of the capacity",
+                pool.getInUseUpperBound() - pool.getInUseCount() <= 250);
+    }
+
+    @Test
+    public void validateSmallCapacityDoesNotUseTheStripes()
+    {
+        final StripedPermitPool pool = new StripedPermitPool(16, 8);
+        assertEquals(0, pool.getChunkSize());
+
+        assertTrue(pool.tryAcquire());
+        assertTrue(pool.tryAcquire());
+        pool.release(1);
+        assertEquals(1, pool.getInUseCount());
+        assertEquals(1, pool.getInUseUpperBound());
+    }
+
+    @Test
+    public void validateLoweringTheCapacityBlocksUntilReleased()
+    {
+        final StripedPermitPool pool = new StripedPermitPool(1_000, 4);
+        for (int i = 0; i < 800; i++)
+        {
+            assertTrue(pool.tryAcquire());
+        }
+
+        pool.setCapacity(500);
+        assertEquals(800, pool.getInUseCount());
+        assertFalse(pool.tryAcquire());
+
+        pool.release(400);
+        assertEquals(400, pool.getInUseCount());
+        for (int i = 0; i < 100; i++)
+        {
+            assertTrue(pool.tryAcquire());
+        }
+        assertFalse(pool.tryAcquire());
+        assertEquals(500, pool.getInUseCount());
+
+        pool.setCapacity(StripedPermitPool.UNBOUNDED);
+        assertTrue(pool.tryAcquire());
+        assertEquals(501, pool.getInUseCount());
+    }
+
+    @Test
+    public void validateUncheckedAcquireGoesOverCapacity()
+    {
+        final StripedPermitPool pool = new StripedPermitPool(2, 1);
+        assertTrue(pool.tryAcquire());
+        assertTrue(pool.tryAcquire());
+
+        pool.acquireUnchecked();
+        assertEquals(3, pool.getInUseCount());
+        assertFalse(pool.tryAcquire());
+
+        pool.release(2);
+        assertEquals(1, pool.getInUseCount());
+        assertTrue(pool.tryAcquire());
+        assertFalse(pool.tryAcquire());
+    }
+
+    @Test
+    public void validateCapacityIsNotExceededUnderContention() throws InterruptedException
+    {
+        final int capacity = 512;
+        final StripedPermitPool pool = new StripedPermitPool(capacity, 8);
+        final AtomicInteger held = new AtomicInteger();
+        final AtomicInteger maxHeld = new AtomicInteger();
+
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++)
+        {
+            threads.add(new Thread(() -> {
+                int acquired = 0;
+                for (int i = 0; i < 200_000; i++)
+                {
+                    // Hold on to up to 100 permits so that the pool keeps running out
+                    if (acquired < 100 && pool.tryAcquire())
+                    {
+                        acquired++;
+                        maxHeld.accumulateAndGet(held.incrementAndGet(), Math::max);
+                    } else if (acquired > 0)
+                    {
+                        held.decrementAndGet();
+                        acquired--;
+                        pool.release(1);
+                    }
+                }
+                held.addAndGet(-acquired);
+                pool.release(acquired);
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        assertTrue("More permits were held than the capacity: " + maxHeld.get(), maxHeld.get() <= capacity);
+        assertEquals(0, pool.getInUseCount());
+    }
+}